@@ -0,0 +1,36 @@
+package com.fathzer.sync4j.pcloud;
+
+import jakarta.annotation.Nonnull;
+
+/**
+ * A listener notified of the pCloud API calls made by a provider.
+ * <br>
+ * It is called for every attempt of a call: with a {@link RetryPolicy}, a retried call is notified as a failed call followed
+ * by another call.
+ * <br>
+ * Methods of this interface are called from the threads that make the calls, implementations should be thread safe and fast.
+ * @see PCloudProvider.Builder#listener(ApiListener)
+ * @see ApiMetrics
+ */
+public interface ApiListener {
+    /**
+     * Called when a call starts.
+     * @param endpoint the called endpoint
+     */
+    default void started(@Nonnull Endpoint endpoint) {
+        // Does nothing by default
+    }
+
+    /**
+     * Called when a call ends.
+     * <br>A download stream ends when it is closed, its duration includes the time spent reading it.
+     * @param endpoint the called endpoint
+     * @param durationNanos the duration of the call in nanoseconds
+     * @param bytes the number of bytes of file content that were uploaded or downloaded
+     * @param errorCode 0 if the call succeeded, the pCloud error code (see https://docs.pcloud.com/errors/index.html)
+     * or the unexpected HTTP status if pCloud returned an error, -1 if the call failed because of another I/O error.
+     */
+    default void ended(@Nonnull Endpoint endpoint, long durationNanos, long bytes, int errorCode) {
+        // Does nothing by default
+    }
+}
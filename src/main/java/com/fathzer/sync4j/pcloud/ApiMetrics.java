@@ -0,0 +1,149 @@
+package com.fathzer.sync4j.pcloud;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import jakarta.annotation.Nonnull;
+
+/**
+ * An {@link ApiListener} that collects per endpoint metrics.
+ * <br>
+ * Counters are updated without locks, {@link #snapshot()} can be called at any time, for instance by a monitoring system.
+ * <br>
+ * Latencies are counted in a histogram with exponential buckets: bucket <i>i</i> counts the calls that lasted less than
+ * 2<sup>i</sup> microseconds (and at least 2<sup>i-1</sup> microseconds), the last bucket counts all the longer calls.
+ * <br>
+ * The time requests wait in the HTTP dispatcher's queue is reported by {@link Transport#getStats()}.
+ */
+public class ApiMetrics implements ApiListener {
+    /** The number of buckets of the latency histograms. */
+    public static final int BUCKETS = 32;
+
+    /**
+     * The metrics of an endpoint.
+     * @param calls the number of ended calls
+     * @param inFlight the number of calls in progress
+     * @param bytes the number of bytes of file content uploaded or downloaded
+     * @param totalDuration the sum of the durations of the ended calls
+     * @param errors the number of failed calls keyed by error code (see {@link ApiListener#ended(Endpoint, long, long, int)})
+     * @param histogram the latency histogram, a list of {@link ApiMetrics#BUCKETS} counts
+     */
+    public record EndpointStats(long calls, long inFlight, long bytes, @Nonnull Duration totalDuration,
+            @Nonnull Map<Integer, Long> errors, @Nonnull List<Long> histogram) {
+        /**
+         * Gets the number of failed calls.
+         * @return a positive or null long
+         */
+        public long failures() {
+            return errors.values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        /**
+         * Gets the average duration of the ended calls.
+         * @return a duration
+         */
+        @Nonnull
+        public Duration average() {
+            return calls == 0 ? Duration.ZERO : totalDuration.dividedBy(calls);
+        }
+
+        /**
+         * Gets an upper bound of a latency percentile.
+         * @param percentile the percentile, between 0 and 1 (for instance 0.99)
+         * @return the upper bound of the histogram bucket that contains the percentile, zero if no call ended
+         * @throws IllegalArgumentException if percentile is not between 0 and 1
+         */
+        @Nonnull
+        public Duration percentile(double percentile) {
+            if (percentile < 0 || percentile > 1) {
+                throw new IllegalArgumentException("Percentile should be between 0 and 1");
+            }
+            final long total = histogram.stream().mapToLong(Long::longValue).sum();
+            final long rank = Math.max(1, (long) Math.ceil(percentile * total));
+            long count = 0;
+            for (int i = 0; i < histogram.size() && total > 0; i++) {
+                count += histogram.get(i);
+                if (count >= rank) {
+                    return Duration.ofNanos((1L << i) * 1000);
+                }
+            }
+            return Duration.ZERO;
+        }
+    }
+
+    private static class Counters {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder inFlight = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final Map<Integer, LongAdder> errors = new ConcurrentHashMap<>();
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        private EndpointStats snapshot() {
+            final Map<Integer, Long> errorCounts = new TreeMap<>();
+            errors.forEach((code, count) -> errorCounts.put(code, count.sum()));
+            final Long[] buckets = new Long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = histogram.get(i);
+            }
+            return new EndpointStats(calls.sum(), inFlight.sum(), bytes.sum(), Duration.ofNanos(totalNanos.sum()),
+                    Collections.unmodifiableMap(errorCounts), List.of(buckets));
+        }
+    }
+
+    private final Counters[] counters;
+
+    /**
+     * Constructor.
+     */
+    public ApiMetrics() {
+        this.counters = new Counters[Endpoint.values().length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new Counters();
+        }
+    }
+
+    @Override
+    public void started(Endpoint endpoint) {
+        counters[endpoint.ordinal()].inFlight.increment();
+    }
+
+    @Override
+    public void ended(Endpoint endpoint, long durationNanos, long bytes, int errorCode) {
+        final Counters c = counters[endpoint.ordinal()];
+        c.inFlight.decrement();
+        c.calls.increment();
+        c.bytes.add(bytes);
+        c.totalNanos.add(durationNanos);
+        if (errorCode != 0) {
+            c.errors.computeIfAbsent(errorCode, k -> new LongAdder()).increment();
+        }
+        c.histogram.incrementAndGet(bucket(durationNanos));
+    }
+
+    static int bucket(long durationNanos) {
+        final long micros = durationNanos / 1000;
+        // micros is in [2^(bucket-1), 2^bucket[
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * Gets the metrics collected since this instance was created.
+     * @return the metrics of every endpoint
+     */
+    @Nonnull
+    public Map<Endpoint, EndpointStats> snapshot() {
+        final Map<Endpoint, EndpointStats> result = new EnumMap<>(Endpoint.class);
+        for (Endpoint endpoint : Endpoint.values()) {
+            result.put(endpoint, counters[endpoint.ordinal()].snapshot());
+        }
+        return Collections.unmodifiableMap(result);
+    }
+}
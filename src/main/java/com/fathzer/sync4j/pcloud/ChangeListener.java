@@ -0,0 +1,28 @@
+package com.fathzer.sync4j.pcloud;
+
+import java.io.IOException;
+
+import jakarta.annotation.Nonnull;
+
+/**
+ * A listener notified of the changes made to the files and folders of a provider.
+ * <br>
+ * Methods of this interface are called from the watcher thread, in the order of the changes.
+ * @see PCloudProvider#watch(long, ChangeListener)
+ */
+public interface ChangeListener {
+    /**
+     * Called when a change was made.
+     * @param change the change
+     */
+    void changed(@Nonnull RemoteChange change);
+
+    /**
+     * Called when the watcher failed to get the changes.
+     * <br>The watcher is then stopped, a new watcher can be started from {@link ChangeWatcher#getDiffId()} to get the next changes.
+     * @param e the error
+     */
+    default void failed(@Nonnull IOException e) {
+        // Does nothing by default
+    }
+}
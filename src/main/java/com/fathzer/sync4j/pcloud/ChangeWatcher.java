@@ -0,0 +1,276 @@
+package com.fathzer.sync4j.pcloud;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+
+import com.fathzer.sync4j.FileProvider;
+import com.fathzer.sync4j.pcloud.RemoteChange.Type;
+import com.fathzer.sync4j.pcloud.internal.api.DiffEntry;
+import com.fathzer.sync4j.pcloud.internal.api.Metadata;
+import com.fathzer.sync4j.pcloud.internal.api.PCloud;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import okhttp3.Call;
+
+/**
+ * A watcher of the changes made to the files and folders of a {@link PCloudProvider}.
+ * <br>
+ * The watcher follows pCloud's <i>diff</i> feed with long polling requests, so changes made by any pCloud client are reported
+ * a few moments after they are made, without listing any folder.
+ * <br>
+ * The feed reports the changes of the whole account with the ids of the entries, not their paths. In order to filter the changes
+ * and to compute their paths, the watcher keeps the location (parent folder and name) of every entry of the provider's root folder in memory.
+ * @see PCloudProvider#watch(long, ChangeListener)
+ */
+public class ChangeWatcher implements AutoCloseable {
+    private record Node(long parentId, String name) {}
+
+    private final PCloud pcloud;
+    private final long rootId;
+    private final ChangeListener listener;
+    private final Map<Long, Node> folders = new HashMap<>();
+    private final Map<Long, Node> files = new HashMap<>();
+    // Folders moved in the root folder, their content is listed once the diff call returned
+    private final Set<Long> movedIn = new LinkedHashSet<>();
+    private volatile long diffId;
+    private volatile boolean closed;
+    private volatile Thread thread;
+    private volatile Call call;
+
+    /**
+     * Constructor.
+     * <br>The tree of the root folder is loaded, but the changes are not watched until the watcher is {@link #start(ThreadFactory) started}.
+     * @param pcloud the pCloud API
+     * @param rootId the id of the provider's root folder
+     * @param diffId the id of the last event already known, 0 to only get the changes made from now
+     * @param listener the listener
+     * @throws IOException if an I/O error occurs
+     */
+    ChangeWatcher(@Nonnull PCloud pcloud, long rootId, long diffId, @Nonnull ChangeListener listener) throws IOException {
+        this.pcloud = pcloud;
+        this.rootId = rootId;
+        this.listener = Objects.requireNonNull(listener);
+        // The id is got before the tree is listed, so that changes made during the listing are not missed
+        this.diffId = diffId == 0 ? pcloud.diff(0, false, entry -> {}) : diffId;
+        load(rootId);
+    }
+
+    /**
+     * Starts watching the changes.
+     * @param threadFactory the factory of the thread that follows the feed
+     */
+    void start(@Nonnull ThreadFactory threadFactory) {
+        thread = threadFactory.newThread(this::run);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                poll(true);
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                listener.failed(e);
+            }
+        }
+    }
+
+    /**
+     * Reads the events that follow the last read one and reports the changes they made.
+     * @param block true to wait for an event if none is available
+     * @throws IOException if an I/O error occurs
+     */
+    void poll(boolean block) throws IOException {
+        final long last = pcloud.diff(diffId, block, this::apply, this::started);
+        // The diff call may hold a concurrent call slot, listing the folders while it is running could wait for it forever
+        for (Iterator<Long> iterator = movedIn.iterator(); iterator.hasNext() && !closed;) {
+            final Long folderId = iterator.next();
+            if (folders.containsKey(folderId)) {
+                load(folderId);
+            }
+            // A folder that failed to be listed stays there, the replayed events would not report it as moved in again
+            iterator.remove();
+        }
+        // The id only moves once the tree is complete, a persisted id never skips the content of a moved in folder
+        if (!closed) {
+            diffId = last;
+        }
+    }
+
+    private void started(Call call) {
+        this.call = call;
+        if (closed) {
+            // The watcher was closed before the call was started
+            call.cancel();
+        }
+    }
+
+    private void apply(DiffEntry entry) {
+        if (closed) {
+            return;
+        }
+        if ("reset".equals(entry.event())) {
+            // The next events re-create all the entries
+            folders.clear();
+            files.clear();
+            report(Type.RESET, FileProvider.ROOT_PATH, null, true, entry);
+        } else if (entry.metadata() != null) {
+            apply(entry, entry.metadata());
+        }
+    }
+
+    private void apply(DiffEntry entry, Metadata metadata) {
+        final String event = entry.event();
+        final boolean isFolder = metadata.isFolder();
+        if (isFolder && metadata.id() == rootId) {
+            // Moving or renaming the root folder does not change the paths of the provider
+            if (event.startsWith("delete")) {
+                report(Type.DELETED, FileProvider.ROOT_PATH, null, true, entry);
+            }
+            return;
+        }
+        final Map<Long, Node> nodes = isFolder ? folders : files;
+        final Node previous = nodes.get(metadata.id());
+        final String previousPath = previous == null ? null : path(previous);
+        final Node node = new Node(metadata.parentFolderId(), metadata.name());
+        if (event.startsWith("delete")) {
+            remove(metadata.id(), isFolder);
+            final String path = previousPath == null ? path(node) : previousPath;
+            if (path != null) {
+                report(Type.DELETED, path, null, isFolder, entry);
+            }
+            return;
+        }
+        final boolean created = event.startsWith("create");
+        if (!created && !event.startsWith("modify")) {
+            // Shares, account changes, etc...
+            return;
+        }
+        final String path = path(node);
+        if (path == null) {
+            // Outside the root folder
+            remove(metadata.id(), isFolder);
+            if (previousPath != null) {
+                report(Type.DELETED, previousPath, null, isFolder, entry);
+            }
+            return;
+        }
+        nodes.put(metadata.id(), node);
+        if (created || previousPath == null) {
+            if (!created && isFolder) {
+                // The folder was moved from outside the root folder, its content is not in the tree
+                movedIn.add(metadata.id());
+            }
+            report(Type.CREATED, path, null, isFolder, entry);
+        } else if (previousPath.equals(path)) {
+            report(Type.MODIFIED, path, null, isFolder, entry);
+        } else {
+            report(Type.MOVED, path, previousPath, isFolder, entry);
+        }
+    }
+
+    private void report(Type type, String path, String previousPath, boolean isFolder, DiffEntry entry) {
+        listener.changed(new RemoteChange(type, path, previousPath, isFolder, entry.diffId()));
+    }
+
+    /**
+     * Removes an entry from the tree.
+     * <br>The sub-tree of a folder is removed with it, pCloud does not report the entries of a folder that is moved out of the root folder.
+     * @param id the id of the entry
+     * @param isFolder true if the entry is a folder
+     */
+    private void remove(long id, boolean isFolder) {
+        if (!isFolder) {
+            files.remove(id);
+            return;
+        }
+        if (folders.remove(id) == null) {
+            return;
+        }
+        final Set<Long> removed = new HashSet<>();
+        removed.add(id);
+        // Sub-folders may be met before their parent, the folders are scanned until no more sub-folder is found
+        boolean found = true;
+        while (found) {
+            found = folders.entrySet().removeIf(e -> removed.contains(e.getValue().parentId()) && removed.add(e.getKey()));
+        }
+        files.values().removeIf(node -> removed.contains(node.parentId()));
+    }
+
+    /**
+     * Adds the sub-tree of a folder to the tree.
+     * @param folderId the id of the folder
+     * @throws IOException if an I/O error occurs
+     */
+    private void load(long folderId) throws IOException {
+        pcloud.listFolder(folderId, true, entry -> {
+            // The folder itself is the last entry
+            if (!entry.isFolder() || entry.id() != folderId) {
+                (entry.isFolder() ? folders : files).put(entry.id(), new Node(entry.parentFolderId(), entry.name()));
+            }
+        });
+    }
+
+    /**
+     * Gets the path of an entry.
+     * @param node the entry
+     * @return the path of the entry in the provider, null if the entry is not in the root folder
+     */
+    @Nullable
+    private String path(Node node) {
+        final Deque<String> names = new ArrayDeque<>();
+        names.push(node.name());
+        long parentId = node.parentId();
+        while (parentId != rootId) {
+            final Node parent = folders.get(parentId);
+            if (parent == null || names.size() > folders.size()) {
+                return null;
+            }
+            names.push(parent.name());
+            parentId = parent.parentId();
+        }
+        final StringBuilder path = new StringBuilder();
+        for (String name : names) {
+            path.append('/').append(name);
+        }
+        return path.toString();
+    }
+
+    /**
+     * Gets the id of the last pCloud event processed by this watcher.
+     * <br>All the changes made up to this event were reported. This id can be persisted to get the next changes with another watcher.
+     * @return an event id
+     * @see PCloudProvider#watch(long, ChangeListener)
+     */
+    public long getDiffId() {
+        return diffId;
+    }
+
+    /**
+     * Stops watching the changes.
+     * <br>Changes are not reported anymore once this method returns, the pending request is cancelled.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        final Call current = call;
+        if (current != null) {
+            current.cancel();
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+}
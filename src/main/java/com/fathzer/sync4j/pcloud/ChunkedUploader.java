@@ -0,0 +1,186 @@
+package com.fathzer.sync4j.pcloud;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongConsumer;
+
+import com.fathzer.sync4j.pcloud.internal.UploadJournal;
+import com.fathzer.sync4j.pcloud.internal.api.Metadata;
+import com.fathzer.sync4j.pcloud.internal.api.PCloud;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+/**
+ * An uploader that sends a file in chunks, written concurrently in a pCloud upload session.
+ * <br>
+ * The content is read sequentially, at most <code>parallelism</code> chunks are held in memory and written concurrently.
+ * If a journal folder is provided, the written chunks are recorded in an {@link UploadJournal}, and an interrupted upload of the same file
+ * is resumed instead of restarted.
+ */
+class ChunkedUploader {
+    private final PCloud pcloud;
+    private final int chunkSize;
+    private final int parallelism;
+    private final Path journalFolder;
+    private final Executor executor;
+
+    /**
+     * Constructor.
+     * @param pcloud the pCloud API
+     * @param chunkSize the size of the chunks
+     * @param parallelism the maximum number of concurrent chunk writes
+     * @param journalFolder the folder where upload journals are stored, null to disable resuming interrupted uploads
+     * @param executor the executor that transfers the chunks. It is shared, the uploader never runs more than <code>parallelism</code> tasks on it.
+     */
+    ChunkedUploader(@Nonnull PCloud pcloud, int chunkSize, int parallelism, @Nullable Path journalFolder, @Nonnull Executor executor) {
+        this.pcloud = pcloud;
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+        this.journalFolder = journalFolder;
+        this.executor = executor;
+    }
+
+    /**
+     * Uploads a file.
+     * @param folderId the ID of the remote folder
+     * @param fileName the name of the file to upload
+     * @param content the content of the file to upload
+     * @param size the size of the file to upload
+     * @param mtime the modification time of the file to upload
+     * @param ctime the creation time of the file to upload
+     * @param progressListener the progress listener, or null if there's no progress listener
+     * @return the remote file
+     * @throws IOException if an I/O error occurs
+     */
+    @Nonnull
+    Metadata upload(long folderId, @Nonnull String fileName, @Nonnull InputStream content, long size, long mtime, long ctime, @Nullable LongConsumer progressListener) throws IOException {
+        final UploadJournal journal = journalFolder == null ? null : UploadJournal.open(journalFolder, folderId, fileName, size, mtime, chunkSize);
+        final long uploadId = getUploadSession(journal);
+        final LongConsumer progress = progressListener == null ? x -> {} : new Progress(progressListener);
+        final Semaphore buffers = new Semaphore(parallelism);
+        final AtomicReference<IOException> error = new AtomicReference<>();
+        boolean completed = false;
+        try (content) {
+            int chunk = 0;
+            for (long offset = 0; offset < size && error.get() == null; offset += chunkSize) {
+                final int length = (int) Math.min(chunkSize, size - offset);
+                if (journal != null && journal.isDone(chunk)) {
+                    content.skipNBytes(length);
+                    progress.accept(length);
+                } else {
+                    buffers.acquire();
+                    final byte[] buffer = content.readNBytes(length);
+                    if (buffer.length != length) {
+                        buffers.release();
+                        throw new EOFException("Content is shorter than " + size + " bytes");
+                    }
+                    submit(uploadId, chunk, offset, buffer, journal, progress, error, buffers);
+                }
+                chunk++;
+            }
+            // Wait for the last chunks
+            buffers.acquire(parallelism);
+            buffers.release(parallelism);
+            completed = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            if (!completed) {
+                // The executor is shared, it can't be shut down. Chunks not yet started are skipped
+                error.compareAndSet(null, new InterruptedIOException("Upload aborted"));
+            }
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+        final Metadata file = pcloud.saveUpload(uploadId, folderId, fileName, mtime, ctime);
+        if (journal != null) {
+            journal.delete();
+        }
+        return file;
+    }
+
+    /**
+     * The progress of an upload, reported by the threads that write the chunks.
+     * <br>No thread ever waits: a single thread at a time calls the listener, the others just add their bytes and leave.
+     * The reporting thread reports the latest total until no more bytes were added, so the listener gets increasing totals,
+     * the last one being the size of the file.
+     */
+    private static class Progress implements LongConsumer {
+        private final LongConsumer listener;
+        private final AtomicLong uploaded = new AtomicLong();
+        private final AtomicBoolean reporting = new AtomicBoolean();
+        // Only accessed by the reporting thread
+        private long reported;
+
+        private Progress(LongConsumer listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void accept(long bytes) {
+            uploaded.addAndGet(bytes);
+            while (reporting.compareAndSet(false, true)) {
+                final long total = uploaded.get();
+                try {
+                    if (total > reported) {
+                        reported = total;
+                        listener.accept(total);
+                    }
+                } finally {
+                    reporting.set(false);
+                }
+                if (uploaded.get() == total) {
+                    // Bytes added while reporting are reported by this thread, bytes added later by the thread that added them
+                    return;
+                }
+            }
+        }
+    }
+
+    private long getUploadSession(UploadJournal journal) throws IOException {
+        if (journal != null && journal.getUploadId() != 0) {
+            try {
+                // Check the session still exists
+                pcloud.getUploadSize(journal.getUploadId());
+                return journal.getUploadId();
+            } catch (IOException e) {
+                // The session has expired, start a new one
+            }
+        }
+        final long uploadId = pcloud.createUpload();
+        if (journal != null) {
+            journal.start(uploadId);
+        }
+        return uploadId;
+    }
+
+    private void submit(long uploadId, int chunk, long offset, byte[] buffer, UploadJournal journal,
+            LongConsumer progress, AtomicReference<IOException> error, Semaphore buffers) {
+        executor.execute(() -> {
+            try {
+                if (error.get() == null) {
+                    pcloud.writeUpload(uploadId, offset, buffer, buffer.length);
+                    if (journal != null) {
+                        journal.done(chunk);
+                    }
+                    progress.accept(buffer.length);
+                }
+            } catch (IOException e) {
+                error.compareAndSet(null, e);
+            } finally {
+                buffers.release();
+            }
+        });
+    }
+}
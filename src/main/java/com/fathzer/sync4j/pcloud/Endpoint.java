@@ -0,0 +1,55 @@
+package com.fathzer.sync4j.pcloud;
+
+import jakarta.annotation.Nonnull;
+
+/**
+ * The pCloud API methods called by the provider.
+ * @see ApiListener
+ */
+public enum Endpoint {
+    /** Gets the metadata of a file or folder by its path. */
+    STAT("stat"),
+    /** Lists the content of a folder. */
+    LISTFOLDER("listfolder"),
+    /** Gets the hashes of a file. */
+    CHECKSUMFILE("checksumfile"),
+    /** Gets the hashes of several files with concurrent <i>checksumfile</i> requests. */
+    CHECKSUMFILES("checksumfile[]"),
+    /** Gets a download link of a file. */
+    GETFILELINK("getfilelink"),
+    /** Downloads the content, or a part of the content, of a file. */
+    DOWNLOAD("download"),
+    /** Deletes a file or a folder. */
+    DELETE("delete"),
+    /** Uploads one or several files. */
+    UPLOADFILE("uploadfile"),
+    /** Creates an upload session. */
+    UPLOAD_CREATE("upload_create"),
+    /** Gets the size of an upload session. */
+    UPLOAD_INFO("upload_info"),
+    /** Writes a chunk in an upload session. */
+    UPLOAD_WRITE("upload_write"),
+    /** Saves an upload session as a file. */
+    UPLOAD_SAVE("upload_save"),
+    /** Copies a file on the server side. */
+    COPYFILE("copyfile"),
+    /** Creates a folder. */
+    CREATEFOLDER("createfolder"),
+    /** Gets the changes made to the account. */
+    DIFF("diff");
+
+    private final String method;
+
+    Endpoint(String method) {
+        this.method = method;
+    }
+
+    /**
+     * Gets the name of the pCloud API method.
+     * @return a string
+     */
+    @Nonnull
+    public String getMethod() {
+        return method;
+    }
+}
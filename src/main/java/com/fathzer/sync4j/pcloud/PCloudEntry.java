@@ -6,28 +6,34 @@ import java.util.Objects;
 import com.fathzer.sync4j.Entry;
 import com.fathzer.sync4j.FileProvider;
 import com.fathzer.sync4j.Folder;
-import com.fathzer.sync4j.helper.PathUtils;
+import com.fathzer.sync4j.pcloud.internal.RemotePath;
+import com.fathzer.sync4j.pcloud.internal.TreeStore;
+import com.fathzer.sync4j.pcloud.internal.api.Metadata;
 import com.pcloud.sdk.ApiError;
-import com.pcloud.sdk.RemoteEntry;
 
 import jakarta.annotation.Nonnull;
 import jakarta.annotation.Nullable;
 
 abstract class PCloudEntry implements Entry {
     protected final String parentPath;
-    protected RemoteEntry remoteEntry;
+    /** The remote entry's metadata, null if the entry is a view of a preloaded tree node. */
+    protected volatile Metadata metadata;
+    /** The preloaded tree that holds the entry's metadata when {@link #metadata} is null. */
+    protected final TreeStore store;
+    /** The index of the entry in {@link #store}. */
+    protected final int index;
     protected final PCloudProvider provider;
-    protected Folder parent;
+    protected volatile Folder parent;
 
     /**
      * Constructor.
      * @param parentPath the path of the parent folder, null if the entry is the root.
      * @param parent the parent entry, null if the parent entry is unknown (typically if created by a direct get) or if the entry is the root.
-     * @param remoteEntry the remote entry.
+     * @param metadata the remote entry's metadata.
      * @param provider the provider.
      * @throws IllegalArgumentException if parentPath is invalid or, parentPath is null and parent != null
      */
-    protected PCloudEntry(@Nullable String parentPath , @Nullable Folder parent, @Nonnull RemoteEntry remoteEntry, @Nonnull PCloudProvider provider) {
+    protected PCloudEntry(@Nullable String parentPath , @Nullable Folder parent, @Nonnull Metadata metadata, @Nonnull PCloudProvider provider) {
     	if (parentPath!=null) {
             provider.checkPath(parentPath);
         } else if (parent!=null) {
@@ -35,7 +41,26 @@ abstract class PCloudEntry implements Entry {
         }
         this.parentPath = parentPath;
         this.parent = parent;
-        this.remoteEntry = Objects.requireNonNull(remoteEntry);
+        this.metadata = Objects.requireNonNull(metadata);
+        this.store = null;
+        this.index = -1;
+        this.provider = Objects.requireNonNull(provider);
+    }
+
+    /**
+     * Constructor of an entry that reads its metadata from a preloaded tree.
+     * <br>No metadata instance is allocated, the entry only references the tree and the node index.
+     * @param parentPath the path of the parent folder.
+     * @param parent the parent entry.
+     * @param store the preloaded tree.
+     * @param index the index of the entry in the tree.
+     * @param provider the provider.
+     */
+    protected PCloudEntry(@Nonnull String parentPath, @Nonnull Folder parent, @Nonnull TreeStore store, int index, @Nonnull PCloudProvider provider) {
+        this.parentPath = Objects.requireNonNull(parentPath);
+        this.parent = Objects.requireNonNull(parent);
+        this.store = Objects.requireNonNull(store);
+        this.index = index;
         this.provider = Objects.requireNonNull(provider);
     }
 
@@ -55,20 +80,38 @@ abstract class PCloudEntry implements Entry {
             return null;
         }
         if (parent==null) {
-            final long parentFolderId = remoteEntry.parentFolderId();
-            final String gfPath = PathUtils.getParent(this.parentPath);
-            parent = new PCloudFolder(gfPath, null,provider.pCloud().listFolder(parentFolderId, false), this.provider, false);
+            final Metadata m = metadata;
+            parent = provider.getFolder(m == null ? store.parentFolderId(index) : m.parentFolderId(), this.parentPath);
         }
         return parent;
     }
     
     @Override
     public String getName() {
-        return parentPath == null ? FileProvider.ROOT_PATH : remoteEntry.name();
+        if (parentPath == null) {
+            return FileProvider.ROOT_PATH;
+        }
+        final Metadata m = metadata;
+        return m == null ? store.name(index) : m.name();
     }
 
-    RemoteEntry getRemoteEntry() {
-        return remoteEntry;
+    /**
+     * Gets the remote id of this entry.
+     * @return the file id or the folder id
+     */
+    long getId() {
+        final Metadata m = metadata;
+        return m == null ? store.id(index) : m.id();
+    }
+
+    /**
+     * Gets the metadata of this entry.
+     * <br>If the entry is a view of a preloaded tree node, a new instance is built on every call.
+     * @return the metadata
+     */
+    Metadata getMetadata() {
+        final Metadata m = metadata;
+        return m == null ? store.metadata(index) : m;
     }
     
     private boolean isRoot() {
@@ -81,14 +124,16 @@ abstract class PCloudEntry implements Entry {
         if (isRoot()) {
             throw new IOException("Cannot delete root folder");
         }
+        final Metadata deleted = getMetadata();
         try {
-        	provider.pCloud().delete(remoteEntry);
+        	provider.pCloud().delete(deleted);
         } catch (IOException e) {
         	// Ignore api errors caused by previous deletion 
             if (!isEntryAlreadyDeletedError(e)) {
                 throw e;
             }
         }
+        provider.deleted(fullPath(), deleted);
     }
     
     private boolean isEntryAlreadyDeletedError(IOException e) {
@@ -97,7 +142,7 @@ abstract class PCloudEntry implements Entry {
     }
     
     String fullPath() {
-        return (parentPath == null ? "" : parentPath+ "/") + getName();
+        return parentPath == null ? getName() : RemotePath.child(parentPath, getName());
     }
 
     @Override
@@ -7,7 +7,8 @@ import java.util.Objects;
 import com.fathzer.sync4j.File;
 import com.fathzer.sync4j.Folder;
 import com.fathzer.sync4j.HashAlgorithm;
-import com.pcloud.sdk.RemoteEntry;
+import com.fathzer.sync4j.pcloud.internal.TreeStore;
+import com.fathzer.sync4j.pcloud.internal.api.Metadata;
 
 import jakarta.annotation.Nonnull;
 import jakarta.annotation.Nullable;
@@ -17,31 +18,57 @@ class PCloudFile extends PCloudEntry implements File {
      * Constructor.
      * @param parentPath the path of the parent folder, null if the entry is the root.
      * @param parent the parent entry, null if the parent entry is unknown (typically if created by a direct get) or if the entry is the root.
-     * @param remoteEntry the remote entry.
+     * @param metadata the remote entry's metadata.
      * @param provider the provider.
      * @throws IllegalArgumentException if parentPath is invalid or, parentPath is null and parent != null
      */
-    PCloudFile(@Nonnull String parentPath, @Nullable Folder parent, @Nonnull RemoteEntry remoteEntry, @Nonnull PCloudProvider provider) {
-        super(parentPath, parent, remoteEntry, provider);
+    PCloudFile(@Nonnull String parentPath, @Nullable Folder parent, @Nonnull Metadata metadata, @Nonnull PCloudProvider provider) {
+        super(parentPath, parent, metadata, provider);
         Objects.requireNonNull(parentPath);
-        if (!remoteEntry.isFile()) {
+        if (metadata.isFolder()) {
             throw new IllegalArgumentException("Not a file");
         }
     }
 
+    /**
+     * Constructor of a file of a preloaded tree.
+     * @param parentPath the path of the parent folder.
+     * @param parent the parent entry.
+     * @param store the preloaded tree.
+     * @param index the index of the file in the tree.
+     * @param provider the provider.
+     */
+    PCloudFile(@Nonnull String parentPath, @Nonnull Folder parent, @Nonnull TreeStore store, int index, @Nonnull PCloudProvider provider) {
+        super(parentPath, parent, store, index, provider);
+    }
+
     @Override
     public long getSize() {
-        return remoteEntry.asFile().size();
+        final Metadata m = metadata;
+        return m == null ? store.size(index) : m.size();
     }
 
     @Override
     public long getCreationTime() {
-        return remoteEntry.created().getTime();
+        final Metadata m = metadata;
+        return m == null ? store.created(index) : m.created();
     }
 
     @Override
     public long getLastModifiedTime() {
-        return remoteEntry.lastModified().getTime();
+        final Metadata m = metadata;
+        return m == null ? store.modified(index) : m.modified();
+    }
+
+    /**
+     * Gets the content hash returned by pCloud with the file's metadata.
+     * <br>This 64 bits hash changes when the file's content changes. It is not a checksum of the content, it can only be
+     * compared with a previous content hash of the same file.
+     * @return the content hash, 0 if unknown
+     */
+    long getContentHash() {
+        final Metadata m = metadata;
+        return m == null ? store.hash(index) : m.hash();
     }
 
     @Override
@@ -56,11 +83,11 @@ class PCloudFile extends PCloudEntry implements File {
 
     @Override
     public String getHash(HashAlgorithm hashAlgorithm) throws IOException {
-        return provider.pCloud().getHash(remoteEntry.asFile(), hashAlgorithm);
+        return provider.getHash(getMetadata(), hashAlgorithm);
     }
 
     @Override
     public InputStream getInputStream() throws IOException {
-        return provider.pCloud().getInputStream(remoteEntry.asFile());
+        return provider.getInputStream(getMetadata());
     }
 }
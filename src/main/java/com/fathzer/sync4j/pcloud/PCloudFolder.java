@@ -1,36 +1,75 @@
 package com.fathzer.sync4j.pcloud;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
 import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import com.fathzer.sync4j.Entry;
 import com.fathzer.sync4j.File;
 import com.fathzer.sync4j.Folder;
-import com.pcloud.sdk.RemoteEntry;
-import com.pcloud.sdk.RemoteFile;
-import com.pcloud.sdk.RemoteFolder;
+import com.fathzer.sync4j.pcloud.internal.TreeStore;
+import com.fathzer.sync4j.pcloud.internal.api.Listing;
+import com.fathzer.sync4j.pcloud.internal.api.Metadata;
 
 import jakarta.annotation.Nonnull;
 import jakarta.annotation.Nullable;
 
 class PCloudFolder extends PCloudEntry implements Folder {
-    private boolean recursivlyLoaded;
+    // Fields below are guarded by this lock: a list() that starts during a preload() waits for it and uses its result.
+    // It is not a monitor, so that virtual threads waiting for the network are not pinned to their carrier thread.
+    private final ReentrantLock lock = new ReentrantLock();
+    /** The preloaded tree that contains this folder, null if the folder is not preloaded. */
+    private TreeStore tree;
+    /** The index of this folder in the preloaded tree. */
+    private int node;
+    /** The views of the preloaded children, indexed from the node's first child and created when first listed or streamed. */
+    private AtomicReferenceArray<Entry> views;
+    /** The path of the parent folder of {@link #views}. */
+    private String viewsPath;
+    /** The list of all the preloaded children, built by the first {@link #list()}. */
+    private List<Entry> children;
 
     /**
      * Constructor.
      * @param parentPath the path of the parent folder, null if the entry is the root.
      * @param parent the parent entry, null if the parent entry is unknown (typically if created by a direct get) or if the entry is the root.
-     * @param remoteEntry the remote entry.
+     * @param metadata the remote entry's metadata.
      * @param provider the provider.
      * @throws IllegalArgumentException if parentPath is invalid or, parentPath is null and parent != null
      */
-    PCloudFolder(@Nullable String parentPath, @Nullable Folder parent, @Nonnull RemoteEntry remoteEntry, @Nonnull PCloudProvider provider, boolean recursivlyLoaded) {
-        super(parentPath, parent, remoteEntry, provider);
-        if (!remoteEntry.isFolder()) {
+    PCloudFolder(@Nullable String parentPath, @Nullable Folder parent, @Nonnull Metadata metadata, @Nonnull PCloudProvider provider) {
+        super(parentPath, parent, metadata, provider);
+        if (!metadata.isFolder()) {
             throw new IllegalArgumentException("Not a folder");
         }
-        this.recursivlyLoaded = recursivlyLoaded;
+    }
+
+    /**
+     * Constructor of a folder of a preloaded tree.
+     * <br>Sub-folders that failed to be listed during the preload are listed on demand.
+     * @param parentPath the path of the parent folder.
+     * @param parent the parent entry.
+     * @param store the preloaded tree.
+     * @param index the index of the folder in the tree.
+     * @param provider the provider.
+     */
+    private PCloudFolder(@Nonnull String parentPath, @Nonnull Folder parent, @Nonnull TreeStore store, int index, @Nonnull PCloudProvider provider) {
+        super(parentPath, parent, store, index, provider);
+        if (store.isListed(index)) {
+            this.tree = store;
+            this.node = index;
+        }
     }
 
     @Override
@@ -45,53 +84,221 @@ class PCloudFolder extends PCloudEntry implements Folder {
 
     @Override
     public Folder preload() throws IOException {
-        if (!remoteEntry.isFolder()) {
-            throw new IllegalStateException("Not a directory");
+        lock.lock();
+        try {
+            return doPreload();
+        } finally {
+            lock.unlock();
         }
-        if (!this.recursivlyLoaded) {
-            remoteEntry = provider.pCloud().listFolder(remoteEntry.asFolder().folderId(), true);
-            this.recursivlyLoaded = true;
+    }
+
+    private Folder doPreload() throws IOException {
+        if (this.tree == null) {
+            final long folderId = getId();
+            final int parallelism = provider.getPreloadParallelism();
+            final TreeStore store;
+            if (parallelism > 1) {
+                store = new ParallelPreloader(provider.pCloud(), parallelism, provider.getPreloadListener(), provider.getExecutor()).load(folderId, fullPath());
+            } else {
+                final TreeStore.Builder builder = new TreeStore.Builder();
+                provider.pCloud().listFolder(folderId, true, entry -> {
+                    builder.add(entry);
+                    if (entry.isFolder()) {
+                        // A recursive listing contains the content of every folder
+                        builder.listed(entry.id());
+                    }
+                });
+                store = builder.build(folderId);
+            }
+            this.tree = store;
+            this.node = store.root();
+            this.metadata = store.metadata(node);
         }
         return this;
     }
 
     @Override
     public List<Entry> list() throws IOException {
-        if (!remoteEntry.isFolder()) {
-            throw new IllegalStateException("Not a directory");
+        lock.lock();
+        try {
+            return doList();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<Entry> doList() throws IOException {
+        if (this.tree != null && this.tree.isListed(node)) {
+            return createChildren();
         }
-        if (!this.recursivlyLoaded) {
-            remoteEntry = provider.pCloud().listFolder(remoteEntry.asFolder().folderId(), false);
+        final List<Metadata> listed = fetchChildren();
+        final String path = fullPath();
+        return listed.stream().map(m -> child(path, m)).toList();
+    }
+
+    /**
+     * Streams the children of this folder.
+     * <br>Unlike {@link #list()}, the entries are created when the stream reaches them.
+     * The stream's spliterator knows its exact size and splits in halves, so the stream can efficiently be processed in parallel.
+     * @return a stream of the children
+     * @throws IOException if an I/O error occurs while listing a folder that is not preloaded
+     */
+    Stream<Entry> stream() throws IOException {
+        lock.lock();
+        try {
+            if (this.tree != null && this.tree.isListed(node)) {
+                final TreeStore store = this.tree;
+                final AtomicReferenceArray<Entry> childViews = views();
+                final String path = viewsPath;
+                final int first = store.firstChild(node);
+                return StreamSupport.stream(new ChildSpliterator(first, first + store.childCount(node), child -> view(childViews, path, store, first, child)), false);
+            }
+            final String path = fullPath();
+            final List<Metadata> listed = fetchChildren();
+            return StreamSupport.stream(new ChildSpliterator(0, listed.size(), index -> child(path, listed.get(index))), false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<Metadata> fetchChildren() throws IOException {
+        final Listing listing = provider.pCloud().listFolder(getId());
+        metadata = listing.folder();
+        provider.cached(fullPath(), listing);
+        return listing.children();
+    }
+
+    private List<Entry> createChildren() {
+        if (children == null) {
+            final AtomicReferenceArray<Entry> childViews = views();
+            final int first = tree.firstChild(node);
+            final List<Entry> result = new ArrayList<>(childViews.length());
+            for (int child = first; child < first + childViews.length(); child++) {
+                result.add(view(childViews, viewsPath, tree, first, child));
+            }
+            // Preloaded children are not put in the metadata cache, trees can be huge and would flush it
+            children = Collections.unmodifiableList(result);
+        }
+        return children;
+    }
+
+    private AtomicReferenceArray<Entry> views() {
+        if (views == null) {
+            views = new AtomicReferenceArray<>(tree.childCount(node));
+            viewsPath = fullPath();
+        }
+        return views;
+    }
+
+    private Entry view(AtomicReferenceArray<Entry> childViews, String path, TreeStore store, int first, int child) {
+        // Streams create the views outside the lock, possibly in parallel, the first created view wins
+        final Entry view = childViews.get(child - first);
+        if (view != null) {
+            return view;
         }
-        return remoteEntry.asFolder().children().stream()
-                .map(f -> (Entry)createEntry(f))
-                .toList();
+        final Entry created = child(path, store, child);
+        final Entry winner = childViews.compareAndExchange(child - first, null, created);
+        return winner == null ? created : winner;
+    }
+
+    private Entry child(String path, Metadata child) {
+        return child.isFolder() ? new PCloudFolder(path, this, child, provider) : new PCloudFile(path, this, child, provider);
     }
 
-    private PCloudEntry createEntry(RemoteEntry remoteEntry) {
-        if (remoteEntry.isFile()) {
-            return new PCloudFile(fullPath(), this, remoteEntry, provider);
-        } else {
-            return new PCloudFolder(fullPath(), this, remoteEntry, provider, this.recursivlyLoaded);
+    private Entry child(String path, TreeStore store, int child) {
+        // Children are views of the tree, their metadata is read from the tree when needed
+        return store.isFolder(child) ? new PCloudFolder(path, this, store, child, provider) : new PCloudFile(path, this, store, child, provider);
+    }
+
+    /**
+     * A spliterator over a range of children that creates their entries on demand.
+     */
+    private static final class ChildSpliterator implements Spliterator<Entry> {
+        private final IntFunction<Entry> factory;
+        private int index;
+        private final int end;
+
+        private ChildSpliterator(int index, int end, IntFunction<Entry> factory) {
+            this.index = index;
+            this.end = end;
+            this.factory = factory;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Entry> action) {
+            if (index >= end) {
+                return false;
+            }
+            action.accept(factory.apply(index++));
+            return true;
         }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Entry> action) {
+            while (index < end) {
+                action.accept(factory.apply(index++));
+            }
+        }
+
+        @Override
+        public Spliterator<Entry> trySplit() {
+            final int middle = (index + end) >>> 1;
+            if (middle <= index) {
+                return null;
+            }
+            final Spliterator<Entry> prefix = new ChildSpliterator(index, middle, factory);
+            index = middle;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return (long) end - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+        }
+    }
+
+    private <T extends PCloudEntry> T cached(T entry) {
+        provider.cached(entry.fullPath(), entry.getMetadata());
+        return entry;
     }
 
     @Override
     public File copy(String fileName, File content, LongConsumer progressListener) throws IOException {
         provider.checkWriteOperationsAllowed();
         checkFileName(fileName);
-    	return new PCloudFile(fullPath(), this, upload(remoteEntry.asFolder().folderId(), fileName, content, progressListener), provider);
+    	return cached(new PCloudFile(fullPath(), this, provider.upload(getId(), fileName, content, progressListener), provider));
     }
 
-    private RemoteFile upload(long folderId, String fileName, File content, LongConsumer progressListener) throws IOException {
-        return provider.pCloud().upload(folderId, fileName, content.getInputStream(), content.getSize(), content.getLastModifiedTime(), content.getCreationTime(), progressListener);
+    /**
+     * Copies several files in this folder.
+     * <br>Small files are uploaded in batches (see {@link PCloudProvider#setUploadBatch(int, long)}).
+     * @param files the files to copy keyed by their name in this folder
+     * @return the copies keyed by their name, in the iteration order of <code>files</code>
+     * @throws IOException if an I/O error occurs
+     */
+    Map<String, File> copy(Map<String, ? extends File> files) throws IOException {
+        provider.checkWriteOperationsAllowed();
+        for (String fileName : files.keySet()) {
+            checkFileName(fileName);
+        }
+        final Map<String, Metadata> uploaded = provider.upload(getId(), files);
+        final Map<String, File> result = new LinkedHashMap<>();
+        for (String fileName : files.keySet()) {
+            result.put(fileName, cached(new PCloudFile(fullPath(), this, uploaded.get(fileName), provider)));
+        }
+        return result;
     }
 
     @Override
     public Folder mkdir(String folderName) throws IOException {
         provider.checkWriteOperationsAllowed();
         checkFileName(folderName);
-        final RemoteFolder remoteFolder = provider.pCloud().mkdir(remoteEntry.asFolder().folderId(), folderName);
-        return new PCloudFolder(fullPath(), this, remoteFolder, provider, false);
+        final Metadata remoteFolder = provider.pCloud().mkdir(getId(), folderName);
+        return cached(new PCloudFolder(fullPath(), this, remoteFolder, provider));
     }
 }
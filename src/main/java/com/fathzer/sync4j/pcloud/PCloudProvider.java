@@ -2,31 +2,251 @@ package com.fathzer.sync4j.pcloud;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.List;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.OptionalLong;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
 
 import com.fathzer.sync4j.Entry;
+import com.fathzer.sync4j.File;
+import com.fathzer.sync4j.Folder;
 import com.fathzer.sync4j.FileProvider;
 import com.fathzer.sync4j.HashAlgorithm;
 import com.fathzer.sync4j.helper.AbstractFileProvider;
 
 import com.fathzer.sync4j.helper.PathUtils;
+import com.fathzer.sync4j.pcloud.internal.EntryCache;
+import com.fathzer.sync4j.pcloud.internal.EntryCache.CachedEntry;
+import com.fathzer.sync4j.pcloud.internal.HashCache;
+import com.fathzer.sync4j.pcloud.internal.RemotePath;
+import com.fathzer.sync4j.pcloud.internal.VirtualThreads;
+import com.fathzer.sync4j.pcloud.internal.WeakRegistry;
+import com.fathzer.sync4j.pcloud.internal.api.BinaryPCloud;
+import com.fathzer.sync4j.pcloud.internal.api.CoalescingPCloud;
+import com.fathzer.sync4j.pcloud.internal.api.FileHashes;
+import com.fathzer.sync4j.pcloud.internal.api.Listing;
+import com.fathzer.sync4j.pcloud.internal.api.Metadata;
+import com.fathzer.sync4j.pcloud.internal.api.MeteredPCloud;
 import com.fathzer.sync4j.pcloud.internal.api.PCloud;
 import com.fathzer.sync4j.pcloud.internal.api.PCloudAPI;
-import com.pcloud.sdk.RemoteEntry;
+import com.fathzer.sync4j.pcloud.internal.api.RetryingPCloud;
+import com.fathzer.sync4j.pcloud.internal.api.UploadContent;
 
 import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import okhttp3.OkHttpClient;
 
 /**
  * pCloud provider for sync4j.
  * <br>
  * Please note that:
  * <ul>
- * <li>The only supported hash algorithm is SHA1.</li>
+ * <li>Supported hash algorithms depend on the zone (see {@link Zone#getHashAlgorithms()}). All of them are returned by
+ * a single API call, so getting a second hash of a file costs no extra network call.</li>
+ * <li>An optional metadata cache can be enabled with {@link #setMetadataCache(int, Duration)}. It is disabled by default
+ * because changes made to the remote folder by other clients are not seen until cached entries expire.</li>
+ * <li>Getting a hash requires a network call per file. When the hashes of many files are needed, {@link #prefetchHashes(Collection, int)}
+ * fetches them concurrently. Hashes can also be kept from one run to another with {@link #setChecksumCache(Path)}.</li>
+ * <li>Content changes can be detected without any network call by comparing the content hash pCloud returns with the metadata
+ * of files (see {@link #getContentHash(Entry)}).</li>
+ * <li>Copying a file that is already stored in the same pCloud account (for instance from another provider instance) is done on the server side,
+ * without downloading and uploading its content.</li>
+ * <li>Many small files can be uploaded in a few requests with {@link #copy(Folder, Map)}.</li>
+ * <li>Folders with a huge number of children can be listed lazily, and in parallel, with {@link #stream(Folder)}.</li>
+ * <li>Changes made by any pCloud client can be followed without listing the folders again with {@link #watch(long, ChangeListener)}.</li>
+ * <li>Other files are uploaded by a single request unless chunked uploads are enabled with {@link #setChunkedUpload(long, int, int)}.</li>
+ * <li>Files are downloaded over a single connection unless ranged downloads are enabled with {@link #setRangedDownload(long, int, int, long)}.</li>
+ * <li>Each provider uses its own HTTP connections unless a shared {@link Transport} is set with {@link #builder(Zone, String)}.</li>
+ * <li>The provider's threads, including its HTTP dispatcher's, can be virtual threads (see {@link Builder#virtualThreads()}).</li>
+ * <li>Metadata calls can use pCloud's binary protocol, pipelined on persistent connections (see {@link Builder#binaryProtocol(int)}).</li>
+ * <li>API calls can be observed, for instance to collect metrics with {@link ApiMetrics}, by setting an {@link ApiListener}
+ * with {@link #builder(Zone, String)}.</li>
  * </ul>
  */
 public class PCloudProvider extends AbstractFileProvider {
     private final PCloud pcloud;
     private final String rootPath;
+    private volatile EntryCache cache;
+    private final HashCache hashCache = new HashCache();
+    private final WeakRegistry<PCloudFolder> folders = new WeakRegistry<>();
+    // The settings below can be changed while other threads transfer files. Settings made of several values are immutable records,
+    // so that a transfer never sees a mix of old and new values
+    private volatile Path hashCacheFile;
+    private volatile int preloadParallelism = 1;
+    private volatile PreloadListener preloadListener;
+    private volatile ChunkedUpload chunkedUpload = ChunkedUpload.DISABLED;
+    private volatile Path uploadJournalFolder;
+    private volatile UploadBatch uploadBatch = UploadBatch.DISABLED;
+    private volatile RangedDownload rangedDownload = RangedDownload.DISABLED;
+    private final ThreadFactory threadFactory;
+    /** The executor shared by the background transfers and the parallel preloads, created on first use. Guarded by this provider's monitor. */
+    private ExecutorService executor;
+
+    private record ChunkedUpload(long threshold, int chunkSize, int parallelism) {
+        private static final ChunkedUpload DISABLED = new ChunkedUpload(Long.MAX_VALUE, 0, 0);
+    }
+
+    private record UploadBatch(int maxFiles, long maxBytes) {
+        private static final UploadBatch DISABLED = new UploadBatch(1, 0);
+    }
+
+    private record RangedDownload(long threshold, int chunkSize, int parallelism, int readAhead) {
+        private static final RangedDownload DISABLED = new RangedDownload(Long.MAX_VALUE, 0, 0, 0);
+    }
+
+    /**
+     * A builder of {@link PCloudProvider}.
+     */
+    public static class Builder {
+        private final Zone zone;
+        private final String accessToken;
+        private String rootPath = ROOT_PATH;
+        private Transport transport;
+        private RetryPolicy retryPolicy;
+        private ApiListener listener;
+        private ThreadFactory threadFactory;
+        private int binaryConnections;
+
+        private Builder(Zone zone, String accessToken) {
+            this.zone = Objects.requireNonNull(zone);
+            this.accessToken = Objects.requireNonNull(accessToken);
+        }
+
+        /**
+         * Sets the root path.
+         * @param rootPath the root path to use (e.g. "" for the pcloud account root folder, "/folder" for a subfolder). Default is "".
+         * @return this builder
+         */
+        @Nonnull
+        public Builder rootPath(@Nonnull String rootPath) {
+            this.rootPath = Objects.requireNonNull(rootPath);
+            return this;
+        }
+
+        /**
+         * Sets the HTTP transport.
+         * <br>A transport can be shared by several providers. It is not closed when the provider is closed.
+         * @param transport the transport, or null to let the provider use its own default transport (this is the default)
+         * @return this builder
+         */
+        @Nonnull
+        public Builder transport(@Nullable Transport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * Sets the retry policy.
+         * <br>With a retry policy, calls that fail because of transient errors or throttling are retried, and the number of concurrent
+         * calls adapts to pCloud's throttling.
+         * @param retryPolicy the policy, or null to never retry failed calls (this is the default)
+         * @return this builder
+         */
+        @Nonnull
+        public Builder retryPolicy(@Nullable RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Sets the listener notified of the pCloud API calls.
+         * <br>{@link ApiMetrics} is a listener that collects per endpoint latencies, byte counts and errors.
+         * @param listener the listener, or null to not observe the calls (this is the default, calls are then not instrumented at all)
+         * @return this builder
+         */
+        @Nonnull
+        public Builder listener(@Nullable ApiListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * Sets the factory of the threads created by the provider.
+         * <br>They are the threads used by parallel preloads, chunked uploads and ranged downloads, and, if no {@link #transport(Transport) transport}
+         * is set, the threads of the provider's HTTP dispatcher.
+         * @param threadFactory the thread factory, null to use platform threads (this is the default)
+         * @return this builder
+         * @see #virtualThreads()
+         */
+        @Nonnull
+        public Builder threadFactory(@Nullable ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory;
+            return this;
+        }
+
+        /**
+         * Makes the provider create virtual threads.
+         * <br>Threads that wait for pCloud then cost almost no memory, thousands of concurrent operations can be run.
+         * The provider does not block virtual threads while holding a monitor, so they are not pinned to their carrier thread
+         * by its own code.
+         * @return this builder
+         * @throws UnsupportedOperationException if the Java runtime does not support virtual threads (they require Java 21)
+         * @see #threadFactory(ThreadFactory)
+         */
+        @Nonnull
+        public Builder virtualThreads() {
+            return threadFactory(VirtualThreads.factory());
+        }
+
+        /**
+         * Makes the metadata calls with pCloud's binary protocol.
+         * <br>Paths resolutions, folder listings and checksum calls are then pipelined on a few persistent connections to the zone's
+         * {@link Zone#getBinaryHost() binary API}, and their responses are much cheaper to decode. Other calls still use HTTP.
+         * @param connections the maximum number of binary connections, 0 to use HTTP for every call (this is the default)
+         * @return this builder
+         * @throws IllegalArgumentException if connections is negative
+         */
+        @Nonnull
+        public Builder binaryProtocol(int connections) {
+            if (connections < 0) {
+                throw new IllegalArgumentException("Connections can't be negative");
+            }
+            this.binaryConnections = connections;
+            return this;
+        }
+
+        /**
+         * Builds the provider.
+         * @return a new provider
+         * @throws IOException if an I/O error occurs or if the root path is not an existing folder
+         */
+        @Nonnull
+        public PCloudProvider build() throws IOException {
+            PCloud api;
+            if (transport != null) {
+                api = new PCloudAPI(zone, accessToken, transport.getClient());
+            } else if (threadFactory != null) {
+                api = new PCloudAPI(zone, accessToken, new OkHttpClient.Builder().dispatcher(Transport.dispatcher(threadFactory)).build(), true);
+            } else {
+                api = new PCloudAPI(zone, accessToken);
+            }
+            if (binaryConnections > 0) {
+                api = new BinaryPCloud(api, zone, accessToken, binaryConnections, threadFactory == null ? Executors.defaultThreadFactory() : threadFactory);
+            }
+            // Instrumented below the retries to observe every attempt. Without listener, the calls are recorded as JFR events only
+            // while a recording is in progress, and pass through at no cost otherwise
+            api = listener == null ? new MeteredPCloud(api) : new MeteredPCloud(api, listener);
+            if (retryPolicy != null) {
+                api = new RetryingPCloud(api, retryPolicy);
+            }
+            // Outermost, so that the callers that join a call in progress don't wait for a concurrency slot
+            return new PCloudProvider(zone, new CoalescingPCloud(api), rootPath, threadFactory == null ? Executors.defaultThreadFactory() : threadFactory);
+        }
+    }
 
     /** Constructor.
      * @param zone the zone to use. See {@link Zone} for available zones.
@@ -35,21 +255,42 @@ public class PCloudProvider extends AbstractFileProvider {
      * @throws IOException if an I/O error occurs or if <code>rootPath</code> is not an existing folder
      */
     public PCloudProvider(@Nonnull Zone zone, @Nonnull String accessToken, @Nonnull String rootPath) throws IOException {
-        // SHA1 is the only hash algorithm supported by all pCloud's zones
-        super(true, List.of(HashAlgorithm.SHA1), true);
-        this.checkPath(rootPath);
+        this(zone, new CoalescingPCloud(new MeteredPCloud(new PCloudAPI(zone, accessToken))), rootPath);
+    }
+
+    // Also used by tests
+    PCloudProvider(Zone zone, PCloud pcloud, String rootPath) throws IOException {
+        this(zone, pcloud, rootPath, Executors.defaultThreadFactory());
+    }
+
+    private PCloudProvider(Zone zone, PCloud pcloud, String rootPath, ThreadFactory threadFactory) throws IOException {
+        // One checksum call returns all the hashes computed by the zone
+        super(true, zone.getHashAlgorithms(), true);
+        this.pcloud = pcloud;
         this.rootPath = rootPath;
-        this.pcloud = new PCloudAPI(zone, accessToken);
+        this.threadFactory = threadFactory;
         try {
+            this.checkPath(rootPath);
             if (!this.pcloud.get(rootPath).isFolder()) {
                 throw new IOException("Root path " + rootPath + " is not a folder");
             }            
-        } catch (IOException e) {
+        } catch (IOException | RuntimeException e) {
             this.pcloud.close();
             throw e;
         }
     }
     
+    /**
+     * Creates a builder.
+     * @param zone the zone to use. See {@link Zone} for available zones.
+     * @param accessToken the access token to use
+     * @return a new builder
+     */
+    @Nonnull
+    public static Builder builder(@Nonnull Zone zone, @Nonnull String accessToken) {
+        return new Builder(zone, accessToken);
+    }
+
     @Override
     public long getCreationTimePrecision() {
         return 999L;
@@ -60,18 +301,570 @@ public class PCloudProvider extends AbstractFileProvider {
         return 999L;
     }
     
+    /**
+     * Sets the metadata cache.
+     * <br>When enabled, entries returned by {@link #get(String)} (including missing ones) and by folder listings are remembered
+     * for a while, so that resolving them again does not require any network call. Once a folder is listed, paths in this
+     * folder that are not in its listing are also known to be missing.
+     * Changes made through this provider update the cache, but changes made by other pCloud clients are not seen until
+     * the cached entries expire.
+     * @param maxEntries the maximum number of entries in the cache, 0 to disable the cache
+     * @param timeToLive the time after which a cached entry expires
+     * @throws IllegalArgumentException if maxEntries is negative or timeToLive is negative
+     */
+    public void setMetadataCache(int maxEntries, @Nonnull Duration timeToLive) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("Max entries can't be negative");
+        }
+        this.cache = maxEntries == 0 ? null : new EntryCache(maxEntries, timeToLive);
+    }
+
+    /**
+     * Sets the file where file hashes are persisted.
+     * <br>Hashes already saved in this file are loaded immediately. The hashes fetched afterwards are saved when the provider
+     * is {@link #close() closed}, or when {@link #saveChecksumCache()} is called.
+     * <br>A saved hash is used only if the file's size, modification time and content hash have not changed since the hash was fetched.
+     * <br>Saved hashes that are not used for 30 days are pruned from the file, the hashes of the files
+     * that a run does not see are kept.
+     * @param file the file, or null to stop persisting hashes
+     * @throws IOException if <code>file</code> exists but can't be read
+     */
+    public void setChecksumCache(@Nullable Path file) throws IOException {
+        if (file != null) {
+            hashCache.load(file);
+        }
+        this.hashCacheFile = file;
+    }
+
+    /**
+     * Saves the hashes to the file set by {@link #setChecksumCache(Path)}.
+     * <br>Does nothing if no file was set or if no hash was fetched since the last save.
+     * @throws IOException if an I/O error occurs
+     */
+    public void saveChecksumCache() throws IOException {
+        final Path file = this.hashCacheFile;
+        if (file != null) {
+            hashCache.save(file);
+        }
+    }
+
+    /**
+     * Sets the number of folders listed concurrently by {@link com.fathzer.sync4j.Folder#preload()}.
+     * <br>With a parallelism of 1 (the default), a folder tree is loaded by a single recursive listing.
+     * This single response can take minutes to produce on very large trees.
+     * With a greater parallelism, the folders of the tree are first got, without their files, by a single recursive listing.
+     * Then the tree is loaded breadth-first, each folder is listed by its own request and
+     * up to <code>parallelism</code> requests are executed concurrently.
+     * A failure to list a folder does not fail the preload, it is reported to the {@link #setPreloadListener(PreloadListener) preload listener}
+     * and the folder's sub-tree is listed on demand.
+     * @param parallelism the maximum number of concurrent listings
+     * @throws IllegalArgumentException if parallelism is not strictly positive
+     */
+    public void setPreloadParallelism(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism should be strictly positive");
+        }
+        this.preloadParallelism = parallelism;
+    }
+
+    int getPreloadParallelism() {
+        return preloadParallelism;
+    }
+
+    /**
+     * Sets the listener notified of parallel preloads progress.
+     * @param listener a listener, or null to remove the listener
+     * @see #setPreloadParallelism(int)
+     */
+    public void setPreloadListener(@Nullable PreloadListener listener) {
+        this.preloadListener = listener;
+    }
+
+    @Nullable
+    PreloadListener getPreloadListener() {
+        return preloadListener;
+    }
+
+    /**
+     * Gets the factory of the threads created by this provider.
+     * @return a thread factory
+     */
+    @Nonnull
+    ThreadFactory getThreadFactory() {
+        return threadFactory;
+    }
+
+    /**
+     * Gets the executor shared by the background transfers and the parallel preloads of this provider.
+     * <br>Its threads are created by {@link #getThreadFactory()} and are discarded when idle. The number of tasks is not bounded
+     * by the executor, each user bounds its own tasks.
+     * @return an executor, shut down when the provider is closed
+     */
+    @Nonnull
+    synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), threadFactory);
+        }
+        return executor;
+    }
+
+    /**
+     * Enables chunked uploads for large files.
+     * <br>Files whose size is at least <code>threshold</code> are uploaded in chunks written concurrently in a pCloud upload session,
+     * instead of a single request. This is faster on high latency links and allows to resume interrupted uploads
+     * (see {@link #setUploadJournalFolder(Path)}).
+     * <br>Up to <code>parallelism</code> chunks are held in memory at the same time.
+     * @param threshold the minimum size of files uploaded in chunks, {@link Long#MAX_VALUE} to disable chunked uploads (this is the default)
+     * @param chunkSize the size of the chunks
+     * @param parallelism the maximum number of chunks written concurrently
+     * @throws IllegalArgumentException if one of the arguments is not strictly positive
+     */
+    public void setChunkedUpload(long threshold, int chunkSize, int parallelism) {
+        if (threshold <= 0 || chunkSize <= 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("Arguments should be strictly positive");
+        }
+        this.chunkedUpload = new ChunkedUpload(threshold, chunkSize, parallelism);
+    }
+
+    /**
+     * Sets the folder where the journals of chunked uploads are stored.
+     * <br>When set, the chunks written by a chunked upload are recorded in a journal, and an interrupted upload of the same file
+     * (same target folder and name, same size and modification time) is resumed instead of restarted.
+     * @param folder a local folder, or null to disable resuming uploads (this is the default)
+     * @see #setChunkedUpload(long, int, int)
+     */
+    public void setUploadJournalFolder(@Nullable Path folder) {
+        this.uploadJournalFolder = folder;
+    }
+
+    /**
+     * Sets the limits of upload batches.
+     * <br>When files are copied with {@link #copy(Folder, Map)}, the files that are not larger than <code>maxBytes</code> and that have
+     * the same modification and creation times (with a one second precision) are uploaded in requests that contain up to <code>maxFiles</code> files
+     * and <code>maxBytes</code> bytes.
+     * @param maxFiles the maximum number of files in a request, 1 to disable batches (this is the default)
+     * @param maxBytes the maximum number of bytes in a request
+     * @throws IllegalArgumentException if one of the arguments is not strictly positive
+     */
+    public void setUploadBatch(int maxFiles, long maxBytes) {
+        if (maxFiles <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Arguments should be strictly positive");
+        }
+        this.uploadBatch = new UploadBatch(maxFiles, maxBytes);
+    }
+
+    /**
+     * Copies several files in a folder.
+     * <br>This method is equivalent to calling {@link Folder#copy(String, File, LongConsumer)} for each file, but small files
+     * are uploaded in batches (see {@link #setUploadBatch(int, long)}), which is much faster when there are many of them.
+     * @param folder a folder of this provider
+     * @param files the files to copy keyed by their name in the folder
+     * @return the copies keyed by their name, in the iteration order of <code>files</code>
+     * @throws IOException if an I/O error occurs. Some files may have been copied.
+     * @throws IllegalArgumentException if folder is not a folder of this provider
+     */
+    @Nonnull
+    public Map<String, File> copy(@Nonnull Folder folder, @Nonnull Map<String, ? extends File> files) throws IOException {
+        if (!(folder instanceof PCloudFolder pCloudFolder) || pCloudFolder.provider != this) {
+            throw new IllegalArgumentException("Folder is not a folder of this provider");
+        }
+        return pCloudFolder.copy(files);
+    }
+
+    /**
+     * Streams the children of a folder.
+     * <br>This method returns the same entries as {@link Folder#list()}, but they are created when the stream reaches them instead of
+     * all at once, which matters for folders with hundreds of thousands of children. The stream's spliterator (and iterator) knows
+     * its exact size and splits evenly, so {@link Stream#parallel() parallel} streams are efficient.
+     * @param folder a folder of this provider
+     * @return a stream of the folder's children
+     * @throws IOException if an I/O error occurs while listing a folder that is not preloaded
+     * @throws IllegalArgumentException if folder is not a folder of this provider
+     */
+    @Nonnull
+    public Stream<Entry> stream(@Nonnull Folder folder) throws IOException {
+        if (!(folder instanceof PCloudFolder pCloudFolder) || pCloudFolder.provider != this) {
+            throw new IllegalArgumentException("Folder is not a folder of this provider");
+        }
+        return pCloudFolder.stream();
+    }
+
+    /**
+     * Watches the changes made to the files and folders of this provider.
+     * <br>The returned watcher follows pCloud's <i>diff</i> feed, with a single long polling request at a time, in a thread created
+     * by the provider's thread factory. It reports the changes made by any pCloud client to the listener, a few moments after they are made.
+     * <br>The watcher first lists the tree of the root folder, then keeps the location of every entry in memory.
+     * <br>The metadata cache (see {@link #setMetadataCache(int, Duration)}) is not updated by the watcher, but the parent folders
+     * shared by the entries of this provider are forgotten when the watcher reports they were moved or deleted.
+     * @param diffId the id returned by {@link ChangeWatcher#getDiffId()} of a previous watcher to get the changes made since then,
+     * or 0 to only get the changes made from now. When starting from a previous id, the changes are computed against the current tree,
+     * the intermediate paths of an entry changed several times may be inaccurate.
+     * @param listener the listener
+     * @return a started watcher, it should be closed when the changes are not needed anymore
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if diffId is negative
+     */
+    @Nonnull
+    public ChangeWatcher watch(long diffId, @Nonnull ChangeListener listener) throws IOException {
+        if (diffId < 0) {
+            throw new IllegalArgumentException("Diff id can't be negative");
+        }
+        final ChangeListener registryUpdater = new ChangeListener() {
+            @Override
+            public void changed(RemoteChange change) {
+                if (change.type() == RemoteChange.Type.RESET) {
+                    folders.removeIf(folder -> true);
+                } else if (change.isFolder() && change.type() == RemoteChange.Type.DELETED) {
+                    forgetFolders(change.path());
+                } else if (change.isFolder() && change.type() == RemoteChange.Type.MOVED) {
+                    forgetFolders(change.previousPath());
+                }
+                listener.changed(change);
+            }
+
+            @Override
+            public void failed(IOException e) {
+                listener.failed(e);
+            }
+        };
+        final ChangeWatcher watcher = new ChangeWatcher(pcloud, pcloud.get(rootPath).id(), diffId, registryUpdater);
+        watcher.start(threadFactory);
+        return watcher;
+    }
+
+    /**
+     * Uploads several files, in batches when possible.
+     * @param folderId the ID of the remote folder
+     * @param files the files to upload keyed by their name
+     * @return the remote files keyed by their name
+     * @throws IOException if an I/O error occurs
+     */
+    @Nonnull
+    Map<String, Metadata> upload(long folderId, @Nonnull Map<String, ? extends File> files) throws IOException {
+        final Map<String, Metadata> result = new HashMap<>();
+        final UploadBatch batch = uploadBatch;
+        final long chunkedThreshold = chunkedUpload.threshold();
+        // Files of a batch share their times, group them by times
+        final Map<List<Long>, Map<String, File>> groups = new LinkedHashMap<>();
+        for (Map.Entry<String, ? extends File> entry : files.entrySet()) {
+            final File file = entry.getValue();
+            if (isBatchable(file, batch, chunkedThreshold)) {
+                groups.computeIfAbsent(List.of(file.getLastModifiedTime()/1000, file.getCreationTime()/1000), k -> new LinkedHashMap<>()).put(entry.getKey(), file);
+            } else {
+                result.put(entry.getKey(), upload(folderId, entry.getKey(), file, null));
+            }
+        }
+        for (Map<String, File> group : groups.values()) {
+            final List<String> names = new ArrayList<>();
+            long bytes = 0;
+            for (Map.Entry<String, File> entry : group.entrySet()) {
+                final long size = entry.getValue().getSize();
+                if (!names.isEmpty() && (names.size() == batch.maxFiles() || bytes + size > batch.maxBytes())) {
+                    uploadBatch(folderId, names, group, result);
+                    names.clear();
+                    bytes = 0;
+                }
+                names.add(entry.getKey());
+                bytes += size;
+            }
+            uploadBatch(folderId, names, group, result);
+        }
+        return result;
+    }
+
+    private boolean isBatchable(File file, UploadBatch batch, long chunkedThreshold) throws IOException {
+        final long size = file.getSize();
+        return batch.maxFiles() > 1 && size <= batch.maxBytes() && size < chunkedThreshold && !isSameAccount(file);
+    }
+
+    private boolean isSameAccount(File file) {
+        return file instanceof PCloudFile pCloudFile && pCloudFile.provider.pcloud.getAccount().equals(pcloud.getAccount());
+    }
+
+    private void uploadBatch(long folderId, List<String> names, Map<String, File> files, Map<String, Metadata> result) throws IOException {
+        if (names.size() == 1) {
+            result.put(names.get(0), upload(folderId, names.get(0), files.get(names.get(0)), null));
+            return;
+        }
+        final List<UploadContent> contents = new ArrayList<>(names.size());
+        for (String name : names) {
+            final File file = files.get(name);
+            contents.add(new UploadContent(name, file::getInputStream, file.getSize()));
+        }
+        final File first = files.get(names.get(0));
+        final List<Metadata> uploaded = pcloud.upload(folderId, contents, first.getLastModifiedTime(), first.getCreationTime());
+        for (int i = 0; i < names.size(); i++) {
+            result.put(names.get(i), uploaded.get(i));
+        }
+    }
+
+    /**
+     * Uploads a file.
+     * <br>If the file is already stored in the same pCloud account, it is copied on the server side. Otherwise, it is
+     * uploaded in chunks if its size reaches the {@link #setChunkedUpload(long, int, int) threshold}.
+     * @param folderId the ID of the remote folder
+     * @param fileName the name of the file
+     * @param content the file to upload
+     * @param progressListener the progress listener, or null if there's no progress listener
+     * @return the remote file
+     * @throws IOException if an I/O error occurs
+     */
+    @Nonnull
+    Metadata upload(long folderId, @Nonnull String fileName, @Nonnull File content, @Nullable LongConsumer progressListener) throws IOException {
+        final long size = content.getSize();
+        if (isSameAccount(content)) {
+            final Metadata copy = pcloud.copy(((PCloudFile) content).getMetadata().id(), folderId, fileName, content.getLastModifiedTime(), content.getCreationTime());
+            if (progressListener != null) {
+                progressListener.accept(size);
+            }
+            return copy;
+        }
+        final ChunkedUpload chunked = chunkedUpload;
+        if (size >= chunked.threshold()) {
+            return new ChunkedUploader(pcloud, chunked.chunkSize(), chunked.parallelism(), uploadJournalFolder, getExecutor())
+                    .upload(folderId, fileName, content.getInputStream(), size, content.getLastModifiedTime(), content.getCreationTime(), progressListener);
+        }
+        return pcloud.upload(folderId, fileName, content::getInputStream, size, content.getLastModifiedTime(), content.getCreationTime(), progressListener);
+    }
+
+    /**
+     * Enables ranged downloads for large files.
+     * <br>The content of files whose size is at least <code>threshold</code> is downloaded by byte ranges over several connections.
+     * Chunks are fetched ahead of the reader, which still reads a plain sequential stream.
+     * @param threshold the minimum size of files downloaded by ranges, {@link Long#MAX_VALUE} to disable ranged downloads (this is the default)
+     * @param chunkSize the size of the ranges
+     * @param parallelism the maximum number of concurrent connections per downloaded file
+     * @param memoryBudget the maximum number of bytes fetched ahead of the reader per downloaded file.
+     * It is rounded up to <code>parallelism * chunkSize</code> if it is lower.
+     * @throws IllegalArgumentException if one of the arguments is not strictly positive
+     */
+    public void setRangedDownload(long threshold, int chunkSize, int parallelism, long memoryBudget) {
+        if (threshold <= 0 || chunkSize <= 0 || parallelism <= 0 || memoryBudget <= 0) {
+            throw new IllegalArgumentException("Arguments should be strictly positive");
+        }
+        this.rangedDownload = new RangedDownload(threshold, chunkSize, parallelism,
+                (int) Math.min(Integer.MAX_VALUE, Math.max(parallelism, memoryBudget / chunkSize)));
+    }
+
+    /**
+     * Gets the content of a file, by ranges if its size reaches the {@link #setRangedDownload(long, int, int, long) threshold}.
+     * @param file the file
+     * @return an input stream
+     * @throws IOException if an I/O error occurs
+     */
+    @Nonnull
+    InputStream getInputStream(@Nonnull Metadata file) throws IOException {
+        final RangedDownload ranged = rangedDownload;
+        if (file.size() >= ranged.threshold()) {
+            return new RangedInputStream(pcloud, pcloud.getDownloadLink(file.id()), file.size(), ranged.chunkSize(), ranged.parallelism(), ranged.readAhead(), getExecutor());
+        }
+        return pcloud.getInputStream(file.id());
+    }
+
     @Override
     public Entry get(@Nonnull String path) throws IOException {
-        try {
-            this.checkPath(path);
-            final RemoteEntry remoteEntry = this.pcloud.get(this.rootPath + path);
-            if (FileProvider.ROOT_PATH.equals(path)) {
-                return new PCloudFolder(null, null, remoteEntry, this, false);
+        this.checkPath(path);
+        final EntryCache entryCache = this.cache;
+        final Metadata metadata;
+        final CachedEntry cached = entryCache == null ? null : entryCache.get(path);
+        if (cached != null) {
+            if (!cached.exists()) {
+                return new PCloudMissingFile(path, this);
+            }
+            metadata = cached.entry();
+        } else {
+            try {
+                metadata = this.pcloud.get(this.rootPath + path);
+            } catch (FileNotFoundException e) {
+                if (entryCache != null) {
+                    entryCache.putMissing(path);
+                }
+                return new PCloudMissingFile(path, this);
+            }
+            if (entryCache != null) {
+                entryCache.put(path, metadata);
             }
-            final String parentPath = PathUtils.getParent(path);
-            return remoteEntry.isFolder() ? new PCloudFolder(parentPath, null, remoteEntry, this, false) : new PCloudFile(parentPath, null, remoteEntry, this);
-        } catch (FileNotFoundException e) {
-            return new PCloudMissingFile(path, this);
+        }
+        final String parentPath = FileProvider.ROOT_PATH.equals(path) ? null : PathUtils.getParent(path);
+        if (metadata.isFolder()) {
+            // Folders are registered, so that the entries got later in this folder share it as their parent
+            final PCloudFolder folder = new PCloudFolder(parentPath, null, metadata, this);
+            folders.put(metadata.id(), folder);
+            return folder;
+        }
+        return new PCloudFile(parentPath, null, metadata, this);
+    }
+
+    /**
+     * Gets the parent folder of an entry whose parent is unknown.
+     * <br>Folders are shared between the entries of this provider as long as they are referenced, so that the parent
+     * of several entries is listed only once.
+     * @param folderId the id of the folder
+     * @param path the path of the folder
+     * @return the folder
+     * @throws IOException if an I/O error occurs
+     */
+    @Nonnull
+    PCloudFolder getFolder(long folderId, @Nonnull String path) throws IOException {
+        final PCloudFolder folder = folders.get(folderId);
+        if (folder != null && path.equals(folder.fullPath())) {
+            return folder;
+        }
+        // If a folder is registered, it was renamed or moved since then, its cached metadata is outdated too
+        Metadata metadata = folder == null ? getCachedFolder(folderId) : null;
+        if (metadata == null) {
+            metadata = pcloud.listFolder(folderId).folder();
+            cached(path, metadata);
+        }
+        final String parentPath = FileProvider.ROOT_PATH.equals(path) ? null : PathUtils.getParent(path);
+        final PCloudFolder loaded = new PCloudFolder(parentPath, null, metadata, this);
+        if (folder == null) {
+            return folders.register(folderId, loaded);
+        }
+        folders.put(folderId, loaded);
+        return loaded;
+    }
+
+    /**
+     * Fetches the hashes of some files.
+     * <br>Hashes are fetched by up to <code>concurrency</code> concurrent requests and remembered, so that calling
+     * {@link com.fathzer.sync4j.File#getHash(HashAlgorithm)} on these files later does not require any network call
+     * (unless the file has changed in the meantime).
+     * <br>Entries that are not files of this provider are ignored. A failure to fetch the hashes of a file is not reported,
+     * they are fetched again when the hash of the file is requested.
+     * @param entries the entries
+     * @param concurrency the maximum number of concurrent requests
+     * @throws IOException if the current thread is interrupted
+     * @throws IllegalArgumentException if concurrency is not strictly positive
+     */
+    public void prefetchHashes(@Nonnull Collection<? extends Entry> entries, int concurrency) throws IOException {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Concurrency should be strictly positive");
+        }
+        final Map<Long, Metadata> files = new HashMap<>();
+        for (Entry entry : entries) {
+            if (entry instanceof PCloudFile file && file.provider == this) {
+                final Metadata metadata = file.getMetadata();
+                if (hashCache.get(metadata) == null) {
+                    files.put(metadata.id(), metadata);
+                }
+            }
+        }
+        if (files.isEmpty()) {
+            return;
+        }
+        final Map<Long, FileHashes> fetched = pcloud.getHashes(new ArrayList<>(files.keySet()), concurrency);
+        fetched.forEach((id, hashes) -> hashCache.put(files.get(id), hashes));
+    }
+
+    /**
+     * Gets the content hash of a file.
+     * <br>pCloud returns a 64 bits content hash with the metadata of every file, it changes when the file's content changes.
+     * Unlike {@link com.fathzer.sync4j.File#getHash(HashAlgorithm)}, getting it requires no network call, but it can only be compared
+     * with a previous content hash of the same file (see {@link #isContentChanged(Entry, long)}).
+     * @param entry an entry
+     * @return the content hash, or an empty optional if the entry is not a file of this provider or its content hash is unknown
+     */
+    @Nonnull
+    public OptionalLong getContentHash(@Nonnull Entry entry) {
+        Objects.requireNonNull(entry);
+        if (entry instanceof PCloudFile file && file.provider == this && file.getContentHash() != 0) {
+            return OptionalLong.of(file.getContentHash());
+        }
+        return OptionalLong.empty();
+    }
+
+    /**
+     * Tests whether the content of a file changed since its content hash was got with {@link #getContentHash(Entry)}.
+     * <br>This detects content changes that preserve the file's size and modification time, without any network call.
+     * @param entry an entry
+     * @param previousHash the content hash previously got for the same file
+     * @return false if the file's content hash is known and equals to <code>previousHash</code>, true otherwise (the content
+     * is considered as changed when it can't be proven unchanged)
+     */
+    public boolean isContentChanged(@Nonnull Entry entry, long previousHash) {
+        final OptionalLong hash = getContentHash(entry);
+        return hash.isEmpty() || hash.getAsLong() != previousHash;
+    }
+
+    /**
+     * Gets the hash of a file, using the hashes fetched by {@link #prefetchHashes(Collection, int)} if possible.
+     * @param file the file
+     * @param hashAlgorithm the hash algorithm
+     * @return the hash
+     * @throws IOException if an I/O error occurs
+     * @throws UnsupportedOperationException if the hash algorithm is not supported
+     */
+    @Nonnull
+    String getHash(@Nonnull Metadata file, @Nonnull HashAlgorithm hashAlgorithm) throws IOException {
+        FileHashes hashes = hashCache.get(file);
+        if (hashes == null || hashes.get(hashAlgorithm) == null) {
+            hashes = pcloud.getHashes(file.id());
+            hashCache.put(file, hashes);
+        }
+        final String hash = hashes.get(hashAlgorithm);
+        if (hash == null) {
+            throw new UnsupportedOperationException("Unsupported hash algorithm: " + hashAlgorithm);
+        }
+        return hash;
+    }
+
+    /**
+     * Gets a folder from the metadata cache.
+     * @param folderId the folder id
+     * @return the folder, null if the cache is disabled or does not contain the folder
+     */
+    @Nullable
+    Metadata getCachedFolder(long folderId) {
+        final EntryCache entryCache = this.cache;
+        return entryCache == null ? null : entryCache.getFolder(folderId);
+    }
+
+    /**
+     * Updates the metadata cache after an entry was loaded or created.
+     * @param path the path of the entry
+     * @param metadata the entry
+     */
+    void cached(@Nonnull String path, @Nonnull Metadata metadata) {
+        final EntryCache entryCache = this.cache;
+        if (entryCache != null) {
+            entryCache.put(path, metadata);
+        }
+    }
+
+    /**
+     * Updates the metadata cache after a folder was listed.
+     * @param path the path of the folder
+     * @param listing the folder's listing
+     */
+    void cached(@Nonnull String path, @Nonnull Listing listing) {
+        final EntryCache entryCache = this.cache;
+        if (entryCache != null) {
+            entryCache.putListing(path, listing.folder(), listing.children());
+        }
+    }
+
+    /**
+     * Forgets the registered folders that are a folder or one of its descendants, typically after it was deleted or moved.
+     * <br>The entries got later in these folders get a new parent with up to date metadata.
+     * @param path the path of the folder
+     */
+    private void forgetFolders(@Nonnull String path) {
+        folders.removeIf(folder -> RemotePath.isIn(folder.fullPath(), path));
+    }
+
+    /**
+     * Updates the metadata cache after an entry was deleted.
+     * @param path the path of the deleted entry
+     * @param metadata the deleted entry
+     */
+    void deleted(@Nonnull String path, @Nonnull Metadata metadata) {
+        if (metadata.isFolder()) {
+            forgetFolders(path);
+        }
+        final EntryCache entryCache = this.cache;
+        if (entryCache != null) {
+            entryCache.delete(path);
         }
     }
     
@@ -84,8 +877,23 @@ public class PCloudProvider extends AbstractFileProvider {
         super.checkReadOnly();
     }
     
+    /**
+     * Closes this provider.
+     * <br>The hashes are saved to the file set by {@link #setChecksumCache(Path)}, then the connections to pCloud are released,
+     * even if the save fails.
+     * @throws IOException if the hashes can't be saved
+     */
     @Override
-    public void close() {
-        this.pcloud.close();
+    public void close() throws IOException {
+        try {
+            saveChecksumCache();
+        } finally {
+            synchronized (this) {
+                if (executor != null) {
+                    executor.shutdownNow();
+                }
+            }
+            this.pcloud.close();
+        }
     }
 }
@@ -0,0 +1,142 @@
+package com.fathzer.sync4j.pcloud;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+import com.fathzer.sync4j.pcloud.internal.RemotePath;
+import com.fathzer.sync4j.pcloud.internal.TreeStore;
+import com.fathzer.sync4j.pcloud.internal.api.Listing;
+import com.fathzer.sync4j.pcloud.internal.api.Metadata;
+import com.fathzer.sync4j.pcloud.internal.api.PCloud;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+/**
+ * A folder tree loader that lists sub-folders concurrently.
+ * <br>
+ * The skeleton of the tree, its folders without their files, is first got with a single recursive call. Then every folder is listed
+ * with a non recursive call, breadth-first. As all the folders are known from the start, the listings do not wait for their parent's. The listings are stored in a {@link TreeStore}.
+ * A folder that fails to be listed is reported to the listener and is not {@link TreeStore#isListed(int) listed} in the store,
+ * its sub-folders that are not yet listed are skipped.
+ */
+class ParallelPreloader {
+    private final PCloud pcloud;
+    private final int parallelism;
+    private final PreloadListener listener;
+    private final TreeStore.Builder builder;
+    private final Executor executor;
+    /** The sub-folders of the tree, keyed by their id. Not modified once the skeleton is loaded. */
+    private final Map<Long, Metadata> folders = new HashMap<>();
+    /** The ids of the folders that failed to be listed. */
+    private final Set<Long> failed = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Constructor.
+     * @param pcloud the pCloud API
+     * @param parallelism the maximum number of concurrent listings
+     * @param listener a listener, or null if there's no listener
+     * @param executor the executor that lists the folders. It is shared, the preloader never runs more than <code>parallelism</code> tasks on it.
+     */
+    ParallelPreloader(@Nonnull PCloud pcloud, int parallelism, @Nullable PreloadListener listener, @Nonnull Executor executor) {
+        this.pcloud = pcloud;
+        this.parallelism = parallelism;
+        this.listener = listener == null ? new PreloadListener() {} : listener;
+        this.builder = new TreeStore.Builder();
+        this.executor = executor;
+    }
+
+    /**
+     * Loads a folder tree.
+     * @param folderId the id of the root folder of the tree
+     * @param path the path of the root folder
+     * @return the tree
+     * @throws IOException if the root folder can't be listed or if the current thread is interrupted.
+     */
+    @Nonnull
+    TreeStore load(long folderId, @Nonnull String path) throws IOException {
+        // The skeleton, a single call that returns the folders of the tree without their files
+        pcloud.listFolder(folderId, true, true, folder -> folders.put(folder.id(), folder));
+        // Without the root, walking up the parents of a folder ends at the root's children
+        folders.remove(folderId);
+        final Listing rootListing = pcloud.listFolder(folderId);
+        builder.add(rootListing.folder());
+        builder.add(rootListing);
+        listener.loaded(path, rootListing.children().size());
+        final Semaphore slots = new Semaphore(parallelism);
+        try {
+            for (Map.Entry<Long, String> folder : breadthFirst(folderId, path).entrySet()) {
+                slots.acquire();
+                submit(folder.getKey(), folder.getValue(), slots);
+            }
+            // Wait for the last listings
+            slots.acquire(parallelism);
+            slots.release(parallelism);
+        } catch (InterruptedException e) {
+            // The executor is shared, it can't be shut down. Running listings end in the background
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        return builder.build(folderId);
+    }
+
+    /**
+     * Gets the paths of the sub-folders of the tree.
+     * @param folderId the id of the root folder of the tree
+     * @param path the path of the root folder
+     * @return the paths keyed by folder id, in breadth-first order
+     */
+    private Map<Long, String> breadthFirst(long folderId, String path) {
+        final Map<Long, List<Metadata>> children = new HashMap<>();
+        for (Metadata folder : folders.values()) {
+            children.computeIfAbsent(folder.parentFolderId(), k -> new ArrayList<>()).add(folder);
+        }
+        final Map<Long, String> paths = new LinkedHashMap<>();
+        final List<Long> queue = new ArrayList<>(List.of(folderId));
+        for (int i = 0; i < queue.size(); i++) {
+            final long id = queue.get(i);
+            final String parentPath = i == 0 ? path : paths.get(id);
+            for (Metadata child : children.getOrDefault(id, List.of())) {
+                paths.put(child.id(), RemotePath.child(parentPath, child.name()));
+                queue.add(child.id());
+            }
+        }
+        return paths;
+    }
+
+    private void submit(long folderId, String path, Semaphore slots) {
+        executor.execute(() -> {
+            try {
+                if (!isInFailedFolder(folderId)) {
+                    final Listing listing = pcloud.listFolder(folderId);
+                    builder.add(listing);
+                    listener.loaded(path, listing.children().size());
+                }
+            } catch (IOException e) {
+                failed.add(folderId);
+                listener.failed(path, e);
+            } finally {
+                slots.release();
+            }
+        });
+    }
+
+    private boolean isInFailedFolder(long folderId) {
+        // The sub-tree of a folder that failed is not in the store, even if its folders are listed
+        for (Metadata folder = folders.get(folderId); folder != null && !failed.isEmpty(); folder = folders.get(folder.parentFolderId())) {
+            if (failed.contains(folder.parentFolderId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,32 @@
+package com.fathzer.sync4j.pcloud;
+
+import java.io.IOException;
+
+import jakarta.annotation.Nonnull;
+
+/**
+ * A listener notified of the progress of a parallel folder preload.
+ * <br>
+ * Methods of this interface are called from the preload worker threads, implementations should be thread safe.
+ * @see PCloudProvider#setPreloadParallelism(int)
+ */
+public interface PreloadListener {
+    /**
+     * Called when a folder has been listed.
+     * @param path the path of the folder
+     * @param childrenCount the number of children of the folder
+     */
+    default void loaded(@Nonnull String path, int childrenCount) {
+        // Does nothing by default
+    }
+
+    /**
+     * Called when a folder failed to be listed.
+     * <br>The folder and its sub-folders are not preloaded, they will be listed on demand.
+     * @param path the path of the folder
+     * @param e the error
+     */
+    default void failed(@Nonnull String path, @Nonnull IOException e) {
+        // Does nothing by default
+    }
+}
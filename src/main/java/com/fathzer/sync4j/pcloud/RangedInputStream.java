@@ -0,0 +1,162 @@
+package com.fathzer.sync4j.pcloud;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+
+import com.fathzer.sync4j.pcloud.internal.api.PCloud;
+
+import jakarta.annotation.Nonnull;
+
+/**
+ * An input stream that downloads a remote file by byte ranges over several connections.
+ * <br>
+ * Chunks are downloaded concurrently ahead of the reader and returned in order. The number of chunks downloaded or held
+ * in memory ahead of the reader is bounded, so the memory used by the stream is bounded by <code>readAhead * chunkSize</code>.
+ * <br>
+ * The chunks are downloaded by a shared executor. A chunk waits in the stream until one of its <code>parallelism</code> slots is free,
+ * so that it never blocks an executor's thread.
+ */
+class RangedInputStream extends InputStream {
+    private final PCloud pcloud;
+    private final URL link;
+    private final long size;
+    private final int chunkSize;
+    private final int readAhead;
+    private final Executor executor;
+    private final Semaphore slots;
+    /** The chunks that wait for a free slot. */
+    private final Queue<FutureTask<byte[]>> waiting = new ConcurrentLinkedQueue<>();
+    private final Deque<FutureTask<byte[]>> chunks;
+    private long nextOffset;
+    private byte[] current;
+    private int position;
+    private boolean closed;
+
+    /**
+     * Constructor.
+     * @param pcloud the pCloud API
+     * @param link the download link of the file
+     * @param size the size of the file
+     * @param chunkSize the size of the chunks
+     * @param parallelism the maximum number of concurrent downloads
+     * @param readAhead the maximum number of chunks downloaded or held in memory ahead of the reader. It should be greater than or equal to parallelism.
+     * @param executor the executor that transfers the chunks. It is shared, the stream never runs more than <code>parallelism</code> tasks on it.
+     */
+    RangedInputStream(@Nonnull PCloud pcloud, @Nonnull URL link, long size, int chunkSize, int parallelism, int readAhead, @Nonnull Executor executor) {
+        this.pcloud = pcloud;
+        this.link = link;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.readAhead = Math.max(parallelism, readAhead);
+        this.executor = executor;
+        this.slots = new Semaphore(parallelism);
+        this.chunks = new ArrayDeque<>(this.readAhead);
+        this.current = new byte[0];
+        fill();
+    }
+
+    private void fill() {
+        while (chunks.size() < readAhead && nextOffset < size) {
+            final long offset = nextOffset;
+            final int length = (int) Math.min(chunkSize, size - offset);
+            final FutureTask<byte[]> chunk = new FutureTask<>(() -> pcloud.download(link, offset, length));
+            chunks.add(chunk);
+            waiting.add(chunk);
+            nextOffset += length;
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        // Called by the reader after it adds chunks, and by the downloads after they release their slot, so no chunk is left waiting
+        while (slots.tryAcquire()) {
+            final FutureTask<byte[]> chunk = waiting.poll();
+            if (chunk == null) {
+                slots.release();
+                return;
+            }
+            executor.execute(() -> {
+                try {
+                    // Does nothing if the stream was closed
+                    chunk.run();
+                } finally {
+                    slots.release();
+                    schedule();
+                }
+            });
+        }
+    }
+
+    private boolean next() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (position < current.length) {
+            return true;
+        }
+        final FutureTask<byte[]> chunk = chunks.poll();
+        if (chunk == null) {
+            return false;
+        }
+        try {
+            current = chunk.get();
+            position = 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ex ? ex : new IOException(e.getCause());
+        }
+        fill();
+        if (current.length == 0) {
+            // The file is shorter than expected
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return next() ? current[position++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!next()) {
+            return -1;
+        }
+        final int count = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return current.length - position;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            // The executor is shared, it can't be shut down. Running downloads are interrupted, the others are skipped
+            waiting.clear();
+            chunks.forEach(chunk -> chunk.cancel(true));
+            chunks.clear();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.fathzer.sync4j.pcloud;
+
+import com.fathzer.sync4j.FileProvider;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+/**
+ * A change made to the files and folders of a {@link PCloudProvider}.
+ * @param type the type of change
+ * @param path the path of the changed entry in the provider. For a move, this is the new path.
+ * @param previousPath the path of the entry before it was moved, null if the change is not a move
+ * @param isFolder true if the changed entry is a folder
+ * @param diffId the id of the pCloud event that made the change
+ * @see PCloudProvider#watch(long, ChangeListener)
+ */
+public record RemoteChange(@Nonnull Type type, @Nonnull String path, @Nullable String previousPath, boolean isFolder, long diffId) {
+    /** The type of a change. */
+    public enum Type {
+        /** The entry was created, or was moved from outside the provider's root folder. */
+        CREATED,
+        /** The entry was modified, for instance the content or the modification time of a file. */
+        MODIFIED,
+        /** The entry was deleted, or was moved outside the provider's root folder. */
+        DELETED,
+        /** The entry was moved or renamed in the provider's root folder. */
+        MOVED,
+        /**
+         * pCloud asks its clients to forget what they know about the account, the following changes re-create all the entries.
+         * <br>The path of this change is always {@link FileProvider#ROOT_PATH}.
+         */
+        RESET
+    }
+}
@@ -0,0 +1,42 @@
+package com.fathzer.sync4j.pcloud;
+
+import java.time.Duration;
+import java.util.Objects;
+
+import jakarta.annotation.Nonnull;
+
+/**
+ * The policy applied when pCloud API calls fail with transient errors or when pCloud throttles requests.
+ * <br>
+ * Failed calls are retried after a random delay (full jitter) whose upper bound grows exponentially from <code>initialDelay</code>
+ * to <code>maxDelay</code>.
+ * <br>
+ * The number of concurrent calls is adapted with an additive-increase/multiplicative-decrease algorithm: it is halved each time pCloud
+ * throttles a call and slowly increased, up to <code>maxConcurrency</code>, while calls succeed.
+ * @param maxAttempts the maximum number of attempts of a call, 1 to disable retries
+ * @param initialDelay the upper bound of the delay before the first retry
+ * @param maxDelay the maximum delay between two attempts
+ * @param maxConcurrency the maximum number of concurrent calls
+ * @see PCloudProvider.Builder#retryPolicy(RetryPolicy)
+ */
+public record RetryPolicy(int maxAttempts, @Nonnull Duration initialDelay, @Nonnull Duration maxDelay, int maxConcurrency) {
+    /** A policy that makes up to 5 attempts, waits between 0.5 and 30 seconds, with up to 16 concurrent calls. */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(5, Duration.ofMillis(500), Duration.ofSeconds(30), 16);
+
+    /**
+     * Constructor.
+     * @param maxAttempts the maximum number of attempts of a call, 1 to disable retries
+     * @param initialDelay the upper bound of the delay before the first retry
+     * @param maxDelay the maximum delay between two attempts
+     * @param maxConcurrency the maximum number of concurrent calls
+     * @throws IllegalArgumentException if maxAttempts or maxConcurrency is not strictly positive, or a delay is negative
+     */
+    public RetryPolicy {
+        if (maxAttempts <= 0 || maxConcurrency <= 0) {
+            throw new IllegalArgumentException("Max attempts and max concurrency should be strictly positive");
+        }
+        if (Objects.requireNonNull(initialDelay).isNegative() || Objects.requireNonNull(maxDelay).isNegative()) {
+            throw new IllegalArgumentException("Delays can't be negative");
+        }
+    }
+}
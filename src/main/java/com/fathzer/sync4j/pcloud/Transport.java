@@ -0,0 +1,281 @@
+package com.fathzer.sync4j.pcloud;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+
+/**
+ * The HTTP transport used to call the pCloud API.
+ * <br>
+ * A transport owns a connection pool and a dispatcher (the threads that execute the requests, all the API requests are enqueued
+ * in the dispatcher except the long polling ones). It can be shared by several {@link PCloudProvider providers}, in which case
+ * they share their connections and their concurrency limits.
+ * <br>
+ * A transport that is passed to {@link PCloudProvider.Builder#transport(Transport)} is not closed when the provider is closed;
+ * it should be closed once all the providers that use it are closed.
+ * <br>
+ * Transports are created with a {@link #builder()}. Limits that are not set have the same default values as OkHttp's, except
+ * the maximum number of requests per host: all the API requests go to the same host, it defaults to the maximum number of requests.
+ */
+public class Transport implements AutoCloseable {
+    /**
+     * Statistics about the time requests spent waiting before being executed.
+     * <br>Requests wait in the dispatcher's queue when the maximum number of concurrent requests is reached.
+     * The delay of a request is the time between its enqueuing and the time the dispatcher executes it. Long polling requests,
+     * that are executed synchronously, are executed immediately, their delay is almost zero.
+     * @param requests the number of executed requests
+     * @param totalQueueDelay the sum of the times requests spent waiting
+     * @param maxQueueDelay the longest time a request spent waiting
+     */
+    public record Stats(long requests, @Nonnull Duration totalQueueDelay, @Nonnull Duration maxQueueDelay) {
+        /**
+         * Gets the average time requests spent waiting.
+         * @return a duration
+         */
+        @Nonnull
+        public Duration averageQueueDelay() {
+            return requests == 0 ? Duration.ZERO : totalQueueDelay.dividedBy(requests);
+        }
+    }
+
+    /**
+     * A builder of {@link Transport}.
+     */
+    public static class Builder {
+        private final OkHttpClient.Builder client = new OkHttpClient.Builder();
+        private int maxRequests = 64;
+        private int maxRequestsPerHost = -1;
+        private ThreadFactory threadFactory;
+        private int maxIdleConnections = 5;
+        private Duration keepAlive = Duration.ofMinutes(5);
+
+        private Builder() {
+            // Use Transport.builder()
+        }
+
+        /**
+         * Sets the maximum number of concurrent requests.
+         * <br>Synchronous long polling requests are not limited, there is one per provider that watches the changes.
+         * @param maxRequests the maximum number of concurrent requests (default is 64)
+         * @return this builder
+         * @throws IllegalArgumentException if maxRequests is not strictly positive
+         */
+        @Nonnull
+        public Builder maxRequests(int maxRequests) {
+            if (maxRequests < 1) {
+                throw new IllegalArgumentException("Max requests should be strictly positive");
+            }
+            this.maxRequests = maxRequests;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of concurrent requests to the same host.
+         * <br>All the API requests to a pCloud zone go to the same host, downloads go to content hosts.
+         * @param maxRequestsPerHost the maximum number of concurrent requests per host (default is the maximum number of requests)
+         * @return this builder
+         * @throws IllegalArgumentException if maxRequestsPerHost is not strictly positive
+         */
+        @Nonnull
+        public Builder maxRequestsPerHost(int maxRequestsPerHost) {
+            if (maxRequestsPerHost < 1) {
+                throw new IllegalArgumentException("Max requests per host should be strictly positive");
+            }
+            this.maxRequestsPerHost = maxRequestsPerHost;
+            return this;
+        }
+
+        /**
+         * Sets the factory of the threads that execute the requests.
+         * <br>With virtual threads (see {@link PCloudProvider.Builder#virtualThreads()}), the threads that wait for responses
+         * cost almost no memory.
+         * @param threadFactory the thread factory, null to use OkHttp's default platform threads (this is the default)
+         * @return this builder
+         */
+        @Nonnull
+        public Builder threadFactory(@Nullable ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory;
+            return this;
+        }
+
+        /**
+         * Sets the connection pool limits.
+         * @param maxIdleConnections the maximum number of idle connections kept in the pool (default is 5)
+         * @param keepAlive the time an idle connection is kept in the pool (default is 5 minutes)
+         * @return this builder
+         * @throws IllegalArgumentException if maxIdleConnections is negative or keepAlive is not strictly positive
+         */
+        @Nonnull
+        public Builder idleConnections(int maxIdleConnections, @Nonnull Duration keepAlive) {
+            if (maxIdleConnections < 0 || keepAlive.isNegative() || keepAlive.isZero()) {
+                throw new IllegalArgumentException("Invalid connection pool limits");
+            }
+            this.maxIdleConnections = maxIdleConnections;
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        /**
+         * Sets the connection timeout.
+         * @param timeout the timeout, zero for no timeout (default is 10 seconds)
+         * @return this builder
+         */
+        @Nonnull
+        public Builder connectTimeout(@Nonnull Duration timeout) {
+            client.connectTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            return this;
+        }
+
+        /**
+         * Sets the read timeout.
+         * <br>It is the maximum time between two packets of a response. Recursive listings of huge folders may take long before
+         * their first byte is sent.
+         * @param timeout the timeout, zero for no timeout (default is 10 seconds)
+         * @return this builder
+         */
+        @Nonnull
+        public Builder readTimeout(@Nonnull Duration timeout) {
+            client.readTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            return this;
+        }
+
+        /**
+         * Sets the write timeout.
+         * @param timeout the timeout, zero for no timeout (default is 10 seconds)
+         * @return this builder
+         */
+        @Nonnull
+        public Builder writeTimeout(@Nonnull Duration timeout) {
+            client.writeTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            return this;
+        }
+
+        /**
+         * Builds the transport.
+         * @return a new transport
+         */
+        @Nonnull
+        public Transport build() {
+            final Dispatcher dispatcher = threadFactory == null ? new Dispatcher() : dispatcher(threadFactory);
+            dispatcher.setMaxRequests(maxRequests);
+            dispatcher.setMaxRequestsPerHost(maxRequestsPerHost < 0 ? maxRequests : maxRequestsPerHost);
+            return new Transport(client, dispatcher, new ConnectionPool(maxIdleConnections, keepAlive.toMillis(), TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private final OkHttpClient client;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder totalQueueDelay = new LongAdder();
+    private final AtomicLong maxQueueDelay = new AtomicLong();
+    /** The time the calls that were not yet dispatched were started. */
+    private final Map<Call, Long> started = new ConcurrentHashMap<>();
+
+    private Transport(OkHttpClient.Builder builder, Dispatcher dispatcher, ConnectionPool pool) {
+        this.client = builder.dispatcher(dispatcher).connectionPool(pool).eventListener(new QueueListener()).addInterceptor(this::dispatched).build();
+    }
+
+    /**
+     * Creates a dispatcher whose threads are created by a factory.
+     * <br>Like OkHttp's default dispatcher, a thread is created for each request if no idle thread is available, idle threads
+     * are kept for 60 seconds.
+     * @param threadFactory the thread factory
+     * @return a new dispatcher
+     */
+    static Dispatcher dispatcher(ThreadFactory threadFactory) {
+        return new Dispatcher(new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), threadFactory));
+    }
+
+    /**
+     * Creates a new builder.
+     * @return a new builder
+     */
+    @Nonnull
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Records the time calls are started.
+     * <br>OkHttp starts an enqueued call before the dispatcher queues it.
+     */
+    private class QueueListener extends EventListener {
+        @Override
+        public void callStart(Call call) {
+            started.put(call, System.nanoTime());
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            started.remove(call);
+        }
+
+        @Override
+        public void callFailed(Call call, IOException e) {
+            // The call may fail before being dispatched, for instance if it is cancelled while queued
+            started.remove(call);
+        }
+    }
+
+    /**
+     * Measures the queue delay of a call.
+     * <br>Application interceptors run when the dispatcher executes the call, once it has left the queue.
+     * @param chain the interceptor chain
+     * @return the response
+     * @throws IOException if the call fails
+     */
+    private Response dispatched(Interceptor.Chain chain) throws IOException {
+        final Long start = started.remove(chain.call());
+        if (start != null) {
+            final long delay = System.nanoTime() - start;
+            requests.increment();
+            totalQueueDelay.add(delay);
+            maxQueueDelay.accumulateAndGet(delay, Math::max);
+        }
+        return chain.proceed(chain.request());
+    }
+
+    /**
+     * Gets the OkHttp client of this transport.
+     * @return an OkHttp client
+     */
+    @Nonnull
+    OkHttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * Gets the statistics about the time requests spent waiting before being executed.
+     * @return the statistics since the transport was created
+     */
+    @Nonnull
+    public Stats getStats() {
+        return new Stats(requests.sum(), Duration.ofNanos(totalQueueDelay.sum()), Duration.ofNanos(maxQueueDelay.get()));
+    }
+
+    /**
+     * Closes this transport.
+     * <br>The dispatcher threads are stopped and the idle connections are closed.
+     */
+    @Override
+    public void close() {
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+    }
+}
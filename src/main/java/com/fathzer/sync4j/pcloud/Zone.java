@@ -1,6 +1,9 @@
 package com.fathzer.sync4j.pcloud;
 
 import java.net.URI;
+import java.util.List;
+
+import com.fathzer.sync4j.HashAlgorithm;
 
 import jakarta.annotation.Nonnull;
 
@@ -16,16 +19,20 @@ public enum Zone {
     /**
      * European zone.
      */
-    EU(URI.create("https://eapi.pcloud.com")),
+    EU(URI.create("https://eapi.pcloud.com"), "bineapi.pcloud.com", List.of(HashAlgorithm.SHA1, HashAlgorithm.SHA256)),
     /**
      * US zone.
      */
-    US(URI.create("https://api.pcloud.com"));
+    US(URI.create("https://api.pcloud.com"), "binapi.pcloud.com", List.of(HashAlgorithm.SHA1, HashAlgorithm.MD5));
     
     private final URI uri;
+    private final String binaryHost;
+    private final List<HashAlgorithm> hashAlgorithms;
     
-    private Zone(URI uri) {
+    private Zone(URI uri, String binaryHost, List<HashAlgorithm> hashAlgorithms) {
         this.uri = uri;
+        this.binaryHost = binaryHost;
+        this.hashAlgorithms = hashAlgorithms;
     }
 
     /**
@@ -36,4 +43,24 @@ public enum Zone {
     public URI getRootURI() {
         return this.uri;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the host of the zone's binary API.
+     * <br>It accepts TLS connections on port 443.
+     * @return a host name
+     */
+    @Nonnull
+    public String getBinaryHost() {
+        return this.binaryHost;
+    }
+
+    /**
+     * Returns the hash algorithms the zone's API computes for files.
+     * <br>SHA1 is available in every zone, the other algorithms depend on the zone.
+     * @return an unmodifiable list of hash algorithms
+     */
+    @Nonnull
+    public List<HashAlgorithm> getHashAlgorithms() {
+        return this.hashAlgorithms;
+    }
+}
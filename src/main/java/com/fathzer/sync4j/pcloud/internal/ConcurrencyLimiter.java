@@ -0,0 +1,168 @@
+package com.fathzer.sync4j.pcloud.internal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A limiter of concurrent calls with an additive-increase/multiplicative-decrease (AIMD) limit.
+ * <br>
+ * The limit is halved when a call is throttled, and increased by about one each time <i>limit</i> calls succeed.
+ * It always stays between 1 and the maximum limit.
+ * <br>
+ * The limit is halved at most once per window: the calls that were already allowed when the limit was decreased report the same
+ * congestion as the call that decreased it, their throttling is ignored. To know when a call was allowed, the limiter returns a ticket
+ * that is given back when the call ends.
+ * <br>
+ * Waiting threads are parked with a {@link ReentrantLock}, not with a monitor, so that virtual threads that wait are not pinned
+ * to their carrier thread. Asynchronous callers do not wait at all, see {@link #acquireAsync()}.
+ */
+public class ConcurrencyLimiter {
+    private final int maxLimit;
+    private double limit;
+    private int inFlight;
+    /** The number of times the limit was decreased, the tickets are the value it had when the calls were allowed. */
+    private long decreases;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    /** The asynchronous callers that wait for a call slot, they are served before the waiting threads. */
+    private final Queue<CompletableFuture<Long>> waiters = new ArrayDeque<>();
+
+    /**
+     * Constructor.
+     * <br>The limit starts at its maximum value.
+     * @param maxLimit the maximum limit
+     * @throws IllegalArgumentException if maxLimit is not strictly positive
+     */
+    public ConcurrencyLimiter(int maxLimit) {
+        if (maxLimit <= 0) {
+            throw new IllegalArgumentException("Max limit should be strictly positive");
+        }
+        this.maxLimit = maxLimit;
+        this.limit = maxLimit;
+    }
+
+    /**
+     * Waits until a call is allowed.
+     * <br>Each successful call to this method should be followed by a call to {@link #release(long, boolean)}.
+     * @return the ticket of the call, to give to {@link #release(long, boolean)}
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public long acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= (int) limit) {
+                released.await();
+            }
+            inFlight++;
+            return decreases;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Requests a call slot without waiting.
+     * <br>Once the returned future is completed, {@link #release(long, boolean)} should be called at the end of the call.
+     * Cancelling the future before it is completed withdraws the request.
+     * @return a future completed with the ticket of the call, possibly by the thread that releases a slot, when the call is allowed
+     */
+    public CompletableFuture<Long> acquireAsync() {
+        lock.lock();
+        try {
+            if (waiters.isEmpty() && inFlight < (int) limit) {
+                inFlight++;
+                return CompletableFuture.completedFuture(decreases);
+            }
+            final CompletableFuture<Long> waiter = new CompletableFuture<>();
+            waiters.add(waiter);
+            return waiter;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Signals the end of a call.
+     * @param ticket the ticket returned when the call was allowed
+     * @param throttled true if the call was throttled
+     */
+    public void release(long ticket, boolean throttled) {
+        final List<CompletableFuture<Long>> granted;
+        final long grantedTicket;
+        lock.lock();
+        try {
+            inFlight--;
+            if (!throttled) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            } else if (ticket == decreases) {
+                // The call was allowed after the last decrease
+                limit = Math.max(1, limit / 2);
+                decreases++;
+            }
+            granted = grant();
+            grantedTicket = decreases;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        complete(granted, grantedTicket);
+    }
+
+    /**
+     * Gives the free slots to the asynchronous waiters.
+     * <br>This method should be called while holding the lock, the waiters are completed outside of it by {@link #complete(List, long)}.
+     * @return the granted waiters
+     */
+    private List<CompletableFuture<Long>> grant() {
+        List<CompletableFuture<Long>> granted = List.of();
+        while (!waiters.isEmpty() && inFlight < (int) limit) {
+            final CompletableFuture<Long> waiter = waiters.remove();
+            if (!waiter.isDone()) {
+                if (granted.isEmpty()) {
+                    granted = new ArrayList<>();
+                }
+                granted.add(waiter);
+                inFlight++;
+            }
+        }
+        return granted;
+    }
+
+    private void complete(List<CompletableFuture<Long>> granted, long ticket) {
+        for (CompletableFuture<Long> waiter : granted) {
+            if (!waiter.complete(ticket)) {
+                // Cancelled after the slot was granted, the slot is given back without changing the limit
+                final List<CompletableFuture<Long>> next;
+                final long nextTicket;
+                lock.lock();
+                try {
+                    inFlight--;
+                    next = grant();
+                    nextTicket = decreases;
+                    released.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                complete(next, nextTicket);
+            }
+        }
+    }
+
+    /**
+     * Gets the current limit.
+     * @return the maximum number of concurrent calls currently allowed
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
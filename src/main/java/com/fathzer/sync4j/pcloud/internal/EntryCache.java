@@ -0,0 +1,281 @@
+package com.fathzer.sync4j.pcloud.internal;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.LongSupplier;
+
+import com.fathzer.sync4j.pcloud.internal.api.Metadata;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+/**
+ * A bounded, thread safe, cache of remote entries.
+ * <br>
+ * Entries are keyed by their path and evicted in least recently used order when the cache is full.
+ * They expire after a fixed time to live.
+ * <br>
+ * The cache can also remember that a path does not exist (negative entries).
+ * Folders are also indexed by their folder id.
+ * <br>
+ * When the whole content of a folder is cached (see {@link #putListing(String, Metadata, Collection)}), paths in this folder
+ * that are not in the cache are known to be missing, without any negative entry.
+ */
+public class EntryCache {
+    /**
+     * A cached entry.
+     * @param entry the remote entry, null if the path is known to be missing.
+     */
+    public record CachedEntry(@Nullable Metadata entry) {
+        /**
+         * Tests whether the cached path exists.
+         * @return true if the path exists
+         */
+        public boolean exists() {
+            return entry != null;
+        }
+    }
+
+    private record Value(CachedEntry cached, long expiry) {}
+
+    private final int maxSize;
+    private final long ttl;
+    private final LongSupplier clock;
+    private final LinkedHashMap<String, Value> byPath;
+    private final Map<Long, String> pathByFolderId;
+    /** The expiry of the folders whose children are all in the cache, keyed by folder path. */
+    private final Map<String, Long> listings;
+
+    /**
+     * Constructor.
+     * @param maxSize the maximum number of entries in the cache
+     * @param timeToLive the time after which an entry expires
+     * @throws IllegalArgumentException if maxSize is not strictly positive or timeToLive is negative
+     */
+    public EntryCache(int maxSize, @Nonnull Duration timeToLive) {
+        this(maxSize, timeToLive, System::nanoTime);
+    }
+
+    EntryCache(int maxSize, Duration timeToLive, LongSupplier nanoClock) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Max size should be strictly positive");
+        }
+        if (timeToLive.isNegative()) {
+            throw new IllegalArgumentException("Time to live can't be negative");
+        }
+        this.maxSize = maxSize;
+        this.ttl = timeToLive.toNanos();
+        this.clock = nanoClock;
+        this.byPath = new LinkedHashMap<>(16, 0.75f, true);
+        this.pathByFolderId = new HashMap<>();
+        this.listings = new HashMap<>();
+    }
+
+    /**
+     * Gets a cached entry.
+     * @param path the path of the entry
+     * @return the cached entry or null if the path is not in the cache or has expired
+     */
+    @Nullable
+    public synchronized CachedEntry get(@Nonnull String path) {
+        final Value value = byPath.get(path);
+        if (value == null) {
+            return isInListing(path) ? new CachedEntry(null) : null;
+        }
+        if (isExpired(value)) {
+            remove(path);
+            return null;
+        }
+        return value.cached();
+    }
+
+    private boolean isInListing(String path) {
+        final int index = path.lastIndexOf('/');
+        if (index < 0) {
+            return false;
+        }
+        final String parent = path.substring(0, index);
+        final Long expiry = listings.get(parent);
+        if (expiry == null) {
+            return false;
+        }
+        if (clock.getAsLong() - expiry > 0) {
+            listings.remove(parent);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gets a cached folder by its id.
+     * @param folderId the folder id
+     * @return the folder or null if the folder is not in the cache or has expired
+     */
+    @Nullable
+    public synchronized Metadata getFolder(long folderId) {
+        final String path = pathByFolderId.get(folderId);
+        if (path == null) {
+            return null;
+        }
+        final CachedEntry cached = get(path);
+        return cached == null ? null : cached.entry();
+    }
+
+    /**
+     * Gets the path of a cached folder.
+     * @param folderId the folder id
+     * @return the path of the folder or null if the folder is not in the cache
+     */
+    @Nullable
+    public synchronized String getPath(long folderId) {
+        final String path = pathByFolderId.get(folderId);
+        return path == null || get(path) == null ? null : path;
+    }
+
+    /**
+     * Puts an existing entry in the cache.
+     * @param path the path of the entry
+     * @param entry the entry
+     */
+    public synchronized void put(@Nonnull String path, @Nonnull Metadata entry) {
+        doPut(path, new CachedEntry(Objects.requireNonNull(entry)));
+        if (entry.isFolder()) {
+            pathByFolderId.put(entry.id(), path);
+        }
+    }
+
+    /**
+     * Puts a folder and all its children in the cache.
+     * <br>Until they expire, paths in this folder that are not in the cache are known to be missing.
+     * If the cache is too small to contain all the children, they are put like any other entry.
+     * <br>Cached entries of the folder that are not in <code>children</code> are discarded with their descendants.
+     * @param path the path of the folder
+     * @param folder the folder
+     * @param children the children of the folder
+     */
+    public synchronized void putListing(@Nonnull String path, @Nonnull Metadata folder, @Nonnull Collection<Metadata> children) {
+        removeStaleChildren(path, children);
+        put(path, folder);
+        for (Metadata child : children) {
+            put(RemotePath.child(path, child.name()), child);
+        }
+        // Evicting a child of the folder or the folder itself discards the listing, so mark it when everything is put
+        if (children.size() < maxSize) {
+            // Keyed by the trimmed path, the parent path computed from a child of the root is empty
+            listings.put(RemotePath.trim(path), clock.getAsLong() + ttl);
+        }
+    }
+
+    private void removeStaleChildren(String path, Collection<Metadata> children) {
+        // Otherwise, a child deleted since it was cached would still exist, despite the listing
+        final Set<String> names = new HashSet<>();
+        for (Metadata child : children) {
+            names.add(child.name());
+        }
+        final String prefix = RemotePath.child(path, "");
+        final Iterator<Map.Entry<String, Value>> iterator = byPath.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Value> entry = iterator.next();
+            final String key = entry.getKey();
+            if (key.startsWith(prefix)) {
+                final int end = key.indexOf('/', prefix.length());
+                if (!names.contains(end < 0 ? key.substring(prefix.length()) : key.substring(prefix.length(), end))) {
+                    iterator.remove();
+                    discarded(key, entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Remembers that a path does not exist.
+     * @param path the missing path
+     */
+    public synchronized void putMissing(@Nonnull String path) {
+        doPut(path, new CachedEntry(null));
+    }
+
+    /**
+     * Remembers that an entry was deleted.
+     * <br>The path is marked as missing and all its cached descendants are discarded.
+     * @param path the path of the deleted entry
+     */
+    public synchronized void delete(@Nonnull String path) {
+        final String prefix = RemotePath.child(path, "");
+        final Iterator<Map.Entry<String, Value>> iterator = byPath.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Value> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                iterator.remove();
+                discarded(entry.getKey(), entry.getValue());
+            }
+        }
+        listings.remove(RemotePath.trim(path));
+        putMissing(path);
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public synchronized void clear() {
+        byPath.clear();
+        pathByFolderId.clear();
+        listings.clear();
+    }
+
+    /**
+     * Gets the number of entries in the cache, including expired ones that were not yet discarded.
+     * @return a positive or null integer
+     */
+    public synchronized int size() {
+        return byPath.size();
+    }
+
+    private void doPut(String path, CachedEntry cached) {
+        final Value previous = byPath.put(path, new Value(cached, clock.getAsLong() + ttl));
+        if (previous != null) {
+            unindex(path, previous);
+        }
+        if (byPath.size() > maxSize) {
+            final Iterator<Map.Entry<String, Value>> iterator = byPath.entrySet().iterator();
+            final Map.Entry<String, Value> eldest = iterator.next();
+            iterator.remove();
+            discarded(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    private void remove(String path) {
+        final Value value = byPath.remove(path);
+        if (value != null) {
+            discarded(path, value);
+        }
+    }
+
+    private void discarded(String path, Value value) {
+        unindex(path, value);
+        // The folder's listing is no more complete
+        listings.remove(RemotePath.trim(path));
+        final int index = path.lastIndexOf('/');
+        if (index >= 0) {
+            listings.remove(path.substring(0, index));
+        }
+    }
+
+    private void unindex(String path, Value value) {
+        final Metadata entry = value.cached().entry();
+        if (entry != null && entry.isFolder()) {
+            pathByFolderId.remove(entry.id(), path);
+        }
+    }
+
+    private boolean isExpired(Value value) {
+        return clock.getAsLong() - value.expiry() > 0;
+    }
+}
@@ -0,0 +1,269 @@
+package com.fathzer.sync4j.pcloud.internal;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fathzer.sync4j.pcloud.internal.api.FileHashes;
+import com.fathzer.sync4j.pcloud.internal.api.Metadata;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+/**
+ * A bounded, thread safe, cache of file hashes.
+ * <br>
+ * Hashes are evicted in least recently used order when the cache is full.
+ * <br>
+ * Hashes are keyed by file id. As pCloud keeps the file id when a file is overwritten, each cached hash also remembers
+ * the size, the modification time and, if known, the content hash of the file it was computed for.
+ * A cached hash is returned only if the file still matches them.
+ * <br>
+ * The cache can be saved to a file and loaded again, so that hashes of unchanged files survive from one run to another.
+ * Each hash remembers the last day it was used or put. Hashes that were not seen for longer than the maximum age are pruned,
+ * so that the file does not keep growing with the hashes of files that are no longer synchronized, while a run that only
+ * synchronizes a part of the tree does not lose the hashes of the other parts.
+ */
+public class HashCache {
+    private record Value(long size, long modified, long hash, FileHashes hashes, long seenDay) {
+        private boolean matches(Metadata file) {
+            return size == file.size() && modified == file.modified() && (hash == 0 || file.hash() == 0 || hash == file.hash());
+        }
+    }
+
+    private static final String HEADER = "pcloud-hashes 2";
+    /** The header of the files written before the last seen day was saved. */
+    private static final String HEADER_V1 = "pcloud-hashes 1";
+    private static final String NONE = "-";
+    private static final long DAY_MILLIS = Duration.ofDays(1).toMillis();
+
+    /** The default maximum number of files in the cache. */
+    public static final int DEFAULT_MAX_SIZE = 100_000;
+    /** The default time after which a hash that is not used is pruned. */
+    public static final Duration DEFAULT_MAX_AGE = Duration.ofDays(30);
+
+    private final int maxSize;
+    private final long maxAgeDays;
+    private final Clock clock;
+    private final LinkedHashMap<Long, Value> byId;
+    private boolean modified;
+
+    /**
+     * Constructor of a cache of {@link #DEFAULT_MAX_SIZE} files, whose hashes are pruned after {@link #DEFAULT_MAX_AGE}.
+     */
+    public HashCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_MAX_AGE);
+    }
+
+    /**
+     * Constructor of a cache whose hashes are pruned after {@link #DEFAULT_MAX_AGE}.
+     * @param maxSize the maximum number of files in the cache
+     * @throws IllegalArgumentException if maxSize is not strictly positive
+     */
+    public HashCache(int maxSize) {
+        this(maxSize, DEFAULT_MAX_AGE);
+    }
+
+    /**
+     * Constructor.
+     * @param maxSize the maximum number of files in the cache
+     * @param maxAge the time after which a hash that is not used is pruned. It is counted in days, rounded down.
+     * @throws IllegalArgumentException if maxSize is not strictly positive or maxAge is shorter than a day
+     */
+    public HashCache(int maxSize, @Nonnull Duration maxAge) {
+        this(maxSize, maxAge, Clock.systemUTC());
+    }
+
+    // Also used by tests
+    HashCache(int maxSize, Duration maxAge, Clock clock) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Max size should be strictly positive");
+        }
+        if (maxAge.toDays() < 1) {
+            throw new IllegalArgumentException("Max age should be at least one day");
+        }
+        this.maxSize = maxSize;
+        this.maxAgeDays = maxAge.toDays();
+        this.clock = clock;
+        this.byId = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    private long today() {
+        return clock.millis() / DAY_MILLIS;
+    }
+
+    /**
+     * Gets the hashes of a file.
+     * @param file the file
+     * @return the hashes, null if they are not in the cache or if the file has changed since they were cached
+     */
+    @Nullable
+    public synchronized FileHashes get(@Nonnull Metadata file) {
+        final Value value = byId.get(file.id());
+        if (value == null) {
+            return null;
+        }
+        if (!value.matches(file)) {
+            byId.remove(file.id());
+            modified = true;
+            return null;
+        }
+        final long today = today();
+        if (value.seenDay() != today) {
+            // At most once a day for each file
+            byId.put(file.id(), new Value(value.size(), value.modified(), value.hash(), value.hashes(), today));
+            modified = true;
+        }
+        return value.hashes();
+    }
+
+    /**
+     * Puts the hashes of a file in the cache.
+     * @param file the file
+     * @param hashes its hashes
+     */
+    public synchronized void put(@Nonnull Metadata file, @Nonnull FileHashes hashes) {
+        doPut(file.id(), new Value(file.size(), file.modified(), file.hash(), hashes, today()));
+        modified = true;
+    }
+
+    private void doPut(long id, Value value) {
+        byId.put(id, value);
+        if (byId.size() > maxSize) {
+            final Iterator<Long> iterator = byId.keySet().iterator();
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes all the hashes from the cache.
+     */
+    public synchronized void clear() {
+        byId.clear();
+        modified = true;
+    }
+
+    /**
+     * Gets the number of files in the cache.
+     * @return an int
+     */
+    public synchronized int size() {
+        return byId.size();
+    }
+
+    /**
+     * Loads hashes previously saved by {@link #save(Path)}.
+     * <br>Loaded hashes are added to the ones already in the cache. If there are too many of them, the first ones read are evicted.
+     * Hashes older than the maximum age are ignored.
+     * @param file the file to read. If it does not exist, the cache is left unchanged.
+     * @throws IOException if an I/O error occurs or the file is not a valid hash cache
+     */
+    public void load(@Nonnull Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            final String header = reader.readLine();
+            // Files written before the last seen day was saved are considered as seen today
+            final boolean dated = HEADER.equals(header);
+            if (!dated && !HEADER_V1.equals(header)) {
+                throw new IOException("Invalid hash cache file " + file);
+            }
+            final long today = today();
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                final String[] fields = line.split(" ");
+                if (fields.length != (dated ? 8 : 7)) {
+                    throw new IOException("Invalid hash cache file " + file);
+                }
+                try {
+                    final FileHashes hashes = new FileHashes(fields[4], nullable(fields[5]), nullable(fields[6]));
+                    final long id = Long.parseLong(fields[0]);
+                    final long seenDay = dated ? Long.parseLong(fields[7]) : today;
+                    if (isExpired(seenDay, today)) {
+                        continue;
+                    }
+                    final Value value = new Value(Long.parseLong(fields[1]), Long.parseLong(fields[2]), Long.parseUnsignedLong(fields[3]), hashes, seenDay);
+                    synchronized (this) {
+                        if (!byId.containsKey(id)) {
+                            doPut(id, value);
+                        }
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid hash cache file " + file, e);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // Nothing was saved yet
+        }
+    }
+
+    private boolean isExpired(long seenDay, long today) {
+        return today - seenDay > maxAgeDays;
+    }
+
+    /**
+     * Saves the cache to a file.
+     * <br>The hashes that were not seen (got or put) for longer than the maximum age are pruned from the cache and are not saved.
+     * <br>The file is written only if the cache has changed since it was last saved or loaded. It is replaced atomically
+     * (if the file system supports it) so that a crash during the save does not corrupt it.
+     * @param file the file to write
+     * @throws IOException if an I/O error occurs
+     */
+    public void save(@Nonnull Path file) throws IOException {
+        // Copy the entries, so that the cache is not locked while writing
+        final List<Map.Entry<Long, Value>> entries;
+        synchronized (this) {
+            final long today = today();
+            if (byId.values().removeIf(value -> isExpired(value.seenDay(), today))) {
+                modified = true;
+            }
+            if (!modified) {
+                return;
+            }
+            modified = false;
+            entries = new ArrayList<>(byId.size());
+            byId.forEach((id, value) -> entries.add(Map.entry(id, value)));
+        }
+        final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Map.Entry<Long, Value> entry : entries) {
+                final Value value = entry.getValue();
+                final FileHashes hashes = value.hashes();
+                writer.write(entry.getKey() + " " + value.size() + " " + value.modified() + " " + Long.toUnsignedString(value.hash()) + " " +
+                        hashes.sha1() + " " + notNull(hashes.md5()) + " " + notNull(hashes.sha256()) + " " + value.seenDay());
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                modified = true;
+            }
+            throw e;
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String nullable(String field) {
+        return NONE.equals(field) ? null : field;
+    }
+
+    private static String notNull(String hash) {
+        return hash == null ? NONE : hash;
+    }
+}
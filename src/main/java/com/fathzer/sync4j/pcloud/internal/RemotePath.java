@@ -0,0 +1,51 @@
+package com.fathzer.sync4j.pcloud.internal;
+
+import jakarta.annotation.Nonnull;
+
+/**
+ * Helpers to build and compare the paths of the entries of a provider.
+ * <br>The root folder's path may be empty or be a single separator, its children get the same path in both cases.
+ */
+public final class RemotePath {
+    private static final char SEPARATOR = '/';
+
+    private RemotePath() {
+        // Utility class - prevent instantiation
+    }
+
+    /**
+     * Gets the path of a child.
+     * @param parent the path of the parent folder
+     * @param name the name of the child
+     * @return the path of the child
+     */
+    @Nonnull
+    public static String child(@Nonnull String parent, @Nonnull String name) {
+        return endsWithSeparator(parent) ? parent + name : parent + SEPARATOR + name;
+    }
+
+    /**
+     * Tests whether a path is a folder or one of its descendants.
+     * @param path a path
+     * @param folder the path of the folder
+     * @return true if <code>path</code> is <code>folder</code> or is under <code>folder</code>
+     */
+    public static boolean isIn(@Nonnull String path, @Nonnull String folder) {
+        return path.equals(folder) || path.startsWith(child(folder, ""));
+    }
+
+    /**
+     * Gets the path of a folder without its trailing separator, the root folder's path becomes empty.
+     * <br>It allows a folder to be found from the path of its children, whatever the way the root folder's path is written.
+     * @param folder the path of a folder
+     * @return the path without trailing separator
+     */
+    @Nonnull
+    public static String trim(@Nonnull String folder) {
+        return endsWithSeparator(folder) ? folder.substring(0, folder.length() - 1) : folder;
+    }
+
+    private static boolean endsWithSeparator(String path) {
+        return !path.isEmpty() && path.charAt(path.length() - 1) == SEPARATOR;
+    }
+}
@@ -0,0 +1,123 @@
+package com.fathzer.sync4j.pcloud.internal;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+import jakarta.annotation.Nonnull;
+
+/**
+ * A coalescer of identical concurrent calls.
+ * <br>
+ * When a call is requested with a key while another call with the same key is in progress, the second caller does not
+ * perform the call but waits for the result (or the exception) of the first one.
+ * Results are not cached: once a call is completed, the next call with the same key is performed again.
+ * @param <K> the type of the keys
+ * @param <V> the type of the results
+ */
+public class SingleFlight<K, V> {
+    /**
+     * A call that may throw an IOException.
+     * @param <V> the type of the result
+     */
+    @FunctionalInterface
+    public interface IOCall<V> {
+        /**
+         * Performs the call.
+         * @return the result
+         * @throws IOException if an I/O error occurs
+         */
+        V call() throws IOException;
+    }
+
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Performs a call or waits for the identical call in progress.
+     * @param key the key that identifies the call
+     * @param call the call
+     * @return the result of the call
+     * @throws IOException if the call throws an IOException or the current thread is interrupted while waiting
+     */
+    public V execute(@Nonnull K key, @Nonnull IOCall<V> call) throws IOException {
+        final CompletableFuture<V> future = new CompletableFuture<>();
+        final CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            return join(existing);
+        }
+        try {
+            final V result = call.call();
+            future.complete(result);
+            return result;
+        } catch (IOException | RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Starts an asynchronous call or joins the identical call in progress.
+     * <br>Blocking and asynchronous calls with the same key are shared.
+     * <br>Cancelling the returned future does not cancel the shared call, the other callers still get its result.
+     * @param key the key that identifies the call
+     * @param call the function that starts the call
+     * @return a future completed with the result or the exception of the call
+     */
+    @Nonnull
+    public CompletableFuture<V> executeAsync(@Nonnull K key, @Nonnull Supplier<CompletableFuture<V>> call) {
+        final CompletableFuture<V> future = new CompletableFuture<>();
+        final CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            return existing.copy();
+        }
+        final CompletableFuture<V> started;
+        try {
+            started = call.get();
+        } catch (RuntimeException | Error e) {
+            inFlight.remove(key, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+        started.whenComplete((result, e) -> {
+            inFlight.remove(key, future);
+            if (e == null) {
+                future.complete(result);
+            } else {
+                future.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            }
+        });
+        return future.copy();
+    }
+
+    private V join(CompletableFuture<V> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException ex) {
+                throw ex;
+            } else if (cause instanceof RuntimeException ex) {
+                throw ex;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * Gets the number of calls in progress.
+     * @return an int
+     */
+    public int size() {
+        return inFlight.size();
+    }
+}
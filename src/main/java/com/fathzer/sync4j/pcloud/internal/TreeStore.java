@@ -0,0 +1,325 @@
+package com.fathzer.sync4j.pcloud.internal;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.fathzer.sync4j.pcloud.internal.api.Listing;
+import com.fathzer.sync4j.pcloud.internal.api.Metadata;
+
+import jakarta.annotation.Nonnull;
+
+/**
+ * A compact, immutable, representation of a remote folder tree.
+ * <br>
+ * Nodes are identified by an index. Their metadata is stored in primitive arrays and names that occur several times are
+ * shared. The children of a folder have consecutive indexes, from {@link #firstChild(int)} to
+ * <code>firstChild(node)+{@link #childCount(int)}-1</code>.
+ * <br>
+ * A folder may be not listed, typically because an error occurred while loading it. In such a case, the folder has no children
+ * in the store and its content should be loaded from the remote server.
+ */
+public final class TreeStore {
+    private final long rootParentFolderId;
+    private final long[] ids;
+    private final long[] sizes;
+    private final long[] created;
+    private final long[] modified;
+    private final long[] hashes;
+    private final String[] names;
+    private final int[] parents;
+    private final int[] firstChildren;
+    private final int[] childCounts;
+    private final BitSet folders;
+    private final BitSet listed;
+
+    private TreeStore(long rootParentFolderId, int size) {
+        this.rootParentFolderId = rootParentFolderId;
+        this.ids = new long[size];
+        this.sizes = new long[size];
+        this.created = new long[size];
+        this.modified = new long[size];
+        this.hashes = new long[size];
+        this.names = new String[size];
+        this.parents = new int[size];
+        this.firstChildren = new int[size];
+        this.childCounts = new int[size];
+        this.folders = new BitSet(size);
+        this.listed = new BitSet(size);
+    }
+
+    /**
+     * Gets the index of the root folder of the tree.
+     * @return an int
+     */
+    public int root() {
+        return 0;
+    }
+
+    /**
+     * Gets the number of nodes in the tree.
+     * @return a strictly positive int
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Tests whether a node is a folder.
+     * @param node the node index
+     * @return true if the node is a folder
+     */
+    public boolean isFolder(int node) {
+        return folders.get(node);
+    }
+
+    /**
+     * Tests whether the content of a node is in this store.
+     * @param node the node index
+     * @return true if the node is a folder whose children are in the store
+     */
+    public boolean isListed(int node) {
+        return listed.get(node);
+    }
+
+    /**
+     * Gets the index of the first child of a folder.
+     * @param node the node index
+     * @return the index of the first child (meaningless if the folder has no children)
+     */
+    public int firstChild(int node) {
+        return firstChildren[node];
+    }
+
+    /**
+     * Gets the number of children of a folder.
+     * @param node the node index
+     * @return the number of children (0 for files)
+     */
+    public int childCount(int node) {
+        return childCounts[node];
+    }
+
+    /**
+     * Gets the remote id of a node.
+     * @param node the node index
+     * @return the file id or the folder id
+     */
+    public long id(int node) {
+        return ids[node];
+    }
+
+    /**
+     * Gets the remote id of the parent folder of a node.
+     * @param node the node index
+     * @return a folder id
+     */
+    public long parentFolderId(int node) {
+        final int parent = parents[node];
+        return parent < 0 ? rootParentFolderId : ids[parent];
+    }
+
+    /**
+     * Gets the name of a node.
+     * @param node the node index
+     * @return a String
+     */
+    @Nonnull
+    public String name(int node) {
+        return names[node];
+    }
+
+    /**
+     * Gets the size of a node.
+     * @param node the node index
+     * @return the size of the file (0 for folders)
+     */
+    public long size(int node) {
+        return sizes[node];
+    }
+
+    /**
+     * Gets the creation time of a node.
+     * @param node the node index
+     * @return a time in milliseconds since epoch
+     */
+    public long created(int node) {
+        return created[node];
+    }
+
+    /**
+     * Gets the last modification time of a node.
+     * @param node the node index
+     * @return a time in milliseconds since epoch
+     */
+    public long modified(int node) {
+        return modified[node];
+    }
+
+    /**
+     * Gets the content hash of a node.
+     * @param node the node index
+     * @return the 64 bits content hash (0 for folders or if unknown)
+     */
+    public long hash(int node) {
+        return hashes[node];
+    }
+
+    /**
+     * Gets the metadata of a node.
+     * <br>This method allocates a new instance on every call, prefer the field accessors when only some fields are needed.
+     * @param node the node index
+     * @return a new metadata instance
+     */
+    @Nonnull
+    public Metadata metadata(int node) {
+        return new Metadata(ids[node], folders.get(node), parentFolderId(node), names[node],
+                sizes[node], created[node], modified[node], hashes[node]);
+    }
+
+    /**
+     * A builder of {@link TreeStore}.
+     * <br>Entries can be added in any order and concurrently.
+     */
+    public static final class Builder {
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private int size;
+        private long[] ids = new long[INITIAL_CAPACITY];
+        private long[] parentIds = new long[INITIAL_CAPACITY];
+        private long[] sizes = new long[INITIAL_CAPACITY];
+        private long[] created = new long[INITIAL_CAPACITY];
+        private long[] modified = new long[INITIAL_CAPACITY];
+        private long[] hashes = new long[INITIAL_CAPACITY];
+        private String[] names = new String[INITIAL_CAPACITY];
+        private final BitSet folders = new BitSet();
+        private final Set<Long> listedFolders = new HashSet<>();
+        private final Map<String, String> sharedNames = new HashMap<>();
+
+        /**
+         * Adds an entry.
+         * @param entry the entry to add
+         */
+        public synchronized void add(@Nonnull Metadata entry) {
+            if (size == ids.length) {
+                grow();
+            }
+            ids[size] = entry.id();
+            parentIds[size] = entry.parentFolderId();
+            sizes[size] = entry.size();
+            created[size] = entry.created();
+            modified[size] = entry.modified();
+            hashes[size] = entry.hash();
+            names[size] = sharedNames.computeIfAbsent(entry.name(), n -> n);
+            folders.set(size, entry.isFolder());
+            size++;
+        }
+
+        /**
+         * Declares that all the children of a folder were added (or will be added) to this builder.
+         * @param folderId the folder id
+         */
+        public synchronized void listed(long folderId) {
+            listedFolders.add(folderId);
+        }
+
+        /**
+         * Adds the children of a folder listing and declares the folder as listed.
+         * <br>The listed folder itself is not added.
+         * @param listing the listing
+         */
+        public synchronized void add(@Nonnull Listing listing) {
+            for (Metadata child : listing.children()) {
+                add(child);
+            }
+            listed(listing.folder().id());
+        }
+
+        private void grow() {
+            final int capacity = ids.length * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            parentIds = Arrays.copyOf(parentIds, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            created = Arrays.copyOf(created, capacity);
+            modified = Arrays.copyOf(modified, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            names = Arrays.copyOf(names, capacity);
+        }
+
+        /**
+         * Builds the tree.
+         * <br>Entries that are not descendants of the root folder are ignored.
+         * @param rootFolderId the id of the tree's root folder
+         * @return a new tree store
+         * @throws IllegalStateException if the root folder was not added
+         */
+        @Nonnull
+        public synchronized TreeStore build(long rootFolderId) {
+            // Index folders by id
+            final Map<Long, Integer> folderIndexes = new HashMap<>();
+            for (int i = folders.nextSetBit(0); i >= 0 && i < size; i = folders.nextSetBit(i + 1)) {
+                folderIndexes.put(ids[i], i);
+            }
+            final Integer root = folderIndexes.get(rootFolderId);
+            if (root == null) {
+                throw new IllegalStateException("Root folder " + rootFolderId + " is missing");
+            }
+            // Compute children of each node (compressed sparse row layout)
+            final int[] parents = new int[size];
+            final int[] offsets = new int[size + 1];
+            for (int i = 0; i < size; i++) {
+                final Integer parent = i == root ? null : folderIndexes.get(parentIds[i]);
+                parents[i] = parent == null ? -1 : parent;
+                if (parent != null) {
+                    offsets[parent + 1]++;
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                offsets[i + 1] += offsets[i];
+            }
+            final int[] children = new int[offsets[size]];
+            final int[] filled = Arrays.copyOf(offsets, size);
+            for (int i = 0; i < size; i++) {
+                if (parents[i] >= 0) {
+                    children[filled[parents[i]]++] = i;
+                }
+            }
+            // Renumber nodes breadth-first so that the children of a folder are consecutive
+            final int[] order = new int[size];
+            final int[] newIndexes = new int[size];
+            int count = 1;
+            order[0] = root;
+            newIndexes[root] = 0;
+            for (int i = 0; i < count; i++) {
+                final int node = order[i];
+                for (int j = offsets[node]; j < offsets[node + 1]; j++) {
+                    newIndexes[children[j]] = count;
+                    order[count++] = children[j];
+                }
+            }
+            final TreeStore store = new TreeStore(parentIds[root], count);
+            for (int i = 0; i < count; i++) {
+                final int node = order[i];
+                store.ids[i] = ids[node];
+                store.sizes[i] = sizes[node];
+                store.created[i] = created[node];
+                store.modified[i] = modified[node];
+                store.hashes[i] = hashes[node];
+                store.names[i] = names[node];
+                store.parents[i] = node == root ? -1 : newIndexes[parents[node]];
+                store.childCounts[i] = offsets[node + 1] - offsets[node];
+                store.firstChildren[i] = store.childCounts[i] == 0 ? 0 : newIndexes[children[offsets[node]]];
+                if (folders.get(node)) {
+                    store.folders.set(i);
+                    if (listedFolders.contains(ids[node])) {
+                        store.listed.set(i);
+                    }
+                }
+            }
+            return store;
+        }
+    }
+}
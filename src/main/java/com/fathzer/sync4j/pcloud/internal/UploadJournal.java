@@ -0,0 +1,166 @@
+package com.fathzer.sync4j.pcloud.internal;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.BitSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import jakarta.annotation.Nonnull;
+
+/**
+ * A crash safe journal of a chunked upload.
+ * <br>
+ * The journal remembers the upload session of a file and the chunks already written in this session.
+ * Each written chunk is durably appended to the journal file, so that an interrupted upload (even by a crash) can be resumed
+ * without uploading again the chunks already written.
+ * <br>
+ * A journal is stored in a file named after the target folder and a SHA-256 digest of the full file name, so two files can't share a journal.
+ * It records the full file name and the fingerprint of the content (its size, its modification time and the chunk size).
+ * When the upload is resumed, they are checked. If one of them changed, the journal is ignored and the upload starts from scratch.
+ * <br>
+ * The journal is guarded by a {@link ReentrantLock}, not by a monitor, so that virtual threads that wait for a durable write are not
+ * pinned to their carrier thread.
+ */
+public class UploadJournal {
+    private static final String HEADER = "pcloud-upload 2";
+
+    private final Path file;
+    private final String fileName;
+    private final String fingerprint;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Fields below are guarded by the lock
+    private final BitSet done;
+    private long uploadId;
+
+    private UploadJournal(Path file, String fileName, String fingerprint) {
+        this.file = file;
+        this.fileName = fileName;
+        this.fingerprint = fingerprint;
+        this.done = new BitSet();
+    }
+
+    /**
+     * Opens the journal of an upload.
+     * @param folder the folder where journals are stored
+     * @param folderId the id of the target folder
+     * @param fileName the name of the uploaded file
+     * @param size the size of the uploaded file
+     * @param mtime the modification time of the uploaded file
+     * @param chunkSize the size of the chunks
+     * @return a journal. If a previous upload of the same file was interrupted, the journal contains its upload session and its written chunks.
+     * @throws IOException if an I/O error occurs
+     */
+    @Nonnull
+    public static UploadJournal open(@Nonnull Path folder, long folderId, @Nonnull String fileName, long size, long mtime, int chunkSize) throws IOException {
+        final Path file = folder.resolve(folderId + "-" + digest(fileName) + ".upload");
+        final UploadJournal journal = new UploadJournal(file, fileName, size + " " + mtime + " " + chunkSize);
+        try {
+            final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            // The content fingerprint is checked, so that chunks of a previous version of the file are not reused
+            if (lines.size() >= 4 && HEADER.equals(lines.get(0)) && journal.fileName.equals(lines.get(2)) && journal.fingerprint.equals(lines.get(3))) {
+                journal.uploadId = Long.parseLong(lines.get(1));
+                for (String line : lines.subList(4, lines.size())) {
+                    journal.done.set(Integer.parseInt(line));
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // No interrupted upload
+        } catch (NumberFormatException e) {
+            // The last line may be truncated by a crash, keep the chunks read so far
+        }
+        return journal;
+    }
+
+    private static String digest(String fileName) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(fileName.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Gets the upload session id.
+     * @return the id of the upload session, 0 if no session was {@link #start(long) started}
+     */
+    public long getUploadId() {
+        lock.lock();
+        try {
+            return uploadId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Tests whether a chunk was written.
+     * @param chunk the index of the chunk
+     * @return true if the chunk was written in the upload session
+     */
+    public boolean isDone(int chunk) {
+        lock.lock();
+        try {
+            return done.get(chunk);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts a new upload session.
+     * <br>Chunks written in a previous session are forgotten.
+     * @param uploadId the id of the upload session
+     * @throws IOException if an I/O error occurs
+     */
+    public void start(long uploadId) throws IOException {
+        lock.lock();
+        try {
+            this.uploadId = uploadId;
+            this.done.clear();
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, HEADER + "\n" + uploadId + "\n" + fileName + "\n" + fingerprint + "\n", StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE, StandardOpenOption.DSYNC);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that a chunk was written.
+     * @param chunk the index of the chunk
+     * @throws IOException if an I/O error occurs
+     */
+    public void done(int chunk) throws IOException {
+        lock.lock();
+        try {
+            done.set(chunk);
+            // Appends are serialized, so that the lines of concurrent chunks are not interleaved
+            Files.writeString(file, chunk + "\n", StandardCharsets.UTF_8, StandardOpenOption.APPEND, StandardOpenOption.DSYNC);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the journal.
+     * <br>This method should be called once the upload is completed.
+     * @throws IOException if an I/O error occurs
+     */
+    public void delete() throws IOException {
+        lock.lock();
+        try {
+            Files.deleteIfExists(file);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.fathzer.sync4j.pcloud.internal;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ThreadFactory;
+
+import jakarta.annotation.Nonnull;
+
+/**
+ * Access to the virtual threads of Java 21+, from code compiled for an older Java version.
+ */
+public final class VirtualThreads {
+    private VirtualThreads() {
+        // Utility class - prevent instantiation
+    }
+
+    /**
+     * Gets a factory of virtual threads.
+     * @return a thread factory that creates a new virtual thread for each task
+     * @throws UnsupportedOperationException if the Java runtime does not support virtual threads
+     */
+    @Nonnull
+    public static ThreadFactory factory() {
+        try {
+            // Thread.ofVirtual().factory()
+            final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (NoSuchMethodException | ClassNotFoundException e) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new UnsupportedOperationException("Virtual threads are not available", e);
+        }
+    }
+}
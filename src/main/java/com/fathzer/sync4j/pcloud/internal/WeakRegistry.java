@@ -0,0 +1,112 @@
+package com.fathzer.sync4j.pcloud.internal;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+/**
+ * A thread safe registry of objects keyed by a remote id that does not prevent them from being garbage collected.
+ * <br>
+ * It allows objects that represent the same remote entry to be shared, as long as someone holds a reference on them.
+ * Entries of collected objects are discarded the next time the registry is modified.
+ * @param <T> the type of the registered objects
+ */
+public class WeakRegistry<T> {
+    private static class Ref<T> extends WeakReference<T> {
+        private final long id;
+
+        private Ref(long id, T value, ReferenceQueue<T> queue) {
+            super(value, queue);
+            this.id = id;
+        }
+    }
+
+    private final Map<Long, Ref<T>> byId = new ConcurrentHashMap<>();
+    private final ReferenceQueue<T> queue = new ReferenceQueue<>();
+
+    /**
+     * Gets a registered object.
+     * @param id the id of the object
+     * @return the object or null if no object with this id is registered or it was collected
+     */
+    @Nullable
+    public T get(long id) {
+        final Ref<T> ref = byId.get(id);
+        return ref == null ? null : ref.get();
+    }
+
+    /**
+     * Registers an object, unless an object with the same id is already registered.
+     * @param id the id of the object
+     * @param value the object
+     * @return the object that is registered with this id after the call, <code>value</code> or the one that was already registered
+     */
+    @Nonnull
+    public T register(long id, @Nonnull T value) {
+        purge();
+        while (true) {
+            final Ref<T> ref = byId.putIfAbsent(id, new Ref<>(id, value, queue));
+            if (ref == null) {
+                return value;
+            }
+            final T existing = ref.get();
+            if (existing != null) {
+                return existing;
+            }
+            // The registered object was collected
+            byId.remove(id, ref);
+        }
+    }
+
+    /**
+     * Registers an object, replacing the object with the same id if any.
+     * @param id the id of the object
+     * @param value the object
+     */
+    public void put(long id, @Nonnull T value) {
+        purge();
+        byId.put(id, new Ref<>(id, value, queue));
+    }
+
+    /**
+     * Forgets an object.
+     * @param id the id of the object
+     */
+    public void remove(long id) {
+        purge();
+        byId.remove(id);
+    }
+
+    /**
+     * Forgets the objects that match a predicate.
+     * @param filter the predicate, it is not called with collected objects
+     */
+    public void removeIf(@Nonnull Predicate<? super T> filter) {
+        purge();
+        byId.values().removeIf(ref -> {
+            final T value = ref.get();
+            return value != null && filter.test(value);
+        });
+    }
+
+    /**
+     * Gets the number of registered objects, including collected ones that were not yet discarded.
+     * @return a positive or null integer
+     */
+    public int size() {
+        return byId.size();
+    }
+
+    private void purge() {
+        Reference<? extends T> ref;
+        while ((ref = queue.poll()) != null) {
+            byId.remove(((Ref<?>) ref).id, ref);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.fathzer.sync4j.pcloud.internal.api;
+
+import java.io.IOException;
+
+import com.fathzer.sync4j.pcloud.Endpoint;
+import com.pcloud.sdk.ApiError;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JDK Flight Recorder event that records a pCloud API call.
+ * <br>
+ * A download stream is recorded from its opening to its closing.
+ * <br>
+ * These events are enabled by default (for instance with <code>jcmd &lt;pid&gt; JFR.start</code>) and cost almost nothing when no recording is in progress.
+ */
+@Name("com.fathzer.sync4j.pcloud.ApiCall")
+@Label("pCloud API Call")
+@Category({"sync4j", "pCloud"})
+@Description("A call to the pCloud API")
+@StackTrace(false)
+final class ApiCallEvent extends Event {
+    private static final EventType TYPE = EventType.getEventType(ApiCallEvent.class);
+
+    @Label("Endpoint")
+    String endpoint;
+
+    @Label("File Id")
+    @Description("The id of the file, 0 if the call is not about a file")
+    long fileId;
+
+    @Label("Folder Id")
+    @Description("The id of the folder, 0 if the call is not about a folder")
+    long folderId;
+
+    @Label("Bytes")
+    @Description("The number of bytes of file content that were uploaded or downloaded")
+    @DataAmount
+    long bytes;
+
+    @Label("HTTP Status")
+    @Description("The HTTP status of the last response, 0 if it is unknown (for instance with the binary protocol)")
+    int httpStatus;
+
+    @Label("Error Code")
+    @Description("The pCloud error code, 0 if the call did not fail with a pCloud error")
+    int errorCode;
+
+    @Label("Exception")
+    @Description("The class of the exception thrown by the call, null if it succeeded")
+    String exception;
+
+    /**
+     * Tells if the events are recorded.
+     * <br>Unlike {@link #isEnabled()}, this method does not need an event instance.
+     * @return true if a recording in progress enables these events
+     */
+    static boolean isTypeEnabled() {
+        return TYPE.isEnabled();
+    }
+
+    /**
+     * Creates and begins an event.
+     * @param endpoint the called endpoint
+     * @param fileId the id of the file, 0 if the call is not about a file
+     * @param folderId the id of the folder, 0 if the call is not about a folder
+     * @return a new event
+     */
+    static ApiCallEvent begin(Endpoint endpoint, long fileId, long folderId) {
+        final ApiCallEvent event = new ApiCallEvent();
+        if (event.isEnabled()) {
+            event.endpoint = endpoint.getMethod();
+            event.fileId = fileId;
+            event.folderId = folderId;
+            event.begin();
+        }
+        return event;
+    }
+
+    /**
+     * Records the HTTP status of a response.
+     * @param status the HTTP status
+     */
+    void status(int status) {
+        httpStatus = status;
+    }
+
+    /**
+     * Records the failure of the call.
+     * @param e the exception thrown by the call
+     */
+    void failed(Throwable e) {
+        exception = e.getClass().getName();
+        if (e instanceof HttpStatusException status) {
+            httpStatus = status.getStatusCode();
+        } else if (e.getCause() instanceof ApiError error) {
+            errorCode = error.errorCode();
+        }
+    }
+
+    /**
+     * Ends the event and commits it if it should be recorded.
+     * @param bytes the number of bytes of file content that were uploaded or downloaded
+     */
+    void end(long bytes) {
+        if (shouldCommit()) {
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
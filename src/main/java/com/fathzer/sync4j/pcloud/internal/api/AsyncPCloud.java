@@ -0,0 +1,82 @@
+package com.fathzer.sync4j.pcloud.internal.api;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongConsumer;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+/**
+ * Asynchronous interface to the pCloud API.
+ * <br>
+ * Methods of this interface send their request and return immediately, no thread waits for the response: thousands of calls
+ * can be in flight, their number is only limited by the HTTP client's dispatcher and by the concurrency limit of {@link RetryingPCloud}.
+ * <br>
+ * The returned futures are completed, by the HTTP client's threads, with the result of the call or with the IOException
+ * that {@link PCloud} would have thrown. Cancelling a future cancels its request.
+ * <br>
+ * An instance is obtained with {@link PCloud#async()}, its calls go through the same decorators as the calls of the {@link PCloud} instance.
+ * @see PCloud
+ */
+public interface AsyncPCloud {
+    /**
+     * Get a remote entry.
+     * @param path the path of the remote entry. All paths should start with a slash except the root path which is an empty string.
+     * @return the remote entry
+     * @see PCloud#get(String)
+     */
+    @Nonnull
+    CompletableFuture<Metadata> get(@Nonnull String path);
+
+    /**
+     * Get the hashes of a remote file.
+     * @param fileId the id of the remote file
+     * @return the hashes of the remote file
+     * @see PCloud#getHashes(long)
+     */
+    @Nonnull
+    CompletableFuture<FileHashes> getHashes(long fileId);
+
+    /**
+     * List the content of a remote folder.
+     * @param folderId the id of the remote folder
+     * @return the folder and its children
+     * @see PCloud#listFolder(long)
+     */
+    @Nonnull
+    CompletableFuture<Listing> listFolder(long folderId);
+
+    /**
+     * Delete a remote entry.
+     * @param entry the remote entry
+     * @return a future completed when the entry is deleted
+     * @see PCloud#delete(Metadata)
+     */
+    @Nonnull
+    CompletableFuture<Void> delete(@Nonnull Metadata entry);
+
+    /**
+     * Upload a file.
+     * @param folderId the id of the remote folder
+     * @param fileName the name of the file
+     * @param content the content of the file, it is opened when the request is sent, by the HTTP client's threads
+     * @param size the size of the file
+     * @param mtime the modification time of the file
+     * @param ctime the creation time of the file
+     * @param progressListener a listener that will be called with the number of bytes uploaded so far (null if no listener)
+     * @return the uploaded file
+     * @see PCloud#upload(long, String, ContentSupplier, long, long, long, LongConsumer)
+     */
+    @Nonnull
+    CompletableFuture<Metadata> upload(long folderId, @Nonnull String fileName, @Nonnull ContentSupplier content, long size, long mtime, long ctime, @Nullable LongConsumer progressListener);
+
+    /**
+     * Create a remote folder.
+     * @param folderId the id of the parent folder
+     * @param folderName the name of the folder
+     * @return the created folder
+     * @see PCloud#mkdir(long, String)
+     */
+    @Nonnull
+    CompletableFuture<Metadata> mkdir(long folderId, @Nonnull String folderName);
+}
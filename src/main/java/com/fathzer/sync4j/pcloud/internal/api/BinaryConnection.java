@@ -0,0 +1,209 @@
+package com.fathzer.sync4j.pcloud.internal.api;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import jakarta.annotation.Nonnull;
+
+/**
+ * A connection to pCloud's binary API, on which requests are pipelined.
+ * <br>
+ * Requests are written as soon as they are sent, without waiting for the responses to the previous ones. pCloud answers
+ * the requests of a connection in order, a single thread reads the responses and completes the matching futures.
+ * <br>
+ * Once an I/O error occurs, or a request waits longer than the read timeout for its response, the connection is closed and
+ * all the pending requests fail.
+ * <br>
+ * As responses come in order, only the oldest pending request is watched. It waits for its response since it was sent or since
+ * the previous response was received, whichever is the latest. A single check is scheduled per connection, whatever the number of pending requests.
+ */
+class BinaryConnection implements AutoCloseable {
+    private record Request(CompletableFuture<Map<String, Object>> future, long sentAt) {}
+
+    private final Socket socket;
+    private final OutputStream out;
+    private final Thread reader;
+    private final long readTimeout;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Queue<Request> pending = new ConcurrentLinkedQueue<>();
+    /** True while a timeout check is scheduled. */
+    private final AtomicBoolean watching = new AtomicBoolean();
+    /** The time the last response was received, in the {@link System#nanoTime()} scale. */
+    private volatile long lastResponse;
+    private volatile IOException failure;
+
+    /**
+     * Constructor.
+     * @param socket a connected socket, it is closed when this connection is closed
+     * @param threadFactory the factory of the thread that reads the responses
+     * @param readTimeout the maximum time to wait for the response to a request in milliseconds, 0 to wait forever
+     * @throws IOException if the socket's streams can't be obtained
+     */
+    BinaryConnection(@Nonnull Socket socket, @Nonnull ThreadFactory threadFactory, long readTimeout) throws IOException {
+        this.socket = socket;
+        this.out = socket.getOutputStream();
+        this.readTimeout = readTimeout;
+        this.lastResponse = System.nanoTime();
+        final InputStream in = new BufferedInputStream(socket.getInputStream());
+        this.reader = threadFactory.newThread(() -> read(in));
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Sends a request.
+     * @param method the method name
+     * @param parameters the parameters
+     * @return a future completed with the response, or with the IOException that made the request fail.
+     * A response with a non zero <i>result</i> is not considered as a failure.
+     */
+    @Nonnull
+    CompletableFuture<Map<String, Object>> send(@Nonnull String method, @Nonnull Map<String, Object> parameters) {
+        final CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+        final byte[] request;
+        try {
+            request = BinaryProtocol.encode(method, parameters);
+        } catch (IllegalArgumentException e) {
+            future.completeExceptionally(new IOException(e.getMessage(), e));
+            return future;
+        }
+        writeLock.lock();
+        try {
+            if (failure != null) {
+                future.completeExceptionally(failure);
+                return future;
+            }
+            // The future is queued before the request is written, its response may arrive before write returns
+            pending.add(new Request(future, System.nanoTime()));
+            out.write(request);
+            out.flush();
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            writeLock.unlock();
+        }
+        if (readTimeout > 0 && watching.compareAndSet(false, true)) {
+            watch(TimeUnit.MILLISECONDS.toNanos(readTimeout));
+        }
+        return future;
+    }
+
+    private void watch(long delayNanos) {
+        CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS).execute(this::checkTimeout);
+    }
+
+    private void checkTimeout() {
+        final Request oldest = pending.peek();
+        if (oldest == null) {
+            watching.set(false);
+            // A request may have been queued before the check was stopped
+            if (!pending.isEmpty() && watching.compareAndSet(false, true)) {
+                watch(TimeUnit.MILLISECONDS.toNanos(readTimeout));
+            }
+            return;
+        }
+        final long last = lastResponse;
+        final long since = oldest.sentAt() - last > 0 ? oldest.sentAt() : last;
+        final long remaining = TimeUnit.MILLISECONDS.toNanos(readTimeout) - (System.nanoTime() - since);
+        if (remaining > 0) {
+            watch(remaining);
+        } else {
+            // Responses come in order, the connection can't be used anymore if one is missing
+            watching.set(false);
+            fail(new SocketTimeoutException("No response after " + readTimeout + "ms"));
+        }
+    }
+
+    /**
+     * Tests whether this connection can still send requests.
+     * @return true if no error occurred and the connection is not closed
+     */
+    boolean isOpen() {
+        return failure == null;
+    }
+
+    /**
+     * Gets the number of requests waiting for their response.
+     * @return a positive or null integer
+     */
+    int getPending() {
+        return pending.size();
+    }
+
+    /**
+     * Tests whether the current thread reads the responses of this connection.
+     * <br>The futures of the requests are completed by this thread, it should never wait for a response.
+     * @return true if the current thread is the reader of this connection
+     */
+    boolean isReaderThread() {
+        return Thread.currentThread() == reader;
+    }
+
+    private void read(InputStream in) {
+        try {
+            while (true) {
+                final Object response = BinaryProtocol.read(in);
+                // Updated before the next request becomes the oldest one, its wait starts now
+                lastResponse = System.nanoTime();
+                final Request request = pending.poll();
+                if (request == null) {
+                    throw new IOException("Unexpected response");
+                }
+                final CompletableFuture<Map<String, Object>> future = request.future();
+                if (response instanceof Map<?, ?> map) {
+                    @SuppressWarnings("unchecked")
+                    final Map<String, Object> result = (Map<String, Object>) map;
+                    future.complete(result);
+                } else {
+                    // Responses are always hashes, the stream can't be trusted anymore
+                    final IOException e = new IOException("Invalid response: " + response);
+                    future.completeExceptionally(e);
+                    throw e;
+                }
+            }
+        } catch (EOFException e) {
+            fail(new EOFException("Connection closed by server"));
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(IOException e) {
+        writeLock.lock();
+        try {
+            if (failure == null) {
+                failure = e;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            // Ignore, the connection is already unusable
+        }
+        // No request can be added anymore, fail the remaining ones
+        Request request;
+        while ((request = pending.poll()) != null) {
+            request.future().completeExceptionally(failure);
+        }
+    }
+
+    @Override
+    public void close() {
+        fail(new IOException("Connection closed"));
+    }
+}
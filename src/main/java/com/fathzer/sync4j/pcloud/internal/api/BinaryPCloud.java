@@ -0,0 +1,546 @@
+package com.fathzer.sync4j.pcloud.internal.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+import javax.net.SocketFactory;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import com.fathzer.sync4j.helper.PathUtils;
+import com.fathzer.sync4j.pcloud.Zone;
+import com.pcloud.sdk.ApiError;
+
+import jakarta.annotation.Nonnull;
+
+import okhttp3.Call;
+
+/**
+ * A {@link PCloud} implementation that makes metadata calls with pCloud's binary protocol.
+ * <br>
+ * {@link #get(String)}, {@link #getHashes(long)} and the folder listings are sent on a small pool of persistent connections,
+ * on which requests are pipelined: a connection does not wait for a response before sending the next request.
+ * Binary responses are also much cheaper to decode than JSON ones.
+ * <br>
+ * Other calls, that transfer file content or change the remote tree, and recursive listings, that are streamed, are delegated
+ * to another {@link PCloud} instance.
+ * @see BinaryProtocol
+ */
+public class BinaryPCloud implements PCloud {
+    private static final int CONNECT_TIMEOUT = 10000;
+    /** The maximum time to wait for the response to a request, in milliseconds. */
+    private static final int READ_TIMEOUT = 60000;
+    /** The maximum number of requests waiting for their response on a connection. */
+    static final int MAX_PIPELINE_DEPTH = 32;
+
+    @FunctionalInterface
+    private interface ResponseReader<T> {
+        T read(Map<String, Object> response) throws IOException;
+    }
+
+    private final PCloud pcloud;
+    private final String token;
+    private final SocketFactory socketFactory;
+    private final String host;
+    private final int port;
+    private final ThreadFactory threadFactory;
+    private final int readTimeout;
+    private final AsyncPCloud async = new Async();
+    // Fields below are guarded by this lock, connections are opened outside of it
+    private final ReentrantLock lock = new ReentrantLock();
+    /** Signalled when a connection is opened or receives a response. */
+    private final Condition available = lock.newCondition();
+    private final BinaryConnection[] connections;
+    /** The slots reserved by the threads that are opening a connection. */
+    private final boolean[] opening;
+    private boolean closed;
+
+    /**
+     * Constructor.
+     * @param pcloud the instance that performs the calls that are not made with the binary protocol, it is closed when this instance is closed
+     * @param zone the zone
+     * @param accessToken the access token
+     * @param connections the maximum number of connections
+     * @param threadFactory the factory of the threads that read the responses, one per connection
+     * @throws IllegalArgumentException if connections is not strictly positive
+     */
+    public BinaryPCloud(@Nonnull PCloud pcloud, @Nonnull Zone zone, @Nonnull String accessToken, int connections, @Nonnull ThreadFactory threadFactory) {
+        this(pcloud, accessToken, SSLSocketFactory.getDefault(), zone.getBinaryHost(), 443, connections, threadFactory, READ_TIMEOUT);
+    }
+
+    // Also used by tests
+    BinaryPCloud(PCloud pcloud, String accessToken, SocketFactory socketFactory, String host, int port, int connections, ThreadFactory threadFactory,
+            int readTimeout) {
+        if (connections <= 0) {
+            throw new IllegalArgumentException("Connections should be strictly positive");
+        }
+        this.pcloud = Objects.requireNonNull(pcloud);
+        this.token = Objects.requireNonNull(accessToken);
+        this.socketFactory = socketFactory;
+        this.host = host;
+        this.port = port;
+        this.threadFactory = Objects.requireNonNull(threadFactory);
+        this.readTimeout = readTimeout;
+        this.connections = new BinaryConnection[connections];
+        this.opening = new boolean[connections];
+    }
+
+    /**
+     * Gets a connection.
+     * <br>An idle connection is preferred, then a new connection if the pool is not full, then the least busy connection.
+     * When all the connections have {@link #MAX_PIPELINE_DEPTH} pending requests, this method waits for a response. The depth is checked
+     * before the request is sent, threads that get a connection concurrently may exceed it by a few requests. The threads that read the
+     * responses never wait, they would wait for themselves.
+     * <br>A new connection is opened outside the lock, in a reserved slot, so that other threads can use the open connections meanwhile.
+     * @return a connection
+     * @throws IOException if a new connection can't be opened, this instance is closed or the current thread is interrupted
+     */
+    private BinaryConnection connection() throws IOException {
+        int slot = -1;
+        lock.lock();
+        try {
+            while (slot < 0) {
+                if (closed) {
+                    throw new IOException("Closed");
+                }
+                BinaryConnection leastBusy = null;
+                boolean reader = false;
+                for (int i = 0; i < connections.length; i++) {
+                    final BinaryConnection connection = connections[i];
+                    if (opening[i]) {
+                        // Another thread is opening a connection in this slot
+                        continue;
+                    }
+                    if (connection == null || !connection.isOpen()) {
+                        slot = slot < 0 ? i : slot;
+                    } else if (connection.getPending() == 0) {
+                        return connection;
+                    } else {
+                        if (leastBusy == null || connection.getPending() < leastBusy.getPending()) {
+                            leastBusy = connection;
+                        }
+                        reader = reader || connection.isReaderThread();
+                    }
+                }
+                if (slot >= 0) {
+                    opening[slot] = true;
+                } else if (leastBusy != null && (reader || leastBusy.getPending() < MAX_PIPELINE_DEPTH)) {
+                    return leastBusy;
+                } else {
+                    // All the connections are being opened or have a full pipeline
+                    available.await();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            lock.unlock();
+        }
+        final BinaryConnection connection;
+        try {
+            connection = open();
+        } catch (IOException | RuntimeException | Error e) {
+            opened(slot, null);
+            throw e;
+        }
+        if (!opened(slot, connection)) {
+            connection.close();
+            throw new IOException("Closed");
+        }
+        return connection;
+    }
+
+    /**
+     * Releases a slot reserved by {@link #connection()}.
+     * @param slot the slot
+     * @param connection the connection opened in the slot, null if it failed to be opened
+     * @return false if this instance was closed while the connection was opened
+     */
+    private boolean opened(int slot, BinaryConnection connection) {
+        lock.lock();
+        try {
+            opening[slot] = false;
+            available.signalAll();
+            if (closed) {
+                return false;
+            }
+            if (connection != null) {
+                connections[slot] = connection;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private BinaryConnection open() throws IOException {
+        final Socket socket = socketFactory.createSocket();
+        try {
+            if (socket instanceof SSLSocket ssl) {
+                final SSLParameters parameters = ssl.getSSLParameters();
+                parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                parameters.setServerNames(List.of(new SNIHostName(host)));
+                ssl.setSSLParameters(parameters);
+            }
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+            if (socket instanceof SSLSocket ssl) {
+                // The handshake would otherwise be made by the first request, while holding the connection's write lock
+                socket.setSoTimeout(CONNECT_TIMEOUT);
+                ssl.startHandshake();
+                socket.setSoTimeout(0);
+            }
+            return new BinaryConnection(socket, threadFactory, readTimeout);
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends a request.
+     * @param method the method
+     * @param parameters the parameters of the request, without the access token
+     * @param reader the function that reads the response, it is called by the thread that reads the connection
+     * @return a future completed with the result of the reader or the exception that made the call fail
+     */
+    private <T> CompletableFuture<T> call(String method, Map<String, Object> parameters, ResponseReader<T> reader) {
+        final Map<String, Object> request = new LinkedHashMap<>(parameters);
+        request.put("access_token", token);
+        CompletableFuture<Map<String, Object>> sent;
+        try {
+            sent = connection().send(method, request);
+        } catch (IOException e) {
+            sent = CompletableFuture.failedFuture(e);
+        }
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        sent.whenComplete((response, error) -> {
+            answered();
+            try {
+                if (error != null) {
+                    throw error instanceof IOException e ? e : new IOException(error);
+                }
+                result.complete(reader.read(checked(response)));
+            } catch (IOException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private void answered() {
+        // A slot is now free in the pipeline of a connection
+        lock.lock();
+        try {
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static Map<String, Object> checked(Map<String, Object> response) throws IOException {
+        final long result = number(response, "result");
+        if (result != 0) {
+            final Object error = response.get("error");
+            throw PCloudAPI.toIOException(new ApiError((int) result, error instanceof String message ? message : null));
+        }
+        return response;
+    }
+
+    private static long number(Map<?, ?> map, String key) {
+        return map.get(key) instanceof Long value ? value : 0;
+    }
+
+    private static String string(Map<?, ?> map, String key) {
+        return map.get(key) instanceof String value ? value : null;
+    }
+
+    /**
+     * Converts the metadata of an entry.
+     * @param value the metadata
+     * @return the entry
+     * @throws IOException if the value is not a valid metadata
+     */
+    static Metadata metadata(Object value) throws IOException {
+        if (!(value instanceof Map<?, ?> map)) {
+            throw new IOException("Invalid response: missing 'metadata' field");
+        }
+        final boolean isFolder = Boolean.TRUE.equals(map.get("isfolder"));
+        final String name = string(map, "name");
+        // Times are numbers of seconds because of the timeformat parameter
+        return new Metadata(number(map, isFolder ? "folderid" : "fileid"), isFolder, number(map, "parentfolderid"), name == null ? "" : name,
+                number(map, "size"), number(map, "created") * 1000, number(map, "modified") * 1000, number(map, "hash"));
+    }
+
+    /**
+     * Emits the content of a folder, recursively, then the folder itself.
+     * @param value the metadata of the folder
+     * @param consumer the consumer that receives the entries
+     * @throws IOException if the value is not a valid metadata
+     */
+    private static void emit(Object value, Consumer<Metadata> consumer) throws IOException {
+        if (value instanceof Map<?, ?> map && map.get("contents") instanceof List<?> contents) {
+            for (Object child : contents) {
+                emit(child, consumer);
+            }
+        }
+        consumer.accept(metadata(value));
+    }
+
+    private static Map<String, Object> listFolderParameters(long folderId) {
+        final Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("folderid", folderId);
+        // Only the fields that are converted to Metadata are requested
+        parameters.put("filtermeta", ListingParser.FIELDS);
+        parameters.put("timeformat", "timestamp");
+        return parameters;
+    }
+
+    private CompletableFuture<FileHashes> hashes(long fileId) {
+        return call("checksumfile", Map.of("fileid", fileId), response -> {
+            final String sha1 = string(response, "sha1");
+            if (sha1 == null) {
+                throw new IOException("Invalid response: missing 'sha1' field");
+            }
+            return new FileHashes(sha1, string(response, "md5"), string(response, "sha256"));
+        });
+    }
+
+    @Override
+    public String getAccount() {
+        return pcloud.getAccount();
+    }
+
+    @Override
+    public AsyncPCloud async() {
+        return async;
+    }
+
+    @Override
+    public Metadata get(String path) throws IOException {
+        return PCloudAPI.await(async.get(path));
+    }
+
+    @Override
+    public FileHashes getHashes(long fileId) throws IOException {
+        return PCloudAPI.await(async.getHashes(fileId));
+    }
+
+    @Override
+    public Map<Long, FileHashes> getHashes(Collection<Long> fileIds, int concurrency) throws IOException {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Concurrency should be strictly positive");
+        }
+        final Map<Long, FileHashes> result = new ConcurrentHashMap<>();
+        final Set<CompletableFuture<FileHashes>> pending = ConcurrentHashMap.newKeySet();
+        final Semaphore inFlight = new Semaphore(concurrency);
+        try {
+            for (Long fileId : fileIds) {
+                inFlight.acquire();
+                final CompletableFuture<FileHashes> future = hashes(fileId);
+                pending.add(future);
+                future.whenComplete((hashes, e) -> {
+                    // Failed files are missing from the result, their hashes will be requested again when needed
+                    if (hashes != null) {
+                        result.put(fileId, hashes);
+                    }
+                    pending.remove(future);
+                    inFlight.release();
+                });
+            }
+            // Wait for the last requests
+            inFlight.acquire(concurrency);
+            inFlight.release(concurrency);
+            return result;
+        } catch (InterruptedException e) {
+            // Nobody will read the results of the requests in flight
+            pending.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    @Override
+    public InputStream getInputStream(long fileId) throws IOException {
+        return pcloud.getInputStream(fileId);
+    }
+
+    @Override
+    public URL getDownloadLink(long fileId) throws IOException {
+        return pcloud.getDownloadLink(fileId);
+    }
+
+    @Override
+    public byte[] download(URL link, long offset, int length) throws IOException {
+        return pcloud.download(link, offset, length);
+    }
+
+    @Override
+    public Listing listFolder(long folderId) throws IOException {
+        return PCloudAPI.await(async.listFolder(folderId));
+    }
+
+    @Override
+    public void listFolder(long folderId, boolean recursive, boolean foldersOnly, Consumer<Metadata> consumer) throws IOException {
+        Objects.requireNonNull(consumer);
+        if (recursive) {
+            // A binary response is decoded as a whole, a recursive listing would be fully built in memory
+            pcloud.listFolder(folderId, true, foldersOnly, consumer);
+            return;
+        }
+        final Map<String, Object> parameters = listFolderParameters(folderId);
+        if (foldersOnly) {
+            parameters.put("nofiles", 1L);
+        }
+        final Object folder = PCloudAPI.await(call("listfolder", parameters, response -> response.get("metadata")));
+        // The entries are emitted by the calling thread, not by the thread that reads the connection
+        emit(folder, consumer);
+    }
+
+    @Override
+    public long diff(long diffId, boolean block, Consumer<DiffEntry> consumer, Consumer<Call> calls) throws IOException {
+        // A long polling call would delay all the responses pipelined after it on its connection
+        return pcloud.diff(diffId, block, consumer, calls);
+    }
+
+    @Override
+    public void delete(Metadata entry) throws IOException {
+        pcloud.delete(entry);
+    }
+
+    @Override
+    public Metadata upload(long folderId, String fileName, ContentSupplier content, long size, long mtime, long ctime, LongConsumer progressListener) throws IOException {
+        return pcloud.upload(folderId, fileName, content, size, mtime, ctime, progressListener);
+    }
+
+    @Override
+    public List<Metadata> upload(long folderId, List<UploadContent> files, long mtime, long ctime) throws IOException {
+        return pcloud.upload(folderId, files, mtime, ctime);
+    }
+
+    @Override
+    public long createUpload() throws IOException {
+        return pcloud.createUpload();
+    }
+
+    @Override
+    public long getUploadSize(long uploadId) throws IOException {
+        return pcloud.getUploadSize(uploadId);
+    }
+
+    @Override
+    public void writeUpload(long uploadId, long offset, byte[] data, int length) throws IOException {
+        pcloud.writeUpload(uploadId, offset, data, length);
+    }
+
+    @Override
+    public Metadata saveUpload(long uploadId, long folderId, String fileName, long mtime, long ctime) throws IOException {
+        return pcloud.saveUpload(uploadId, folderId, fileName, mtime, ctime);
+    }
+
+    @Override
+    public Metadata copy(long fileId, long folderId, String fileName, long mtime, long ctime) throws IOException {
+        return pcloud.copy(fileId, folderId, fileName, mtime, ctime);
+    }
+
+    @Override
+    public Metadata mkdir(long folderId, String folderName) throws IOException {
+        return pcloud.mkdir(folderId, folderName);
+    }
+
+    /**
+     * The asynchronous interface, its metadata calls are made with the binary protocol.
+     * <br>They only wait when a connection has to be opened or when all the pipelines are full.
+     */
+    private class Async implements AsyncPCloud {
+        @Override
+        public CompletableFuture<Metadata> get(String path) {
+            Objects.requireNonNull(path);
+            if (PathUtils.isRoot(path)) {
+                // Sub-folders are listed with the root, but not the files
+                final Map<String, Object> parameters = listFolderParameters(0);
+                parameters.put("nofiles", 1L);
+                return call("listfolder", parameters, response -> metadata(response.get("metadata")));
+            }
+            final Map<String, Object> parameters = new LinkedHashMap<>();
+            parameters.put("path", path);
+            parameters.put("timeformat", "timestamp");
+            return call("stat", parameters, response -> metadata(response.get("metadata")));
+        }
+
+        @Override
+        public CompletableFuture<FileHashes> getHashes(long fileId) {
+            return hashes(fileId);
+        }
+
+        @Override
+        public CompletableFuture<Listing> listFolder(long folderId) {
+            return call("listfolder", listFolderParameters(folderId), response -> {
+                final Object folder = response.get("metadata");
+                final List<Metadata> children = new ArrayList<>();
+                if (folder instanceof Map<?, ?> map && map.get("contents") instanceof List<?> contents) {
+                    for (Object child : contents) {
+                        children.add(metadata(child));
+                    }
+                }
+                // The listing may be shared by several callers
+                return new Listing(metadata(folder), Collections.unmodifiableList(children));
+            });
+        }
+
+        @Override
+        public CompletableFuture<Void> delete(Metadata entry) {
+            return pcloud.async().delete(entry);
+        }
+
+        @Override
+        public CompletableFuture<Metadata> upload(long folderId, String fileName, ContentSupplier content, long size, long mtime, long ctime, LongConsumer progressListener) {
+            return pcloud.async().upload(folderId, fileName, content, size, mtime, ctime, progressListener);
+        }
+
+        @Override
+        public CompletableFuture<Metadata> mkdir(long folderId, String folderName) {
+            return pcloud.async().mkdir(folderId, folderName);
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            available.signalAll();
+            for (BinaryConnection connection : connections) {
+                if (connection != null) {
+                    connection.close();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        pcloud.close();
+    }
+}
@@ -0,0 +1,250 @@
+package com.fathzer.sync4j.pcloud.internal.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jakarta.annotation.Nonnull;
+
+/**
+ * The encoding of requests and the decoding of responses of pCloud's binary protocol.
+ * <br>
+ * All integers are little endian.
+ * <br>
+ * A request is made of:<ul>
+ * <li>its length, on 2 bytes, not including these 2 bytes.</li>
+ * <li>the length of the method name, on 1 byte (the highest bit is set if data follows the request, it is never set by this class).</li>
+ * <li>the method name.</li>
+ * <li>the number of parameters, on 1 byte.</li>
+ * <li>the parameters. Each one starts with a byte whose 6 lowest bits are the length of its name and 2 highest bits are its type
+ * (0 for a string, 1 for a number, 2 for a boolean), followed by the name and the value: a string is its length on 4 bytes followed by
+ * its UTF-8 bytes, a number is 8 bytes, a boolean is 1 byte.</li>
+ * </ul>
+ * A response is its length, on 4 bytes, followed by a value. The type of a value is its first byte:<ul>
+ * <li>0-3: a string whose length is on the next (type+1) bytes.</li>
+ * <li>4-7: a reference to a previous string of the response, whose index is on the next (type-3) bytes.</li>
+ * <li>8-15: a number on the next (type-7) bytes.</li>
+ * <li>16: a hash, a sequence of string keys and values ended by 255.</li>
+ * <li>17: an array, a sequence of values ended by 255.</li>
+ * <li>18 and 19: false and true.</li>
+ * <li>20: data, whose length is on the next 8 bytes. It is sent after the response, this class does not support it.</li>
+ * <li>100-149: a string of length (type-100).</li>
+ * <li>150-199: a reference to the string with index (type-150).</li>
+ * <li>200-254: the number (type-200).</li>
+ * </ul>
+ * Strings are indexed in the order they appear in the response, starting at 0, references do not create new indexes.
+ * <br>
+ * Responses are decoded to {@link String}, {@link Long}, {@link Boolean}, {@link Map} and {@link List} instances.
+ */
+final class BinaryProtocol {
+    private static final int MAX_REQUEST_LENGTH = 0xFFFF;
+    private static final int MAX_PARAMETER_NAME_LENGTH = 0x3F;
+    private static final int MAX_METHOD_LENGTH = 0x7F;
+
+    static final int STRING = 0;
+    static final int STRING_REFERENCE = 4;
+    static final int NUMBER = 8;
+    static final int HASH = 16;
+    static final int ARRAY = 17;
+    static final int FALSE = 18;
+    static final int TRUE = 19;
+    static final int DATA = 20;
+    static final int SHORT_STRING = 100;
+    static final int SHORT_STRING_REFERENCE = 150;
+    static final int SHORT_NUMBER = 200;
+    static final int END = 255;
+
+    private BinaryProtocol() {
+        // Utility class - prevent instantiation
+    }
+
+    /**
+     * Encodes a request.
+     * @param method the method name
+     * @param parameters the parameters, their values should be String, Long, Integer or Boolean instances
+     * @return the encoded request
+     * @throws IllegalArgumentException if a parameter has an unsupported type or if the request is too long
+     */
+    @Nonnull
+    static byte[] encode(@Nonnull String method, @Nonnull Map<String, Object> parameters) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] name = method.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_METHOD_LENGTH) {
+            throw new IllegalArgumentException("Method name is too long: " + method);
+        }
+        if (parameters.size() > 0xFF) {
+            throw new IllegalArgumentException("Too many parameters");
+        }
+        out.write(name.length);
+        out.writeBytes(name);
+        out.write(parameters.size());
+        for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+            final byte[] key = parameter.getKey().getBytes(StandardCharsets.UTF_8);
+            if (key.length > MAX_PARAMETER_NAME_LENGTH) {
+                throw new IllegalArgumentException("Parameter name is too long: " + parameter.getKey());
+            }
+            final Object value = parameter.getValue();
+            if (value instanceof String string) {
+                out.write(key.length);
+                out.writeBytes(key);
+                final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                writeLittleEndian(out, bytes.length, 4);
+                out.writeBytes(bytes);
+            } else if (value instanceof Long || value instanceof Integer) {
+                out.write(1 << 6 | key.length);
+                out.writeBytes(key);
+                writeLittleEndian(out, ((Number) value).longValue(), 8);
+            } else if (value instanceof Boolean bool) {
+                out.write(2 << 6 | key.length);
+                out.writeBytes(key);
+                out.write(bool ? 1 : 0);
+            } else {
+                throw new IllegalArgumentException("Unsupported type for parameter " + parameter.getKey());
+            }
+        }
+        if (out.size() > MAX_REQUEST_LENGTH) {
+            throw new IllegalArgumentException("Request is too long");
+        }
+        final byte[] body = out.toByteArray();
+        final byte[] request = new byte[body.length + 2];
+        request[0] = (byte) body.length;
+        request[1] = (byte) (body.length >> 8);
+        System.arraycopy(body, 0, request, 2, body.length);
+        return request;
+    }
+
+    private static void writeLittleEndian(ByteArrayOutputStream out, long value, int bytes) {
+        for (int i = 0; i < bytes; i++) {
+            out.write((int) (value >>> (8 * i)));
+        }
+    }
+
+    /**
+     * Reads a response.
+     * @param in the input stream
+     * @return the value of the response, usually a Map
+     * @throws EOFException if the stream ends before the response is read
+     * @throws IOException if the response can't be read or is invalid
+     */
+    @Nonnull
+    static Object read(@Nonnull InputStream in) throws IOException {
+        final byte[] header = new byte[4];
+        final DataInputStream data = new DataInputStream(in);
+        data.readFully(header);
+        final long length = Integer.toUnsignedLong(ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN).getInt());
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Response is too long: " + length);
+        }
+        final byte[] body = new byte[(int) length];
+        data.readFully(body);
+        final ByteBuffer buffer = ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            final Object value = new Decoder(buffer).value();
+            if (value == null) {
+                throw new IOException("Invalid response: unexpected end marker");
+            }
+            return value;
+        } catch (RuntimeException e) {
+            // BufferUnderflowException, IndexOutOfBoundsException, NegativeArraySizeException
+            throw new IOException("Invalid response", e);
+        }
+    }
+
+    private static class Decoder {
+        private final ByteBuffer buffer;
+        private final List<String> strings = new ArrayList<>();
+
+        private Decoder(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        /**
+         * Decodes a value.
+         * @return the value, null if the end marker of a hash or an array is found
+         * @throws IOException if the value is invalid
+         */
+        private Object value() throws IOException {
+            final int type = Byte.toUnsignedInt(buffer.get());
+            if (type < STRING_REFERENCE) {
+                return string((int) number(type - STRING + 1));
+            } else if (type < NUMBER) {
+                return reference(number(type - STRING_REFERENCE + 1));
+            } else if (type < HASH) {
+                return number(type - NUMBER + 1);
+            } else if (type >= SHORT_NUMBER && type < END) {
+                return (long) (type - SHORT_NUMBER);
+            } else if (type >= SHORT_STRING_REFERENCE && type < SHORT_NUMBER) {
+                return reference(type - SHORT_STRING_REFERENCE);
+            } else if (type >= SHORT_STRING && type < SHORT_STRING_REFERENCE) {
+                return string(type - SHORT_STRING);
+            }
+            return switch (type) {
+                case HASH -> hash();
+                case ARRAY -> array();
+                case FALSE -> Boolean.FALSE;
+                case TRUE -> Boolean.TRUE;
+                case END -> null;
+                case DATA -> throw new IOException("Data responses are not supported");
+                default -> throw new IOException("Invalid value type " + type);
+            };
+        }
+
+        private long number(int bytes) {
+            long result = 0;
+            for (int i = 0; i < bytes; i++) {
+                result |= Byte.toUnsignedLong(buffer.get()) << (8 * i);
+            }
+            return result;
+        }
+
+        private String string(int length) {
+            final byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            final String result = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(result);
+            return result;
+        }
+
+        private String reference(long index) throws IOException {
+            if (index < 0 || index >= strings.size()) {
+                throw new IOException("Invalid string reference " + index);
+            }
+            return strings.get((int) index);
+        }
+
+        private Map<String, Object> hash() throws IOException {
+            final Map<String, Object> result = new HashMap<>();
+            while (true) {
+                final Object key = value();
+                if (key == null) {
+                    return result;
+                }
+                if (!(key instanceof String name)) {
+                    throw new IOException("Invalid hash key " + key);
+                }
+                final Object value = value();
+                if (value == null) {
+                    throw new IOException("Missing value of hash key " + name);
+                }
+                result.put(name, value);
+            }
+        }
+
+        private List<Object> array() throws IOException {
+            final List<Object> result = new ArrayList<>();
+            for (Object value = value(); value != null; value = value()) {
+                result.add(value);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.fathzer.sync4j.pcloud.internal.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+import com.fathzer.sync4j.pcloud.internal.SingleFlight;
+
+import jakarta.annotation.Nonnull;
+
+import okhttp3.Call;
+
+/**
+ * A {@link PCloud} decorator that shares a single call between identical concurrent {@link #get(String)}, {@link #listFolder(long)}
+ * and {@link #getHashes(long)} calls.
+ * <br>
+ * It should be the outermost decorator: the callers that join a call in progress neither wait for a concurrency slot nor
+ * are retried, whatever the {@link PCloud} implementation (HTTP or binary protocol) that performs the call.
+ * <br>
+ * The {@link #async() asynchronous} calls share the same calls as the blocking ones.
+ * @see SingleFlight
+ */
+public class CoalescingPCloud implements PCloud {
+    private final PCloud pcloud;
+    private final SingleFlight<String, Metadata> getFlights = new SingleFlight<>();
+    private final SingleFlight<Long, Listing> listFlights = new SingleFlight<>();
+    private final SingleFlight<Long, FileHashes> hashFlights = new SingleFlight<>();
+    private final AsyncPCloud async = new Async();
+
+    /**
+     * Constructor.
+     * @param pcloud the decorated instance
+     */
+    public CoalescingPCloud(@Nonnull PCloud pcloud) {
+        this.pcloud = Objects.requireNonNull(pcloud);
+    }
+
+    @Override
+    public String getAccount() {
+        return pcloud.getAccount();
+    }
+
+    @Override
+    public AsyncPCloud async() {
+        return async;
+    }
+
+    @Override
+    public Metadata get(String path) throws IOException {
+        Objects.requireNonNull(path);
+        return getFlights.execute(path, () -> pcloud.get(path));
+    }
+
+    @Override
+    public FileHashes getHashes(long fileId) throws IOException {
+        return hashFlights.execute(fileId, () -> pcloud.getHashes(fileId));
+    }
+
+    @Override
+    public Map<Long, FileHashes> getHashes(Collection<Long> fileIds, int concurrency) throws IOException {
+        return pcloud.getHashes(fileIds, concurrency);
+    }
+
+    @Override
+    public InputStream getInputStream(long fileId) throws IOException {
+        return pcloud.getInputStream(fileId);
+    }
+
+    @Override
+    public URL getDownloadLink(long fileId) throws IOException {
+        return pcloud.getDownloadLink(fileId);
+    }
+
+    @Override
+    public byte[] download(URL link, long offset, int length) throws IOException {
+        return pcloud.download(link, offset, length);
+    }
+
+    @Override
+    public Listing listFolder(long folderId) throws IOException {
+        return listFlights.execute(folderId, () -> pcloud.listFolder(folderId));
+    }
+
+    @Override
+    public void listFolder(long folderId, boolean recursive, boolean foldersOnly, Consumer<Metadata> consumer) throws IOException {
+        pcloud.listFolder(folderId, recursive, foldersOnly, consumer);
+    }
+
+    @Override
+    public long diff(long diffId, boolean block, Consumer<DiffEntry> consumer, Consumer<Call> calls) throws IOException {
+        return pcloud.diff(diffId, block, consumer, calls);
+    }
+
+    @Override
+    public void delete(Metadata entry) throws IOException {
+        pcloud.delete(entry);
+    }
+
+    @Override
+    public Metadata upload(long folderId, String fileName, ContentSupplier content, long size, long mtime, long ctime, LongConsumer progressListener) throws IOException {
+        return pcloud.upload(folderId, fileName, content, size, mtime, ctime, progressListener);
+    }
+
+    @Override
+    public List<Metadata> upload(long folderId, List<UploadContent> files, long mtime, long ctime) throws IOException {
+        return pcloud.upload(folderId, files, mtime, ctime);
+    }
+
+    @Override
+    public long createUpload() throws IOException {
+        return pcloud.createUpload();
+    }
+
+    @Override
+    public long getUploadSize(long uploadId) throws IOException {
+        return pcloud.getUploadSize(uploadId);
+    }
+
+    @Override
+    public void writeUpload(long uploadId, long offset, byte[] data, int length) throws IOException {
+        pcloud.writeUpload(uploadId, offset, data, length);
+    }
+
+    @Override
+    public Metadata saveUpload(long uploadId, long folderId, String fileName, long mtime, long ctime) throws IOException {
+        return pcloud.saveUpload(uploadId, folderId, fileName, mtime, ctime);
+    }
+
+    @Override
+    public Metadata copy(long fileId, long folderId, String fileName, long mtime, long ctime) throws IOException {
+        return pcloud.copy(fileId, folderId, fileName, mtime, ctime);
+    }
+
+    @Override
+    public Metadata mkdir(long folderId, String folderName) throws IOException {
+        return pcloud.mkdir(folderId, folderName);
+    }
+
+    @Override
+    public void close() {
+        pcloud.close();
+    }
+
+    /**
+     * The asynchronous interface.
+     * <br>Cancelling the future of a shared call does not cancel the call, only the future of the caller.
+     */
+    private class Async implements AsyncPCloud {
+        @Override
+        public CompletableFuture<Metadata> get(String path) {
+            Objects.requireNonNull(path);
+            return getFlights.executeAsync(path, () -> pcloud.async().get(path));
+        }
+
+        @Override
+        public CompletableFuture<FileHashes> getHashes(long fileId) {
+            return hashFlights.executeAsync(fileId, () -> pcloud.async().getHashes(fileId));
+        }
+
+        @Override
+        public CompletableFuture<Listing> listFolder(long folderId) {
+            return listFlights.executeAsync(folderId, () -> pcloud.async().listFolder(folderId));
+        }
+
+        @Override
+        public CompletableFuture<Void> delete(Metadata entry) {
+            return pcloud.async().delete(entry);
+        }
+
+        @Override
+        public CompletableFuture<Metadata> upload(long folderId, String fileName, ContentSupplier content, long size, long mtime, long ctime, LongConsumer progressListener) {
+            return pcloud.async().upload(folderId, fileName, content, size, mtime, ctime, progressListener);
+        }
+
+        @Override
+        public CompletableFuture<Metadata> mkdir(long folderId, String folderName) {
+            return pcloud.async().mkdir(folderId, folderName);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.fathzer.sync4j.pcloud.internal.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import jakarta.annotation.Nonnull;
+
+/**
+ * A supplier of the content of a file to upload.
+ * <br>The content may be opened several times, for instance if an upload is retried.
+ */
+@FunctionalInterface
+public interface ContentSupplier {
+    /**
+     * Opens the content.
+     * @return a new input stream on the content
+     * @throws IOException if an I/O error occurs
+     */
+    @Nonnull
+    InputStream open() throws IOException;
+}
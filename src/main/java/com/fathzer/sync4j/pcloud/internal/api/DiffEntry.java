@@ -0,0 +1,13 @@
+package com.fathzer.sync4j.pcloud.internal.api;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+/**
+ * An event of pCloud's <i>diff</i> feed.
+ * @param diffId the id of the event, events ids are increasing
+ * @param event the type of the event, for instance <i>createfile</i>, <i>modifyfolder</i>, <i>deletefile</i> or <i>reset</i>
+ * @param metadata the entry after the event, null if the event is not about an entry
+ */
+public record DiffEntry(long diffId, @Nonnull String event, @Nullable Metadata metadata) {
+}
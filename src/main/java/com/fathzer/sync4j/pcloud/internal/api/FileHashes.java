@@ -0,0 +1,31 @@
+package com.fathzer.sync4j.pcloud.internal.api;
+
+import com.fathzer.sync4j.HashAlgorithm;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+/**
+ * The hashes of a remote file returned by a single <i>checksumfile</i> call.
+ * <br>
+ * SHA1 is available in every zone. The other hashes depend on the zone (MD5 in US zone, SHA256 in EU zone).
+ * @param sha1 the SHA1 hash
+ * @param md5 the MD5 hash or null if not available
+ * @param sha256 the SHA256 hash or null if not available
+ */
+public record FileHashes(@Nonnull String sha1, @Nullable String md5, @Nullable String sha256) {
+    /**
+     * Gets a hash.
+     * @param hashAlgorithm the hash algorithm
+     * @return the hash, null if it is not available
+     */
+    @Nullable
+    public String get(@Nonnull HashAlgorithm hashAlgorithm) {
+        return switch (hashAlgorithm) {
+            case SHA1 -> sha1;
+            case MD5 -> md5;
+            case SHA256 -> sha256;
+            default -> null;
+        };
+    }
+}
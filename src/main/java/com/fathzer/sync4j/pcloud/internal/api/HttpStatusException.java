@@ -0,0 +1,30 @@
+package com.fathzer.sync4j.pcloud.internal.api;
+
+import java.io.IOException;
+
+/**
+ * An exception thrown when the pCloud server returns an unexpected HTTP status.
+ */
+public class HttpStatusException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+
+    /**
+     * Constructor.
+     * @param statusCode the HTTP status code
+     * @param message the message
+     */
+    public HttpStatusException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * Gets the HTTP status code.
+     * @return the status code
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
@@ -0,0 +1,13 @@
+package com.fathzer.sync4j.pcloud.internal.api;
+
+import java.util.List;
+
+import jakarta.annotation.Nonnull;
+
+/**
+ * The non recursive listing of a remote folder.
+ * @param folder the listed folder
+ * @param children the children of the folder
+ */
+public record Listing(@Nonnull Metadata folder, @Nonnull List<Metadata> children) {
+}
@@ -0,0 +1,181 @@
+package com.fathzer.sync4j.pcloud.internal.api;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.function.Consumer;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.pcloud.sdk.ApiError;
+
+import jakarta.annotation.Nonnull;
+
+/**
+ * A streaming parser of <i>listfolder</i> responses.
+ * <br>It also parses the responses of other methods that return metadata, as a single object (<i>copyfile</i>, <i>upload_save</i>)
+ * or as an array (<i>uploadfile</i>), and, with {@link #parseFields(Reader, FieldReader)}, the fields of any other response
+ * (the events of a <i>diff</i> response are read with {@link #parseDiffEntry(JsonReader)}).
+ * <br>
+ * The response is read incrementally, entries are emitted as soon as they are parsed and are not retained by the parser.
+ * The memory used is proportional to the depth of the tree, not to its size.
+ * <br>
+ * Entries are emitted in post-order: the children of a folder are emitted before the folder itself.
+ */
+final class ListingParser {
+    /** The metadata fields read by this parser, as expected by the <i>filtermeta</i> parameter of <i>listfolder</i>. */
+    static final String FIELDS = "isfolder,fileid,folderid,parentfolderid,name,size,created,modified,hash,contents";
+
+    /**
+     * A reader of the fields of a response.
+     */
+    @FunctionalInterface
+    interface FieldReader {
+        /**
+         * Reads a field of the response.
+         * @param name the name of the field
+         * @param json the reader, positioned on the value of the field. The value should be consumed, for instance with {@link JsonReader#skipValue()}.
+         * @throws IOException if the value can't be read
+         */
+        void read(@Nonnull String name, @Nonnull JsonReader json) throws IOException;
+    }
+
+    private ListingParser() {
+        // Utility class - prevent instantiation
+    }
+
+    /**
+     * Parses a <i>listfolder</i> response.
+     * @param reader the response reader
+     * @param consumer the consumer that receives the entries
+     * @throws IOException if the response can't be read or is invalid
+     * @throws ApiError if the response is an API error
+     */
+    static void parse(@Nonnull Reader reader, @Nonnull Consumer<Metadata> consumer) throws IOException, ApiError {
+        parseFields(reader, (name, json) -> {
+            if ("metadata".equals(name)) {
+                parseMetadata(json, consumer);
+            } else {
+                json.skipValue();
+            }
+        });
+    }
+
+    /**
+     * Parses a response.
+     * <br>The <i>result</i> and <i>error</i> fields are checked by this method, the other fields are sent to a field reader.
+     * @param reader the response reader
+     * @param fields the reader of the other fields
+     * @throws IOException if the response can't be read or is invalid
+     * @throws ApiError if the response is an API error
+     */
+    static void parseFields(@Nonnull Reader reader, @Nonnull FieldReader fields) throws IOException, ApiError {
+        try (JsonReader json = new JsonReader(reader)) {
+            int result = 0;
+            String error = null;
+            json.beginObject();
+            while (json.hasNext()) {
+                final String name = json.nextName();
+                switch (name) {
+                    case "result" -> result = json.nextInt();
+                    case "error" -> error = json.nextString();
+                    default -> fields.read(name, json);
+                }
+            }
+            json.endObject();
+            if (result != 0) {
+                throw new ApiError(result, error);
+            }
+        } catch (IllegalStateException | NumberFormatException | DateTimeParseException e) {
+            throw new IOException("Invalid response", e);
+        }
+    }
+
+    private static void parseMetadata(JsonReader json, Consumer<Metadata> consumer) throws IOException {
+        if (json.peek() == JsonToken.BEGIN_ARRAY) {
+            json.beginArray();
+            while (json.hasNext()) {
+                consumer.accept(parseEntry(json, consumer));
+            }
+            json.endArray();
+        } else {
+            consumer.accept(parseEntry(json, consumer));
+        }
+    }
+
+    /**
+     * Parses an event of a <i>diff</i> response.
+     * @param json the reader, positioned on the event
+     * @return the event
+     * @throws IOException if the event can't be read
+     */
+    static DiffEntry parseDiffEntry(@Nonnull JsonReader json) throws IOException {
+        long diffId = 0;
+        String event = "";
+        Metadata metadata = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "diffid" -> diffId = json.nextLong();
+                case "event" -> event = json.nextString();
+                case "metadata" -> metadata = parseEntry(json, entry -> {});
+                default -> json.skipValue();
+            }
+        }
+        json.endObject();
+        return new DiffEntry(diffId, event, metadata);
+    }
+
+    private static Metadata parseEntry(JsonReader json, Consumer<Metadata> consumer) throws IOException {
+        boolean isFolder = false;
+        long fileId = 0;
+        long folderId = 0;
+        long parentFolderId = 0;
+        String name = "";
+        long size = 0;
+        long created = 0;
+        long modified = 0;
+        long hash = 0;
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "isfolder" -> isFolder = json.nextBoolean();
+                case "fileid" -> fileId = json.nextLong();
+                case "folderid" -> folderId = json.nextLong();
+                case "parentfolderid" -> parentFolderId = json.nextLong();
+                case "name" -> name = json.nextString();
+                case "size" -> size = json.nextLong();
+                case "created" -> created = nextTime(json);
+                case "modified" -> modified = nextTime(json);
+                // The hash is an unsigned 64 bits integer
+                case "hash" -> hash = Long.parseUnsignedLong(json.nextString());
+                case "contents" -> {
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        consumer.accept(parseEntry(json, consumer));
+                    }
+                    json.endArray();
+                }
+                default -> json.skipValue();
+            }
+        }
+        json.endObject();
+        return new Metadata(isFolder ? folderId : fileId, isFolder, parentFolderId, name, size, created, modified, hash);
+    }
+
+    /**
+     * Reads a time.
+     * <br>Times are numbers of seconds when the request has the <i>timeformat=timestamp</i> parameter, RFC 1123 dates otherwise.
+     * @param json the reader
+     * @return a time in milliseconds since epoch
+     * @throws IOException if the time can't be read
+     */
+    static long nextTime(JsonReader json) throws IOException {
+        if (json.peek() == JsonToken.NUMBER) {
+            return json.nextLong() * 1000;
+        }
+        return ZonedDateTime.parse(json.nextString(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+    }
+}
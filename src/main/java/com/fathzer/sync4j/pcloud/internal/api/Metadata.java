@@ -0,0 +1,20 @@
+package com.fathzer.sync4j.pcloud.internal.api;
+
+import jakarta.annotation.Nonnull;
+
+/**
+ * The metadata of a remote entry.
+ * <br>
+ * Unlike the pCloud SDK's {@link com.pcloud.sdk.RemoteEntry}, this record is a plain value that holds no reference to the API client
+ * or to the children of a folder.
+ * @param id the file id if the entry is a file, the folder id if the entry is a folder
+ * @param isFolder true if the entry is a folder
+ * @param parentFolderId the id of the parent folder (0 for the account's root folder)
+ * @param name the name of the entry
+ * @param size the size of the file (0 for folders)
+ * @param created the creation time in milliseconds since epoch
+ * @param modified the last modification time in milliseconds since epoch
+ * @param hash the 64 bits content hash of the file (0 for folders or if unknown)
+ */
+public record Metadata(long id, boolean isFolder, long parentFolderId, @Nonnull String name, long size, long created, long modified, long hash) {
+}
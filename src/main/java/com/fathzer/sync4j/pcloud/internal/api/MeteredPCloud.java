@@ -0,0 +1,367 @@
+package com.fathzer.sync4j.pcloud.internal.api;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+import com.fathzer.sync4j.pcloud.ApiListener;
+import com.fathzer.sync4j.pcloud.Endpoint;
+import com.pcloud.sdk.ApiError;
+
+import jakarta.annotation.Nonnull;
+
+import okhttp3.Call;
+
+/**
+ * A {@link PCloud} decorator that notifies an {@link ApiListener} of every call.
+ * <br>
+ * Every call is also recorded as an {@link ApiCallEvent} JDK Flight Recorder event, a download stream from its opening to its closing,
+ * an {@link #async() asynchronous} call until the completion of its future. The event has the HTTP status of the response when
+ * the call is made by {@link PCloudAPI}.
+ * <br>
+ * When there is no listener and no recording of these events is in progress, calls are passed through without any work.
+ */
+public class MeteredPCloud implements PCloud {
+    @FunctionalInterface
+    private interface IOCall<T> {
+        T call() throws IOException;
+    }
+
+    private static final ApiListener NO_LISTENER = new ApiListener() {};
+
+    private final PCloud pcloud;
+    private final ApiListener listener;
+    private final AsyncPCloud async = new Async();
+
+    /**
+     * Constructor of an instance that only records the JDK Flight Recorder events.
+     * @param pcloud the decorated instance
+     */
+    public MeteredPCloud(@Nonnull PCloud pcloud) {
+        this(pcloud, NO_LISTENER);
+    }
+
+    /**
+     * Constructor.
+     * @param pcloud the decorated instance
+     * @param listener the listener
+     */
+    public MeteredPCloud(@Nonnull PCloud pcloud, @Nonnull ApiListener listener) {
+        this.pcloud = pcloud;
+        this.listener = listener;
+    }
+
+    /**
+     * Gets the error code of a failed call.
+     * @param e the exception thrown by the call
+     * @return the pCloud error code or the HTTP status if available, -1 if not
+     */
+    static int errorCode(IOException e) {
+        if (e instanceof HttpStatusException status) {
+            return status.getStatusCode();
+        }
+        return e.getCause() instanceof ApiError error ? error.errorCode() : -1;
+    }
+
+    /**
+     * Tells if the calls are observed.
+     * @return false if there is no listener and no recording of {@link ApiCallEvent}
+     */
+    private boolean isObserved() {
+        return listener != NO_LISTENER || ApiCallEvent.isTypeEnabled();
+    }
+
+    /**
+     * Makes the requests sent by the current thread record their HTTP status in an event.
+     * @param event the event
+     * @return the previous status receiver of the current thread, to restore with {@link PCloudAPI#statusReceiver(IntConsumer)}
+     */
+    private static IntConsumer recordStatus(ApiCallEvent event) {
+        return PCloudAPI.statusReceiver(event.isEnabled() ? event::status : null);
+    }
+
+    private <T> T call(Endpoint endpoint, long fileId, long folderId, ToLongFunction<T> bytes, IOCall<T> call) throws IOException {
+        if (!isObserved()) {
+            return call.call();
+        }
+        final ApiCallEvent event = ApiCallEvent.begin(endpoint, fileId, folderId);
+        listener.started(endpoint);
+        final long start = System.nanoTime();
+        final IntConsumer previous = recordStatus(event);
+        try {
+            final T result = call.call();
+            final long count = bytes.applyAsLong(result);
+            listener.ended(endpoint, System.nanoTime() - start, count, 0);
+            event.end(count);
+            return result;
+        } catch (IOException | RuntimeException | Error e) {
+            failed(endpoint, event, start, e);
+            throw e;
+        } finally {
+            PCloudAPI.statusReceiver(previous);
+        }
+    }
+
+    private <T> T call(Endpoint endpoint, long fileId, long folderId, IOCall<T> call) throws IOException {
+        return call(endpoint, fileId, folderId, result -> 0, call);
+    }
+
+    private void failed(Endpoint endpoint, ApiCallEvent event, long start, Throwable e) {
+        listener.ended(endpoint, System.nanoTime() - start, 0, e instanceof IOException ex ? errorCode(ex) : -1);
+        event.failed(e);
+        event.end(0);
+    }
+
+    private <T> CompletableFuture<T> callAsync(Endpoint endpoint, long fileId, long folderId, ToLongFunction<T> bytes, Supplier<CompletableFuture<T>> call) {
+        if (!isObserved()) {
+            return call.get();
+        }
+        final ApiCallEvent event = ApiCallEvent.begin(endpoint, fileId, folderId);
+        listener.started(endpoint);
+        final long start = System.nanoTime();
+        final IntConsumer previous = recordStatus(event);
+        final CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException | Error e) {
+            failed(endpoint, event, start, e);
+            throw e;
+        } finally {
+            PCloudAPI.statusReceiver(previous);
+        }
+        future.whenComplete((result, error) -> {
+            if (error == null) {
+                final long count = bytes.applyAsLong(result);
+                listener.ended(endpoint, System.nanoTime() - start, count, 0);
+                event.end(count);
+            } else {
+                failed(endpoint, event, start, error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+            }
+        });
+        // The decorated future is returned, cancelling it still cancels the request
+        return future;
+    }
+
+    private <T> CompletableFuture<T> callAsync(Endpoint endpoint, long fileId, long folderId, Supplier<CompletableFuture<T>> call) {
+        return callAsync(endpoint, fileId, folderId, result -> 0, call);
+    }
+
+    @Override
+    public String getAccount() {
+        return pcloud.getAccount();
+    }
+
+    @Override
+    public AsyncPCloud async() {
+        return async;
+    }
+
+    @Override
+    public Metadata get(String path) throws IOException {
+        return call(Endpoint.STAT, 0, 0, () -> pcloud.get(path));
+    }
+
+    @Override
+    public FileHashes getHashes(long fileId) throws IOException {
+        return call(Endpoint.CHECKSUMFILE, fileId, 0, () -> pcloud.getHashes(fileId));
+    }
+
+    @Override
+    public Map<Long, FileHashes> getHashes(Collection<Long> fileIds, int concurrency) throws IOException {
+        return call(Endpoint.CHECKSUMFILES, 0, 0, () -> pcloud.getHashes(fileIds, concurrency));
+    }
+
+    @Override
+    public InputStream getInputStream(long fileId) throws IOException {
+        if (!isObserved()) {
+            return pcloud.getInputStream(fileId);
+        }
+        final ApiCallEvent event = ApiCallEvent.begin(Endpoint.DOWNLOAD, fileId, 0);
+        listener.started(Endpoint.DOWNLOAD);
+        final long start = System.nanoTime();
+        final InputStream in;
+        try {
+            in = pcloud.getInputStream(fileId);
+        } catch (IOException | RuntimeException | Error e) {
+            failed(Endpoint.DOWNLOAD, event, start, e);
+            throw e;
+        }
+        return new FilterInputStream(in) {
+            private long count;
+            private int errorCode;
+            private boolean closed;
+
+            @Override
+            public int read() throws IOException {
+                final int result = failing(super::read);
+                if (result >= 0) {
+                    count++;
+                }
+                return result;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                final int result = failing(() -> super.read(b, off, len));
+                if (result > 0) {
+                    count += result;
+                }
+                return result;
+            }
+
+            private int failing(IOCall<Integer> read) throws IOException {
+                try {
+                    return read.call();
+                } catch (IOException e) {
+                    errorCode = errorCode(e);
+                    event.failed(e);
+                    throw e;
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (!closed) {
+                        closed = true;
+                        listener.ended(Endpoint.DOWNLOAD, System.nanoTime() - start, count, errorCode);
+                        event.end(count);
+                    }
+                }
+            }
+        };
+    }
+
+    @Override
+    public URL getDownloadLink(long fileId) throws IOException {
+        return call(Endpoint.GETFILELINK, fileId, 0, () -> pcloud.getDownloadLink(fileId));
+    }
+
+    @Override
+    public byte[] download(URL link, long offset, int length) throws IOException {
+        return call(Endpoint.DOWNLOAD, 0, 0, data -> data.length, () -> pcloud.download(link, offset, length));
+    }
+
+    @Override
+    public Listing listFolder(long folderId) throws IOException {
+        return call(Endpoint.LISTFOLDER, 0, folderId, () -> pcloud.listFolder(folderId));
+    }
+
+    @Override
+    public void listFolder(long folderId, boolean recursive, boolean foldersOnly, Consumer<Metadata> consumer) throws IOException {
+        call(Endpoint.LISTFOLDER, 0, folderId, () -> {
+            pcloud.listFolder(folderId, recursive, foldersOnly, consumer);
+            return null;
+        });
+    }
+
+    @Override
+    public long diff(long diffId, boolean block, Consumer<DiffEntry> consumer, Consumer<Call> calls) throws IOException {
+        return call(Endpoint.DIFF, 0, 0, () -> pcloud.diff(diffId, block, consumer, calls));
+    }
+
+    @Override
+    public void delete(Metadata entry) throws IOException {
+        call(Endpoint.DELETE, entry.isFolder() ? 0 : entry.id(), entry.isFolder() ? entry.id() : 0, () -> {
+            pcloud.delete(entry);
+            return null;
+        });
+    }
+
+    @Override
+    public Metadata upload(long folderId, String fileName, ContentSupplier content, long size, long mtime, long ctime, LongConsumer progressListener) throws IOException {
+        return call(Endpoint.UPLOADFILE, 0, folderId, file -> size, () -> pcloud.upload(folderId, fileName, content, size, mtime, ctime, progressListener));
+    }
+
+    @Override
+    public List<Metadata> upload(long folderId, List<UploadContent> files, long mtime, long ctime) throws IOException {
+        final long size = files.stream().mapToLong(UploadContent::size).sum();
+        return call(Endpoint.UPLOADFILE, 0, folderId, uploaded -> size, () -> pcloud.upload(folderId, files, mtime, ctime));
+    }
+
+    @Override
+    public long createUpload() throws IOException {
+        return call(Endpoint.UPLOAD_CREATE, 0, 0, pcloud::createUpload);
+    }
+
+    @Override
+    public long getUploadSize(long uploadId) throws IOException {
+        return call(Endpoint.UPLOAD_INFO, 0, 0, () -> pcloud.getUploadSize(uploadId));
+    }
+
+    @Override
+    public void writeUpload(long uploadId, long offset, byte[] data, int length) throws IOException {
+        call(Endpoint.UPLOAD_WRITE, 0, 0, written -> length, () -> {
+            pcloud.writeUpload(uploadId, offset, data, length);
+            return null;
+        });
+    }
+
+    @Override
+    public Metadata saveUpload(long uploadId, long folderId, String fileName, long mtime, long ctime) throws IOException {
+        return call(Endpoint.UPLOAD_SAVE, 0, folderId, () -> pcloud.saveUpload(uploadId, folderId, fileName, mtime, ctime));
+    }
+
+    @Override
+    public Metadata copy(long fileId, long folderId, String fileName, long mtime, long ctime) throws IOException {
+        return call(Endpoint.COPYFILE, fileId, folderId, () -> pcloud.copy(fileId, folderId, fileName, mtime, ctime));
+    }
+
+    @Override
+    public Metadata mkdir(long folderId, String folderName) throws IOException {
+        return call(Endpoint.CREATEFOLDER, 0, folderId, () -> pcloud.mkdir(folderId, folderName));
+    }
+
+    @Override
+    public void close() {
+        pcloud.close();
+    }
+
+    /**
+     * The asynchronous interface, it meters the asynchronous calls of the decorated instance.
+     */
+    private class Async implements AsyncPCloud {
+        @Override
+        public CompletableFuture<Metadata> get(String path) {
+            return callAsync(Endpoint.STAT, 0, 0, () -> pcloud.async().get(path));
+        }
+
+        @Override
+        public CompletableFuture<FileHashes> getHashes(long fileId) {
+            return callAsync(Endpoint.CHECKSUMFILE, fileId, 0, () -> pcloud.async().getHashes(fileId));
+        }
+
+        @Override
+        public CompletableFuture<Listing> listFolder(long folderId) {
+            return callAsync(Endpoint.LISTFOLDER, 0, folderId, () -> pcloud.async().listFolder(folderId));
+        }
+
+        @Override
+        public CompletableFuture<Void> delete(Metadata entry) {
+            return callAsync(Endpoint.DELETE, entry.isFolder() ? 0 : entry.id(), entry.isFolder() ? entry.id() : 0, () -> pcloud.async().delete(entry));
+        }
+
+        @Override
+        public CompletableFuture<Metadata> upload(long folderId, String fileName, ContentSupplier content, long size, long mtime, long ctime, LongConsumer progressListener) {
+            return callAsync(Endpoint.UPLOADFILE, 0, folderId, file -> size, () -> pcloud.async().upload(folderId, fileName, content, size, mtime, ctime, progressListener));
+        }
+
+        @Override
+        public CompletableFuture<Metadata> mkdir(long folderId, String folderName) {
+            return callAsync(Endpoint.CREATEFOLDER, 0, folderId, () -> pcloud.async().mkdir(folderId, folderName));
+        }
+    }
+}
@@ -2,20 +2,30 @@ package com.fathzer.sync4j.pcloud.internal.api;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URL;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 import java.util.function.LongConsumer;
 
-import com.fathzer.sync4j.HashAlgorithm;
-import com.pcloud.sdk.RemoteEntry;
-import com.pcloud.sdk.RemoteFile;
-import com.pcloud.sdk.RemoteFolder;
-
 import jakarta.annotation.Nonnull;
 import jakarta.annotation.Nullable;
 
+import okhttp3.Call;
+
 /**
  * Interface to the pCloud API.
  */
 public interface PCloud extends AutoCloseable {
+    /**
+     * Gets the identifier of the account this instance is connected to.
+     * <br>Two instances connected to the same account in the same zone return equal identifiers, even if they use different access tokens.
+     * @return an account identifier
+     */
+    @Nonnull
+    String getAccount();
+
     /**
      * Get a remote entry.
      * @param path the path of the remote entry. All paths should start with a slash except the root path which is an empty string.
@@ -23,45 +33,104 @@ public interface PCloud extends AutoCloseable {
      * @throws IOException if an I/O error occurs
      */
 	@Nonnull
-    RemoteEntry get(@Nonnull String path) throws IOException;
+    Metadata get(@Nonnull String path) throws IOException;
 
     /**
-     * Get the hash of a remote file.
-     * @param remoteFile the remote file
-     * @param hashAlgorithm the hash algorithm
-     * @return the hash of the remote file
+     * Get the hashes of a remote file.
+     * @param fileId the id of the remote file
+     * @return the hashes of the remote file
      * @throws IOException if an I/O error occurs
-     * @throws UnsupportedOperationException if hash is not supported
      */
     @Nonnull
-    String getHash(@Nonnull RemoteFile remoteFile, @Nonnull HashAlgorithm hashAlgorithm) throws IOException;
+    FileHashes getHashes(long fileId) throws IOException;
+
+    /**
+     * Get the hashes of several remote files.
+     * <br>Requests are sent concurrently, without waiting for previous responses, until <code>concurrency</code> requests are in flight.
+     * <br>A failure to get the hashes of a file does not stop the other requests, the file is just missing from the result.
+     * @param fileIds the ids of the remote files
+     * @param concurrency the maximum number of concurrent requests
+     * @return the hashes of the remote files keyed by file id
+     * @throws IOException if the current thread is interrupted
+     */
+    @Nonnull
+    Map<Long, FileHashes> getHashes(@Nonnull Collection<Long> fileIds, int concurrency) throws IOException;
 
     /**
      * Get the input stream of a remote file.
-     * @param remoteFile the remote file
+     * @param fileId the id of the remote file
      * @return the input stream of the remote file
      * @throws IOException if an I/O error occurs
      */
     @Nonnull
-    InputStream getInputStream(@Nonnull RemoteFile remoteFile) throws IOException;
+    InputStream getInputStream(long fileId) throws IOException;
+
+    /**
+     * Gets a download link of a remote file.
+     * <br>The link can be used to download parts of the file with {@link #download(URL, long, int)}.
+     * It is valid for a limited time.
+     * @param fileId the id of the remote file
+     * @return the download link
+     * @throws IOException if an I/O error occurs
+     */
+    @Nonnull
+    URL getDownloadLink(long fileId) throws IOException;
+
+    /**
+     * Downloads a byte range of a remote file.
+     * @param link a download link returned by {@link #getDownloadLink(long)}
+     * @param offset the offset of the first byte to download
+     * @param length the number of bytes to download
+     * @return the downloaded bytes. Its length is less than <code>length</code> only if the end of file is reached.
+     * @throws IOException if an I/O error occurs
+     */
+    @Nonnull
+    byte[] download(@Nonnull URL link, long offset, int length) throws IOException;
 
     /**
      * List the content of a remote folder.
      * @param folderId the ID of the remote folder
-     * @param recursive if true, list the content of the remote folder recursively
      * @return the content of the remote folder
      * @throws IOException if an I/O error occurs
      */
     @Nonnull
-    RemoteFolder listFolder(long folderId, boolean recursive) throws IOException;
+    Listing listFolder(long folderId) throws IOException;
+
+    /**
+     * Streams the content of a remote folder.
+     * <br>Unlike {@link #listFolder(long)}, the listing is never fully built in memory: entries are sent to the consumer
+     * as soon as they are read from the network.
+     * <br>Entries are sent in post-order, the children of a folder are sent before the folder itself. The last entry is always
+     * the listed folder.
+     * @param folderId the ID of the remote folder
+     * @param recursive if true, list the content of the remote folder recursively
+     * @param consumer the consumer that receives the entries
+     * @throws IOException if an I/O error occurs
+     * @see #listFolder(long, boolean, boolean, Consumer)
+     */
+    default void listFolder(long folderId, boolean recursive, @Nonnull Consumer<Metadata> consumer) throws IOException {
+        listFolder(folderId, recursive, false, consumer);
+    }
+
+    /**
+     * Streams the content of a remote folder, optionally without its files.
+     * <br>This method behaves like {@link #listFolder(long, boolean, Consumer)}. If <code>foldersOnly</code> is true, files are not
+     * transferred at all, which makes listing the structure of a large tree much cheaper.
+     * @param folderId the ID of the remote folder
+     * @param recursive if true, list the content of the remote folder recursively
+     * @param foldersOnly if true, only folders are listed
+     * @param consumer the consumer that receives the entries
+     * @throws IOException if an I/O error occurs
+     */
+    void listFolder(long folderId, boolean recursive, boolean foldersOnly, @Nonnull Consumer<Metadata> consumer) throws IOException;
 
     /**
      * Delete a remote entry.
      * <br>If the entry is a folder, it is deleted recursively.
-     * @param remoteEntry the remote entry to delete
+     * @param entry the remote entry to delete
      * @throws IOException if an I/O error occurs
      */
-    void delete(@Nonnull RemoteEntry remoteEntry) throws IOException;
+    void delete(@Nonnull Metadata entry) throws IOException;
 
     /**
      * Upload a file to a remote folder.
@@ -76,7 +145,75 @@ public interface PCloud extends AutoCloseable {
      * @throws IOException if an I/O error occurs
      */
     @Nonnull
-    RemoteFile upload(long folderId, @Nonnull String fileName, @Nonnull InputStream content, long size, long mtime, long ctime, @Nullable LongConsumer progressListener) throws IOException;
+    Metadata upload(long folderId, @Nonnull String fileName, @Nonnull ContentSupplier content, long size, long mtime, long ctime, @Nullable LongConsumer progressListener) throws IOException;
+
+    /**
+     * Uploads several files to a remote folder in a single request.
+     * <br>All the files get the same modification and creation times.
+     * @param folderId the ID of the remote folder
+     * @param files the files to upload. Their names should be distinct.
+     * @param mtime the modification time of the files
+     * @param ctime the creation time of the files
+     * @return the remote files, in the same order as <code>files</code>
+     * @throws IOException if an I/O error occurs
+     */
+    @Nonnull
+    List<Metadata> upload(long folderId, @Nonnull List<UploadContent> files, long mtime, long ctime) throws IOException;
+
+    /**
+     * Creates an upload session.
+     * <br>An upload session allows to upload a file in several chunks, possibly concurrently, and to resume an interrupted upload.
+     * @return the id of the upload session
+     * @throws IOException if an I/O error occurs
+     * @see #writeUpload(long, long, byte[], int)
+     * @see #saveUpload(long, long, String, long, long)
+     */
+    long createUpload() throws IOException;
+
+    /**
+     * Gets the size of the data written in an upload session.
+     * @param uploadId the id of the upload session
+     * @return the size of the data written so far
+     * @throws IOException if an I/O error occurs, typically if the upload session does not exist anymore
+     */
+    long getUploadSize(long uploadId) throws IOException;
+
+    /**
+     * Writes a chunk of data in an upload session.
+     * @param uploadId the id of the upload session
+     * @param offset the offset of the chunk in the uploaded file
+     * @param data a buffer that contains the chunk
+     * @param length the length of the chunk
+     * @throws IOException if an I/O error occurs
+     */
+    void writeUpload(long uploadId, long offset, @Nonnull byte[] data, int length) throws IOException;
+
+    /**
+     * Saves the data written in an upload session as a file.
+     * @param uploadId the id of the upload session
+     * @param folderId the ID of the remote folder
+     * @param fileName the name of the file
+     * @param mtime the modification time of the file
+     * @param ctime the creation time of the file
+     * @return the remote file
+     * @throws IOException if an I/O error occurs
+     */
+    @Nonnull
+    Metadata saveUpload(long uploadId, long folderId, @Nonnull String fileName, long mtime, long ctime) throws IOException;
+
+    /**
+     * Copies a remote file on the server side.
+     * <br>If a file with the same name exists in the target folder, it is overwritten.
+     * @param fileId the id of the remote file to copy
+     * @param folderId the ID of the target folder
+     * @param fileName the name of the copy
+     * @param mtime the modification time of the copy
+     * @param ctime the creation time of the copy
+     * @return the copy
+     * @throws IOException if an I/O error occurs
+     */
+    @Nonnull
+    Metadata copy(long fileId, long folderId, @Nonnull String fileName, long mtime, long ctime) throws IOException;
 
     /**
      * Create a remote folder.
@@ -86,8 +223,45 @@ public interface PCloud extends AutoCloseable {
      * @throws IOException if an I/O error occurs
      */
     @Nonnull
-    RemoteFolder mkdir(long folderId, @Nonnull String folderName) throws IOException;
-    
+    Metadata mkdir(long folderId, @Nonnull String folderName) throws IOException;
+
+    /**
+     * Reads the changes made to the account from pCloud's <i>diff</i> feed.
+     * <br>The feed is a sequence of events with increasing ids. The same events are returned to every client of the account,
+     * whatever the client that made the changes.
+     * @param diffId the id of the last event already read, 0 to only get the id of the last event of the feed
+     * @param block if true and no event is available after <code>diffId</code>, waits for the next event (long polling).
+     * The wait ends after a while if nothing happens.
+     * @param consumer the consumer that receives the events, in order
+     * @return the id of the last event read, <code>diffId</code> if no event was read
+     * @throws IOException if an I/O error occurs
+     */
+    default long diff(long diffId, boolean block, @Nonnull Consumer<DiffEntry> consumer) throws IOException {
+        return diff(diffId, block, consumer, null);
+    }
+
+    /**
+     * Reads the changes made to the account from pCloud's <i>diff</i> feed, and allows the HTTP calls to be cancelled.
+     * @param diffId the id of the last event already read, 0 to only get the id of the last event of the feed
+     * @param block if true and no event is available after <code>diffId</code>, waits for the next event (long polling).
+     * The wait ends after a while if nothing happens.
+     * @param consumer the consumer that receives the events, in order
+     * @param calls if not null, receives every HTTP call made to read the feed before it is executed.
+     * Cancelling it makes this method fail without waiting for the end of a long polling call.
+     * @return the id of the last event read, <code>diffId</code> if no event was read
+     * @throws IOException if an I/O error occurs or the call was cancelled
+     * @see #diff(long, boolean, Consumer)
+     */
+    long diff(long diffId, boolean block, @Nonnull Consumer<DiffEntry> consumer, @Nullable Consumer<Call> calls) throws IOException;
+
+    /**
+     * Gets the asynchronous interface to the same account.
+     * <br>Its calls are metered, retried and coalesced like the calls of this instance.
+     * @return an asynchronous interface
+     */
+    @Nonnull
+    AsyncPCloud async();
+
     @Override
     void close();
 }
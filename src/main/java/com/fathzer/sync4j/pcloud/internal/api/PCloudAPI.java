@@ -3,30 +3,43 @@ package com.fathzer.sync4j.pcloud.internal.api;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
 import java.net.URI;
+import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 import java.util.function.LongConsumer;
 
-import com.fathzer.sync4j.HashAlgorithm;
 import com.fathzer.sync4j.helper.PathUtils;
 import com.fathzer.sync4j.pcloud.Zone;
 import com.fathzer.sync4j.util.ProgressInputStream;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import com.pcloud.sdk.ApiClient;
 import com.pcloud.sdk.ApiError;
 import com.pcloud.sdk.Authenticator;
+import com.pcloud.sdk.DownloadOptions;
+import com.pcloud.sdk.FileLink;
 import com.pcloud.sdk.PCloudSdk;
-import com.pcloud.sdk.RemoteEntry;
-import com.pcloud.sdk.RemoteFile;
-import com.pcloud.sdk.RemoteFolder;
-import com.pcloud.sdk.internal.JsonUtils;
 
 import jakarta.annotation.Nonnull;
 
 import com.pcloud.sdk.Authenticators;
-import com.pcloud.sdk.Call;
 
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 import okhttp3.MultipartBody;
 import okhttp3.OkHttpClient;
@@ -39,13 +52,27 @@ import okio.BufferedSink;
 /**
  * Implementation of the PCloud interface using the pCloud SDK.
  * <br>
+ * Every request is enqueued in the HTTP client's dispatcher: the blocking methods wait for the completion of the {@link #async()}
+ * calls, and are cancelled if the waiting thread is interrupted. The requests of {@link #getHashes(Collection, int)} are enqueued
+ * without waiting for the previous responses.
+ * <br>The only exception is the long polling {@link #diff(long, boolean, Consumer, Consumer) diff} call, that is executed on
+ * the calling thread so that it does not hold a dispatcher slot while waiting for events.
+ * <br>
  * Note: IOException encapsulate APIError that are described in the pCloud API documentation (https://docs.pcloud.com/errors/index.html)
  */
 public class PCloudAPI implements PCloud {
+    /** The maximum time a long polling <i>diff</i> call waits for an event. */
+    private static final Duration LONG_POLL_TIMEOUT = Duration.ofMinutes(5);
+    /** The receiver of the HTTP status of the requests sent by the current thread. */
+    private static final ThreadLocal<IntConsumer> STATUS_RECEIVER = new ThreadLocal<>();
+
     private final ApiClient sdk;
     private final URI apiURI;
     private final String token;
     private final OkHttpClient httpClient;
+    private final boolean ownsClient;
+    private final String account;
+    private final AsyncPCloud async = new Async();
 
     /**
      * Creates a new PCloudAPI instance.
@@ -55,26 +82,57 @@ public class PCloudAPI implements PCloud {
      * @throws IOException if an I/O error occurs or the authentication fails
      */
     public PCloudAPI(@Nonnull Zone zone, @Nonnull String accessToken) throws IOException {
-        this.httpClient = new OkHttpClient();
+        this(zone, accessToken, new OkHttpClient(), true);
+    }
+
+    /**
+     * Creates a new PCloudAPI instance that uses an existing HTTP client.
+     * <br>The client can be shared with other instances, it is not shut down when this instance is closed.
+     *
+     * @param zone The zone to use for the API client
+     * @param accessToken The access token to use for authentication
+     * @param httpClient The HTTP client
+     * @throws IOException if an I/O error occurs or the authentication fails
+     */
+    public PCloudAPI(@Nonnull Zone zone, @Nonnull String accessToken, @Nonnull OkHttpClient httpClient) throws IOException {
+        this(zone, accessToken, Objects.requireNonNull(httpClient), false);
+    }
+
+    /**
+     * Creates a new PCloudAPI instance that uses an HTTP client.
+     *
+     * @param zone The zone to use for the API client
+     * @param accessToken The access token to use for authentication
+     * @param httpClient The HTTP client
+     * @param ownsClient true to shut down the client's dispatcher and connection pool when this instance is closed.
+     * The maximum number of requests per host of an owned client's dispatcher is raised to its maximum number of requests.
+     * @throws IOException if an I/O error occurs or the authentication fails
+     */
+    public PCloudAPI(@Nonnull Zone zone, @Nonnull String accessToken, @Nonnull OkHttpClient httpClient, boolean ownsClient) throws IOException {
+        this.httpClient = httpClient;
+        this.ownsClient = ownsClient;
+        if (ownsClient) {
+            // Every request is enqueued and all of them go to the zone's host, OkHttp's default of 5 requests per host would be the limit
+            httpClient.dispatcher().setMaxRequestsPerHost(httpClient.dispatcher().getMaxRequests());
+        }
         this.apiURI = zone.getRootURI();
         this.token = Objects.requireNonNull(accessToken);
         this.sdk = getApiClient(zone, accessToken, this.httpClient);
+        try {
+            this.account = zone.getRootURI().getHost() + "/" + execute(() -> this.sdk.getUserInfo().execute()).userId();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
     }
 
-    private static ApiClient getApiClient(Zone zone, String accessToken, OkHttpClient httpClient) throws IOException {
+    private static ApiClient getApiClient(Zone zone, String accessToken, OkHttpClient httpClient) {
         final Authenticator authenticator = Authenticators.newOAuthAuthenticator(accessToken);
-        final ApiClient client = PCloudSdk.newClientBuilder()
+        return PCloudSdk.newClientBuilder()
                 .withClient(httpClient)
                 .authenticator(authenticator)
                 .apiHost(zone.getRootURI().getHost())
                 .create();
-        try {
-            execute(() -> client.getUserInfo().execute());
-            return client;
-        } catch (AuthenticationException e) {
-            client.shutdown();
-            throw e;
-        }
     }
 
     // Just for tests
@@ -83,6 +141,8 @@ public class PCloudAPI implements PCloud {
         this.apiURI = apiURI;
         this.token = token;
         this.httpClient = httpClient;
+        this.ownsClient = true;
+        this.account = String.valueOf(apiURI);
     }
     
     /**
@@ -94,6 +154,11 @@ public class PCloudAPI implements PCloud {
     	return sdk;
     }
 
+    @Override
+    public String getAccount() {
+        return account;
+    }
+
     @FunctionalInterface
     private interface PcloudCall<T> {
         T call() throws IOException, ApiError;
@@ -103,136 +168,627 @@ public class PCloudAPI implements PCloud {
         try {
             return call.call();
         } catch (ApiError e) {
-            int errorCode = e.errorCode();
-            if (errorCode == 2055 || errorCode == 2002) {
-                throw new FileNotFoundException(e.errorMessage());
-            } else if (errorCode == 2094) {
-                throw new AuthenticationException(e.errorMessage());
+            throw toIOException(e);
+        }
+    }
+
+    /**
+     * Sets the receiver of the HTTP status of the requests sent by the current thread.
+     * <br>The receiver of a request is captured when the request is sent, it is called, possibly by another thread, when the response is received.
+     * @param receiver the receiver, null to remove it
+     * @return the previous receiver, null if there was none
+     */
+    static IntConsumer statusReceiver(IntConsumer receiver) {
+        final IntConsumer previous = STATUS_RECEIVER.get();
+        if (receiver == null) {
+            STATUS_RECEIVER.remove();
+        } else {
+            STATUS_RECEIVER.set(receiver);
+        }
+        return previous;
+    }
+
+    @FunctionalInterface
+    private interface ResponseReader<T> {
+        T read(Response response) throws IOException;
+    }
+
+    /**
+     * Executes a request in the HTTP client's dispatcher and waits for its result.
+     * <br>If the current thread is interrupted, the request is cancelled.
+     * @param request the request
+     * @param reader the function that reads the response, it is called by the HTTP client's threads
+     * @return the result of the reader
+     * @throws IOException if the call fails
+     */
+    private <T> T execute(Request request, ResponseReader<T> reader) throws IOException {
+        return await(enqueue(request, reader));
+    }
+
+    /**
+     * Enqueues a request in the HTTP client's dispatcher, no thread waits for its response.
+     * @param request the request
+     * @param reader the function that reads the response, it is called by the HTTP client's threads
+     * @return a future completed with the result of the reader or the exception that made the call fail. Cancelling it cancels the request.
+     */
+    private <T> CompletableFuture<T> enqueue(Request request, ResponseReader<T> reader) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final okhttp3.Call call = httpClient.newCall(request);
+        final IntConsumer status = STATUS_RECEIVER.get();
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(okhttp3.Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(okhttp3.Call call, Response response) {
+                if (status != null) {
+                    status.accept(response.code());
+                }
+                try (response) {
+                    future.complete(reader.read(response));
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        future.whenComplete((result, e) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Waits for the completion of a call.
+     * <br>If the current thread is interrupted, an asynchronous call is cancelled.
+     * @param future the future of the call
+     * @return the result of the call
+     * @throws IOException if the call failed or the current thread is interrupted
+     */
+    static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException ex) {
+                throw ex;
+            } else if (cause instanceof RuntimeException ex) {
+                throw ex;
+            } else if (cause instanceof Error ex) {
+                throw ex;
             }
-            throw new IOException(e);
+            throw new IOException(cause);
         }
     }
 
+    static IOException toIOException(ApiError e) {
+        int errorCode = e.errorCode();
+        // The API error is kept as cause to let the error code be known
+        if (errorCode == 2055 || errorCode == 2002) {
+            return (IOException) new FileNotFoundException(e.errorMessage()).initCause(e);
+        } else if (errorCode == 2094) {
+            return (IOException) new AuthenticationException(e.errorMessage()).initCause(e);
+        }
+        return new IOException(e);
+    }
+
     @Override
-    public RemoteEntry get(String path) throws IOException {
-        return execute(() -> this.getRemoteEntry(path));
+    public AsyncPCloud async() {
+        return async;
     }
 
-    private RemoteEntry getRemoteEntry(String path) throws IOException, ApiError {
-        if (PathUtils.isRoot(path)) {
-            return this.sdk.loadFolder(0).execute();
-        }
-        RemoteFile entry = this.sdk.loadFile(path).execute();
-        return entry.isFolder() ? this.sdk.loadFolder(path).execute() : entry;
+    @Override
+    public Metadata get(String path) throws IOException {
+        return await(async.get(path));
+    }
+
+    @Override
+    public FileHashes getHashes(long fileId) throws IOException {
+        return await(async.getHashes(fileId));
     }
 
     @Override
-    public String getHash(RemoteFile remoteFile, HashAlgorithm hashAlgorithm) throws IOException {
-        Objects.requireNonNull(hashAlgorithm);
-        if (hashAlgorithm != HashAlgorithm.SHA1) {
-            throw new UnsupportedOperationException("Unsupported hash algorithm: " + hashAlgorithm);
+    public Map<Long, FileHashes> getHashes(Collection<Long> fileIds, int concurrency) throws IOException {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Concurrency should be strictly positive");
         }
-        return execute(() -> sdk.getChecksums(remoteFile.fileId()).execute()).getSha1().hex();
+        final Map<Long, FileHashes> result = new ConcurrentHashMap<>();
+        final Set<CompletableFuture<FileHashes>> pending = ConcurrentHashMap.newKeySet();
+        final Semaphore inFlight = new Semaphore(concurrency);
+        try {
+            for (Long fileId : fileIds) {
+                inFlight.acquire();
+                final CompletableFuture<FileHashes> future = async.getHashes(fileId);
+                pending.add(future);
+                future.whenComplete((hashes, e) -> {
+                    // Failed files are missing from the result, their hashes will be requested again when needed
+                    if (hashes != null) {
+                        result.put(fileId, hashes);
+                    }
+                    pending.remove(future);
+                    inFlight.release();
+                });
+            }
+            // Wait for the last requests
+            inFlight.acquire(concurrency);
+            inFlight.release(concurrency);
+            return result;
+        } catch (InterruptedException e) {
+            // Nobody will read the results of the requests in flight
+            pending.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private Request checksumRequest(long fileId) {
+        return builder(url("checksumfile").addQueryParameter("fileid", Long.toString(fileId)).build()).get().build();
     }
 
-    private Builder builder(URI uri) throws IOException {
+    private static FileHashes readHashes(Response response) throws IOException {
+        final String[] hashes = new String[3];
+        readJson(response, (name, json) -> {
+            switch (name) {
+                case "sha1" -> hashes[0] = json.nextString();
+                case "md5" -> hashes[1] = json.nextString();
+                case "sha256" -> hashes[2] = json.nextString();
+                default -> json.skipValue();
+            }
+        });
+        if (hashes[0] == null) {
+            throw new IOException("Invalid response: missing 'sha1' field");
+        }
+        return new FileHashes(hashes[0], hashes[1], hashes[2]);
+    }
+
+    private Builder builder(HttpUrl url) {
         return new Request.Builder()
-            .url(uri.toURL())
+            .url(url)
             .header("Accept", "application/json")
             .header("Authorization", "Bearer " + this.token);
     }
 
-    private JsonObject getJson(Request request) throws IOException {
-        try (Response response = this.httpClient.newCall(request).execute()) {
-            if (!response.isSuccessful()) {
-                throw new IOException("Unexpected response " + response + ": " + response.body().string());
+    private HttpUrl.Builder url(String method) {
+        return HttpUrl.parse(apiURI.toString()).newBuilder().addPathSegment(method);
+    }
+
+    /**
+     * Reads a response that contains metadata.
+     * @param response the response
+     * @return the last entry of the response (the folder of a listing, the first file of an upload)
+     * @throws IOException if the response is an error or does not contain metadata
+     */
+    private static Metadata readMetadata(Response response) throws IOException {
+        if (!response.isSuccessful()) {
+            throw new HttpStatusException(response.code(), "Unexpected response " + response);
+        }
+        final Metadata[] entry = new Metadata[1];
+        execute(() -> {
+            ListingParser.parse(response.body().charStream(), e -> entry[0] = e);
+            return null;
+        });
+        if (entry[0] == null) {
+            throw new IOException("Invalid response: missing 'metadata' field");
+        }
+        return entry[0];
+    }
+
+    /**
+     * Executes a request whose response has a number field.
+     * @param request the request
+     * @param field the name of the field
+     * @return the value of the field
+     * @throws IOException if the call fails or the field is missing
+     */
+    private long getLong(Request request, String field) throws IOException {
+        return execute(request, response -> {
+            final Long[] value = new Long[1];
+            readJson(response, (name, json) -> {
+                if (field.equals(name)) {
+                    value[0] = json.nextLong();
+                } else {
+                    json.skipValue();
+                }
+            });
+            if (value[0] == null) {
+                throw new IOException("Invalid response: missing '" + field + "' field");
+            }
+            return value[0];
+        });
+    }
+
+    /**
+     * Reads a JSON response, without building it in memory.
+     * @param response the response
+     * @param fields the reader of the fields other than <i>result</i> and <i>error</i>
+     * @throws IOException if the response is an error or is invalid
+     */
+    private static void readJson(Response response, ListingParser.FieldReader fields) throws IOException {
+        if (!response.isSuccessful()) {
+            throw new HttpStatusException(response.code(), "Unexpected response " + response + ": " + response.body().string());
+        }
+        execute(() -> {
+            ListingParser.parseFields(response.body().charStream(), fields);
+            return null;
+        });
+    }
+
+    private static void readJson(Response response) throws IOException {
+        readJson(response, (name, json) -> json.skipValue());
+    }
+
+    @Override
+    public InputStream getInputStream(long fileId) throws IOException {
+        return execute(() -> {
+            final FileLink link = sdk.createFileLink(fileId, DownloadOptions.DEFAULT).execute();
+            return sdk.download(link).execute().inputStream();
+        });
+    }
+
+    @Override
+    public URL getDownloadLink(long fileId) throws IOException {
+        return execute(() -> sdk.createFileLink(fileId, DownloadOptions.DEFAULT).execute()).bestUrl();
+    }
+
+    @Override
+    public byte[] download(URL link, long offset, int length) throws IOException {
+        final Request request = new Request.Builder().url(link)
+                .header("Range", "bytes=" + offset + "-" + (offset + length - 1))
+                .get().build();
+        return execute(request, response -> {
+            if (response.code() == 416) {
+                // Range starts after the end of file
+                return new byte[0];
             }
-            final JsonObject jsonResponse = JsonParser.parseString(response.body().string()).getAsJsonObject();
-            // Check for API errors
-            if (jsonResponse.has("error")) {
-                throw new IOException("API error: " + jsonResponse.get("error").getAsString());
+            if (response.code() != 206) {
+                throw new HttpStatusException(response.code(), "Unexpected response " + response);
             }
-            return jsonResponse;
+            return response.body().bytes();
+        });
+    }
+
+    @Override
+    public Listing listFolder(long folderId) throws IOException {
+        return await(async.listFolder(folderId));
+    }
+
+    /**
+     * Gets the URL of a <i>listfolder</i> request.
+     * <br>Only the metadata fields read by {@link ListingParser} are requested.
+     * @param folderId the id of the folder
+     * @return an URL builder
+     */
+    private HttpUrl.Builder listFolderUrl(long folderId) {
+        return url("listfolder")
+                .addQueryParameter("folderid", Long.toString(folderId))
+                .addQueryParameter("filtermeta", ListingParser.FIELDS)
+                .addQueryParameter("timeformat", "timestamp");
+    }
+
+    @Override
+    public void listFolder(long folderId, boolean recursive, boolean foldersOnly, Consumer<Metadata> consumer) throws IOException {
+        Objects.requireNonNull(consumer);
+        final HttpUrl.Builder url = listFolderUrl(folderId);
+        if (recursive) {
+            url.addQueryParameter("recursive", "1");
+        }
+        if (foldersOnly) {
+            url.addQueryParameter("nofiles", "1");
         }
+        // The entries are sent to the consumer by the HTTP client's thread that reads the response
+        execute(builder(url.build()).get().build(), response -> {
+            if (!response.isSuccessful()) {
+                throw new HttpStatusException(response.code(), "Unexpected response " + response);
+            }
+            return execute(() -> {
+                ListingParser.parse(response.body().charStream(), consumer);
+                return null;
+            });
+        });
     }
 
     @Override
-    public InputStream getInputStream(RemoteFile remoteFile) throws IOException {
-        return execute(() -> sdk.download(remoteFile).execute().inputStream());
+    public long diff(long diffId, boolean block, Consumer<DiffEntry> consumer, Consumer<okhttp3.Call> calls) throws IOException {
+        Objects.requireNonNull(consumer);
+        final HttpUrl.Builder url = url("diff").addQueryParameter("timeformat", "timestamp");
+        if (diffId == 0) {
+            // Returns no event, only the id of the last one
+            url.addQueryParameter("last", "0");
+        } else {
+            url.addQueryParameter("diffid", Long.toString(diffId));
+            if (block) {
+                url.addQueryParameter("block", "1");
+            }
+        }
+        final Request request = builder(url.build()).get().build();
+        // The derived client shares the connections and the dispatcher of the client
+        final OkHttpClient client = block ? httpClient.newBuilder().readTimeout(LONG_POLL_TIMEOUT).build() : httpClient;
+        final long[] last = {diffId};
+        final okhttp3.Call call = client.newCall(request);
+        if (calls != null) {
+            calls.accept(call);
+        }
+        // Executed on the calling thread, a long polling call would hold a dispatcher slot until something changes in the account
+        final IntConsumer status = STATUS_RECEIVER.get();
+        try (Response response = call.execute()) {
+            if (status != null) {
+                status.accept(response.code());
+            }
+            readJson(response, (name, json) -> {
+                switch (name) {
+                    case "diffid" -> last[0] = Math.max(last[0], json.nextLong());
+                    case "entries" -> {
+                        json.beginArray();
+                        while (json.hasNext()) {
+                            final DiffEntry entry = ListingParser.parseDiffEntry(json);
+                            last[0] = Math.max(last[0], entry.diffId());
+                            consumer.accept(entry);
+                        }
+                        json.endArray();
+                    }
+                    default -> json.skipValue();
+                }
+            });
+        } catch (SocketTimeoutException e) {
+            if (!block) {
+                throw e;
+            }
+            // Nothing happened while waiting
+        }
+        return last[0];
     }
 
     @Override
-    public RemoteFolder listFolder(long folderId, boolean recursive) throws IOException {
-        return execute(() -> this.sdk.listFolder(folderId, recursive).execute());
+    public Metadata upload(long folderId, String fileName, ContentSupplier content, long size, long mtime, long ctime, LongConsumer progressListener) throws IOException {
+        return await(async.upload(folderId, fileName, content, size, mtime, ctime, progressListener));
     }
 
     @Override
-    public RemoteFile upload(long folderId, String fileName, InputStream content, long size, long mtime, long ctime, LongConsumer progressListener) throws IOException {
+    public List<Metadata> upload(long folderId, List<UploadContent> files, long mtime, long ctime) throws IOException {
         final MultipartBody.Builder builder = new MultipartBody.Builder()
-            .setType(MultipartBody.FORM);
-
-        if (folderId != 0) {
-            builder.addFormDataPart("folderid", String.valueOf(folderId));
-        }
-        
-        builder.addFormDataPart("filename", fileName);
-        builder.addFormDataPart("nopartial", "true");
-        builder.addFormDataPart("mtime", String.valueOf(mtime/1000));
-        builder.addFormDataPart("ctime", String.valueOf(ctime/1000));
-        
-        try (InputStream data = progressListener == null ? content : new ProgressInputStream(content, progressListener)) {
-	        // Create RequestBody that properly handles InputStream with known length
-	        RequestBody fileBody = new RequestBody() {
-	            @Override
-	            public MediaType contentType() {
-	                return MediaType.get("application/octet-stream");
-	            }
-	
-	            @Override
-	            public long contentLength() {
-	                return size;
-	            }
-	
-	            @Override
-	            public void writeTo(BufferedSink sink) throws IOException {
-	                try (data) {
-	                    byte[] buffer = new byte[8192];
-	                    int bytesRead;
-	                    while ((bytesRead = data.read(buffer)) != -1) {
-	                        sink.write(buffer, 0, bytesRead);
-	                    }
-	                }
-	            }
-	        };
-	
-	        builder.addFormDataPart("file", fileName, fileBody);
-	
-	        RequestBody requestBody = builder.build();
-	
-	        Request request = builder(apiURI.resolve("uploadfile"))
-	                .post(requestBody)
-	                .build();
-            return JsonUtils.buildFile(getJson(request), this.sdk);
-        }
-    }
-
-    @Override
-    public RemoteFolder mkdir(long folderId, String folderName) throws IOException {
-        return execute(() -> this.sdk.createFolder(folderId, folderName).execute());
-    }
-
-    @Override
-    public void delete(RemoteEntry remoteEntry) throws IOException {
-        Call<Boolean> delete = remoteEntry.isFolder() ? this.sdk.deleteFolder(remoteEntry.asFolder(), true) : this.sdk.delete(remoteEntry.asFile());
-        execute(delete::execute);
+            .setType(MultipartBody.FORM)
+            .addFormDataPart("folderid", String.valueOf(folderId))
+            .addFormDataPart("nopartial", "true")
+            .addFormDataPart("mtime", String.valueOf(mtime/1000))
+            .addFormDataPart("ctime", String.valueOf(ctime/1000));
+        for (int i = 0; i < files.size(); i++) {
+            final UploadContent file = files.get(i);
+            builder.addFormDataPart("file" + i, file.fileName(), streamBody(file.content(), file.size()));
+        }
+        final HttpUrl url = url("uploadfile").addQueryParameter("timeformat", "timestamp").build();
+        final Map<String, Metadata> byName = execute(builder(url).post(builder.build()).build(), response -> {
+            if (!response.isSuccessful()) {
+                throw new HttpStatusException(response.code(), "Unexpected response " + response);
+            }
+            final Map<String, Metadata> uploaded = new HashMap<>();
+            return execute(() -> {
+                ListingParser.parse(response.body().charStream(), file -> uploaded.put(file.name(), file));
+                return uploaded;
+            });
+        });
+        // Match the uploaded files with the requested ones
+        final List<Metadata> result = new ArrayList<>(files.size());
+        for (UploadContent file : files) {
+            final Metadata uploaded = byName.get(file.fileName());
+            if (uploaded == null) {
+                throw new IOException("Invalid response: missing metadata of " + file.fileName());
+            }
+            result.add(uploaded);
+        }
+        return result;
+    }
+
+    /**
+     * Creates a request body that streams a content of known length.
+     * @param content the content, it is opened when the body is sent
+     * @param size the length of the content
+     * @return a request body
+     */
+    private static RequestBody streamBody(ContentSupplier content, long size) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return MediaType.get("application/octet-stream");
+            }
+
+            @Override
+            public long contentLength() {
+                return size;
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                try (InputStream data = content.open()) {
+                    byte[] buffer = new byte[8192];
+                    int bytesRead;
+                    while ((bytesRead = data.read(buffer)) != -1) {
+                        sink.write(buffer, 0, bytesRead);
+                    }
+                }
+            }
+        };
+    }
+
+    @Override
+    public long createUpload() throws IOException {
+        return getLong(builder(url("upload_create").build()).get().build(), "uploadid");
+    }
+
+    @Override
+    public long getUploadSize(long uploadId) throws IOException {
+        final HttpUrl url = url("upload_info").addQueryParameter("uploadid", Long.toString(uploadId)).build();
+        return getLong(builder(url).get().build(), "size");
+    }
+
+    @Override
+    public void writeUpload(long uploadId, long offset, byte[] data, int length) throws IOException {
+        final HttpUrl url = url("upload_write")
+                .addQueryParameter("uploadid", Long.toString(uploadId))
+                .addQueryParameter("uploadoffset", Long.toString(offset))
+                .build();
+        final RequestBody body = new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return MediaType.get("application/octet-stream");
+            }
+
+            @Override
+            public long contentLength() {
+                return length;
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                sink.write(data, 0, length);
+            }
+        };
+        execute(builder(url).put(body).build(), response -> {
+            readJson(response);
+            return null;
+        });
+    }
+
+    @Override
+    public Metadata saveUpload(long uploadId, long folderId, String fileName, long mtime, long ctime) throws IOException {
+        final HttpUrl url = url("upload_save")
+                .addQueryParameter("uploadid", Long.toString(uploadId))
+                .addQueryParameter("folderid", Long.toString(folderId))
+                .addQueryParameter("name", fileName)
+                .addQueryParameter("mtime", Long.toString(mtime/1000))
+                .addQueryParameter("ctime", Long.toString(ctime/1000))
+                .addQueryParameter("timeformat", "timestamp")
+                .build();
+        return getMetadata(url);
+    }
+
+    @Override
+    public Metadata copy(long fileId, long folderId, String fileName, long mtime, long ctime) throws IOException {
+        final HttpUrl url = url("copyfile")
+                .addQueryParameter("fileid", Long.toString(fileId))
+                .addQueryParameter("tofolderid", Long.toString(folderId))
+                .addQueryParameter("toname", fileName)
+                .addQueryParameter("mtime", Long.toString(mtime/1000))
+                .addQueryParameter("ctime", Long.toString(ctime/1000))
+                .addQueryParameter("timeformat", "timestamp")
+                .build();
+        return getMetadata(url);
+    }
+
+    private Metadata getMetadata(HttpUrl url) throws IOException {
+        return execute(builder(url).get().build(), PCloudAPI::readMetadata);
+    }
+
+    @Override
+    public Metadata mkdir(long folderId, String folderName) throws IOException {
+        return await(async.mkdir(folderId, folderName));
+    }
+
+    @Override
+    public void delete(Metadata entry) throws IOException {
+        await(async.delete(entry));
+    }
+
+    /**
+     * The asynchronous interface, its requests are enqueued in the HTTP client's dispatcher.
+     */
+    private class Async implements AsyncPCloud {
+        @Override
+        public CompletableFuture<Metadata> get(String path) {
+            Objects.requireNonNull(path);
+            if (PathUtils.isRoot(path)) {
+                // Sub-folders are listed with the root, but not the files
+                return getMetadata(listFolderUrl(0).addQueryParameter("nofiles", "1").build());
+            }
+            // stat returns the metadata of files and folders, a folder is resolved in a single request
+            return getMetadata(url("stat")
+                    .addQueryParameter("path", path)
+                    .addQueryParameter("timeformat", "timestamp")
+                    .build());
+        }
+
+        @Override
+        public CompletableFuture<FileHashes> getHashes(long fileId) {
+            return enqueue(checksumRequest(fileId), PCloudAPI::readHashes);
+        }
+
+        @Override
+        public CompletableFuture<Listing> listFolder(long folderId) {
+            return enqueue(builder(listFolderUrl(folderId).build()).get().build(), response -> {
+                if (!response.isSuccessful()) {
+                    throw new HttpStatusException(response.code(), "Unexpected response " + response);
+                }
+                final List<Metadata> entries = new ArrayList<>();
+                execute(() -> {
+                    ListingParser.parse(response.body().charStream(), entries::add);
+                    return null;
+                });
+                if (entries.isEmpty()) {
+                    throw new IOException("Invalid response: missing 'metadata' field");
+                }
+                // The listed folder is the last entry
+                final Metadata folder = entries.remove(entries.size() - 1);
+                // The listing may be shared by several callers
+                return new Listing(folder, Collections.unmodifiableList(entries));
+            });
+        }
+
+        @Override
+        public CompletableFuture<Void> delete(Metadata entry) {
+            final HttpUrl url = entry.isFolder() ?
+                    url("deletefolderrecursive").addQueryParameter("folderid", Long.toString(entry.id())).build() :
+                    url("deletefile").addQueryParameter("fileid", Long.toString(entry.id())).build();
+            return enqueue(builder(url).get().build(), response -> {
+                readJson(response);
+                return null;
+            });
+        }
+
+        @Override
+        public CompletableFuture<Metadata> upload(long folderId, String fileName, ContentSupplier content, long size, long mtime, long ctime, LongConsumer progressListener) {
+            final ContentSupplier data = progressListener == null ? content : () -> new ProgressInputStream(content.open(), progressListener);
+            final RequestBody body = new MultipartBody.Builder()
+                    .setType(MultipartBody.FORM)
+                    .addFormDataPart("folderid", String.valueOf(folderId))
+                    .addFormDataPart("filename", fileName)
+                    .addFormDataPart("nopartial", "true")
+                    .addFormDataPart("mtime", String.valueOf(mtime/1000))
+                    .addFormDataPart("ctime", String.valueOf(ctime/1000))
+                    .addFormDataPart("file", fileName, streamBody(data, size))
+                    .build();
+            final HttpUrl url = url("uploadfile").addQueryParameter("timeformat", "timestamp").build();
+            return enqueue(builder(url).post(body).build(), PCloudAPI::readMetadata);
+        }
+
+        @Override
+        public CompletableFuture<Metadata> mkdir(long folderId, String folderName) {
+            return getMetadata(url("createfolder")
+                    .addQueryParameter("folderid", Long.toString(folderId))
+                    .addQueryParameter("name", folderName)
+                    .addQueryParameter("timeformat", "timestamp")
+                    .build());
+        }
+
+        private CompletableFuture<Metadata> getMetadata(HttpUrl url) {
+            return enqueue(builder(url).get().build(), PCloudAPI::readMetadata);
+        }
     }
 
     @Override
     public void close() {
-        this.sdk.shutdown();
-        if (this.httpClient != null) {
-            this.httpClient.dispatcher().executorService().shutdown();
-            this.httpClient.connectionPool().evictAll();
+        // The SDK shares the dispatcher and connection pool of the HTTP client, leave them alone if the client is shared
+        if (this.ownsClient) {
+            this.sdk.shutdown();
+            if (this.httpClient != null) {
+                this.httpClient.dispatcher().executorService().shutdown();
+                this.httpClient.connectionPool().evictAll();
+            }
         }
     }
 }
@@ -0,0 +1,477 @@
+package com.fathzer.sync4j.pcloud.internal.api;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+import com.fathzer.sync4j.pcloud.RetryPolicy;
+import com.fathzer.sync4j.pcloud.internal.ConcurrencyLimiter;
+import com.pcloud.sdk.ApiError;
+
+import jakarta.annotation.Nonnull;
+
+import okhttp3.Call;
+
+/**
+ * A {@link PCloud} decorator that retries failed calls and limits the number of concurrent calls.
+ * <br>
+ * Calls that fail because pCloud throttled them (API errors 4xxx, HTTP 429 and 503) or because of a server error
+ * (API errors 5xxx, other HTTP 5xx) were not processed by pCloud, they are always retried.
+ * Calls that fail because of a network error may or may not have been processed, they are retried only if they are idempotent.
+ * <br>
+ * The number of concurrent calls is limited by a {@link ConcurrencyLimiter} that is notified of throttled calls.
+ * <br>
+ * The {@link #async() asynchronous} calls share the same limiter, they wait for a call slot and for the delay before a retry
+ * without blocking any thread.
+ * @see RetryPolicy
+ */
+public class RetryingPCloud implements PCloud {
+    /** The kind of failure of a call. */
+    enum Failure {
+        /** pCloud refused the call because too many calls were made. */
+        THROTTLED,
+        /** pCloud failed to process the call. */
+        SERVER,
+        /** The call failed because of the network, it may have been processed. */
+        NETWORK,
+        /** The call failed for a reason that will not change if it is retried. */
+        FATAL
+    }
+
+    @FunctionalInterface
+    interface Sleeper {
+        void sleep(long millis) throws InterruptedException;
+    }
+
+    @FunctionalInterface
+    private interface IOCall<T> {
+        T call() throws IOException;
+    }
+
+    private final PCloud pcloud;
+    private final RetryPolicy policy;
+    private final ConcurrencyLimiter limiter;
+    private final Sleeper sleeper;
+    private final AsyncPCloud async = new Async();
+
+    /**
+     * Constructor.
+     * @param pcloud the decorated instance
+     * @param policy the retry policy
+     */
+    public RetryingPCloud(@Nonnull PCloud pcloud, @Nonnull RetryPolicy policy) {
+        this(pcloud, policy, Thread::sleep);
+    }
+
+    RetryingPCloud(PCloud pcloud, RetryPolicy policy, Sleeper sleeper) {
+        this.pcloud = pcloud;
+        this.policy = policy;
+        this.limiter = new ConcurrencyLimiter(policy.maxConcurrency());
+        this.sleeper = sleeper;
+    }
+
+    /**
+     * Gets the concurrency limiter.
+     * @return the limiter
+     */
+    @Nonnull
+    public ConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+
+    static Failure classify(IOException e) {
+        if (e instanceof FileNotFoundException || e instanceof AuthenticationException) {
+            return Failure.FATAL;
+        }
+        if (e instanceof HttpStatusException status) {
+            final int code = status.getStatusCode();
+            if (code == 429 || code == 503) {
+                return Failure.THROTTLED;
+            }
+            return code >= 500 ? Failure.SERVER : Failure.FATAL;
+        }
+        if (e.getCause() instanceof ApiError error) {
+            final int code = error.errorCode();
+            if (code >= 4000 && code < 5000) {
+                return Failure.THROTTLED;
+            }
+            return code >= 5000 && code < 6000 ? Failure.SERVER : Failure.FATAL;
+        }
+        if (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException)) {
+            // The thread was interrupted
+            return Failure.FATAL;
+        }
+        return Failure.NETWORK;
+    }
+
+    private <T> T call(boolean idempotent, IOCall<T> call) throws IOException {
+        return call(idempotent, () -> true, call);
+    }
+
+    private <T> T call(boolean idempotent, BooleanSupplier restartable, IOCall<T> call) throws IOException {
+        return call(idempotent, true, restartable, call);
+    }
+
+    /**
+     * Calls the decorated instance.
+     * @param idempotent true if the call can be retried after a network error
+     * @param limited true if the call is subject to the concurrency limit
+     * @param restartable tells, after a failure, if the call can be retried at all
+     * @param call the call
+     * @return the result of the call
+     * @throws IOException if the call failed and can't be retried
+     */
+    private <T> T call(boolean idempotent, boolean limited, BooleanSupplier restartable, IOCall<T> call) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            long ticket = 0;
+            if (limited) {
+                try {
+                    ticket = limiter.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            Failure failure = null;
+            try {
+                return call.call();
+            } catch (IOException e) {
+                failure = classify(e);
+                if (!isRetryable(failure, idempotent) || attempt >= policy.maxAttempts() || !restartable.getAsBoolean()) {
+                    throw e;
+                }
+            } finally {
+                if (limited) {
+                    limiter.release(ticket, failure == Failure.THROTTLED);
+                }
+            }
+            backoff(attempt);
+        }
+    }
+
+    private static boolean isRetryable(Failure failure, boolean idempotent) {
+        return failure == Failure.THROTTLED || failure == Failure.SERVER || (failure == Failure.NETWORK && idempotent);
+    }
+
+    private void backoff(int attempt) throws InterruptedIOException {
+        try {
+            sleeper.sleep(delay(attempt));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Gets the delay before retrying a failed attempt.
+     * @param attempt the number of the failed attempt, starting at 1
+     * @return a random delay in milliseconds, between 0 and an exponentially growing bound (full jitter)
+     */
+    private long delay(int attempt) {
+        final long initial = policy.initialDelay().toMillis();
+        final long max = policy.maxDelay().toMillis();
+        final int shift = Math.min(attempt - 1, 30);
+        final long bound = initial > (max >> shift) ? max : initial << shift;
+        return bound <= 0 ? 0 : ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    /**
+     * The attempts of an asynchronous call.
+     * @param <T> the type of the result
+     */
+    private class AsyncCall<T> {
+        private final boolean idempotent;
+        private final Supplier<CompletableFuture<T>> call;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        /** The future of the call slot request or of the attempt in progress. */
+        private final AtomicReference<CompletableFuture<?>> current = new AtomicReference<>();
+
+        private AsyncCall(boolean idempotent, Supplier<CompletableFuture<T>> call) {
+            this.idempotent = idempotent;
+            this.call = call;
+            result.whenComplete((value, e) -> {
+                if (result.isCancelled()) {
+                    cancelCurrent();
+                }
+            });
+        }
+
+        private void cancelCurrent() {
+            final CompletableFuture<?> future = current.get();
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+
+        private CompletableFuture<T> start() {
+            attempt(1);
+            return result;
+        }
+
+        private void attempt(int attempt) {
+            final CompletableFuture<Long> slot = limiter.acquireAsync();
+            current.set(slot);
+            if (result.isDone()) {
+                cancelCurrent();
+            }
+            slot.whenComplete((ticket, cancelled) -> {
+                if (cancelled != null) {
+                    // The result was cancelled while waiting for the slot
+                    return;
+                }
+                if (result.isDone()) {
+                    limiter.release(ticket, false);
+                    return;
+                }
+                final CompletableFuture<T> future;
+                try {
+                    future = call.get();
+                } catch (RuntimeException | Error e) {
+                    limiter.release(ticket, false);
+                    result.completeExceptionally(e);
+                    return;
+                }
+                current.set(future);
+                if (result.isDone()) {
+                    cancelCurrent();
+                }
+                future.whenComplete((value, error) -> completed(attempt, ticket, value, error));
+            });
+        }
+
+        private void completed(int attempt, long ticket, T value, Throwable error) {
+            final Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            final Failure failure = cause instanceof IOException e ? classify(e) : null;
+            limiter.release(ticket, failure == Failure.THROTTLED);
+            if (cause == null) {
+                result.complete(value);
+            } else if (failure != null && isRetryable(failure, idempotent) && attempt < policy.maxAttempts() && !result.isDone()) {
+                CompletableFuture.delayedExecutor(delay(attempt), TimeUnit.MILLISECONDS).execute(() -> attempt(attempt + 1));
+            } else {
+                result.completeExceptionally(cause);
+            }
+        }
+    }
+
+    private <T> CompletableFuture<T> callAsync(boolean idempotent, Supplier<CompletableFuture<T>> call) {
+        return new AsyncCall<>(idempotent, call).start();
+    }
+
+    @Override
+    public String getAccount() {
+        return pcloud.getAccount();
+    }
+
+    @Override
+    public AsyncPCloud async() {
+        return async;
+    }
+
+    @Override
+    public Metadata get(String path) throws IOException {
+        return call(true, () -> pcloud.get(path));
+    }
+
+    @Override
+    public FileHashes getHashes(long fileId) throws IOException {
+        return call(true, () -> pcloud.getHashes(fileId));
+    }
+
+    @Override
+    public Map<Long, FileHashes> getHashes(Collection<Long> fileIds, int concurrency) throws IOException {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Concurrency should be strictly positive");
+        }
+        // Each checksum call takes its own call slot and is retried alone, a throttled file does not restart the whole batch
+        final Map<Long, FileHashes> result = new ConcurrentHashMap<>();
+        final Set<CompletableFuture<FileHashes>> pending = ConcurrentHashMap.newKeySet();
+        final Semaphore inFlight = new Semaphore(concurrency);
+        try {
+            for (Long fileId : fileIds) {
+                inFlight.acquire();
+                final CompletableFuture<FileHashes> future = async.getHashes(fileId);
+                pending.add(future);
+                future.whenComplete((hashes, e) -> {
+                    // Files that still fail are missing from the result, their hashes will be requested again when needed
+                    if (hashes != null) {
+                        result.put(fileId, hashes);
+                    }
+                    pending.remove(future);
+                    inFlight.release();
+                });
+            }
+            // Wait for the last requests
+            inFlight.acquire(concurrency);
+            inFlight.release(concurrency);
+            return result;
+        } catch (InterruptedException e) {
+            // Nobody will read the results of the requests in flight
+            pending.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    @Override
+    public InputStream getInputStream(long fileId) throws IOException {
+        return call(true, () -> pcloud.getInputStream(fileId));
+    }
+
+    @Override
+    public URL getDownloadLink(long fileId) throws IOException {
+        return call(true, () -> pcloud.getDownloadLink(fileId));
+    }
+
+    @Override
+    public byte[] download(URL link, long offset, int length) throws IOException {
+        return call(true, () -> pcloud.download(link, offset, length));
+    }
+
+    @Override
+    public Listing listFolder(long folderId) throws IOException {
+        return call(true, () -> pcloud.listFolder(folderId));
+    }
+
+    @Override
+    public void listFolder(long folderId, boolean recursive, boolean foldersOnly, Consumer<Metadata> consumer) throws IOException {
+        final boolean[] emitted = new boolean[1];
+        final Consumer<Metadata> tracking = entry -> {
+            emitted[0] = true;
+            consumer.accept(entry);
+        };
+        // Once entries were sent to the consumer, the listing can't be restarted
+        call(true, () -> !emitted[0], () -> {
+            pcloud.listFolder(folderId, recursive, foldersOnly, tracking);
+            return null;
+        });
+    }
+
+    @Override
+    public long diff(long diffId, boolean block, Consumer<DiffEntry> consumer, Consumer<Call> calls) throws IOException {
+        final long[] last = {diffId};
+        final Consumer<DiffEntry> tracking = entry -> {
+            last[0] = entry.diffId();
+            consumer.accept(entry);
+        };
+        final Call[] current = new Call[1];
+        final Consumer<Call> callTracking = calls == null ? null : call -> {
+            current[0] = call;
+            calls.accept(call);
+        };
+        // A failed call is resumed after the last event sent to the consumer, unless it was cancelled.
+        // A long polling call waits for the account to change, not for pCloud, it does not hold a concurrent call slot
+        return call(true, !block, () -> current[0] == null || !current[0].isCanceled(), () -> pcloud.diff(last[0], block, tracking, callTracking));
+    }
+
+    @Override
+    public void delete(Metadata entry) throws IOException {
+        call(true, () -> {
+            pcloud.delete(entry);
+            return null;
+        });
+    }
+
+    @Override
+    public Metadata upload(long folderId, String fileName, ContentSupplier content, long size, long mtime, long ctime, LongConsumer progressListener) throws IOException {
+        // The content is reopened on each attempt, the same file is overwritten
+        return call(true, () -> pcloud.upload(folderId, fileName, content, size, mtime, ctime, progressListener));
+    }
+
+    @Override
+    public List<Metadata> upload(long folderId, List<UploadContent> files, long mtime, long ctime) throws IOException {
+        return call(true, () -> pcloud.upload(folderId, files, mtime, ctime));
+    }
+
+    @Override
+    public long createUpload() throws IOException {
+        return call(true, pcloud::createUpload);
+    }
+
+    @Override
+    public long getUploadSize(long uploadId) throws IOException {
+        return call(true, () -> pcloud.getUploadSize(uploadId));
+    }
+
+    @Override
+    public void writeUpload(long uploadId, long offset, byte[] data, int length) throws IOException {
+        call(true, () -> {
+            pcloud.writeUpload(uploadId, offset, data, length);
+            return null;
+        });
+    }
+
+    @Override
+    public Metadata saveUpload(long uploadId, long folderId, String fileName, long mtime, long ctime) throws IOException {
+        // The upload session is consumed by a successful save
+        return call(false, () -> pcloud.saveUpload(uploadId, folderId, fileName, mtime, ctime));
+    }
+
+    @Override
+    public Metadata copy(long fileId, long folderId, String fileName, long mtime, long ctime) throws IOException {
+        return call(true, () -> pcloud.copy(fileId, folderId, fileName, mtime, ctime));
+    }
+
+    @Override
+    public Metadata mkdir(long folderId, String folderName) throws IOException {
+        return call(false, () -> pcloud.mkdir(folderId, folderName));
+    }
+
+    @Override
+    public void close() {
+        pcloud.close();
+    }
+
+    /**
+     * The asynchronous interface, its calls are retried with the same rules as the blocking ones.
+     */
+    private class Async implements AsyncPCloud {
+        @Override
+        public CompletableFuture<Metadata> get(String path) {
+            return callAsync(true, () -> pcloud.async().get(path));
+        }
+
+        @Override
+        public CompletableFuture<FileHashes> getHashes(long fileId) {
+            return callAsync(true, () -> pcloud.async().getHashes(fileId));
+        }
+
+        @Override
+        public CompletableFuture<Listing> listFolder(long folderId) {
+            return callAsync(true, () -> pcloud.async().listFolder(folderId));
+        }
+
+        @Override
+        public CompletableFuture<Void> delete(Metadata entry) {
+            return callAsync(true, () -> pcloud.async().delete(entry));
+        }
+
+        @Override
+        public CompletableFuture<Metadata> upload(long folderId, String fileName, ContentSupplier content, long size, long mtime, long ctime, LongConsumer progressListener) {
+            // The content is reopened on each attempt, the same file is overwritten
+            return callAsync(true, () -> pcloud.async().upload(folderId, fileName, content, size, mtime, ctime, progressListener));
+        }
+
+        @Override
+        public CompletableFuture<Metadata> mkdir(long folderId, String folderName) {
+            return callAsync(false, () -> pcloud.async().mkdir(folderId, folderName));
+        }
+    }
+}
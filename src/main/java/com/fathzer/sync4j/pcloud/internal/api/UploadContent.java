@@ -0,0 +1,12 @@
+package com.fathzer.sync4j.pcloud.internal.api;
+
+import jakarta.annotation.Nonnull;
+
+/**
+ * A file to upload in a {@link PCloud#upload(long, java.util.List, long, long) batch upload}.
+ * @param fileName the name of the file
+ * @param content the content of the file
+ * @param size the size of the file
+ */
+public record UploadContent(@Nonnull String fileName, @Nonnull ContentSupplier content, long size) {
+}
@@ -2,6 +2,7 @@ package com.pcloud.sdk.internal;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.InstanceCreator;
 import com.google.gson.JsonDeserializer;
 import com.google.gson.JsonObject;
 import com.pcloud.sdk.ApiClient;
@@ -9,23 +10,54 @@ import com.pcloud.sdk.RemoteFile;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Type;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
 import java.util.Date;
-import java.util.Locale;
-import java.util.TimeZone;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * Utility class for parsing RemoteFile instance compatible with the pCloud sdk.
+ * <br>
+ * This class is thread safe. A Gson instance is built once per ApiClient, dates are parsed with an immutable formatter.
+ * <br>
+ * The Gson instances don't prevent their ApiClient from being garbage collected.
  */
 public class JsonUtils {
-    private static final String PCLOUD_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss Z";
-    private static final DateFormat DATE_FORMAT;
-    
-    static {
-        DATE_FORMAT = new SimpleDateFormat(PCLOUD_DATE_FORMAT, Locale.US);
-        DATE_FORMAT.setTimeZone(TimeZone.getTimeZone("UTC"));
+    private static final JsonDeserializer<Date> DATE_DESERIALIZER = (json, typeOfT, context) -> {
+        try {
+            return Date.from(ZonedDateTime.parse(json.getAsString(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant());
+        } catch (DateTimeParseException e) {
+            throw new UncheckedIOException(new IOException(e));
+        }
+    };
+
+    // Gson instances are bound to their ApiClient, they only reference it weakly, otherwise the keys would never be collected
+    private static final Map<ApiClient, Gson> GSONS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Creates the files of an ApiClient without preventing it from being garbage collected.
+     */
+    private static class FileCreator implements InstanceCreator<RealRemoteFile> {
+        private final WeakReference<ApiClient> apiClient;
+
+        private FileCreator(ApiClient apiClient) {
+            this.apiClient = new WeakReference<>(apiClient);
+        }
+
+        @Override
+        public RealRemoteFile createInstance(Type type) {
+            // The client is strongly reachable while one of its files is parsed (see parseFile)
+            final ApiClient client = apiClient.get();
+            if (client == null) {
+                throw new IllegalStateException("ApiClient was garbage collected");
+            }
+            return new RealRemoteFile.InstanceCreator(client).createInstance(type);
+        }
     }
 
     private JsonUtils() {
@@ -45,19 +77,19 @@ public class JsonUtils {
             throw new IllegalArgumentException("JSON object cannot be null");
         }
 
-        // Create a new Gson instance with the provided ApiClient for this specific conversion
-        Gson gson = new GsonBuilder()
-                .registerTypeAdapter(RealRemoteFile.class, new RealRemoteFile.InstanceCreator(apiClient))
-                .registerTypeAdapter(Date.class, (JsonDeserializer<Date>) (json, typeOfT, context) -> {
-                    try {
-                        return DATE_FORMAT.parse(json.getAsString());
-                    } catch (ParseException e) {
-                        throw new UncheckedIOException(new IOException(e));
-                    }
-                })
-                .create();
+        return gson(apiClient).fromJson(jsonObject, RealRemoteFile.class);
+    }
 
-        return gson.fromJson(jsonObject, RealRemoteFile.class);
+    /**
+     * Gets the Gson instance that creates the files of an ApiClient.
+     * @param apiClient The ApiClient instance
+     * @return a Gson instance, Gson instances are thread safe
+     */
+    private static Gson gson(ApiClient apiClient) {
+        return GSONS.computeIfAbsent(apiClient, client -> new GsonBuilder()
+                .registerTypeAdapter(RealRemoteFile.class, new FileCreator(client))
+                .registerTypeAdapter(Date.class, DATE_DESERIALIZER)
+                .create());
     }
 
     /**
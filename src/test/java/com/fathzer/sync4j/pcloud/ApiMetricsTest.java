@@ -0,0 +1,70 @@
+package com.fathzer.sync4j.pcloud;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.fathzer.sync4j.pcloud.ApiMetrics.EndpointStats;
+import com.fathzer.sync4j.pcloud.internal.api.MeteredPCloud;
+import com.fathzer.sync4j.pcloud.internal.api.Metadata;
+import com.fathzer.sync4j.pcloud.internal.api.PCloud;
+import com.pcloud.sdk.ApiError;
+
+class ApiMetricsTest {
+    @Test
+    void testBucket() {
+        assertEquals(0, ApiMetrics.bucket(999));
+        assertEquals(1, ApiMetrics.bucket(1000));
+        assertEquals(2, ApiMetrics.bucket(2000));
+        assertEquals(2, ApiMetrics.bucket(3999));
+        assertEquals(ApiMetrics.BUCKETS - 1, ApiMetrics.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    void testMetrics() throws IOException {
+        final PCloud pcloud = mock(PCloud.class);
+        final Metadata file = new Metadata(1, false, 0, "file", 4, 0, 0, 0);
+        when(pcloud.get("/file")).thenReturn(file);
+        when(pcloud.get("/missing")).thenThrow((IOException) new FileNotFoundException().initCause(new ApiError(2009, "File not found")));
+        when(pcloud.getInputStream(anyLong())).thenAnswer(invocation -> new ByteArrayInputStream("data".getBytes()));
+
+        final ApiMetrics metrics = new ApiMetrics();
+        try (PCloud metered = new MeteredPCloud(pcloud, metrics)) {
+            assertSame(file, metered.get("/file"));
+            assertThrows(FileNotFoundException.class, () -> metered.get("/missing"));
+            try (InputStream in = metered.getInputStream(1)) {
+                assertEquals(1, metrics.snapshot().get(Endpoint.DOWNLOAD).inFlight());
+                assertEquals(4, in.readAllBytes().length);
+            }
+        }
+
+        final Map<Endpoint, EndpointStats> snapshot = metrics.snapshot();
+        final EndpointStats stat = snapshot.get(Endpoint.STAT);
+        assertEquals(2, stat.calls());
+        assertEquals(0, stat.inFlight());
+        assertEquals(Map.of(2009, 1L), stat.errors());
+        assertEquals(1, stat.failures());
+        assertEquals(2, stat.histogram().stream().mapToLong(Long::longValue).sum());
+        assertTrue(stat.percentile(1).compareTo(stat.average()) >= 0);
+
+        final EndpointStats download = snapshot.get(Endpoint.DOWNLOAD);
+        assertEquals(1, download.calls());
+        assertEquals(0, download.inFlight());
+        assertEquals(4, download.bytes());
+        assertEquals(0, download.failures());
+
+        final EndpointStats list = snapshot.get(Endpoint.LISTFOLDER);
+        assertEquals(0, list.calls());
+        assertEquals(Duration.ZERO, list.average());
+        assertEquals(Duration.ZERO, list.percentile(0.5));
+    }
+}
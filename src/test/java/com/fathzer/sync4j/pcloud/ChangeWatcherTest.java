@@ -0,0 +1,223 @@
+package com.fathzer.sync4j.pcloud;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+
+import com.fathzer.sync4j.pcloud.RemoteChange.Type;
+import com.fathzer.sync4j.pcloud.internal.api.DiffEntry;
+import com.fathzer.sync4j.pcloud.internal.api.Metadata;
+import com.fathzer.sync4j.pcloud.internal.api.PCloud;
+
+import okhttp3.Call;
+
+class ChangeWatcherTest {
+    private static final long ROOT = 1;
+    private static final long OUTSIDE = 99;
+
+    private static Metadata folder(long id, long parentId, String name) {
+        return new Metadata(id, true, parentId, name, 0, 0, 0, 0);
+    }
+
+    private static Metadata file(long id, long parentId, String name) {
+        return new Metadata(id, false, parentId, name, 10, 0, 0, 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void answerListing(PCloud pcloud, long folderId, Metadata... entries) throws IOException {
+        doAnswer(invocation -> {
+            for (Metadata entry : entries) {
+                invocation.getArgument(2, Consumer.class).accept(entry);
+            }
+            return null;
+        }).when(pcloud).listFolder(eq(folderId), eq(true), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testChanges() throws IOException {
+        final PCloud pcloud = mock(PCloud.class);
+        when(pcloud.diff(eq(0L), eq(false), any())).thenReturn(10L);
+        answerListing(pcloud, ROOT, file(20, 2, "a.txt"), folder(2, ROOT, "docs"), file(21, ROOT, "b.txt"), folder(ROOT, 0, "root"));
+        answerListing(pcloud, 3, file(30, 3, "x.txt"), folder(3, OUTSIDE, "in"));
+        final List<DiffEntry> events = List.of(
+                new DiffEntry(11, "modifyfile", file(20, 2, "a.txt")),
+                new DiffEntry(12, "modifyfile", file(21, 2, "c.txt")),
+                new DiffEntry(13, "modifyfolder", folder(2, ROOT, "papers")),
+                new DiffEntry(14, "createfile", file(22, OUTSIDE, "ignored.txt")),
+                new DiffEntry(15, "modifyfile", file(20, OUTSIDE, "a.txt")),
+                new DiffEntry(16, "createfile", file(23, 2, "d.txt")),
+                new DiffEntry(17, "deletefile", file(23, 2, "d.txt")),
+                new DiffEntry(18, "modifyuserinfo", null),
+                new DiffEntry(19, "modifyfolder", folder(3, ROOT, "in")),
+                new DiffEntry(20, "deletefile", file(30, 3, "x.txt")));
+        when(pcloud.diff(eq(10L), eq(false), any(), any())).thenAnswer(invocation -> {
+            events.forEach(invocation.getArgument(2, Consumer.class));
+            return 20L;
+        });
+
+        final List<RemoteChange> changes = new ArrayList<>();
+        try (ChangeWatcher watcher = new ChangeWatcher(pcloud, ROOT, 0, changes::add)) {
+            assertEquals(10, watcher.getDiffId());
+            watcher.poll(false);
+            assertEquals(20, watcher.getDiffId());
+        }
+        assertEquals(List.of(
+                new RemoteChange(Type.MODIFIED, "/docs/a.txt", null, false, 11),
+                new RemoteChange(Type.MOVED, "/docs/c.txt", "/b.txt", false, 12),
+                new RemoteChange(Type.MOVED, "/papers", "/docs", true, 13),
+                // Moved outside the root folder
+                new RemoteChange(Type.DELETED, "/papers/a.txt", null, false, 15),
+                new RemoteChange(Type.CREATED, "/papers/d.txt", null, false, 16),
+                new RemoteChange(Type.DELETED, "/papers/d.txt", null, false, 17),
+                // Moved in the root folder, its content is listed
+                new RemoteChange(Type.CREATED, "/in", null, true, 19),
+                new RemoteChange(Type.DELETED, "/in/x.txt", null, false, 20)), changes);
+    }
+
+    @Test
+    void testReset() throws IOException {
+        final PCloud pcloud = mock(PCloud.class);
+        answerListing(pcloud, ROOT, file(20, ROOT, "a.txt"), folder(ROOT, 0, "root"));
+        when(pcloud.diff(eq(10L), eq(false), any(), any())).thenAnswer(invocation -> {
+            final Consumer<DiffEntry> consumer = invocation.getArgument(2);
+            consumer.accept(new DiffEntry(11, "reset", null));
+            consumer.accept(new DiffEntry(12, "createfolder", folder(ROOT, 0, "root")));
+            consumer.accept(new DiffEntry(13, "createfile", file(20, ROOT, "a.txt")));
+            return 13L;
+        });
+        final List<RemoteChange> changes = new ArrayList<>();
+        try (ChangeWatcher watcher = new ChangeWatcher(pcloud, ROOT, 10, changes::add)) {
+            watcher.poll(false);
+        }
+        // The diff id is not got from pCloud when it is known
+        verify(pcloud, never()).diff(eq(0L), anyBoolean(), any());
+        assertEquals(List.of(new RemoteChange(Type.RESET, "", null, true, 11), new RemoteChange(Type.CREATED, "/a.txt", null, false, 13)), changes);
+    }
+
+    @Test
+    void testFailure() throws IOException {
+        final PCloud pcloud = mock(PCloud.class);
+        answerListing(pcloud, ROOT, folder(ROOT, 0, "root"));
+        final IOException error = new IOException("Connection reset");
+        when(pcloud.diff(eq(10L), eq(true), any(), any())).thenThrow(error);
+        final ChangeListener listener = mock(ChangeListener.class);
+        try (ChangeWatcher watcher = new ChangeWatcher(pcloud, ROOT, 10, listener)) {
+            watcher.start(Executors.defaultThreadFactory());
+            verify(listener, timeout(5000)).failed(error);
+            verify(listener, never()).changed(any());
+            assertEquals(10, watcher.getDiffId());
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testMovedInFailure() throws IOException {
+        final PCloud pcloud = mock(PCloud.class);
+        answerListing(pcloud, ROOT, folder(ROOT, 0, "root"));
+        final IOException error = new IOException("Connection reset");
+        doThrow(error).doNothing().when(pcloud).listFolder(eq(3L), eq(true), any());
+        when(pcloud.diff(eq(10L), eq(false), any(), any())).thenAnswer(invocation -> {
+            invocation.getArgument(2, Consumer.class).accept(new DiffEntry(11, "modifyfolder", folder(3, ROOT, "in")));
+            return 11L;
+        });
+        try (ChangeWatcher watcher = new ChangeWatcher(pcloud, ROOT, 10, change -> {})) {
+            assertSame(error, assertThrows(IOException.class, () -> watcher.poll(false)));
+            // The content of the moved in folder is missing, its event should be read again
+            assertEquals(10, watcher.getDiffId());
+
+            // The folder is listed by the next poll, even if the replayed event does not report it as moved in
+            watcher.poll(false);
+            assertEquals(11, watcher.getDiffId());
+            verify(pcloud, times(2)).listFolder(eq(3L), eq(true), any());
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testSubTree() throws IOException {
+        final PCloud pcloud = mock(PCloud.class);
+        answerListing(pcloud, ROOT, file(20, 2, "a.txt"), file(40, 4, "x.txt"), folder(4, 2, "sub"), folder(2, ROOT, "docs"), folder(ROOT, 0, "root"));
+        final boolean[] inDiff = new boolean[1];
+        doAnswer(invocation -> {
+            // Folders are not listed while the diff call is running
+            assertFalse(inDiff[0]);
+            invocation.getArgument(2, Consumer.class).accept(file(40, 4, "x.txt"));
+            invocation.getArgument(2, Consumer.class).accept(folder(4, 2, "sub"));
+            return null;
+        }).when(pcloud).listFolder(eq(4L), eq(true), any());
+        final List<DiffEntry> events = List.of(
+                new DiffEntry(11, "deletefolder", folder(2, ROOT, "docs")),
+                // Restored from the trash, its content was deleted with it
+                new DiffEntry(12, "createfolder", folder(2, ROOT, "docs")),
+                new DiffEntry(13, "modifyfile", file(20, 2, "a.txt")),
+                new DiffEntry(14, "modifyfolder", folder(4, 2, "sub")));
+        when(pcloud.diff(eq(10L), eq(false), any(), any())).thenAnswer(invocation -> {
+            inDiff[0] = true;
+            events.forEach(invocation.getArgument(2, Consumer.class));
+            inDiff[0] = false;
+            return 14L;
+        });
+        when(pcloud.diff(eq(14L), eq(false), any(), any())).thenAnswer(invocation -> {
+            invocation.getArgument(2, Consumer.class).accept(new DiffEntry(15, "modifyfolder", folder(2, OUTSIDE, "docs")));
+            invocation.getArgument(2, Consumer.class).accept(new DiffEntry(16, "deletefile", file(40, 4, "x.txt")));
+            return 16L;
+        });
+        final List<RemoteChange> changes = new ArrayList<>();
+        try (ChangeWatcher watcher = new ChangeWatcher(pcloud, ROOT, 10, changes::add)) {
+            watcher.poll(false);
+            // The folder that came back in the root folder is listed once the diff call returned
+            verify(pcloud).listFolder(eq(4L), eq(true), any());
+            watcher.poll(false);
+        }
+        assertEquals(List.of(
+                new RemoteChange(Type.DELETED, "/docs", null, true, 11),
+                new RemoteChange(Type.CREATED, "/docs", null, true, 12),
+                new RemoteChange(Type.CREATED, "/docs/a.txt", null, false, 13),
+                new RemoteChange(Type.CREATED, "/docs/sub", null, true, 14),
+                // Moved outside the root folder with its content
+                new RemoteChange(Type.DELETED, "/docs", null, true, 15)), changes);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testClose() throws Exception {
+        final PCloud pcloud = mock(PCloud.class);
+        answerListing(pcloud, ROOT, folder(ROOT, 0, "root"));
+        final Call call = mock(Call.class);
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            cancelled.countDown();
+            return null;
+        }).when(call).cancel();
+        final CountDownLatch started = new CountDownLatch(1);
+        when(pcloud.diff(eq(10L), eq(true), any(), any())).thenAnswer(invocation -> {
+            invocation.getArgument(3, Consumer.class).accept(call);
+            started.countDown();
+            // A long polling call that ignores interrupts, it only ends when it is cancelled
+            while (cancelled.getCount() > 0) {
+                Thread.onSpinWait();
+            }
+            throw new IOException("Canceled");
+        });
+        final ChangeListener listener = mock(ChangeListener.class);
+        final ChangeWatcher watcher = new ChangeWatcher(pcloud, ROOT, 10, listener);
+        watcher.start(Executors.defaultThreadFactory());
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        watcher.close();
+        assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+        verify(listener, after(200).never()).failed(any());
+        verify(listener, never()).changed(any());
+    }
+}
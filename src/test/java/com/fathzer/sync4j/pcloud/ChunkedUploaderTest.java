@@ -0,0 +1,112 @@
+package com.fathzer.sync4j.pcloud;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fathzer.sync4j.pcloud.internal.api.Metadata;
+import com.fathzer.sync4j.pcloud.internal.api.PCloud;
+
+class ChunkedUploaderTest {
+    private static final byte[] CONTENT = "0123456789".getBytes();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void test(@TempDir Path journals) throws IOException {
+        final Map<Long, String> written = new ConcurrentHashMap<>();
+        final AtomicBoolean failing = new AtomicBoolean(true);
+        final PCloud pcloud = mock(PCloud.class);
+        when(pcloud.createUpload()).thenReturn(1L, 2L);
+        doAnswer(invocation -> {
+            final long offset = invocation.getArgument(1);
+            if (offset == 6 && failing.get()) {
+                throw new IOException("Connection reset");
+            }
+            written.put(offset, new String(Arrays.copyOf((byte[]) invocation.getArgument(2), (int) invocation.getArgument(3))));
+            return null;
+        }).when(pcloud).writeUpload(anyLong(), anyLong(), any(), anyInt());
+        final Metadata file = new Metadata(5, false, 3, "file", CONTENT.length, 1000, 2000, 0);
+        when(pcloud.saveUpload(anyLong(), eq(3L), eq("file"), eq(2000L), eq(1000L))).thenReturn(file);
+
+        // First upload fails when writing the third chunk, the others are written
+        final ChunkedUploader uploader = new ChunkedUploader(pcloud, 3, 1, journals, executor);
+        assertThrows(IOException.class, () -> uploader.upload(3, "file", new ByteArrayInputStream(CONTENT), CONTENT.length, 2000, 1000, null));
+        assertEquals(Map.of(0L, "012", 3L, "345"), written);
+        verify(pcloud, never()).saveUpload(anyLong(), anyLong(), any(), anyLong(), anyLong());
+
+        // Second upload resumes the session
+        written.clear();
+        failing.set(false);
+        final AtomicLong progress = new AtomicLong();
+        assertSame(file, uploader.upload(3, "file", new ByteArrayInputStream(CONTENT), CONTENT.length, 2000, 1000, progress::set));
+        assertEquals(Map.of(6L, "678", 9L, "9"), written);
+        assertEquals(CONTENT.length, progress.get());
+        verify(pcloud).createUpload();
+        verify(pcloud).saveUpload(1L, 3L, "file", 2000L, 1000L);
+        try (var files = Files.list(journals)) {
+            assertEquals(0, files.count(), "Journal should be deleted");
+        }
+
+        // Without journal, all chunks are written in a new session
+        written.clear();
+        final ChunkedUploader concurrent = new ChunkedUploader(pcloud, 3, 3, null, executor);
+        assertSame(file, concurrent.upload(3, "file", new ByteArrayInputStream(CONTENT), CONTENT.length, 2000, 1000, null));
+        assertEquals(Map.of(0L, "012", 3L, "345", 6L, "678", 9L, "9"), written);
+        verify(pcloud).saveUpload(2L, 3L, "file", 2000L, 1000L);
+    }
+
+    @Test
+    void testProgress() throws IOException {
+        final byte[] content = new byte[1000];
+        final PCloud pcloud = mock(PCloud.class);
+        when(pcloud.createUpload()).thenReturn(1L);
+        final Metadata file = new Metadata(5, false, 3, "file", content.length, 1000, 2000, 0);
+        when(pcloud.saveUpload(anyLong(), anyLong(), any(), anyLong(), anyLong())).thenReturn(file);
+        final List<Long> totals = new CopyOnWriteArrayList<>();
+        final AtomicInteger concurrentCalls = new AtomicInteger();
+        final AtomicBoolean overlapped = new AtomicBoolean();
+
+        // Chunks of 1 byte are written concurrently
+        final ChunkedUploader uploader = new ChunkedUploader(pcloud, 1, 8, null, executor);
+        assertSame(file, uploader.upload(3, "file", new ByteArrayInputStream(content), content.length, 2000, 1000, total -> {
+            if (concurrentCalls.incrementAndGet() > 1) {
+                overlapped.set(true);
+            }
+            totals.add(total);
+            concurrentCalls.decrementAndGet();
+        }));
+        assertFalse(overlapped.get(), "Listener should not be called concurrently");
+        for (int i = 1; i < totals.size(); i++) {
+            assertTrue(totals.get(i) > totals.get(i - 1), "Totals should increase");
+        }
+        assertEquals(content.length, totals.get(totals.size() - 1));
+    }
+}
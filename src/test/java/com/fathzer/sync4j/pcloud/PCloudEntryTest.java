@@ -5,37 +5,40 @@ import static org.mockito.Mockito.*;
 
 import org.junit.jupiter.api.Test;
 
-import com.pcloud.sdk.RemoteEntry;
+import com.fathzer.sync4j.pcloud.internal.api.Metadata;
 
 class PCloudEntryTest {
+	private static Metadata metadata(boolean isFolder) {
+		return new Metadata(1, isFolder, 0, "entry", 0, 0, 0, 0);
+	}
 
 	@Test
 	void testPCloudFolderConstructor() {
 		PCloudProvider provider = mock(PCloudProvider.class, CALLS_REAL_METHODS);
-		RemoteEntry entry = mock(RemoteEntry.class);
-		assertThrows(IllegalArgumentException.class, () -> new PCloudFolder(null, null, entry, provider, false), "Remote entry that is not folder should be rejected");
-		
-		lenient().when(entry.isFolder()).thenReturn(true);
-		assertThrows(IllegalArgumentException.class, () -> new PCloudFolder("//toto", null, entry, provider, false), "Invalid path should be rejected");
+		Metadata file = metadata(false);
+		assertThrows(IllegalArgumentException.class, () -> new PCloudFolder(null, null, file, provider), "Remote entry that is not folder should be rejected");
+
+		Metadata entry = metadata(true);
+		assertThrows(IllegalArgumentException.class, () -> new PCloudFolder("//toto", null, entry, provider), "Invalid path should be rejected");
 
 		PCloudFolder parent = mock(PCloudFolder.class);
-		assertThrows(IllegalArgumentException.class, () -> new PCloudFolder(null, parent, entry, provider, false), "non null parent with null parentPath should be rejected");
+		assertThrows(IllegalArgumentException.class, () -> new PCloudFolder(null, parent, entry, provider), "non null parent with null parentPath should be rejected");
+
+		assertDoesNotThrow(() -> new PCloudFolder(null, null, entry, provider));
+		assertDoesNotThrow(() -> new PCloudFolder("/folder", null, entry, provider));
 
-		assertDoesNotThrow(() -> new PCloudFolder(null, null, entry, provider, false));
-		assertDoesNotThrow(() -> new PCloudFolder("/folder", null, entry, provider, false));
-		
-		assertThrows(NullPointerException.class, () -> new PCloudFolder(null, null, null, provider, false), "Null remote entry should be rejected");
-		assertThrows(NullPointerException.class, () -> new PCloudFolder(null, null, entry, null, false), "Null provider should be rejected");
+		assertThrows(NullPointerException.class, () -> new PCloudFolder(null, null, null, provider), "Null remote entry should be rejected");
+		assertThrows(NullPointerException.class, () -> new PCloudFolder(null, null, entry, null), "Null provider should be rejected");
 	}
-	
+
 	@Test
 	void testPCloudFileConstructor() {
 		PCloudProvider provider = mock(PCloudProvider.class, CALLS_REAL_METHODS);
-		RemoteEntry entry = mock(RemoteEntry.class);
+		Metadata folder = metadata(true);
 
-		assertThrows(IllegalArgumentException.class, () -> new PCloudFile("", null, entry, provider), "Remote entry that is not file should be rejected");
+		assertThrows(IllegalArgumentException.class, () -> new PCloudFile("", null, folder, provider), "Remote entry that is not file should be rejected");
 
-		lenient().when(entry.isFile()).thenReturn(true);
+		Metadata entry = metadata(false);
 		assertThrows(IllegalArgumentException.class, () -> new PCloudFile("//toto", null, entry, provider), "Invalid path should be rejected");
 
 		assertDoesNotThrow(() -> new PCloudFile("/folder", null, entry, provider));
@@ -43,4 +46,24 @@ class PCloudEntryTest {
 		assertThrows(NullPointerException.class, () -> new PCloudFile("/folder", null, null, provider), "Null remote entry should be rejected");
 		assertThrows(NullPointerException.class, () -> new PCloudFile(null, null, entry, null), "Null provider should be rejected");
 	}
+
+	@Test
+	void testContentHash() {
+		PCloudProvider provider = mock(PCloudProvider.class, CALLS_REAL_METHODS);
+		PCloudFile file = new PCloudFile("/folder", null, new Metadata(1, false, 0, "file", 10, 0, 0, 0x8000000000000001L), provider);
+		assertEquals(0x8000000000000001L, provider.getContentHash(file).getAsLong());
+		assertFalse(provider.isContentChanged(file, 0x8000000000000001L));
+		assertTrue(provider.isContentChanged(file, 1));
+
+		// Unknown hash
+		PCloudFile unknown = new PCloudFile("/folder", null, metadata(false), provider);
+		assertTrue(provider.getContentHash(unknown).isEmpty());
+		assertTrue(provider.isContentChanged(unknown, 0));
+
+		// Folders and files of other providers have no content hash
+		assertTrue(provider.getContentHash(new PCloudFolder("/folder", null, metadata(true), provider)).isEmpty());
+		PCloudProvider other = mock(PCloudProvider.class, CALLS_REAL_METHODS);
+		assertTrue(provider.getContentHash(new PCloudFile("/folder", null, file.getMetadata(), other)).isEmpty());
+		assertTrue(provider.isContentChanged(new PCloudFile("/folder", null, file.getMetadata(), other), 0x8000000000000001L));
+	}
 }
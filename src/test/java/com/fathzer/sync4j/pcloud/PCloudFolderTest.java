@@ -0,0 +1,77 @@
+package com.fathzer.sync4j.pcloud;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import com.fathzer.sync4j.Entry;
+import com.fathzer.sync4j.pcloud.internal.api.Listing;
+import com.fathzer.sync4j.pcloud.internal.api.Metadata;
+import com.fathzer.sync4j.pcloud.internal.api.PCloud;
+
+class PCloudFolderTest {
+	private static final Metadata FOLDER = new Metadata(5, true, 0, "folder", 0, 0, 0, 0);
+	private static final List<Metadata> CHILDREN = IntStream.range(0, 1000)
+			.mapToObj(i -> i % 10 == 0 ? new Metadata(100 + i, true, 5, "sub" + i, 0, 0, 0, 0) : new Metadata(100 + i, false, 5, "file" + i, i, 0, 0, 0))
+			.toList();
+
+	@Test
+	void testStream() throws IOException {
+		final PCloud pcloud = mock(PCloud.class);
+		when(pcloud.listFolder(5)).thenReturn(new Listing(FOLDER, CHILDREN));
+		final PCloudProvider provider = mock(PCloudProvider.class);
+		when(provider.pCloud()).thenReturn(pcloud);
+		final PCloudFolder folder = new PCloudFolder("", null, FOLDER, provider);
+
+		final Spliterator<Entry> spliterator = folder.stream().spliterator();
+		assertEquals(1000, spliterator.getExactSizeIfKnown());
+		final Spliterator<Entry> prefix = spliterator.trySplit();
+		assertEquals(500, prefix.estimateSize());
+		assertEquals(500, spliterator.estimateSize());
+		assertTrue(prefix.tryAdvance(entry -> assertEquals("/folder/sub0", ((PCloudEntry) entry).fullPath())));
+		assertTrue(spliterator.tryAdvance(entry -> assertEquals("file500", entry.getName())));
+
+		assertEquals(100, folder.stream().parallel().filter(Entry::isFolder).count());
+		assertEquals(folder.list().stream().map(Entry::getName).toList(), folder.stream().map(Entry::getName).toList());
+		verify(provider, times(4)).cached(eq("/folder"), any(Listing.class));
+	}
+
+	@Test
+	void testPreloadedStream() throws IOException {
+		final PCloud pcloud = mock(PCloud.class);
+		doAnswer(invocation -> {
+			final Consumer<Metadata> consumer = invocation.getArgument(2);
+			CHILDREN.forEach(consumer);
+			consumer.accept(FOLDER);
+			return null;
+		}).when(pcloud).listFolder(eq(5L), eq(true), any());
+		final PCloudProvider provider = mock(PCloudProvider.class);
+		when(provider.pCloud()).thenReturn(pcloud);
+		final PCloudFolder folder = new PCloudFolder("", null, FOLDER, provider);
+		folder.preload();
+
+		assertEquals(1000, folder.stream().spliterator().getExactSizeIfKnown());
+		assertEquals(900, folder.stream().parallel().filter(Entry::isFile).count());
+		// Preloaded sub-folders are streamed without any call
+		assertEquals(0, folder.stream().filter(Entry::isFolder).findFirst().orElseThrow().asFolder().list().size());
+		verify(pcloud, never()).listFolder(anyLong());
+
+		// Preloaded children are created once, whatever the way they are got
+		final List<Entry> list = folder.list();
+		assertSame(list, folder.list());
+		final List<Entry> streamed = folder.stream().parallel().toList();
+		for (int i = 0; i < list.size(); i++) {
+			assertSame(list.get(i), streamed.get(i));
+		}
+		final Entry sub = list.get(0);
+		assertSame(sub.asFolder().list(), sub.asFolder().list());
+	}
+}
@@ -0,0 +1,67 @@
+package com.fathzer.sync4j.pcloud;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.fathzer.sync4j.Entry;
+import com.fathzer.sync4j.pcloud.internal.api.Listing;
+import com.fathzer.sync4j.pcloud.internal.api.Metadata;
+import com.fathzer.sync4j.pcloud.internal.api.PCloud;
+
+class PCloudProviderFolderTest {
+    private static final Metadata FOLDER = new Metadata(5, true, 0, "a", 0, 1000, 2000, 0);
+    private static final Metadata RENAMED = new Metadata(5, true, 0, "b", 0, 1000, 3000, 0);
+
+    private static Metadata file(long id, String name) {
+        return new Metadata(id, false, 5, name, 10, 1000, 2000, 0);
+    }
+
+    @Test
+    void testSharedParent() throws IOException {
+        final PCloud api = PCloudProviderUploadTest.pcloud("api.pcloud.com/1");
+        final PCloudProvider provider = new PCloudProvider(Zone.US, api, "");
+        when(api.get("/a/f1")).thenReturn(file(1, "f1"));
+        when(api.get("/a/f2")).thenReturn(file(2, "f2"));
+        when(api.listFolder(5)).thenReturn(new Listing(FOLDER, List.of()));
+
+        final Entry f1 = provider.get("/a/f1");
+        final Entry f2 = provider.get("/a/f2");
+        final Entry parent = f1.getParent();
+        assertEquals("a", parent.getName());
+        // Both files share the same parent, listed once
+        assertSame(parent, f2.getParent());
+        verify(api, times(1)).listFolder(5);
+
+        // A folder got by its path replaces the registered one
+        when(api.get("/a")).thenReturn(FOLDER);
+        final Entry folder = provider.get("/a");
+        assertSame(folder, provider.get("/a/f1").getParent());
+        assertSame(folder, provider.get("/a/f2").getParent());
+        verify(api, times(1)).listFolder(5);
+    }
+
+    @Test
+    void testRenamedParent() throws IOException {
+        final PCloud api = PCloudProviderUploadTest.pcloud("api.pcloud.com/1");
+        final PCloudProvider provider = new PCloudProvider(Zone.US, api, "");
+        when(api.get("/a/f1")).thenReturn(file(1, "f1"));
+        when(api.get("/b/f1")).thenReturn(file(1, "f1"));
+        when(api.listFolder(5)).thenReturn(new Listing(FOLDER, List.of()), new Listing(RENAMED, List.of()));
+
+        final Entry parent = provider.get("/a/f1").getParent();
+        assertEquals("a", parent.getName());
+
+        // The folder was renamed, the registered folder is outdated
+        final Entry renamed = provider.get("/b/f1").getParent();
+        assertNotSame(parent, renamed);
+        assertEquals("b", renamed.getName());
+        // The refreshed folder is now shared
+        assertSame(renamed, provider.get("/b/f1").getParent());
+        verify(api, times(2)).listFolder(5);
+    }
+}
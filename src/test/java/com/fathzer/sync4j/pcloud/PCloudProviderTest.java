@@ -15,6 +15,7 @@ import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
 import com.fathzer.sync4j.FileProvider;
 import com.fathzer.sync4j.Folder;
 
+import com.fathzer.sync4j.pcloud.internal.api.Metadata;
 import com.fathzer.sync4j.pcloud.internal.api.PCloud;
 import com.fathzer.sync4j.pcloud.internal.api.PCloudAPI;
 import com.fathzer.sync4j.test.AbstractFileProviderTest;
@@ -22,7 +23,6 @@ import com.fathzer.sync4j.test.UnderlyingFileSystem;
 
 import com.pcloud.sdk.ApiClient;
 import com.pcloud.sdk.ApiError;
-import com.pcloud.sdk.RemoteFolder;
 
 @EnabledIfSystemProperty(named = "pcloud.token", matches = ".+")
 class PCloudProviderTest extends AbstractFileProviderTest {
@@ -31,7 +31,7 @@ class PCloudProviderTest extends AbstractFileProviderTest {
     private static PCloud pcloud;
     private static boolean hasCleanupFailure;
 
-    private RemoteFolder testFolder;
+    private Metadata testFolder;
 
     @AfterAll
     static void apiCleanup() {
@@ -97,7 +97,7 @@ class PCloudProviderTest extends AbstractFileProviderTest {
         }
     }
 
-    private static void doCleanup(RemoteFolder testFolder) throws IOException {
+    private static void doCleanup(Metadata testFolder) throws IOException {
         // Sometime, pCloud API returns 5000 errors when deleting a folder.
         // It is weird, but not totally unexpected, because we use two different SDKs instances to create/delete the
         // test folder and to perform the tests.
@@ -0,0 +1,176 @@
+package com.fathzer.sync4j.pcloud;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import com.fathzer.sync4j.File;
+import com.fathzer.sync4j.pcloud.internal.api.Metadata;
+import com.fathzer.sync4j.pcloud.internal.api.PCloud;
+import com.fathzer.sync4j.pcloud.internal.api.UploadContent;
+
+class PCloudProviderUploadTest {
+    private static final Metadata ROOT = new Metadata(0, true, 0, "/", 0, 0, 0, 0);
+    private static final Metadata SOURCE = new Metadata(7, false, 3, "file", 10, 1000, 2000, 0);
+    private static final Metadata COPY = new Metadata(8, false, 5, "copy", 10, 1000, 2000, 0);
+
+    static PCloud pcloud(String account) throws IOException {
+        final PCloud pcloud = mock(PCloud.class);
+        when(pcloud.getAccount()).thenReturn(account);
+        when(pcloud.get("")).thenReturn(ROOT);
+        return pcloud;
+    }
+
+    @Test
+    void testServerSideCopy() throws IOException {
+        final PCloud sourceApi = pcloud("api.pcloud.com/1");
+        final PCloud targetApi = pcloud("api.pcloud.com/1");
+        final PCloudProvider source = new PCloudProvider(Zone.US, sourceApi, "");
+        final PCloudProvider target = new PCloudProvider(Zone.US, targetApi, "");
+        final PCloudFile file = new PCloudFile("/folder", null, SOURCE, source);
+        when(targetApi.copy(7, 5, "copy", 2000, 1000)).thenReturn(COPY);
+
+        // Same account, the file is copied on the server side by the target provider
+        final AtomicLong progress = new AtomicLong();
+        assertSame(COPY, target.upload(5, "copy", file, progress::set));
+        assertEquals(10, progress.get(), "Progress should report the whole file");
+        verify(targetApi, never()).upload(anyLong(), any(), any(), anyLong(), anyLong(), anyLong(), any());
+        verify(sourceApi, never()).getDownloadLink(anyLong());
+
+        // A failed server-side copy is not retried as an upload
+        when(targetApi.copy(7, 5, "other", 2000, 1000)).thenThrow(new IOException("Copy failed"));
+        assertThrows(IOException.class, () -> target.upload(5, "other", file, null));
+        verify(targetApi, never()).upload(anyLong(), any(), any(), anyLong(), anyLong(), anyLong(), any());
+    }
+
+    @Test
+    void testCopyFromOtherAccount() throws IOException {
+        final PCloud sourceApi = pcloud("api.pcloud.com/1");
+        final PCloud targetApi = pcloud("eapi.pcloud.com/1");
+        final PCloudProvider source = new PCloudProvider(Zone.US, sourceApi, "");
+        final PCloudProvider target = new PCloudProvider(Zone.EU, targetApi, "");
+        when(targetApi.upload(eq(5L), eq("copy"), any(), eq(10L), eq(2000L), eq(1000L), isNull())).thenReturn(COPY);
+
+        // Different accounts, the content is uploaded
+        assertSame(COPY, target.upload(5, "copy", new PCloudFile("/folder", null, SOURCE, source), null));
+        verify(targetApi, never()).copy(anyLong(), anyLong(), any(), anyLong(), anyLong());
+
+        // Files of other providers are uploaded too
+        final File local = mock(File.class);
+        when(local.getSize()).thenReturn(10L);
+        when(local.getLastModifiedTime()).thenReturn(2000L);
+        when(local.getCreationTime()).thenReturn(1000L);
+        assertSame(COPY, target.upload(5, "copy", local, null));
+        verify(targetApi, times(2)).upload(eq(5L), eq("copy"), any(), eq(10L), eq(2000L), eq(1000L), isNull());
+        verify(targetApi, never()).copy(anyLong(), anyLong(), any(), anyLong(), anyLong());
+    }
+
+    private static File file(long size, long mtime, long ctime) throws IOException {
+        final File file = mock(File.class);
+        when(file.getSize()).thenReturn(size);
+        when(file.getLastModifiedTime()).thenReturn(mtime);
+        when(file.getCreationTime()).thenReturn(ctime);
+        return file;
+    }
+
+    private static Metadata uploaded(String name) {
+        return new Metadata(name.hashCode(), false, 5, name, 10, 1000, 2000, 0);
+    }
+
+    /**
+     * Records the batches uploaded through a mocked API.
+     * @param api the mocked API
+     * @param failingBatch the index of the batch that fails, -1 if no batch fails
+     * @return the names of the files of each batch, in upload order
+     */
+    private static List<List<String>> recordBatches(PCloud api, int failingBatch) throws IOException {
+        final List<List<String>> batches = new CopyOnWriteArrayList<>();
+        when(api.upload(eq(5L), anyList(), anyLong(), anyLong())).thenAnswer(invocation -> {
+            final List<UploadContent> contents = invocation.getArgument(1);
+            final List<String> names = contents.stream().map(UploadContent::fileName).toList();
+            if (batches.size() == failingBatch) {
+                batches.add(names);
+                throw new IOException("Upload failed");
+            }
+            batches.add(names);
+            return names.stream().map(PCloudProviderUploadTest::uploaded).toList();
+        });
+        when(api.upload(eq(5L), anyString(), any(), anyLong(), anyLong(), anyLong(), isNull()))
+                .thenAnswer(invocation -> uploaded(invocation.getArgument(1)));
+        return batches;
+    }
+
+    @Test
+    void testBatches() throws IOException {
+        final PCloud api = pcloud("api.pcloud.com/1");
+        final PCloudProvider provider = new PCloudProvider(Zone.US, api, "");
+        provider.setUploadBatch(2, 25);
+        final List<List<String>> batches = recordBatches(api, -1);
+
+        final Map<String, File> files = new LinkedHashMap<>();
+        files.put("a", file(10, 2000, 1000));
+        // Same times, with a one second precision
+        files.put("b", file(10, 2500, 1200));
+        // The batch is full (2 files), c starts a new one
+        files.put("c", file(10, 2000, 1000));
+        // c and d would exceed 25 bytes, c is uploaded alone
+        files.put("d", file(20, 2000, 1000));
+        // Other times
+        files.put("e", file(10, 5000, 1000));
+        // Too large to be batched
+        files.put("big", file(30, 2000, 1000));
+        files.put("g", file(5, 2000, 1000));
+
+        final Map<String, Metadata> result = provider.upload(5, files);
+        assertEquals(files.keySet(), result.keySet());
+        files.keySet().forEach(name -> assertEquals(uploaded(name), result.get(name)));
+        // Batches contain at most 2 files and 25 bytes
+        assertEquals(List.of(List.of("a", "b"), List.of("d", "g")), batches);
+        // Batches use the times of their first file
+        verify(api, times(2)).upload(eq(5L), anyList(), eq(2000L), eq(1000L));
+        // Single files are uploaded by the single file upload
+        verify(api).upload(eq(5L), eq("c"), any(), eq(10L), eq(2000L), eq(1000L), isNull());
+        verify(api).upload(eq(5L), eq("e"), any(), eq(10L), eq(5000L), eq(1000L), isNull());
+        verify(api).upload(eq(5L), eq("big"), any(), eq(30L), eq(2000L), eq(1000L), isNull());
+
+        // With batches disabled, every file is uploaded alone
+        batches.clear();
+        provider.setUploadBatch(1, 25);
+        provider.upload(5, Map.of("h", file(10, 2000, 1000), "i", file(10, 2000, 1000)));
+        assertTrue(batches.isEmpty());
+        verify(api).upload(eq(5L), eq("h"), any(), eq(10L), eq(2000L), eq(1000L), isNull());
+        verify(api).upload(eq(5L), eq("i"), any(), eq(10L), eq(2000L), eq(1000L), isNull());
+    }
+
+    @Test
+    void testBatchFailure() throws IOException {
+        final PCloud api = pcloud("api.pcloud.com/1");
+        final PCloudProvider provider = new PCloudProvider(Zone.US, api, "");
+        provider.setUploadBatch(2, 100);
+        final List<List<String>> batches = recordBatches(api, 1);
+
+        final Map<String, File> files = new LinkedHashMap<>();
+        for (String name : List.of("a", "b", "c", "d", "e", "f")) {
+            files.put(name, file(10, 2000, 1000));
+        }
+        // The second batch fails: the first batch is uploaded, the following ones are not sent
+        final IOException e = assertThrows(IOException.class, () -> provider.upload(5, files));
+        assertEquals("Upload failed", e.getMessage());
+        assertEquals(List.of(List.of("a", "b"), List.of("c", "d")), new ArrayList<>(batches));
+    }
+}
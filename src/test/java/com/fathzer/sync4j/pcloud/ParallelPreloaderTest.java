@@ -0,0 +1,129 @@
+package com.fathzer.sync4j.pcloud;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+
+import com.fathzer.sync4j.pcloud.internal.TreeStore;
+import com.fathzer.sync4j.pcloud.internal.api.Listing;
+import com.fathzer.sync4j.pcloud.internal.api.Metadata;
+import com.fathzer.sync4j.pcloud.internal.api.PCloud;
+
+class ParallelPreloaderTest {
+    private static Metadata folder(long id, long parentId, String name) {
+        return new Metadata(id, true, parentId, name, 0, 0, 0, 0);
+    }
+
+    private static Listing listing(Metadata folder, Metadata... children) {
+        return new Listing(folder, List.of(children));
+    }
+
+    @Test
+    void test() throws IOException {
+        // The executor is shared, it is not shut down by the preloader
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            preload(executor);
+            assertFalse(executor.isShutdown());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void preload(ExecutorService executor) throws IOException {
+        // Tree is root(0) -> a(1) -> c(3)
+        //                 -> b(2) -> d(4) that fails to load -> e(5)
+        //                 -> file(10)
+        final Metadata root = folder(0, 0, "");
+        final Metadata a = folder(1, 0, "a");
+        final Metadata b = folder(2, 0, "b");
+        final Metadata c = folder(3, 1, "c");
+        final Metadata d = folder(4, 2, "d");
+        final Metadata e = folder(5, 4, "e");
+        final Metadata file = new Metadata(10, false, 0, "file", 5, 0, 0, 0);
+        final Map<Long, Listing> tree = Map.of(
+                0L, listing(root, a, b, file),
+                1L, listing(a, c),
+                2L, listing(b, d),
+                3L, listing(c));
+        final PCloud pcloud = mock(PCloud.class);
+        when(pcloud.listFolder(anyLong())).thenAnswer(invocation -> {
+            final Listing listing = tree.get(invocation.getArgument(0, Long.class));
+            if (listing == null) {
+                throw new IOException("Can't list " + invocation.getArgument(0));
+            }
+            return listing;
+        });
+        // The skeleton, in post-order
+        final List<Metadata> skeleton = new ArrayList<>(List.of(c, a, d, b, root));
+        doAnswer(invocation -> {
+            if (invocation.getArgument(0, Long.class) != 0) {
+                throw new IOException("Can't list " + invocation.getArgument(0));
+            }
+            final Consumer<Metadata> consumer = invocation.getArgument(3);
+            skeleton.forEach(consumer);
+            return null;
+        }).when(pcloud).listFolder(anyLong(), eq(true), eq(true), any());
+
+        final Map<String, Integer> loaded = new ConcurrentHashMap<>();
+        final List<String> failed = new ArrayList<>();
+        final PreloadListener listener = new PreloadListener() {
+            @Override
+            public void loaded(String path, int childrenCount) {
+                loaded.put(path, childrenCount);
+            }
+
+            @Override
+            public synchronized void failed(String path, IOException e) {
+                failed.add(path);
+            }
+        };
+        final TreeStore store = new ParallelPreloader(pcloud, 3, listener, executor).load(0, "");
+        assertEquals(6, store.size());
+        assertEquals(Map.of("", 3, "/a", 1, "/b", 1, "/a/c", 0), loaded);
+        assertEquals(List.of("/b/d"), failed);
+        verify(pcloud).listFolder(eq(0L), eq(true), eq(true), any());
+        verify(pcloud, never()).listFolder(anyLong(), anyBoolean(), any());
+
+        assertEquals(root, store.metadata(store.root()));
+        assertTrue(store.isListed(store.root()));
+        assertEquals(3, store.childCount(store.root()));
+        for (int i = 0; i < store.size(); i++) {
+            final Metadata metadata = store.metadata(i);
+            assertEquals(metadata.id() != 4 && metadata.isFolder(), store.isListed(i), "Unexpected listed status for " + metadata);
+        }
+
+        // Children of a root whose path is a separator don't get a doubled separator
+        loaded.clear();
+        failed.clear();
+        new ParallelPreloader(pcloud, 3, listener, executor).load(0, "/");
+        assertEquals(Map.of("/", 3, "/a", 1, "/b", 1, "/a/c", 0), loaded);
+        assertEquals(List.of("/b/d"), failed);
+
+        // Sub-folders of a folder that failed are not listed (without parallelism, d fails before e is listed)
+        skeleton.add(2, e);
+        loaded.clear();
+        failed.clear();
+        assertEquals(6, new ParallelPreloader(pcloud, 1, listener, executor).load(0, "").size());
+        assertEquals(List.of("/b/d"), failed);
+        verify(pcloud, never()).listFolder(5L);
+
+        // Root listing failure should be thrown
+        final ParallelPreloader preloader = new ParallelPreloader(pcloud, 3, null, executor);
+        assertThrows(IOException.class, () -> preloader.load(5, "/x"));
+    }
+}
@@ -0,0 +1,72 @@
+package com.fathzer.sync4j.pcloud;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.fathzer.sync4j.pcloud.internal.api.PCloud;
+
+class RangedInputStreamTest {
+    @Test
+    void test() throws IOException {
+        final byte[] content = new byte[10000];
+        new Random(0).nextBytes(content);
+        final URL link = new URL("https://example.com/file");
+        final PCloud pcloud = mock(PCloud.class);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        when(pcloud.download(eq(link), anyLong(), anyInt())).thenAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                final int offset = (int) (long) invocation.getArgument(1);
+                final int length = invocation.getArgument(2);
+                // Make the first chunks slower to check they are reordered
+                Thread.sleep(offset < 3000 ? 20 : 0);
+                return Arrays.copyOfRange(content, offset, Math.min(content.length, offset + length));
+            } finally {
+                running.decrementAndGet();
+            }
+        });
+        // The executor is shared, the stream bounds its own downloads
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            readChunks(pcloud, link, content, executor);
+            assertEquals(3, maxRunning.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void readChunks(PCloud pcloud, URL link, byte[] content, ExecutorService executor) throws IOException {
+        try (InputStream in = new RangedInputStream(pcloud, link, content.length, 1000, 3, 5, executor)) {
+            assertEquals(content[0] & 0xFF, in.read());
+            final byte[] read = new byte[content.length];
+            read[0] = content[0];
+            assertEquals(content.length - 1, in.readNBytes(read, 1, content.length - 1));
+            assertArrayEquals(content, read);
+            assertEquals(-1, in.read());
+        }
+        verify(pcloud, times(10)).download(eq(link), anyLong(), anyInt());
+
+        // Errors are thrown to the reader
+        when(pcloud.download(any(), eq(2000L), anyInt())).thenThrow(new IOException("Connection reset"));
+        try (InputStream in = new RangedInputStream(pcloud, link, content.length, 1000, 2, 2, executor)) {
+            assertThrows(IOException.class, in::readAllBytes);
+        }
+        assertFalse(executor.isShutdown());
+    }
+}
@@ -0,0 +1,107 @@
+package com.fathzer.sync4j.pcloud;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+class TransportTest {
+    @Test
+    void test() {
+        try (Transport transport = Transport.builder()
+                .maxRequests(20)
+                .maxRequestsPerHost(10)
+                .idleConnections(8, Duration.ofSeconds(30))
+                .connectTimeout(Duration.ofSeconds(1))
+                .readTimeout(Duration.ofSeconds(2))
+                .writeTimeout(Duration.ofSeconds(3))
+                .build()) {
+            final OkHttpClient client = transport.getClient();
+            assertEquals(20, client.dispatcher().getMaxRequests());
+            assertEquals(10, client.dispatcher().getMaxRequestsPerHost());
+            assertEquals(1000, client.connectTimeoutMillis());
+            assertEquals(2000, client.readTimeoutMillis());
+            assertEquals(3000, client.writeTimeoutMillis());
+
+            final Transport.Stats stats = transport.getStats();
+            assertEquals(0, stats.requests());
+            assertEquals(Duration.ZERO, stats.averageQueueDelay());
+        }
+        final Transport.Builder builder = Transport.builder();
+        final Duration zero = Duration.ZERO;
+        assertThrows(IllegalArgumentException.class, () -> builder.idleConnections(1, zero));
+        assertThrows(IllegalArgumentException.class, () -> builder.maxRequestsPerHost(0));
+        assertThrows(IllegalArgumentException.class, () -> builder.maxRequests(0));
+
+        final ThreadFactory threads = Executors.defaultThreadFactory();
+        try (Transport transport = Transport.builder().maxRequests(7).threadFactory(threads).build()) {
+            final ExecutorService executor = transport.getClient().dispatcher().executorService();
+            assertSame(threads, ((ThreadPoolExecutor) executor).getThreadFactory());
+            assertEquals(7, transport.getClient().dispatcher().getMaxRequests());
+            // All the API requests go to the same host
+            assertEquals(7, transport.getClient().dispatcher().getMaxRequestsPerHost());
+        }
+    }
+
+    @Test
+    void testQueueDelay() throws Exception {
+        try (Transport transport = Transport.builder().maxRequestsPerHost(1).build()) {
+            // Each request lasts 100ms
+            final OkHttpClient client = transport.getClient().newBuilder().addInterceptor(chain -> {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new Response.Builder().request(chain.request()).protocol(Protocol.HTTP_1_1).code(200).message("OK")
+                        .body(ResponseBody.create("{}", MediaType.get("application/json"))).build();
+            }).build();
+            final CountDownLatch done = new CountDownLatch(3);
+            final Callback callback = new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    done.countDown();
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    response.close();
+                    done.countDown();
+                }
+            };
+            for (int i = 0; i < 3; i++) {
+                client.newCall(new Request.Builder().url("https://api.example.com/stat").build()).enqueue(callback);
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+
+            // Only one request per host is executed at a time, the second waits 100ms, the third 200ms
+            final Transport.Stats stats = transport.getStats();
+            assertEquals(3, stats.requests());
+            assertTrue(stats.maxQueueDelay().toMillis() >= 150, "Max delay is " + stats.maxQueueDelay());
+            assertTrue(stats.totalQueueDelay().toMillis() >= 250, "Total delay is " + stats.totalQueueDelay());
+
+            // Synchronous requests are not queued
+            try (Response response = client.newCall(new Request.Builder().url("https://api.example.com/stat").build()).execute()) {
+                assertEquals(200, response.code());
+            }
+            assertEquals(4, transport.getStats().requests());
+        }
+    }
+}
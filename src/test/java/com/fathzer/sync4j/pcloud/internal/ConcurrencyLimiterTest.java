@@ -0,0 +1,78 @@
+package com.fathzer.sync4j.pcloud.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+class ConcurrencyLimiterTest {
+    @Test
+    void test() throws InterruptedException {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(8);
+        assertEquals(8, limiter.getLimit());
+        limiter.release(limiter.acquire(), true);
+        assertEquals(4, limiter.getLimit());
+        for (int i = 0; i < 3; i++) {
+            limiter.release(limiter.acquire(), true);
+        }
+        assertEquals(1, limiter.getLimit(), "Limit should never go below 1");
+
+        // Additive increase: about one more call per window of successful calls
+        for (int i = 0; i < 3; i++) {
+            limiter.release(limiter.acquire(), false);
+        }
+        assertEquals(2, limiter.getLimit());
+        for (int i = 0; i < 1000; i++) {
+            limiter.release(limiter.acquire(), false);
+        }
+        assertEquals(8, limiter.getLimit(), "Limit should never exceed its max");
+
+        assertThrows(IllegalArgumentException.class, () -> new ConcurrencyLimiter(0));
+    }
+
+    @Test
+    void testDecreaseWindow() throws InterruptedException {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(8);
+        final long[] tickets = new long[8];
+        for (int i = 0; i < tickets.length; i++) {
+            tickets[i] = limiter.acquire();
+        }
+        // Calls that were in flight together are throttled by the same congestion, the limit is halved once
+        for (long ticket : tickets) {
+            limiter.release(ticket, true);
+        }
+        assertEquals(4, limiter.getLimit());
+
+        // A call allowed after the decrease halves it again
+        final long first = limiter.acquire();
+        final long second = limiter.acquire();
+        limiter.release(second, true);
+        assertEquals(2, limiter.getLimit());
+        limiter.release(first, true);
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    void testAsync() throws InterruptedException {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+        final CompletableFuture<Long> first = limiter.acquireAsync();
+        assertTrue(first.isDone());
+        final CompletableFuture<Long> cancelled = limiter.acquireAsync();
+        final CompletableFuture<Long> waiting = limiter.acquireAsync();
+        assertFalse(cancelled.isDone());
+        cancelled.cancel(true);
+
+        // The slot goes to the first waiter that was not cancelled
+        limiter.release(first.join(), false);
+        assertTrue(waiting.isDone());
+        assertFalse(waiting.isCompletedExceptionally());
+
+        // Waiters are served before new callers
+        final CompletableFuture<Long> next = limiter.acquireAsync();
+        limiter.release(waiting.join(), false);
+        assertTrue(next.isDone());
+        limiter.release(next.join(), false);
+        limiter.release(limiter.acquire(), false);
+    }
+}
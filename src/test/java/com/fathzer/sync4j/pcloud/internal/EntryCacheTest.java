@@ -0,0 +1,173 @@
+package com.fathzer.sync4j.pcloud.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import com.fathzer.sync4j.pcloud.internal.EntryCache.CachedEntry;
+import com.fathzer.sync4j.pcloud.internal.api.Metadata;
+
+class EntryCacheTest {
+    private static Metadata folder(long id) {
+        return new Metadata(id, true, 0, "folder" + id, 0, 0, 0, 0);
+    }
+
+    private static Metadata file(long id) {
+        return new Metadata(id, false, 0, "file" + id, 10, 0, 0, 0);
+    }
+
+    @Test
+    void testExpiration() {
+        final AtomicLong clock = new AtomicLong();
+        final EntryCache cache = new EntryCache(10, Duration.ofNanos(100), clock::get);
+        final Metadata file = file(3);
+        final Metadata folder = folder(3);
+        cache.put("/file", file);
+        cache.put("/folder", folder);
+        cache.putMissing("/missing");
+
+        assertSame(file, cache.get("/file").entry());
+        assertSame(folder, cache.getFolder(3));
+        assertEquals("/folder", cache.getPath(3));
+        final CachedEntry missing = cache.get("/missing");
+        assertNotNull(missing);
+        assertFalse(missing.exists());
+        assertNull(cache.get("/other"));
+
+        clock.set(101);
+        assertNull(cache.get("/file"));
+        assertNull(cache.get("/missing"));
+        assertNull(cache.getFolder(3));
+        assertNull(cache.getPath(3));
+    }
+
+    @Test
+    void testEviction() {
+        final EntryCache cache = new EntryCache(2, Duration.ofMinutes(1));
+        final Metadata folder = folder(1);
+        cache.put("/a", folder);
+        cache.putMissing("/b");
+        // Access /a to make /b the eldest entry
+        assertNotNull(cache.get("/a"));
+        cache.putMissing("/c");
+        assertEquals(2, cache.size());
+        assertNull(cache.get("/b"));
+        assertSame(folder, cache.getFolder(1));
+
+        // getFolder accessed /a, /c is evicted first
+        cache.putMissing("/d");
+        assertNull(cache.get("/c"));
+        cache.putMissing("/e");
+        assertNull(cache.get("/a"));
+        assertNull(cache.getFolder(1), "Evicted folder should be removed from id index");
+    }
+
+    @Test
+    void testWriteThrough() {
+        final EntryCache cache = new EntryCache(10, Duration.ofMinutes(1));
+        cache.putMissing("/a");
+        final Metadata folder = folder(1);
+        cache.put("/a", folder);
+        assertTrue(cache.get("/a").exists());
+
+        cache.put("/a/b", folder(2));
+        cache.put("/a/b/c", file(1));
+        cache.put("/ab", file(1));
+        cache.delete("/a");
+        assertFalse(cache.get("/a").exists());
+        assertNull(cache.get("/a/b"));
+        assertNull(cache.get("/a/b/c"));
+        assertNull(cache.getFolder(1));
+        assertNull(cache.getFolder(2));
+        assertTrue(cache.get("/ab").exists());
+    }
+
+    @Test
+    void testListing() {
+        final AtomicLong clock = new AtomicLong();
+        final EntryCache cache = new EntryCache(4, Duration.ofNanos(100), clock::get);
+        final Metadata file = file(1);
+        cache.putListing("/a", folder(1), List.of(file, folder(2)));
+        assertSame(file, cache.get("/a/file1").entry());
+        // Paths that are not in a listed folder are missing
+        assertFalse(cache.get("/a/other").exists());
+        assertNull(cache.get("/a/folder2/other"));
+        assertNull(cache.get("/b"));
+
+        // Evicting the folder discards the listing
+        cache.put("/b", file(3));
+        cache.put("/c", file(4));
+        assertNull(cache.get("/a/other"));
+
+        // Listings expire
+        cache.putListing("/a", folder(1), List.of(file));
+        assertFalse(cache.get("/a/other").exists());
+        clock.set(101);
+        assertNull(cache.get("/a/other"));
+
+        // Listings larger than the cache are not complete
+        cache.putListing("/a", folder(1), List.of(file(5), file(6), file(7), file(8)));
+        assertNull(cache.get("/a/other"));
+    }
+
+    @Test
+    void testStaleListing() {
+        final EntryCache cache = new EntryCache(10, Duration.ofMinutes(1));
+        final Metadata file = file(1);
+        cache.putListing("/a", folder(1), List.of(file, folder(2)));
+        cache.put("/a/folder2/file3", file(3));
+        cache.putMissing("/a/folder2/other");
+        cache.put("/ab", file(4));
+
+        // Children that are no more listed are discarded with their sub-tree
+        cache.putListing("/a", folder(1), List.of(file));
+        assertSame(file, cache.get("/a/file1").entry());
+        assertFalse(cache.get("/a/folder2").exists());
+        assertNull(cache.getFolder(2));
+        assertNull(cache.get("/a/folder2/file3"));
+        assertNull(cache.get("/a/folder2/other"));
+        assertTrue(cache.get("/ab").exists());
+        assertEquals(3, cache.size());
+
+        // Same thing for the root folder
+        cache.putListing("/", folder(0), List.of(folder(1)));
+        assertTrue(cache.get("/folder1").exists());
+        assertNull(cache.get("/a/file1"));
+        assertFalse(cache.get("/ab").exists());
+    }
+
+    @Test
+    void testRootListing() {
+        final EntryCache cache = new EntryCache(10, Duration.ofMinutes(1));
+        final Metadata file = file(1);
+        cache.putListing("/", folder(0), List.of(file, folder(2)));
+        assertSame(file, cache.get("/file1").entry());
+        assertNull(cache.get("//file1"));
+        assertTrue(cache.get("/folder2").exists());
+        // Paths that are not in the root folder are missing
+        assertFalse(cache.get("/other").exists());
+        assertNull(cache.get("/folder2/other"));
+
+        // Deleting the root discards its listing
+        cache.delete("/");
+        assertNull(cache.get("/file1"));
+        assertNull(cache.get("/other"));
+
+        // The root folder's path can be empty too
+        cache.putListing("", folder(0), List.of(file));
+        assertSame(file, cache.get("/file1").entry());
+        assertFalse(cache.get("/other").exists());
+    }
+
+    @Test
+    void testConstructor() {
+        final Duration ttl = Duration.ofMinutes(1);
+        assertThrows(IllegalArgumentException.class, () -> new EntryCache(0, ttl));
+        final Duration negative = Duration.ofMinutes(-1);
+        assertThrows(IllegalArgumentException.class, () -> new EntryCache(1, negative));
+    }
+}
@@ -0,0 +1,160 @@
+package com.fathzer.sync4j.pcloud.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fathzer.sync4j.pcloud.internal.api.FileHashes;
+import com.fathzer.sync4j.pcloud.internal.api.Metadata;
+
+class HashCacheTest {
+    @Test
+    void test() {
+        final HashCache cache = new HashCache();
+        final Metadata file = new Metadata(1, false, 0, "file", 10, 1000, 2000, 0);
+        final FileHashes hashes = new FileHashes("sha1", null, null);
+        assertNull(cache.get(file));
+        cache.put(file, hashes);
+        assertSame(hashes, cache.get(file));
+
+        // Unknown content hash matches any content hash
+        final Metadata withHash = new Metadata(1, false, 0, "renamed", 10, 1000, 2000, 123);
+        assertSame(hashes, cache.get(withHash));
+        cache.put(withHash, hashes);
+        assertNull(cache.get(new Metadata(1, false, 0, "file", 10, 1000, 2000, 456)));
+        assertEquals(0, cache.size(), "Stale hashes should be removed");
+
+        cache.put(file, hashes);
+        assertNull(cache.get(new Metadata(1, false, 0, "file", 11, 1000, 2000, 0)));
+        cache.put(file, hashes);
+        assertNull(cache.get(new Metadata(1, false, 0, "file", 10, 1000, 3000, 0)));
+
+        cache.put(file, hashes);
+        cache.clear();
+        assertNull(cache.get(file));
+    }
+
+    @Test
+    void testEviction() {
+        assertThrows(IllegalArgumentException.class, () -> new HashCache(0));
+        final HashCache cache = new HashCache(2);
+        final Metadata file1 = new Metadata(1, false, 0, "file1", 10, 1000, 2000, 0);
+        final Metadata file2 = new Metadata(2, false, 0, "file2", 10, 1000, 2000, 0);
+        final Metadata file3 = new Metadata(3, false, 0, "file3", 10, 1000, 2000, 0);
+        final FileHashes hashes = new FileHashes("sha1", null, null);
+        cache.put(file1, hashes);
+        cache.put(file2, hashes);
+        // Access file1, so that file2 is the least recently used
+        assertSame(hashes, cache.get(file1));
+        cache.put(file3, hashes);
+        assertEquals(2, cache.size());
+        assertSame(hashes, cache.get(file1));
+        assertNull(cache.get(file2));
+        assertSame(hashes, cache.get(file3));
+    }
+
+    @Test
+    void testPersistence(@TempDir Path dir) throws IOException {
+        final Path file = dir.resolve("hashes");
+        final Metadata file1 = new Metadata(1, false, 0, "file1", 10, 1000, 2000, 0);
+        final Metadata file2 = new Metadata(2, false, 0, "file2", 10, 1000, 2000, -2);
+        final FileHashes hashes1 = new FileHashes("a", "b", null);
+        final FileHashes hashes2 = new FileHashes("c", null, "d");
+
+        final HashCache cache = new HashCache();
+        cache.load(file);
+        assertEquals(0, cache.size());
+        cache.put(file1, hashes1);
+        cache.put(file2, hashes2);
+        cache.save(file);
+
+        final HashCache loaded = new HashCache();
+        loaded.load(file);
+        assertEquals(2, loaded.size());
+        assertEquals(hashes1, loaded.get(file1));
+        assertEquals(hashes2, loaded.get(file2));
+        assertNull(loaded.get(new Metadata(2, false, 0, "file2", 10, 1000, 2000, 5)));
+
+        Files.writeString(file, "garbage");
+        assertThrows(IOException.class, () -> loaded.load(file));
+    }
+
+    @Test
+    void testPruning(@TempDir Path dir) throws IOException {
+        final Path file = dir.resolve("hashes");
+        final Metadata file1 = new Metadata(1, false, 0, "file1", 10, 1000, 2000, 0);
+        final Metadata file2 = new Metadata(2, false, 0, "file2", 10, 1000, 2000, 0);
+        final Metadata file3 = new Metadata(3, false, 0, "file3", 10, 1000, 2000, 0);
+        final FileHashes hashes = new FileHashes("a", null, null);
+        final MutableClock clock = new MutableClock();
+        assertThrows(IllegalArgumentException.class, () -> new HashCache(10, Duration.ofHours(1), clock));
+        final HashCache cache = new HashCache(10, Duration.ofDays(30), clock);
+        cache.put(file1, hashes);
+        cache.put(file2, hashes);
+        cache.put(file3, hashes);
+        cache.save(file);
+
+        // A partial run, 20 days later, sees file1 and file2 only. file3 is kept
+        clock.days += 20;
+        final HashCache run = new HashCache(10, Duration.ofDays(30), clock);
+        run.load(file);
+        assertEquals(3, run.size());
+        assertEquals(hashes, run.get(file1));
+        run.put(file2, hashes);
+        run.save(file);
+        assertEquals(3, run.size(), "Hashes that were not seen by a run should be kept");
+
+        // 15 days later, file3 was not seen for 35 days
+        clock.days += 15;
+        final HashCache next = new HashCache(10, Duration.ofDays(30), clock);
+        next.load(file);
+        assertEquals(2, next.size());
+        assertEquals(hashes, next.get(file1));
+        assertEquals(hashes, next.get(file2));
+        assertNull(next.get(file3));
+
+        // Hashes that expire while the cache is used are pruned when it is saved
+        clock.days += 31;
+        next.save(file);
+        assertEquals(0, next.size());
+    }
+
+    @Test
+    void testLegacyFile(@TempDir Path dir) throws IOException {
+        final Path file = dir.resolve("hashes");
+        Files.writeString(file, "pcloud-hashes 1\n1 10 2000 0 a b -\n");
+        final HashCache cache = new HashCache();
+        cache.load(file);
+        // Hashes of files without last seen day are considered as seen today
+        assertEquals(new FileHashes("a", "b", null), cache.get(new Metadata(1, false, 0, "file1", 10, 1000, 2000, 0)));
+    }
+
+    private static class MutableClock extends Clock {
+        private long days = 20000;
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.EPOCH.plus(Duration.ofDays(days));
+        }
+    }
+}
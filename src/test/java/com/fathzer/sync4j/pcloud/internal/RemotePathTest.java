@@ -0,0 +1,30 @@
+package com.fathzer.sync4j.pcloud.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class RemotePathTest {
+    @Test
+    void testChild() {
+        assertEquals("/a", RemotePath.child("/", "a"));
+        assertEquals("/a", RemotePath.child("", "a"));
+        assertEquals("/a/b", RemotePath.child("/a", "b"));
+    }
+
+    @Test
+    void testIsIn() {
+        assertTrue(RemotePath.isIn("/a", "/a"));
+        assertTrue(RemotePath.isIn("/a/b", "/a"));
+        assertFalse(RemotePath.isIn("/ab", "/a"));
+        assertTrue(RemotePath.isIn("/a", "/"));
+        assertTrue(RemotePath.isIn("/a", ""));
+    }
+
+    @Test
+    void testTrim() {
+        assertEquals("", RemotePath.trim("/"));
+        assertEquals("", RemotePath.trim(""));
+        assertEquals("/a", RemotePath.trim("/a"));
+    }
+}
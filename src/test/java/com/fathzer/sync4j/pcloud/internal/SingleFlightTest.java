@@ -0,0 +1,52 @@
+package com.fathzer.sync4j.pcloud.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+class SingleFlightTest {
+    @Test
+    void test() throws Exception {
+        final SingleFlight<String, String> flights = new SingleFlight<>();
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicReference<String> followerResult = new AtomicReference<>();
+        final Thread follower = new Thread(() -> {
+            try {
+                followerResult.set(flights.execute("a", () -> {
+                    calls.incrementAndGet();
+                    return "other";
+                }));
+            } catch (IOException e) {
+                followerResult.set(e.toString());
+            }
+        });
+
+        final String result = flights.execute("a", () -> {
+            calls.incrementAndGet();
+            // Wait for the follower to be blocked on this call
+            follower.start();
+            while (follower.getState() != Thread.State.WAITING && follower.isAlive()) {
+                Thread.onSpinWait();
+            }
+            return "result";
+        });
+        follower.join();
+        assertEquals("result", result);
+        assertEquals("result", followerResult.get());
+        assertEquals(1, calls.get());
+        assertEquals(0, flights.size());
+
+        // Calls are not cached
+        assertEquals("again", flights.execute("a", () -> "again"));
+        // Exceptions are thrown
+        assertThrows(FileNotFoundException.class, () -> flights.execute("b", () -> {
+            throw new FileNotFoundException();
+        }));
+        assertEquals(0, flights.size());
+    }
+}
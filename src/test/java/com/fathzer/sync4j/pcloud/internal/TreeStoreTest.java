@@ -0,0 +1,82 @@
+package com.fathzer.sync4j.pcloud.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.fathzer.sync4j.pcloud.internal.api.Metadata;
+
+class TreeStoreTest {
+    private static List<Metadata> children(TreeStore store, int node) {
+        final List<Metadata> result = new ArrayList<>();
+        for (int i = store.firstChild(node); i < store.firstChild(node) + store.childCount(node); i++) {
+            result.add(store.metadata(i));
+        }
+        return result;
+    }
+
+    @Test
+    void test() {
+        final Metadata root = new Metadata(10, true, 1, "root", 0, 1000, 2000, 0);
+        final Metadata sub = new Metadata(11, true, 10, "sub", 0, 3000, 4000, 0);
+        final Metadata file1 = new Metadata(20, false, 10, "thumbs.db", 5, 5000, 6000, 123);
+        final Metadata file2 = new Metadata(21, false, 11, new String("thumbs.db"), 7, 7000, 8000, -1);
+        final Metadata file3 = new Metadata(22, false, 11, "b.txt", 8, 7000, 8000, 2);
+        final Metadata orphan = new Metadata(23, false, 99, "orphan", 8, 7000, 8000, 2);
+
+        final TreeStore.Builder builder = new TreeStore.Builder();
+        // Post-order, as emitted by a recursive listing
+        for (Metadata entry : List.of(file1, file2, orphan, file3, sub, root)) {
+            builder.add(entry);
+        }
+        builder.listed(10);
+        final TreeStore store = builder.build(10);
+
+        assertEquals(5, store.size());
+        final int rootNode = store.root();
+        assertEquals(root, store.metadata(rootNode));
+        assertTrue(store.isFolder(rootNode));
+        assertTrue(store.isListed(rootNode));
+        assertEquals(List.of(file1, sub), children(store, rootNode));
+
+        final int subNode = store.firstChild(rootNode) + 1;
+        assertTrue(store.isFolder(subNode));
+        assertFalse(store.isListed(subNode));
+        assertEquals(List.of(file2, file3), children(store, subNode));
+        assertFalse(store.isFolder(store.firstChild(subNode)));
+        assertEquals(0, store.childCount(store.firstChild(subNode)));
+        assertSame(store.metadata(store.firstChild(rootNode)).name(), store.metadata(store.firstChild(subNode)).name(), "Names should be shared");
+
+        // Field accessors read the same values without building a metadata instance
+        final int file1Node = store.firstChild(rootNode);
+        assertEquals(file1.id(), store.id(file1Node));
+        assertEquals(file1.parentFolderId(), store.parentFolderId(file1Node));
+        assertEquals(file1.name(), store.name(file1Node));
+        assertEquals(file1.size(), store.size(file1Node));
+        assertEquals(file1.created(), store.created(file1Node));
+        assertEquals(file1.modified(), store.modified(file1Node));
+        assertEquals(file1.hash(), store.hash(file1Node));
+        assertEquals(root.parentFolderId(), store.parentFolderId(rootNode));
+
+        final TreeStore.Builder noRoot = new TreeStore.Builder();
+        noRoot.add(file1);
+        assertThrows(IllegalStateException.class, () -> noRoot.build(10));
+    }
+
+    @Test
+    void testGrowth() {
+        final TreeStore.Builder builder = new TreeStore.Builder();
+        final int count = 5000;
+        for (int i = 0; i < count; i++) {
+            builder.add(new Metadata(i + 1, false, 0, "file" + i, i, 0, 0, 0));
+        }
+        builder.add(new Metadata(0, true, 0, "", 0, 0, 0, 0));
+        final TreeStore store = builder.build(0);
+        assertEquals(count + 1, store.size());
+        assertEquals(count, store.childCount(store.root()));
+        assertEquals("file4999", store.metadata(store.firstChild(store.root()) + count - 1).name());
+    }
+}
@@ -0,0 +1,40 @@
+package com.fathzer.sync4j.pcloud.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class UploadJournalTest {
+    @Test
+    void test(@TempDir Path dir) throws IOException {
+        final UploadJournal journal = UploadJournal.open(dir, 3, "file", 10, 1000, 4);
+        assertEquals(0, journal.getUploadId());
+        journal.start(7);
+        journal.done(1);
+
+        final UploadJournal resumed = UploadJournal.open(dir, 3, "file", 10, 1000, 4);
+        assertEquals(7, resumed.getUploadId());
+        assertFalse(resumed.isDone(0));
+        assertTrue(resumed.isDone(1));
+
+        // The content changed, the journal is ignored
+        assertEquals(0, UploadJournal.open(dir, 3, "file", 11, 1000, 4).getUploadId());
+        assertEquals(0, UploadJournal.open(dir, 3, "file", 10, 2000, 4).getUploadId());
+        assertEquals(0, UploadJournal.open(dir, 3, "file", 10, 1000, 5).getUploadId());
+
+        // Names with the same String hash code don't share a journal
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        UploadJournal.open(dir, 3, "Aa", 10, 1000, 4).start(8);
+        final UploadJournal other = UploadJournal.open(dir, 3, "BB", 10, 1000, 4);
+        assertEquals(0, other.getUploadId());
+        other.start(9);
+        assertEquals(8, UploadJournal.open(dir, 3, "Aa", 10, 1000, 4).getUploadId());
+
+        resumed.delete();
+        assertEquals(0, UploadJournal.open(dir, 3, "file", 10, 1000, 4).getUploadId());
+    }
+}
@@ -0,0 +1,24 @@
+package com.fathzer.sync4j.pcloud.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.ThreadFactory;
+
+import org.junit.jupiter.api.Test;
+
+class VirtualThreadsTest {
+    @Test
+    void test() throws Exception {
+        if (Runtime.version().feature() < 21) {
+            assertThrows(UnsupportedOperationException.class, VirtualThreads::factory);
+            return;
+        }
+        final ThreadFactory factory = VirtualThreads.factory();
+        final boolean[] run = new boolean[1];
+        final Thread thread = factory.newThread(() -> run[0] = true);
+        assertTrue((Boolean) Thread.class.getMethod("isVirtual").invoke(thread));
+        thread.start();
+        thread.join();
+        assertTrue(run[0]);
+    }
+}
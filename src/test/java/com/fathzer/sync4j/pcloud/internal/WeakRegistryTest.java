@@ -0,0 +1,35 @@
+package com.fathzer.sync4j.pcloud.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class WeakRegistryTest {
+    @Test
+    void test() {
+        final WeakRegistry<String> registry = new WeakRegistry<>();
+        final String a = new String("a");
+        final String other = new String("a");
+        assertNull(registry.get(1));
+        assertSame(a, registry.register(1, a));
+        assertSame(a, registry.get(1));
+        // An already registered object is kept
+        assertSame(a, registry.register(1, other));
+        assertSame(a, registry.get(1));
+        // put replaces it
+        registry.put(1, other);
+        assertSame(other, registry.get(1));
+        assertEquals(1, registry.size());
+
+        registry.remove(1);
+        assertNull(registry.get(1));
+        assertEquals(0, registry.size());
+
+        final String b = new String("b");
+        registry.put(1, a);
+        registry.put(2, b);
+        registry.removeIf("a"::equals);
+        assertNull(registry.get(1));
+        assertSame(b, registry.get(2));
+    }
+}
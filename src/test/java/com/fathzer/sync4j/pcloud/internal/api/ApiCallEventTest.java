@@ -0,0 +1,136 @@
+package com.fathzer.sync4j.pcloud.internal.api;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fathzer.sync4j.pcloud.Endpoint;
+import com.pcloud.sdk.ApiClient;
+import com.pcloud.sdk.ApiError;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+class ApiCallEventTest {
+    @Test
+    void test(@TempDir Path dir) throws IOException {
+        final Path file = dir.resolve("recording.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(ApiCallEvent.class);
+            recording.start();
+            final ApiCallEvent ok = ApiCallEvent.begin(Endpoint.DOWNLOAD, 12, 0);
+            ok.end(1000);
+            final ApiCallEvent failed = ApiCallEvent.begin(Endpoint.LISTFOLDER, 0, 5);
+            failed.failed(new FileNotFoundException().initCause(new ApiError(2005, "Directory does not exist.")));
+            failed.end(0);
+            recording.stop();
+            recording.dump(file);
+        }
+
+        final List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                .filter(e -> e.getEventType().getName().equals("com.fathzer.sync4j.pcloud.ApiCall"))
+                .toList();
+        assertEquals(2, events.size());
+        final RecordedEvent ok = events.stream().filter(e -> "download".equals(e.getString("endpoint"))).findAny().orElseThrow();
+        assertEquals(12, ok.getLong("fileId"));
+        assertEquals(1000, ok.getLong("bytes"));
+        assertNull(ok.getString("exception"));
+        final RecordedEvent failed = events.stream().filter(e -> "listfolder".equals(e.getString("endpoint"))).findAny().orElseThrow();
+        assertEquals(5, failed.getLong("folderId"));
+        assertEquals(2005, failed.getInt("errorCode"));
+        assertEquals(FileNotFoundException.class.getName(), failed.getString("exception"));
+    }
+
+    @Test
+    void testDecorator(@TempDir Path dir) throws IOException {
+        final PCloud api = mock(PCloud.class);
+        when(api.listFolder(5)).thenThrow((FileNotFoundException) new FileNotFoundException().initCause(new ApiError(2005, "Directory does not exist.")));
+        when(api.getInputStream(12)).thenReturn(new ByteArrayInputStream(new byte[100]));
+        final PCloud metered = new MeteredPCloud(api);
+
+        // Without listener and recording, calls are passed through
+        final InputStream stream = mock(InputStream.class);
+        when(api.getInputStream(13)).thenReturn(stream);
+        assertSame(stream, metered.getInputStream(13));
+
+        final Path file = dir.resolve("recording.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(ApiCallEvent.class);
+            recording.start();
+            assertThrows(FileNotFoundException.class, () -> metered.listFolder(5));
+            try (InputStream in = metered.getInputStream(12)) {
+                assertEquals(100, in.readAllBytes().length);
+            }
+            recording.stop();
+            recording.dump(file);
+        }
+
+        final List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                .filter(e -> e.getEventType().getName().equals("com.fathzer.sync4j.pcloud.ApiCall"))
+                .toList();
+        assertEquals(2, events.size());
+        final RecordedEvent failed = events.stream().filter(e -> "listfolder".equals(e.getString("endpoint"))).findAny().orElseThrow();
+        assertEquals(5, failed.getLong("folderId"));
+        assertEquals(2005, failed.getInt("errorCode"));
+        // The download is recorded when the stream is closed
+        final RecordedEvent download = events.stream().filter(e -> "download".equals(e.getString("endpoint"))).findAny().orElseThrow();
+        assertEquals(12, download.getLong("fileId"));
+        assertEquals(100, download.getLong("bytes"));
+        assertNull(download.getString("exception"));
+    }
+
+    @Test
+    void testHttpStatus(@TempDir Path dir) throws IOException {
+        final OkHttpClient httpClient = new OkHttpClient.Builder().addInterceptor(chain -> {
+            final Request request = chain.request();
+            if ("/checksumfile".equals(request.url().encodedPath())) {
+                return new Response.Builder().request(request).protocol(Protocol.HTTP_1_1).code(503).message("Service Unavailable")
+                        .body(ResponseBody.create("", MediaType.get("text/plain"))).build();
+            }
+            return new Response.Builder().request(request).protocol(Protocol.HTTP_1_1).code(206).message("Partial Content")
+                    .body(ResponseBody.create(new byte[10], MediaType.get("application/octet-stream"))).build();
+        }).build();
+
+        final Path file = dir.resolve("recording.jfr");
+        try (PCloud metered = new MeteredPCloud(new PCloudAPI(mock(ApiClient.class), URI.create("https://api.example.com/"), "token", httpClient));
+                Recording recording = new Recording()) {
+            recording.enable(ApiCallEvent.class);
+            recording.start();
+            assertEquals(10, metered.download(new URL("https://content.example.com/file"), 0, 10).length);
+            assertThrows(HttpStatusException.class, () -> metered.getHashes(5));
+            recording.stop();
+            recording.dump(file);
+        }
+
+        final List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                .filter(e -> e.getEventType().getName().equals("com.fathzer.sync4j.pcloud.ApiCall"))
+                .toList();
+        assertEquals(2, events.size());
+        // The status is the one of the actual response
+        final RecordedEvent download = events.stream().filter(e -> "download".equals(e.getString("endpoint"))).findAny().orElseThrow();
+        assertEquals(206, download.getInt("httpStatus"));
+        assertEquals(10, download.getLong("bytes"));
+        final RecordedEvent failed = events.stream().filter(e -> "checksumfile".equals(e.getString("endpoint"))).findAny().orElseThrow();
+        assertEquals(503, failed.getInt("httpStatus"));
+        assertEquals(HttpStatusException.class.getName(), failed.getString("exception"));
+    }
+}
@@ -0,0 +1,309 @@
+package com.fathzer.sync4j.pcloud.internal.api;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import javax.net.SocketFactory;
+
+import org.junit.jupiter.api.Test;
+
+import com.pcloud.sdk.ApiError;
+
+class BinaryPCloudTest {
+    private static BinaryPCloud pcloud(PCloud delegate, BinaryServer server, int connections) {
+        return new BinaryPCloud(delegate, "token", SocketFactory.getDefault(), "localhost", server.getPort(), connections, Executors.defaultThreadFactory(), 5000);
+    }
+
+    private static Map<String, Object> folder(long id, long parentId, String name, List<Object> contents) {
+        return Map.of("isfolder", true, "folderid", id, "parentfolderid", parentId, "name", name, "created", 1L, "modified", 2L, "contents", contents);
+    }
+
+    private static Map<String, Object> file(long id, long parentId, String name, long size, long hash) {
+        return Map.of("isfolder", false, "fileid", id, "parentfolderid", parentId, "name", name, "size", size, "created", 1000L, "modified", 2000L, "hash", hash);
+    }
+
+    @Test
+    void testGet() throws IOException {
+        final Function<BinaryServer.Request, Object> handler = request -> {
+            assertEquals("token", request.parameters().get("access_token"));
+            assertEquals("timestamp", request.parameters().get("timeformat"));
+            if ("listfolder".equals(request.method())) {
+                assertEquals(0L, request.parameters().get("folderid"));
+                assertEquals(ListingParser.FIELDS, request.parameters().get("filtermeta"));
+                assertEquals(1L, request.parameters().get("nofiles"));
+                return Map.of("result", 0L, "metadata", folder(0, 0, "/", List.of()));
+            }
+            assertEquals("stat", request.method());
+            return switch ((String) request.parameters().get("path")) {
+                case "/file.txt" -> Map.of("result", 0L, "metadata", file(12, 5, "file.txt", 100_000L, 0x8000000000000001L));
+                case "/denied" -> Map.of("result", 2003L, "error", "Access denied.");
+                default -> Map.of("result", 2055L, "error", "Log in failed.");
+            };
+        };
+        try (BinaryServer server = new BinaryServer(handler); BinaryPCloud pcloud = pcloud(mock(PCloud.class), server, 2)) {
+            final Metadata root = pcloud.get("");
+            assertTrue(root.isFolder());
+            assertEquals(0, root.id());
+            assertEquals(1000, root.created());
+            assertEquals(2000, root.modified());
+
+            final Metadata file = pcloud.get("/file.txt");
+            assertEquals(new Metadata(12, false, 5, "file.txt", 100_000L, 1_000_000L, 2_000_000L, 0x8000000000000001L), file);
+
+            assertThrows(FileNotFoundException.class, () -> pcloud.get("/missing"));
+            final IOException e = assertThrows(IOException.class, () -> pcloud.get("/denied"));
+            assertEquals(2003, ((ApiError) e.getCause()).errorCode());
+
+            // Sequential calls reuse the same connection
+            assertEquals(1, server.getConnections());
+        }
+    }
+
+    @Test
+    void testListFolder() throws IOException {
+        final List<Object> contents = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            // Long names and repeated keys are encoded with the long forms of strings and string references
+            contents.add(file(100 + i, 5, "a-file-with-a-name-longer-than-fifty-bytes-number-" + i + ".txt", i, i));
+        }
+        contents.add(folder(6, 5, "sub", List.of()));
+        final Map<String, Object> listed = folder(5, 0, "folder", contents);
+        try (BinaryServer server = new BinaryServer(request -> Map.of("result", 0L, "metadata", listed));
+                BinaryPCloud pcloud = pcloud(mock(PCloud.class), server, 1)) {
+            final Listing listing = pcloud.listFolder(5);
+            assertEquals(5, listing.folder().id());
+            assertEquals(101, listing.children().size());
+            final Metadata last = listing.children().get(99);
+            assertEquals("a-file-with-a-name-longer-than-fifty-bytes-number-99.txt", last.name());
+            assertEquals(99, last.size());
+            assertEquals(99, last.hash());
+            assertTrue(listing.children().get(100).isFolder());
+
+            final List<Metadata> entries = new ArrayList<>();
+            pcloud.listFolder(5, false, entries::add);
+            assertEquals(102, entries.size());
+            // The listed folder is the last entry
+            assertEquals(listing.folder(), entries.get(101));
+        }
+    }
+
+    @Test
+    void testDelegation() throws IOException {
+        final PCloud delegate = mock(PCloud.class);
+        when(delegate.getAccount()).thenReturn("account");
+        try (BinaryServer server = new BinaryServer(request -> fail("Unexpected request"));
+                BinaryPCloud pcloud = pcloud(delegate, server, 1)) {
+            assertEquals("account", pcloud.getAccount());
+            pcloud.mkdir(5, "folder");
+            verify(delegate).mkdir(5, "folder");
+            pcloud.listFolder(5, true, entry -> {});
+            verify(delegate).listFolder(eq(5L), eq(true), eq(false), any());
+            assertEquals(0, server.getConnections());
+        }
+        verify(delegate).close();
+    }
+
+    @Test
+    void testPipelining() throws IOException {
+        final int count = 20;
+        final BinaryServer[] servers = new BinaryServer[1];
+        final Function<BinaryServer.Request, Object> handler = request -> {
+            try {
+                // Responses are only sent once all the requests were received on the single connection
+                if (!servers[0].awaitRequests(count, 5000)) {
+                    return Map.of("result", 5000L, "error", "Requests were not pipelined");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            final long fileId = (Long) request.parameters().get("fileid");
+            return Map.of("result", 0L, "sha1", "sha1-" + fileId, "md5", "md5-" + fileId);
+        };
+        try (BinaryServer server = new BinaryServer(handler); BinaryPCloud pcloud = pcloud(mock(PCloud.class), server, 1)) {
+            servers[0] = server;
+            final List<Long> ids = LongStream.range(0, count).boxed().collect(Collectors.toList());
+            final Map<Long, FileHashes> hashes = pcloud.getHashes(ids, count);
+            assertEquals(count, hashes.size());
+            assertEquals(new FileHashes("sha1-7", "md5-7", null), hashes.get(7L));
+            assertEquals(1, server.getConnections());
+        }
+    }
+
+    @Test
+    void testPipelineDepth() throws Exception {
+        final int count = BinaryPCloud.MAX_PIPELINE_DEPTH + 8;
+        final CountDownLatch released = new CountDownLatch(1);
+        final Function<BinaryServer.Request, Object> handler = request -> {
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Map.of("result", 0L, "sha1", "x");
+        };
+        try (BinaryServer server = new BinaryServer(handler); BinaryPCloud pcloud = pcloud(mock(PCloud.class), server, 1)) {
+            final List<Long> ids = LongStream.range(0, count).boxed().collect(Collectors.toList());
+            final CompletableFuture<Map<Long, FileHashes>> hashes = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return pcloud.getHashes(ids, count);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            // The requests above the maximum depth wait for a response before being sent
+            assertTrue(server.awaitRequests(BinaryPCloud.MAX_PIPELINE_DEPTH, 5000));
+            Thread.sleep(200);
+            assertEquals(BinaryPCloud.MAX_PIPELINE_DEPTH, server.getRequests());
+            released.countDown();
+            assertEquals(count, hashes.get(5, TimeUnit.SECONDS).size());
+            assertEquals(1, server.getConnections());
+        } finally {
+            released.countDown();
+        }
+    }
+
+    @Test
+    void testReadTimeoutWithProgress() throws IOException {
+        final Function<BinaryServer.Request, Object> handler = request -> {
+            // Each response takes less than the read timeout, but the last request is answered long after it was sent
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Map.of("result", 0L, "sha1", "x");
+        };
+        try (BinaryServer server = new BinaryServer(handler);
+                BinaryPCloud pcloud = new BinaryPCloud(mock(PCloud.class), "token", SocketFactory.getDefault(), "localhost", server.getPort(), 1,
+                        Executors.defaultThreadFactory(), 500)) {
+            final List<Long> ids = LongStream.range(0, 5).boxed().collect(Collectors.toList());
+            assertEquals(5, pcloud.getHashes(ids, 5).size());
+            assertEquals(1, server.getConnections());
+        }
+    }
+
+    @Test
+    void testConnectionLost() throws IOException {
+        final int[] calls = new int[1];
+        try (BinaryServer server = new BinaryServer(request -> ++calls[0] == 1 ? null : Map.of("result", 0L, "sha1", "x"));
+                BinaryPCloud pcloud = pcloud(mock(PCloud.class), server, 1)) {
+            // The server closes the connection instead of answering
+            assertThrows(IOException.class, () -> pcloud.getHashes(1));
+            // A new connection is opened
+            assertEquals("x", pcloud.getHashes(1).sha1());
+            assertEquals(2, server.getConnections());
+        }
+    }
+
+    @Test
+    void testReadTimeout() throws Exception {
+        final CountDownLatch released = new CountDownLatch(1);
+        final Function<BinaryServer.Request, Object> handler = request -> {
+            if (Long.valueOf(1).equals(request.parameters().get("fileid"))) {
+                // Never answers in time
+                try {
+                    released.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return Map.of("result", 0L, "sha1", "x");
+        };
+        try (BinaryServer server = new BinaryServer(handler);
+                BinaryPCloud pcloud = new BinaryPCloud(mock(PCloud.class), "token", SocketFactory.getDefault(), "localhost", server.getPort(), 1,
+                        Executors.defaultThreadFactory(), 200)) {
+            assertThrows(SocketTimeoutException.class, () -> pcloud.getHashes(1));
+            // The connection is closed, a new one is opened
+            assertEquals("x", pcloud.getHashes(2).sha1());
+            assertEquals(2, server.getConnections());
+        } finally {
+            released.countDown();
+        }
+    }
+
+    @Test
+    void testConnectOutsideLock() throws Exception {
+        final CountDownLatch connecting = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+        final AtomicInteger sockets = new AtomicInteger();
+        // The first socket hangs while connecting
+        final SocketFactory factory = new SocketFactory() {
+            @Override
+            public Socket createSocket() {
+                final boolean hangs = sockets.getAndIncrement() == 0;
+                return new Socket() {
+                    @Override
+                    public void connect(SocketAddress endpoint, int timeout) throws IOException {
+                        if (hangs) {
+                            connecting.countDown();
+                            try {
+                                released.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                        super.connect(endpoint, timeout);
+                    }
+                };
+            }
+
+            @Override
+            public Socket createSocket(String host, int port) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Socket createSocket(String host, int port, InetAddress localHost, int localPort) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Socket createSocket(InetAddress host, int port) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        try (BinaryServer server = new BinaryServer(request -> Map.of("result", 0L, "sha1", "x"));
+                BinaryPCloud pcloud = new BinaryPCloud(mock(PCloud.class), "token", factory, "localhost", server.getPort(), 2,
+                        Executors.defaultThreadFactory(), 5000)) {
+            final CompletableFuture<FileHashes> first = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return pcloud.getHashes(1);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            assertTrue(connecting.await(5, TimeUnit.SECONDS));
+            // While the first connection is being opened, another one is opened in the other slot
+            assertEquals("x", pcloud.getHashes(2).sha1());
+            released.countDown();
+            assertEquals("x", first.get(5, TimeUnit.SECONDS).sha1());
+            assertEquals(2, server.getConnections());
+        } finally {
+            released.countDown();
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.fathzer.sync4j.pcloud.internal.api;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A local stand-in for pCloud's binary API.
+ * <br>It decodes requests and encodes responses independently of {@link BinaryProtocol}. Requests of a connection are read as soon
+ * as they arrive and answered in order by the handler.
+ */
+class BinaryServer implements AutoCloseable {
+    record Request(String method, Map<String, Object> parameters) {}
+
+    private final ServerSocket server;
+    private final Function<Request, Object> handler;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+
+    /**
+     * Constructor.
+     * @param handler the function that computes the response to a request. It returns a Map, or null to close the connection
+     * @throws IOException if the server can't be started
+     */
+    BinaryServer(Function<Request, Object> handler) throws IOException {
+        this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.handler = handler;
+        executor.execute(this::accept);
+    }
+
+    int getPort() {
+        return server.getLocalPort();
+    }
+
+    int getConnections() {
+        return connections.get();
+    }
+
+    int getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Waits until a number of requests were received.
+     * @param count the number of requests
+     * @param timeoutMillis the maximum time to wait
+     * @return true if the requests were received, false if the timeout elapsed
+     * @throws InterruptedException if the thread is interrupted
+     */
+    boolean awaitRequests(int count, long timeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (requests) {
+            while (requests.get() < count) {
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                requests.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                final Socket socket = server.accept();
+                connections.incrementAndGet();
+                executor.execute(() -> serve(socket));
+            }
+        } catch (IOException e) {
+            // Server is closed
+        }
+    }
+
+    private void serve(Socket socket) {
+        // Responses are written by another thread, so that pipelined requests are read while previous ones are processed
+        final ExecutorService writer = Executors.newSingleThreadExecutor();
+        try (socket) {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            final OutputStream out = socket.getOutputStream();
+            while (true) {
+                final byte[] length = new byte[2];
+                in.readFully(length);
+                final byte[] body = new byte[(length[0] & 0xFF) | (length[1] & 0xFF) << 8];
+                in.readFully(body);
+                final Request request = decode(body);
+                synchronized (requests) {
+                    requests.incrementAndGet();
+                    requests.notifyAll();
+                }
+                writer.execute(() -> {
+                    try {
+                        final Object response = handler.apply(request);
+                        if (response == null) {
+                            socket.close();
+                        } else {
+                            out.write(encode(response));
+                            out.flush();
+                        }
+                    } catch (IOException e) {
+                        // Connection is closed
+                    }
+                });
+            }
+        } catch (IOException e) {
+            // Connection is closed
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    private static Request decode(byte[] body) {
+        final ByteBuffer buffer = ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN);
+        final int methodLength = buffer.get() & 0xFF;
+        if ((methodLength & 0x80) != 0) {
+            throw new IllegalArgumentException("Data is not supported");
+        }
+        final String method = string(buffer, methodLength);
+        final int count = buffer.get() & 0xFF;
+        final Map<String, Object> parameters = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            final int header = buffer.get() & 0xFF;
+            final String name = string(buffer, header & 0x3F);
+            switch (header >> 6) {
+                case 0 -> parameters.put(name, string(buffer, buffer.getInt()));
+                case 1 -> parameters.put(name, buffer.getLong());
+                case 2 -> parameters.put(name, buffer.get() != 0);
+                default -> throw new IllegalArgumentException("Invalid parameter type");
+            }
+        }
+        return new Request(method, parameters);
+    }
+
+    private static String string(ByteBuffer buffer, int length) {
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] encode(Object response) {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        write(body, response, new HashMap<>());
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeNumber(out, body.size(), 4);
+        out.writeBytes(body.toByteArray());
+        return out.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream out, Object value, Map<String, Integer> strings) {
+        if (value instanceof String string) {
+            final Integer index = strings.get(string);
+            if (index != null) {
+                if (index < 50) {
+                    out.write(150 + index);
+                } else {
+                    final int size = size(index);
+                    out.write(4 + size - 1);
+                    writeNumber(out, index, size);
+                }
+                return;
+            }
+            strings.put(string, strings.size());
+            final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length < 50) {
+                out.write(100 + bytes.length);
+            } else {
+                final int size = size(bytes.length);
+                out.write(size - 1);
+                writeNumber(out, bytes.length, size);
+            }
+            out.writeBytes(bytes);
+        } else if (value instanceof Number number) {
+            final long n = number.longValue();
+            if (n >= 0 && n < 55) {
+                out.write(200 + (int) n);
+            } else {
+                final int size = size(n);
+                out.write(8 + size - 1);
+                writeNumber(out, n, size);
+            }
+        } else if (value instanceof Boolean bool) {
+            out.write(bool ? 19 : 18);
+        } else if (value instanceof Map<?, ?> map) {
+            out.write(16);
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                write(out, entry.getKey(), strings);
+                write(out, entry.getValue(), strings);
+            }
+            out.write(255);
+        } else if (value instanceof List<?> list) {
+            out.write(17);
+            for (Object item : list) {
+                write(out, item, strings);
+            }
+            out.write(255);
+        } else {
+            throw new IllegalArgumentException("Unsupported type " + value);
+        }
+    }
+
+    private static int size(long value) {
+        int size = 1;
+        while (size < 8 && (value >>> (8 * size)) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeNumber(ByteArrayOutputStream out, long value, int size) {
+        for (int i = 0; i < size; i++) {
+            out.write((int) (value >>> (8 * i)));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        executor.shutdownNow();
+    }
+}
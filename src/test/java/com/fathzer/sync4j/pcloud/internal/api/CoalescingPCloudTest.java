@@ -0,0 +1,74 @@
+package com.fathzer.sync4j.pcloud.internal.api;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+class CoalescingPCloudTest {
+    @Test
+    void test() throws Exception {
+        final PCloud delegate = mock(PCloud.class);
+        final CoalescingPCloud pcloud = new CoalescingPCloud(delegate);
+        final Listing listing = new Listing(new Metadata(5, true, 0, "folder", 0, 0, 0, 0), List.of());
+        final AtomicReference<Object> followerResult = new AtomicReference<>();
+        final Thread follower = new Thread(() -> {
+            try {
+                followerResult.set(pcloud.listFolder(5));
+            } catch (IOException e) {
+                followerResult.set(e);
+            }
+        });
+        when(delegate.listFolder(5)).thenAnswer(invocation -> {
+            // Wait for the follower to be blocked on this call
+            follower.start();
+            while (follower.getState() != Thread.State.WAITING && follower.isAlive()) {
+                Thread.onSpinWait();
+            }
+            return listing;
+        });
+
+        assertSame(listing, pcloud.listFolder(5));
+        follower.join();
+        assertSame(listing, followerResult.get());
+        verify(delegate, times(1)).listFolder(5);
+
+        // Calls are not cached, other calls are delegated
+        assertSame(listing, pcloud.listFolder(5));
+        verify(delegate, times(2)).listFolder(5);
+        pcloud.mkdir(5, "sub");
+        verify(delegate).mkdir(5, "sub");
+        pcloud.close();
+        verify(delegate).close();
+    }
+
+    @Test
+    void testAsync() throws Exception {
+        final PCloud delegate = mock(PCloud.class);
+        final AsyncPCloud async = mock(AsyncPCloud.class);
+        when(delegate.async()).thenReturn(async);
+        final CoalescingPCloud pcloud = new CoalescingPCloud(delegate);
+        final Listing listing = new Listing(new Metadata(5, true, 0, "folder", 0, 0, 0, 0), List.of());
+        final CompletableFuture<Listing> call = new CompletableFuture<>();
+        when(async.listFolder(5)).thenReturn(call);
+
+        final CompletableFuture<Listing> first = pcloud.async().listFolder(5);
+        final CompletableFuture<Listing> second = pcloud.async().listFolder(5);
+        // Cancelling a caller's future does not cancel the shared call
+        first.cancel(true);
+        assertFalse(call.isCancelled());
+        call.complete(listing);
+        assertSame(listing, second.get());
+        verify(async, times(1)).listFolder(5);
+
+        // Blocking calls that are started later are not shared with a completed call
+        when(delegate.listFolder(5)).thenReturn(listing);
+        assertSame(listing, pcloud.listFolder(5));
+        verify(delegate).listFolder(5);
+    }
+}
@@ -0,0 +1,82 @@
+package com.fathzer.sync4j.pcloud.internal.api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.pcloud.sdk.ApiError;
+
+class ListingParserTest {
+    private static final String LISTING = """
+            {"result": 0, "metadata": {
+                "name": "photos", "created": 1000, "modified": 2000, "isfolder": true, "folderid": 12, "parentfolderid": 0, "icon": "folder",
+                "contents": [
+                    {"name": "a.jpg", "created": "Thu, 21 Mar 2013 18:31:46 +0000", "modified": 3000, "isfolder": false, "fileid": 5,
+                     "parentfolderid": 12, "size": 1024, "hash": 18446744073709551615, "thumb": true},
+                    {"name": "sub", "created": 4000, "modified": 5000, "isfolder": true, "folderid": 13, "parentfolderid": 12,
+                     "contents": [
+                        {"name": "b.txt", "created": 6000, "modified": 7000, "isfolder": false, "fileid": 6, "parentfolderid": 13, "size": 3, "hash": 42}
+                     ]}
+                ]
+            }}
+            """;
+
+    @Test
+    void test() throws IOException, ApiError {
+        final List<Metadata> entries = new ArrayList<>();
+        ListingParser.parse(new StringReader(LISTING), entries::add);
+        assertEquals(List.of(
+                new Metadata(5, false, 12, "a.jpg", 1024, 1363890706000L, 3000000, -1),
+                new Metadata(6, false, 13, "b.txt", 3, 6000000, 7000000, 42),
+                new Metadata(13, true, 12, "sub", 0, 4000000, 5000000, 0),
+                new Metadata(12, true, 0, "photos", 0, 1000000, 2000000, 0)), entries);
+    }
+
+    @Test
+    void testMetadataArray() throws IOException, ApiError {
+        final String upload = """
+                {"result": 0, "fileids": [5, 6], "metadata": [
+                    {"name": "a.txt", "created": 1, "modified": 2, "isfolder": false, "fileid": 5, "parentfolderid": 12, "size": 4, "hash": 7},
+                    {"name": "b.txt", "created": 3, "modified": 4, "isfolder": false, "fileid": 6, "parentfolderid": 12, "size": 5, "hash": 8}
+                ]}
+                """;
+        final List<Metadata> entries = new ArrayList<>();
+        ListingParser.parse(new StringReader(upload), entries::add);
+        assertEquals(List.of(
+                new Metadata(5, false, 12, "a.txt", 4, 1000, 2000, 7),
+                new Metadata(6, false, 12, "b.txt", 5, 3000, 4000, 8)), entries);
+    }
+
+    @Test
+    void testFields() throws IOException, ApiError {
+        final String checksum = "{\"result\": 0, \"sha1\": \"abc\", \"metadata\": {\"name\": \"a.txt\"}, \"md5\": \"def\"}";
+        final List<String> fields = new ArrayList<>();
+        ListingParser.parseFields(new StringReader(checksum), (name, json) -> {
+            if (name.equals("metadata")) {
+                json.skipValue();
+                fields.add(name);
+            } else {
+                fields.add(name + "=" + json.nextString());
+            }
+        });
+        assertEquals(List.of("sha1=abc", "metadata", "md5=def"), fields);
+
+        final StringReader error = new StringReader("{\"result\": 2009, \"error\": \"File not found.\", \"sha1\": \"abc\"}");
+        assertEquals(2009, assertThrows(ApiError.class, () -> ListingParser.parseFields(error, (name, json) -> json.skipValue())).errorCode());
+    }
+
+    @Test
+    void testErrors() {
+        final StringReader error = new StringReader("{\"result\": 2005, \"error\": \"Directory does not exist.\"}");
+        final ApiError apiError = assertThrows(ApiError.class, () -> ListingParser.parse(error, m -> {}));
+        assertEquals(2005, apiError.errorCode());
+
+        final StringReader invalid = new StringReader("{\"result\": 0, \"metadata\": {\"folderid\": \"x\"}}");
+        assertThrows(IOException.class, () -> ListingParser.parse(invalid, m -> {}));
+    }
+}
@@ -1,13 +1,23 @@
 package com.fathzer.sync4j.pcloud.internal.api;
 
 import static org.junit.jupiter.api.Assertions.*;
-import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 import org.junit.jupiter.api.Test;
 
@@ -15,43 +25,57 @@ import com.fathzer.sync4j.pcloud.PCloudProvider;
 import com.fathzer.sync4j.pcloud.Zone;
 import com.pcloud.sdk.ApiClient;
 import com.pcloud.sdk.ApiError;
-import com.pcloud.sdk.Call;
-import com.pcloud.sdk.RemoteEntry;
-import com.pcloud.sdk.RemoteFile;
-import com.pcloud.sdk.RemoteFolder;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
 
 class PCloudAPITest {
     @Test
-    @SuppressWarnings("unchecked")
-    void testGet() throws IOException, ApiError {
+    void testGet() throws IOException {
         ApiClient mockApiClient = mock(ApiClient.class);
-        Call<RemoteFile> mockFileCall = mock(Call.class);
 
         // Map of paths to error codes
         Map<String, Integer> pathToErrorCode = Map.of(
                 "/titi.txt", 2055,
                 "/toto", 2002,
                 "/toto/titi.txt", 2055,
-                "/toto/toto.txt", 2002);
-
-        // Setup the mock to throw appropriate errors based on the path
-        when(mockApiClient.loadFile(anyString())).thenAnswer(invocation -> {
-            String path = invocation.getArgument(0);
-            Integer errorCode = pathToErrorCode.get(path);
-            when(mockFileCall.execute()).thenThrow(new ApiError(errorCode, "File not found: " + path));
-            return mockFileCall;
-        });
-
-        // Setup mock for root folder
-        Call<RemoteFolder> mockFolderCall = mock(Call.class);
-        RemoteFolder mockRootFolder = mock(RemoteFolder.class);
-        when(mockApiClient.loadFolder(0L)).thenReturn(mockFolderCall);
-        when(mockFolderCall.execute()).thenReturn(mockRootFolder);
-
-        try (PCloudAPI api = new PCloudAPI(mockApiClient, null, null, null)) {
+                "/toto/toto.txt", 2002,
+                "/folder", 0);
+
+        // Setup the HTTP client to return appropriate errors based on the path
+        OkHttpClient httpClient = new OkHttpClient.Builder().addInterceptor(chain -> {
+            Request request = chain.request();
+            String json;
+            if ("/listfolder".equals(request.url().encodedPath())) {
+                // Root folder
+                assertEquals("0", request.url().queryParameter("folderid"));
+                json = "{\"result\":0,\"metadata\":{\"isfolder\":true,\"folderid\":0,\"name\":\"/\",\"created\":1,\"modified\":2,\"contents\":[]}}";
+                return new Response.Builder().request(request).protocol(Protocol.HTTP_1_1).code(200).message("OK")
+                        .body(ResponseBody.create(json, MediaType.get("application/json"))).build();
+            }
+            assertEquals("/stat", request.url().encodedPath());
+            String path = request.url().queryParameter("path");
+            int errorCode = pathToErrorCode.get(path);
+            json = errorCode == 0 ?
+                    "{\"result\":0,\"metadata\":{\"isfolder\":true,\"folderid\":5,\"parentfolderid\":0,\"name\":\"folder\",\"created\":1,\"modified\":2}}" :
+                    "{\"result\":" + errorCode + ",\"error\":\"File not found: " + path + "\"}";
+            return new Response.Builder().request(request).protocol(Protocol.HTTP_1_1).code(200).message("OK")
+                    .body(ResponseBody.create(json, MediaType.get("application/json"))).build();
+        }).build();
+
+        try (PCloudAPI api = new PCloudAPI(mockApiClient, URI.create("https://api.example.com/"), "token", httpClient)) {
             // Test root folder
-            RemoteEntry root = api.get(PCloudProvider.ROOT_PATH);
-            assertSame(mockRootFolder, root);
+            Metadata root = api.get(PCloudProvider.ROOT_PATH);
+            assertEquals(new Metadata(0, true, 0, "/", 0, 1000, 2000, 0), root);
+
+            // Folders are resolved by a single request
+            assertEquals(new Metadata(5, true, 0, "folder", 0, 1000, 2000, 0), api.get("/folder"));
 
             // Test error cases
             assertThrows(FileNotFoundException.class, () -> api.get("/titi.txt"));
@@ -63,6 +87,208 @@ class PCloudAPITest {
         }
     }
     
+    @Test
+    void testRequestThreads() throws Exception {
+        final List<HttpUrl> urls = new CopyOnWriteArrayList<>();
+        final Map<String, Thread> threads = new ConcurrentHashMap<>();
+        OkHttpClient httpClient = new OkHttpClient.Builder().addInterceptor(chain -> {
+            Request request = chain.request();
+            urls.add(request.url());
+            final String fileId = request.url().queryParameter("fileid");
+            threads.put(request.url().encodedPath() + (fileId == null ? "" : fileId), Thread.currentThread());
+            String json = switch (request.url().encodedPath()) {
+                case "/listfolder" -> "{\"result\":0,\"metadata\":{\"isfolder\":true,\"folderid\":5,\"name\":\"folder\",\"contents\":["
+                        + "{\"isfolder\":false,\"fileid\":6,\"parentfolderid\":5,\"name\":\"file\",\"size\":3}]}}";
+                case "/checksumfile" -> "7".equals(fileId) ? "{\"result\":0,\"sha1\":\"a\",\"md5\":\"b\",\"sha256\":\"c\"}"
+                        : "{\"result\":2009,\"error\":\"File not found.\"}";
+                default -> "{\"result\":0}";
+            };
+            return new Response.Builder().request(request).protocol(Protocol.HTTP_1_1).code(200).message("OK")
+                    .body(ResponseBody.create(json, MediaType.get("application/json"))).build();
+        }).build();
+
+        try (PCloudAPI api = new PCloudAPI(mock(ApiClient.class), URI.create("https://api.example.com/"), "token", httpClient)) {
+            final Thread current = Thread.currentThread();
+            // Blocking calls are executed by the dispatcher too
+            assertEquals(new Listing(new Metadata(5, true, 0, "folder", 0, 0, 0, 0), List.of(new Metadata(6, false, 5, "file", 3, 0, 0, 0))),
+                    api.listFolder(5));
+            assertNotSame(current, threads.get("/listfolder"));
+            // Only the fields read by the parser are requested
+            final HttpUrl url = urls.stream().filter(u -> u.encodedPath().equals("/listfolder")).findAny().orElseThrow();
+            assertEquals(ListingParser.FIELDS, url.queryParameter("filtermeta"));
+            final IOException e = assertThrows(IOException.class, () -> api.getHashes(6));
+            assertEquals(2009, ((ApiError) e.getCause()).errorCode());
+            assertNotSame(current, threads.get("/checksumfile6"));
+            api.delete(new Metadata(6, false, 5, "file", 3, 0, 0, 0));
+            assertNotSame(current, threads.get("/deletefile6"));
+
+            // The asynchronous interface fails with the exceptions of the blocking one
+            assertEquals(new FileHashes("a", "b", "c"), api.async().getHashes(7).get(10, TimeUnit.SECONDS));
+            final ExecutionException failure = assertThrows(ExecutionException.class, () -> api.async().getHashes(6).get(10, TimeUnit.SECONDS));
+            assertEquals(2009, ((ApiError) failure.getCause().getCause()).errorCode());
+
+            // Bulk hashes are enqueued in the dispatcher, failed files are missing from the result
+            threads.clear();
+            assertEquals(Map.of(7L, new FileHashes("a", "b", "c")), api.getHashes(List.of(6L, 7L), 2));
+            assertNotSame(current, threads.get("/checksumfile6"));
+            assertNotSame(current, threads.get("/checksumfile7"));
+        }
+    }
+
+    @Test
+    void testInterruptedBulkHashes() throws Exception {
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch cancelled = new CountDownLatch(2);
+        OkHttpClient httpClient = new OkHttpClient.Builder().addInterceptor(chain -> {
+            started.countDown();
+            // Never answers, the call is only ended by its cancellation
+            final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (!chain.call().isCanceled() && System.nanoTime() < end) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+            if (chain.call().isCanceled()) {
+                cancelled.countDown();
+            }
+            throw new IOException("Canceled");
+        }).build();
+
+        try (PCloudAPI api = new PCloudAPI(mock(ApiClient.class), URI.create("https://api.example.com/"), "token", httpClient)) {
+            final AtomicReference<IOException> failure = new AtomicReference<>();
+            final Thread caller = new Thread(() -> {
+                try {
+                    api.getHashes(List.of(6L, 7L, 8L), 2);
+                } catch (IOException e) {
+                    failure.set(e);
+                }
+            });
+            caller.start();
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            caller.interrupt();
+            caller.join(10000);
+            assertInstanceOf(InterruptedIOException.class, failure.get());
+            // The requests in flight are cancelled
+            assertTrue(cancelled.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void testDiff() throws Exception {
+        final List<HttpUrl> urls = new CopyOnWriteArrayList<>();
+        OkHttpClient httpClient = new OkHttpClient.Builder().addInterceptor(chain -> {
+            Request request = chain.request();
+            urls.add(request.url());
+            String json = request.url().queryParameter("diffid") == null ? "{\"result\":0,\"diffid\":10,\"entries\":[]}"
+                    : "{\"result\":0,\"entries\":[{\"event\":\"modifyuserinfo\",\"diffid\":11,\"time\":1363890706},"
+                    + "{\"event\":\"createfile\",\"diffid\":12,\"metadata\":{\"isfolder\":false,\"fileid\":6,\"parentfolderid\":5,"
+                    + "\"name\":\"file\",\"size\":3,\"hash\":7,\"path\":\"/folder/file\"}}],\"diffid\":12}";
+            return new Response.Builder().request(request).protocol(Protocol.HTTP_1_1).code(200).message("OK")
+                    .body(ResponseBody.create(json, MediaType.get("application/json"))).build();
+        }).build();
+
+        try (PCloudAPI api = new PCloudAPI(mock(ApiClient.class), URI.create("https://api.example.com/"), "token", httpClient)) {
+            // Without a diff id, only the id of the last event is returned
+            assertEquals(10, api.diff(0, true, e -> fail("Unexpected event")));
+            assertEquals("0", urls.get(0).queryParameter("last"));
+            assertNull(urls.get(0).queryParameter("block"));
+
+            final List<DiffEntry> entries = new ArrayList<>();
+            assertEquals(12, api.diff(10, true, entries::add));
+            assertEquals("10", urls.get(1).queryParameter("diffid"));
+            assertEquals("1", urls.get(1).queryParameter("block"));
+            assertEquals(List.of(new DiffEntry(11, "modifyuserinfo", null),
+                    new DiffEntry(12, "createfile", new Metadata(6, false, 5, "file", 3, 0, 0, 7))), entries);
+        }
+    }
+
+    @Test
+    void testCopy() throws IOException {
+        final List<HttpUrl> urls = new CopyOnWriteArrayList<>();
+        OkHttpClient httpClient = new OkHttpClient.Builder().addInterceptor(chain -> {
+            Request request = chain.request();
+            urls.add(request.url());
+            String json = "7".equals(request.url().queryParameter("fileid")) ?
+                    "{\"result\":0,\"metadata\":{\"isfolder\":false,\"fileid\":8,\"parentfolderid\":5,\"name\":\"copy\",\"size\":3,\"created\":1,\"modified\":2,\"hash\":9}}" :
+                    "{\"result\":2009,\"error\":\"File not found.\"}";
+            return new Response.Builder().request(request).protocol(Protocol.HTTP_1_1).code(200).message("OK")
+                    .body(ResponseBody.create(json, MediaType.get("application/json"))).build();
+        }).build();
+
+        try (PCloudAPI api = new PCloudAPI(mock(ApiClient.class), URI.create("https://api.example.com/"), "token", httpClient)) {
+            assertEquals(new Metadata(8, false, 5, "copy", 3, 1000, 2000, 9), api.copy(7, 5, "copy", 2500, 1500));
+            final HttpUrl url = urls.get(0);
+            assertEquals("/copyfile", url.encodedPath());
+            assertEquals("5", url.queryParameter("tofolderid"));
+            assertEquals("copy", url.queryParameter("toname"));
+            // Times are sent in seconds
+            assertEquals("2", url.queryParameter("mtime"));
+            assertEquals("1", url.queryParameter("ctime"));
+
+            final IOException e = assertThrows(IOException.class, () -> api.copy(6, 5, "copy", 2500, 1500));
+            assertEquals(2009, ((ApiError) e.getCause()).errorCode());
+        }
+    }
+
+    @Test
+    void testBatchUpload() throws IOException {
+        final List<String> responses = new CopyOnWriteArrayList<>(List.of(
+                "{\"result\":0,\"metadata\":[{\"isfolder\":false,\"fileid\":8,\"parentfolderid\":5,\"name\":\"b\",\"size\":2},"
+                + "{\"isfolder\":false,\"fileid\":7,\"parentfolderid\":5,\"name\":\"a\",\"size\":1}]}",
+                // Partial response
+                "{\"result\":0,\"metadata\":[{\"isfolder\":false,\"fileid\":7,\"parentfolderid\":5,\"name\":\"a\",\"size\":1}]}",
+                "{\"result\":2008,\"error\":\"User is over quota.\"}"));
+        final List<String> bodies = new CopyOnWriteArrayList<>();
+        OkHttpClient httpClient = new OkHttpClient.Builder().addInterceptor(chain -> {
+            Request request = chain.request();
+            assertEquals("/uploadfile", request.url().encodedPath());
+            final Buffer body = new Buffer();
+            request.body().writeTo(body);
+            bodies.add(body.readUtf8());
+            return new Response.Builder().request(request).protocol(Protocol.HTTP_1_1).code(200).message("OK")
+                    .body(ResponseBody.create(responses.remove(0), MediaType.get("application/json"))).build();
+        }).build();
+
+        final List<UploadContent> files = List.of(
+                new UploadContent("a", () -> new ByteArrayInputStream("1".getBytes()), 1),
+                new UploadContent("b", () -> new ByteArrayInputStream("22".getBytes()), 2));
+        try (PCloudAPI api = new PCloudAPI(mock(ApiClient.class), URI.create("https://api.example.com/"), "token", httpClient)) {
+            // Results are in the order of the files, whatever the order of the response
+            assertEquals(List.of(new Metadata(7, false, 5, "a", 1, 0, 0, 0), new Metadata(8, false, 5, "b", 2, 0, 0, 0)),
+                    api.upload(5, files, 2500, 1500));
+            final String body = bodies.get(0);
+            assertTrue(body.contains("name=\"nopartial\""), "Partial uploads should be refused");
+            assertTrue(body.contains("filename=\"a\""));
+            assertTrue(body.contains("filename=\"b\""));
+            assertTrue(body.contains("\r\n\r\n22\r\n"));
+
+            // A response that misses a file fails the whole batch
+            final IOException missing = assertThrows(IOException.class, () -> api.upload(5, files, 2500, 1500));
+            assertTrue(missing.getMessage().contains("missing metadata of b"), missing.getMessage());
+
+            final IOException error = assertThrows(IOException.class, () -> api.upload(5, files, 2500, 1500));
+            assertEquals(2008, ((ApiError) error.getCause()).errorCode());
+        }
+    }
+
+    @Test
+    void testGetAccount() throws IOException {
+        OkHttpClient httpClient = new OkHttpClient.Builder().addInterceptor(chain -> {
+            Request request = chain.request();
+            assertEquals("/userinfo", request.url().encodedPath());
+            final String json = "{\"result\":0,\"userid\":123,\"email\":\"user@example.com\",\"emailverified\":true,"
+                    + "\"premium\":false,\"quota\":10,\"usedquota\":1,\"language\":\"en\"}";
+            return new Response.Builder().request(request).protocol(Protocol.HTTP_1_1).code(200).message("OK")
+                    .body(ResponseBody.create(json, MediaType.get("application/json"))).build();
+        }).build();
+
+        // The account is identified by the API host and the user id
+        try (PCloudAPI api = new PCloudAPI(Zone.US, "token", httpClient)) {
+            assertEquals("api.pcloud.com/123", api.getAccount());
+        }
+        try (PCloudAPI api = new PCloudAPI(Zone.EU, "token", httpClient)) {
+            assertEquals("eapi.pcloud.com/123", api.getAccount());
+        }
+    }
+
     @Test
     void testConstructor() {
         assertThrows(NullPointerException.class, () -> new PCloudAPI(null, "token"));
@@ -0,0 +1,78 @@
+package com.fathzer.sync4j.pcloud.internal.api;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.pcloud.sdk.ApiError;
+
+/**
+ * Compares the allocations made by parsing an upload response into a Gson tree (what PCloudAPI did) and with {@link ListingParser}.
+ * <br>Usage: ParserBenchmark [files per response] [iterations]
+ */
+public class ParserBenchmark {
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws IOException, ApiError {
+        final int files = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        final String response = response(files);
+        for (int run = 1; run <= 3; run++) {
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            long count = 0;
+            for (int i = 0; i < iterations; i++) {
+                count += tree(response);
+            }
+            report("Tree", run, count, System.nanoTime() - start, allocatedBytes() - allocated);
+
+            allocated = allocatedBytes();
+            start = System.nanoTime();
+            count = 0;
+            for (int i = 0; i < iterations; i++) {
+                final long[] entries = new long[1];
+                ListingParser.parse(new StringReader(response), entry -> entries[0]++);
+                count += entries[0];
+            }
+            report("Streaming", run, count, System.nanoTime() - start, allocatedBytes() - allocated);
+        }
+    }
+
+    private static long tree(String response) {
+        final JsonObject json = JsonParser.parseString(response).getAsJsonObject();
+        final JsonArray metadata = json.getAsJsonArray("metadata");
+        long count = 0;
+        for (JsonElement entry : metadata) {
+            final JsonObject file = entry.getAsJsonObject();
+            if (file.get("fileid").getAsLong() >= 0 && !file.get("name").getAsString().isEmpty()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static String response(int files) {
+        final StringBuilder builder = new StringBuilder("{\"result\": 0, \"metadata\": [");
+        for (int i = 0; i < files; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"name\": \"file-").append(i).append(".txt\", \"created\": 1363890706, \"modified\": 1363890707, ")
+                    .append("\"isfolder\": false, \"fileid\": ").append(1000 + i).append(", \"parentfolderid\": 12, \"size\": ").append(i)
+                    .append(", \"hash\": 18446744073709551615, \"contenttype\": \"text/plain\", \"icon\": \"document\", \"category\": 4}");
+        }
+        return builder.append("]}").toString();
+    }
+
+    private static void report(String name, int run, long count, long nanos, long allocated) {
+        System.out.println(name + " #" + run + ": " + count + " entries in " + nanos / 1000000 + "ms, " + allocated / Math.max(1, count) + "B/entry");
+    }
+
+    private static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
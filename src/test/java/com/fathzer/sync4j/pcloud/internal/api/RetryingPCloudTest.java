@@ -0,0 +1,211 @@
+package com.fathzer.sync4j.pcloud.internal.api;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+
+import com.fathzer.sync4j.pcloud.RetryPolicy;
+import com.fathzer.sync4j.pcloud.internal.api.RetryingPCloud.Failure;
+import com.pcloud.sdk.ApiError;
+
+import okhttp3.Call;
+
+class RetryingPCloudTest {
+    private static final RetryPolicy POLICY = new RetryPolicy(3, Duration.ofMillis(10), Duration.ofMillis(100), 4);
+    private static final Metadata FOLDER = new Metadata(1, true, 0, "folder", 0, 0, 0, 0);
+
+    @Test
+    void testClassify() {
+        assertEquals(Failure.FATAL, RetryingPCloud.classify(new FileNotFoundException()));
+        assertEquals(Failure.FATAL, RetryingPCloud.classify(new AuthenticationException("bad token")));
+        assertEquals(Failure.THROTTLED, RetryingPCloud.classify(new HttpStatusException(429, "")));
+        assertEquals(Failure.SERVER, RetryingPCloud.classify(new HttpStatusException(502, "")));
+        assertEquals(Failure.FATAL, RetryingPCloud.classify(new HttpStatusException(400, "")));
+        assertEquals(Failure.THROTTLED, RetryingPCloud.classify(new IOException(new ApiError(4000, ""))));
+        assertEquals(Failure.SERVER, RetryingPCloud.classify(new IOException(new ApiError(5000, ""))));
+        assertEquals(Failure.FATAL, RetryingPCloud.classify(new IOException(new ApiError(2004, ""))));
+        assertEquals(Failure.NETWORK, RetryingPCloud.classify(new SocketTimeoutException()));
+        assertEquals(Failure.FATAL, RetryingPCloud.classify(new java.io.InterruptedIOException()));
+        assertEquals(Failure.NETWORK, RetryingPCloud.classify(new IOException("Connection reset")));
+    }
+
+    @Test
+    void testRetries() throws IOException {
+        final PCloud pcloud = mock(PCloud.class);
+        final List<Long> sleeps = new ArrayList<>();
+        final RetryingPCloud retrying = new RetryingPCloud(pcloud, POLICY, sleeps::add);
+
+        when(pcloud.get(anyString())).thenThrow(new HttpStatusException(429, "Too many requests")).thenReturn(FOLDER);
+        assertSame(FOLDER, retrying.get("/folder"));
+        assertEquals(1, sleeps.size());
+        assertTrue(sleeps.get(0) <= 10);
+        assertEquals(2, retrying.getLimiter().getLimit(), "Throttling should halve the limit");
+
+        // Non idempotent calls are not retried after network errors
+        when(pcloud.mkdir(anyLong(), anyString())).thenThrow(new IOException("Connection reset"));
+        assertThrows(IOException.class, () -> retrying.mkdir(1, "sub"));
+        verify(pcloud, times(1)).mkdir(anyLong(), anyString());
+
+        // But they are retried after server errors
+        reset(pcloud);
+        when(pcloud.mkdir(anyLong(), anyString())).thenThrow(new IOException(new ApiError(5000, "Internal error"))).thenReturn(FOLDER);
+        assertSame(FOLDER, retrying.mkdir(1, "sub"));
+
+        // Give up after max attempts
+        when(pcloud.getHashes(anyLong())).thenThrow(new IOException("Connection reset"));
+        assertThrows(IOException.class, () -> retrying.getHashes(5));
+        verify(pcloud, times(3)).getHashes(anyLong());
+
+        // Fatal errors are never retried
+        when(pcloud.get("/missing")).thenThrow(new FileNotFoundException());
+        assertThrows(FileNotFoundException.class, () -> retrying.get("/missing"));
+        verify(pcloud, times(1)).get("/missing");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testStreamingListing() throws IOException {
+        final PCloud pcloud = mock(PCloud.class);
+        final RetryingPCloud retrying = new RetryingPCloud(pcloud, POLICY, millis -> {});
+        final Consumer<Metadata> consumer = mock(Consumer.class);
+
+        // Failure before any entry is emitted is retried
+        doThrow(new IOException("Connection reset")).doAnswer(invocation -> {
+            invocation.getArgument(3, Consumer.class).accept(FOLDER);
+            return null;
+        }).when(pcloud).listFolder(anyLong(), anyBoolean(), anyBoolean(), any());
+        retrying.listFolder(1, true, consumer);
+        verify(consumer).accept(FOLDER);
+
+        // Failure after an entry was emitted is not
+        reset(pcloud);
+        doAnswer(invocation -> {
+            invocation.getArgument(3, Consumer.class).accept(FOLDER);
+            throw new IOException("Connection reset");
+        }).when(pcloud).listFolder(anyLong(), anyBoolean(), anyBoolean(), any());
+        assertThrows(IOException.class, () -> retrying.listFolder(1, true, consumer));
+        verify(pcloud, times(1)).listFolder(anyLong(), anyBoolean(), anyBoolean(), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testDiff() throws IOException, InterruptedException {
+        final PCloud pcloud = mock(PCloud.class);
+        final RetryingPCloud retrying = new RetryingPCloud(pcloud, new RetryPolicy(3, Duration.ofMillis(10), Duration.ofMillis(100), 1), millis -> {});
+        final List<DiffEntry> entries = new ArrayList<>();
+        final DiffEntry created = new DiffEntry(11, "createfolder", FOLDER);
+
+        // A failed call is resumed after the last event sent
+        doAnswer(invocation -> {
+            invocation.getArgument(2, Consumer.class).accept(created);
+            throw new IOException("Connection reset");
+        }).when(pcloud).diff(eq(10L), anyBoolean(), any(), any());
+        when(pcloud.diff(eq(11L), anyBoolean(), any(), any())).thenReturn(11L);
+
+        // The long polling call does not hold the only call slot
+        final long ticket = retrying.getLimiter().acquire();
+        try {
+            assertEquals(11, retrying.diff(10, true, entries::add));
+        } finally {
+            retrying.getLimiter().release(ticket, false);
+        }
+        assertEquals(List.of(created), entries);
+
+        // A cancelled call is not retried
+        final Call call = mock(Call.class);
+        when(call.isCanceled()).thenReturn(true);
+        doAnswer(invocation -> {
+            invocation.getArgument(3, Consumer.class).accept(call);
+            throw new IOException("Canceled");
+        }).when(pcloud).diff(eq(12L), anyBoolean(), any(), any());
+        final List<Call> calls = new ArrayList<>();
+        assertThrows(IOException.class, () -> retrying.diff(12, true, entries::add, calls::add));
+        assertEquals(List.of(call), calls);
+        verify(pcloud, times(1)).diff(eq(12L), anyBoolean(), any(), any());
+    }
+
+    @Test
+    void testBulkHashes() throws Exception {
+        final PCloud pcloud = mock(PCloud.class);
+        final AsyncPCloud async = mock(AsyncPCloud.class);
+        when(pcloud.async()).thenReturn(async);
+        final RetryingPCloud retrying = new RetryingPCloud(pcloud, new RetryPolicy(3, Duration.ofMillis(10), Duration.ofMillis(100), 1), millis -> {});
+        final FileHashes hashes1 = new FileHashes("a", null, null);
+        final FileHashes hashes2 = new FileHashes("b", null, null);
+        when(async.getHashes(1L)).thenReturn(CompletableFuture.completedFuture(hashes1));
+        when(async.getHashes(2L)).thenReturn(CompletableFuture.failedFuture(new HttpStatusException(429, "Too many requests")),
+                CompletableFuture.completedFuture(hashes2));
+        when(async.getHashes(3L)).thenReturn(CompletableFuture.failedFuture(new FileNotFoundException()));
+
+        // Each checksum call waits for a call slot
+        final long ticket = retrying.getLimiter().acquire();
+        final CompletableFuture<Map<Long, FileHashes>> result = CompletableFuture.supplyAsync(() -> {
+            try {
+                return retrying.getHashes(List.of(1L, 2L, 3L), 4);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(result.isDone());
+        verify(async, never()).getHashes(anyLong());
+        retrying.getLimiter().release(ticket, false);
+
+        // Only the throttled file is retried, the failed ones are missing from the result
+        assertEquals(Map.of(1L, hashes1, 2L, hashes2), result.get(10, TimeUnit.SECONDS));
+        verify(async, times(1)).getHashes(1L);
+        verify(async, times(2)).getHashes(2L);
+        verify(async, times(1)).getHashes(3L);
+        verify(pcloud, never()).getHashes(anyCollection(), anyInt());
+    }
+
+    @Test
+    void testAsync() throws Exception {
+        final PCloud pcloud = mock(PCloud.class);
+        final AsyncPCloud async = mock(AsyncPCloud.class);
+        when(pcloud.async()).thenReturn(async);
+        final RetryingPCloud retrying = new RetryingPCloud(pcloud, new RetryPolicy(3, Duration.ofMillis(10), Duration.ofMillis(100), 2), millis -> {});
+
+        // Throttled calls are retried after a delay, without blocking the caller
+        when(async.get("/folder")).thenReturn(CompletableFuture.failedFuture(new HttpStatusException(429, "Too many requests")),
+                CompletableFuture.completedFuture(FOLDER));
+        assertSame(FOLDER, retrying.async().get("/folder").get(10, TimeUnit.SECONDS));
+        assertEquals(1, retrying.getLimiter().getLimit(), "Throttling should halve the limit");
+
+        // Non idempotent calls are not retried after network errors
+        when(async.mkdir(anyLong(), anyString())).thenReturn(CompletableFuture.failedFuture(new IOException("Connection reset")));
+        final ExecutionException e = assertThrows(ExecutionException.class, () -> retrying.async().mkdir(1, "sub").get(10, TimeUnit.SECONDS));
+        assertEquals("Connection reset", e.getCause().getMessage());
+        verify(async, times(1)).mkdir(anyLong(), anyString());
+
+        // A call waits for a slot without blocking, cancelling it withdraws the request
+        final RetryingPCloud limited = new RetryingPCloud(pcloud, new RetryPolicy(3, Duration.ofMillis(10), Duration.ofMillis(100), 1), millis -> {});
+        final long ticket = limited.getLimiter().acquire();
+        final CompletableFuture<Listing> listing = limited.async().listFolder(1);
+        assertFalse(listing.isDone());
+        listing.cancel(true);
+        limited.getLimiter().release(ticket, false);
+        verify(async, never()).listFolder(anyLong());
+        limited.getLimiter().release(limited.getLimiter().acquire(), false);
+    }
+}
@@ -0,0 +1,75 @@
+package com.fathzer.sync4j.pcloud.test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+
+import com.fathzer.sync4j.Entry;
+import com.fathzer.sync4j.Folder;
+import com.fathzer.sync4j.pcloud.PCloudProvider;
+import com.fathzer.sync4j.pcloud.Zone;
+
+/**
+ * Measures the memory used by a preloaded tree and the allocations made by listing it.
+ * <br>Usage: PreloadBenchmark accessToken path [parallelism]
+ */
+public class PreloadBenchmark {
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        final String accessToken = args[0];
+        final String path = args[1];
+        try (PCloudProvider pcloud = new PCloudProvider(Zone.US, accessToken, "")) {
+            if (args.length > 2) {
+                pcloud.setPreloadParallelism(Integer.parseInt(args[2]));
+            }
+            final Folder folder = pcloud.get(path).asFolder();
+            final long heapBefore = usedHeap();
+            long start = System.currentTimeMillis();
+            folder.preload();
+            System.out.println("Preloaded in " + (System.currentTimeMillis() - start) + "ms");
+
+            long count = 0;
+            for (int i = 1; i <= 3; i++) {
+                start = System.currentTimeMillis();
+                final long allocated = allocatedBytes();
+                final long[] lists = new long[1];
+                count = walk(folder, lists);
+                final long walkAllocated = allocatedBytes() - allocated;
+                // The first walk creates the entries, the next ones should reuse them
+                System.out.println("Walk #" + i + ": " + count + " entries in " + (System.currentTimeMillis() - start) + "ms, "
+                        + walkAllocated + "B allocated (" + (walkAllocated / Math.max(1, count)) + "B/entry, "
+                        + (walkAllocated / Math.max(1, lists[0])) + "B/list())");
+            }
+            // Measured after the walks, so that anything the walks leave reachable from the folder is counted
+            final long heapAfter = usedHeap();
+            System.out.println("Retained heap after walks: " + (heapAfter - heapBefore) / Math.max(1, count) + "B/entry");
+            Reference.reachabilityFence(folder);
+        }
+    }
+
+    private static long walk(Folder folder, long[] lists) throws IOException {
+        long count = 0;
+        lists[0]++;
+        for (Entry entry : folder.list()) {
+            count++;
+            if (entry.isFolder()) {
+                count += walk(entry.asFolder(), lists);
+            }
+        }
+        return count;
+    }
+
+    private static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -1,14 +1,56 @@
 package com.pcloud.sdk.internal;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Date;
 
 import org.junit.jupiter.api.Test;
 
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.pcloud.sdk.ApiClient;
+import com.pcloud.sdk.RemoteFile;
+
 class JsonUtilsTest {
 
+	private static final JsonObject JSON = JsonParser.parseString("""
+			{"result": 0, "metadata": [{"name": "a.txt", "created": "Thu, 21 Mar 2013 18:31:46 +0000",
+			 "modified": "Thu, 21 Mar 2013 18:31:47 +0000", "isfolder": false, "fileid": 5, "parentfolderid": 12, "size": 4}]}
+			""").getAsJsonObject();
+
 	@Test
-	void test() {
-		fail("Not yet implemented");
+	void test() throws IOException {
+		final ApiClient client = mock(ApiClient.class);
+		final RemoteFile file = JsonUtils.buildFile(JSON, client);
+		assertEquals("a.txt", file.name());
+		assertEquals(5, file.fileId());
+		assertEquals(4, file.size());
+		assertEquals(new Date(1363890707000L), file.lastModified());
+		// The cached Gson instance gives the same result
+		assertEquals(file.lastModified(), JsonUtils.buildFile(JSON, client).lastModified());
+
+		assertThrows(IOException.class, () -> JsonUtils.buildFile(JsonParser.parseString("{\"result\": 0}").getAsJsonObject(), client));
 	}
 
+	@Test
+	void testClients() throws Exception {
+		// Alternating clients
+		final ApiClient other = mock(ApiClient.class);
+		assertEquals(5, JsonUtils.buildFile(JSON, mock(ApiClient.class)).fileId());
+		assertEquals(5, JsonUtils.buildFile(JSON, other).fileId());
+		assertEquals(5, JsonUtils.buildFile(JSON, mock(ApiClient.class)).fileId());
+		assertEquals(5, JsonUtils.buildFile(JSON, other).fileId());
+
+		// The cached Gson instance doesn't prevent the client from being collected
+		final WeakReference<ApiClient> client = new WeakReference<>(mock(ApiClient.class));
+		JsonUtils.buildFile(JSON, client.get());
+		for (int i = 0; i < 50 && client.get() != null; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		assertNull(client.get());
+	}
 }